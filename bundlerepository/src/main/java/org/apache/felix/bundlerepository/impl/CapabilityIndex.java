@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Repository;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+
+/**
+ * Index of the capabilities of the resources of a repository.
+ *
+ * Capabilities are grouped by name (the namespace) and, for the package,
+ * bundle and service namespaces, by the value of their main attribute, so
+ * that a requirement filtering on that attribute is only checked against
+ * the capabilities which may satisfy it instead of all the capabilities
+ * of the repository.
+ *
+ * The index is built from a snapshot of the resources of the repository
+ * and must be rebuilt when the repository changes, see {@link #isValid(Repository)}.
+ */
+public class CapabilityIndex
+{
+    private static final Map KEYS = new HashMap();
+
+    static
+    {
+        KEYS.put(Capability.PACKAGE, Capability.PACKAGE);
+        KEYS.put(Capability.BUNDLE, Resource.SYMBOLIC_NAME);
+        KEYS.put(Capability.SERVICE, Capability.SERVICE);
+    }
+
+    private final long m_lastModified;
+    private final Resource[] m_resources;
+    // Map of capability name to Namespace
+    private final Map m_namespaces = new HashMap();
+
+    public CapabilityIndex(Repository repository)
+    {
+        this(repository.getResources(), repository.getLastModified());
+    }
+
+    public CapabilityIndex(Resource[] resources, long lastModified)
+    {
+        m_resources = resources;
+        m_lastModified = lastModified;
+        for (int resIdx = 0; (resources != null) && (resIdx < resources.length); resIdx++)
+        {
+            Capability[] caps = resources[resIdx].getCapabilities();
+            for (int capIdx = 0; (caps != null) && (capIdx < caps.length); capIdx++)
+            {
+                Namespace ns = (Namespace) m_namespaces.get(caps[capIdx].getName());
+                if (ns == null)
+                {
+                    ns = new Namespace((String) KEYS.get(caps[capIdx].getName()));
+                    m_namespaces.put(caps[capIdx].getName(), ns);
+                }
+                ns.add(new ResourceCapabilityImpl(resources[resIdx], caps[capIdx]));
+            }
+        }
+    }
+
+    /**
+     * Checks if this index still reflects the resources of the given repository.
+     */
+    public boolean isValid(Repository repository)
+    {
+        if (repository.getLastModified() != m_lastModified)
+        {
+            return false;
+        }
+        Resource[] resources = repository.getResources();
+        if (resources == m_resources)
+        {
+            return true;
+        }
+        if (resources == null || m_resources == null || resources.length != m_resources.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < resources.length; i++)
+        {
+            if (resources[i] != m_resources[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Resource[] getResources()
+    {
+        return m_resources;
+    }
+
+    /**
+     * Returns the capabilities which may satisfy the given requirement, in the
+     * order of the resources of the repository.  The returned capabilities
+     * still need to be checked with {@link Requirement#isSatisfied(Capability)}.
+     *
+     * @param req the requirement
+     * @return an unmodifiable list of {@link ResourceCapability}
+     */
+    public List getCandidates(Requirement req)
+    {
+        Namespace ns = (Namespace) m_namespaces.get(req.getName());
+        if (ns == null)
+        {
+            return Collections.EMPTY_LIST;
+        }
+        return ns.getCandidates(req.getFilter());
+    }
+
+    /**
+     * Extracts the value required for the given attribute from a filter, if the
+     * filter is either an equality on the attribute, or a conjunction with such
+     * an equality.  In any other case the whole namespace must be searched.
+     *
+     * @return the required value, or <code>null</code>
+     */
+    static String getRequiredValue(String filter, String attribute)
+    {
+        if (filter == null || attribute == null)
+        {
+            return null;
+        }
+        String prefix = "(" + attribute + "=";
+        if (filter.startsWith(prefix) && filter.indexOf('(', 1) < 0)
+        {
+            return getValue(filter, prefix.length(), filter.length() - 1);
+        }
+        if (!filter.startsWith("(&"))
+        {
+            return null;
+        }
+        // Look for the attribute among the operands of the conjunction
+        int depth = 0;
+        for (int i = 2; i < filter.length(); i++)
+        {
+            char c = filter.charAt(i);
+            if (c == '\\')
+            {
+                i++;
+            }
+            else if (c == '(')
+            {
+                if (depth == 0 && filter.regionMatches(true, i, prefix, 0, prefix.length()))
+                {
+                    int end = filter.indexOf(')', i);
+                    String value = end > 0 ? getValue(filter, i + prefix.length(), end) : null;
+                    if (value != null)
+                    {
+                        return value;
+                    }
+                }
+                depth++;
+            }
+            else if (c == ')')
+            {
+                depth--;
+            }
+        }
+        return null;
+    }
+
+    private static String getValue(String filter, int start, int end)
+    {
+        String value = filter.substring(start, end);
+        // Escaped characters and wildcards are not handled
+        if (value.length() == 0 || value.indexOf('\\') >= 0 || value.indexOf('*') >= 0
+            || value.indexOf('(') >= 0)
+        {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * The capabilities of a given name.
+     */
+    private static class Namespace
+    {
+        private final String m_key;
+        private final List m_all = new ArrayList();
+        // Map of attribute value to the list of capabilities with this value
+        private final Map m_byValue = new HashMap();
+        // Whether some capabilities can not be indexed by value
+        private boolean m_unkeyed = false;
+
+        Namespace(String key)
+        {
+            m_key = key;
+        }
+
+        void add(ResourceCapability cap)
+        {
+            m_all.add(cap);
+            if (m_key == null)
+            {
+                return;
+            }
+            Object value = cap.getCapability().getPropertiesAsMap().get(m_key);
+            if (value instanceof String)
+            {
+                add(value, cap);
+            }
+            else if (value instanceof Collection)
+            {
+                for (Iterator it = ((Collection) value).iterator(); it.hasNext();)
+                {
+                    Object v = it.next();
+                    if (v instanceof String)
+                    {
+                        add(v, cap);
+                    }
+                    else
+                    {
+                        m_unkeyed = true;
+                    }
+                }
+            }
+            else
+            {
+                m_unkeyed = true;
+            }
+        }
+
+        private void add(Object value, ResourceCapability cap)
+        {
+            List l = (List) m_byValue.get(value);
+            if (l == null)
+            {
+                l = new ArrayList();
+                m_byValue.put(value, l);
+            }
+            // A collection may hold the same value twice
+            if (l.isEmpty() || l.get(l.size() - 1) != cap)
+            {
+                l.add(cap);
+            }
+        }
+
+        List getCandidates(String filter)
+        {
+            // Capabilities which can not be indexed would have to be merged
+            // in the order of the repository, so just check all of them
+            String value = m_unkeyed ? null : getRequiredValue(filter, m_key);
+            if (value == null)
+            {
+                return Collections.unmodifiableList(m_all);
+            }
+            List l = (List) m_byValue.get(value);
+            return l != null ? Collections.unmodifiableList(l) : Collections.EMPTY_LIST;
+        }
+    }
+}
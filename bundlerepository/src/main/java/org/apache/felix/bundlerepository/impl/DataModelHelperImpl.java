@@ -88,15 +88,24 @@ public class DataModelHelperImpl implements DataModelHelper
     }
 
     public Repository repository(final URL url) throws Exception
+    {
+        return repository(url, FileUtil.openURL(url));
+    }
+
+    /**
+     * Parses the repository read from the given stream, which is closed.
+     * @param url the URL of the repository
+     * @param stream the content of the URL
+     */
+    RepositoryImpl repository(final URL url, InputStream stream) throws Exception
     {
         InputStream is = null;
-        BufferedReader br = null;
 
         try
         {
             if (url.getPath().endsWith(".zip"))
             {
-                ZipInputStream zin = new ZipInputStream(FileUtil.openURL(url));
+                ZipInputStream zin = new ZipInputStream(stream);
                 ZipEntry entry = zin.getNextEntry();
                 while (entry != null)
                 {
@@ -110,7 +119,7 @@ public class DataModelHelperImpl implements DataModelHelper
             }
             else
             {
-                is = FileUtil.openURL(url);
+                is = stream;
             }
 
             if (is != null)
@@ -129,10 +138,15 @@ public class DataModelHelperImpl implements DataModelHelper
         {
             try
             {
+                // Closing the zip stream closes the underlying stream
                 if (is != null)
                 {
                     is.close();
                 }
+                else
+                {
+                    stream.close();
+                }
             }
             catch (IOException ex)
             {
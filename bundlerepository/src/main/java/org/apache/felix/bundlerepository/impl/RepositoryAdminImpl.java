@@ -18,6 +18,7 @@
  */
 package org.apache.felix.bundlerepository.impl;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.AccessController;
@@ -27,11 +28,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.WeakHashMap;
 
-import org.apache.felix.bundlerepository.Capability;
 import org.apache.felix.bundlerepository.DataModelHelper;
 import org.apache.felix.bundlerepository.Requirement;
 import org.apache.felix.bundlerepository.Repository;
@@ -51,8 +54,11 @@ public class RepositoryAdminImpl implements RepositoryAdmin
     private final Logger m_logger;
     private final SystemRepositoryImpl m_system;
     private final LocalRepositoryImpl m_local;
-    private final DataModelHelper m_helper = new DataModelHelperImpl();
+    private final DataModelHelperImpl m_helper = new DataModelHelperImpl();
+    private final RepositoryCache m_cache;
     private Map m_repoMap = new HashMap();
+    // Map of repository to its CapabilityIndex, weak as any repository may be given to a resolver
+    private final Map m_indexes = new WeakHashMap();
     private boolean m_initialized = false;
 
     // Reusable comparator for sorting resources by name.
@@ -60,6 +66,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
 
     public static final String REPOSITORY_URL_PROP = "obr.repository.url";
     public static final String EXTERN_REPOSITORY_TAG = "extern-repositories";
+    public static final String REPOSITORY_CACHE_PROP = "obr.repository.cache";
 
     public RepositoryAdminImpl(BundleContext context, Logger logger)
     {
@@ -67,6 +74,11 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         m_logger = logger;
         m_system = new SystemRepositoryImpl(context, logger);
         m_local = new LocalRepositoryImpl(context, logger);
+
+        // Cache the parsed repositories unless disabled or there is no file system support
+        File cacheDir = "false".equalsIgnoreCase(context.getProperty(REPOSITORY_CACHE_PROP))
+            ? null : context.getDataFile("cache");
+        m_cache = (cacheDir != null) ? new RepositoryCache(cacheDir, m_helper, logger) : null;
     }
 
     public DataModelHelper getHelper()
@@ -112,10 +124,16 @@ public class RepositoryAdminImpl implements RepositoryAdmin
             {
                 public Object run() throws Exception
                 {
-                    return m_helper.repository(url);
+                    return (m_cache != null) ? m_cache.repository(url) : m_helper.repository(url);
                 }
             });
-            m_repoMap.put(url.toExternalForm(), repository);
+            Repository old = (Repository) m_repoMap.put(url.toExternalForm(), repository);
+            if (old != null)
+            {
+                m_indexes.remove(old);
+            }
+            // Index the capabilities once, when the repository is loaded
+            m_indexes.put(repository, new CapabilityIndex(repository));
 
             // resolve referrals
             hopCount--;
@@ -145,15 +163,22 @@ public class RepositoryAdminImpl implements RepositoryAdmin
     {
         initialize();
         
+        String key;
         try
         {
             URL url = new URL(uri);
-            return m_repoMap.remove(url.toExternalForm()) != null;
+            key = url.toExternalForm();
         }
         catch (MalformedURLException e)
         {
-            return m_repoMap.remove(uri) != null;
+            key = uri;
+        }
+        Repository repository = (Repository) m_repoMap.remove(key);
+        if (repository != null)
+        {
+            m_indexes.remove(repository);
         }
+        return repository != null;
     }
 
     public synchronized Repository[] listRepositories()
@@ -182,7 +207,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         {
             return resolver();
         }
-        return new ResolverImpl(m_context, repositories, m_logger);
+        return new ResolverImpl(m_context, repositories, this, m_logger);
     }
 
     public synchronized Resource[] discoverResources(String filterExpr) throws InvalidSyntaxException
@@ -222,33 +247,38 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         List matchList = new ArrayList();
         for (int repoIdx = 0; (repos != null) && (repoIdx < repos.length); repoIdx++)
         {
-            resources = repos[repoIdx].getResources();
-            for (int resIdx = 0; (resources != null) && (resIdx < resources.length); resIdx++)
+            CapabilityIndex index = getCapabilityIndex(repos[repoIdx]);
+            if ((requirements == null) || (requirements.length == 0))
             {
-                boolean match = true;
-                for (int reqIdx = 0; (requirements != null) && (reqIdx < requirements.length); reqIdx++)
+                resources = index.getResources();
+                for (int resIdx = 0; (resources != null) && (resIdx < resources.length); resIdx++)
                 {
-                    boolean reqMatch = false;
-                    Capability[] caps = resources[resIdx].getCapabilities();
-                    for (int capIdx = 0; (caps != null) && (capIdx < caps.length); capIdx++)
-                    {
-                        if (requirements[reqIdx].isSatisfied(caps[capIdx]))
-                        {
-                            reqMatch = true;
-                            break;
-                        }
-                    }
-                    match &= reqMatch;
-                    if (!match)
+                    matchList.add(resources[resIdx]);
+                }
+                continue;
+            }
+            // Intersect the resources satisfying each requirement
+            Set matches = null;
+            for (int reqIdx = 0; reqIdx < requirements.length; reqIdx++)
+            {
+                Set reqMatches = new LinkedHashSet();
+                List caps = index.getCandidates(requirements[reqIdx]);
+                for (int capIdx = 0; capIdx < caps.size(); capIdx++)
+                {
+                    ResourceCapability cap = (ResourceCapability) caps.get(capIdx);
+                    if ((matches == null || matches.contains(cap.getResource()))
+                        && requirements[reqIdx].isSatisfied(cap.getCapability()))
                     {
-                        break;
+                        reqMatches.add(cap.getResource());
                     }
                 }
-                if (match)
+                matches = reqMatches;
+                if (matches.isEmpty())
                 {
-                    matchList.add(resources[resIdx]);
+                    break;
                 }
             }
+            matchList.addAll(matches);
         }
 
         // Convert matching resources to an array an sort them by name.
@@ -257,6 +287,22 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         return resources;
     }
 
+    /**
+     * Returns the capability index of a repository, indexing it again if the
+     * repository has changed since it was last indexed, like the local repository
+     * does when bundles are installed.
+     */
+    synchronized CapabilityIndex getCapabilityIndex(Repository repository)
+    {
+        CapabilityIndex index = (CapabilityIndex) m_indexes.get(repository);
+        if (index == null || !index.isValid(repository))
+        {
+            index = new CapabilityIndex(repository);
+            m_indexes.put(repository, index);
+        }
+        return index;
+    }
+
     private void initialize()
     {
         if (m_initialized)
@@ -0,0 +1,620 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Property;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.filter.FilterImpl;
+import org.apache.felix.utils.log.Logger;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.Version;
+
+/**
+ * Cache of the parsed remote repositories.
+ *
+ * Each repository is stored in a compact binary file, where each distinct
+ * string is written once in a string table and referenced by index, so that
+ * reading it back is much faster than parsing the XML and all the resources
+ * share the same string instances.  The cached file is used as long as the
+ * repository URL reports the same ETag or last modification time; HTTP
+ * repositories are checked with a conditional request, so an unchanged
+ * repository is not downloaded again.
+ */
+public class RepositoryCache
+{
+    private static final int MAGIC = 0x4F425243; // OBRC
+    private static final int VERSION = 1;
+
+    private static final String CATEGORY_LIST = "category-list";
+
+    private final File m_dir;
+    private final DataModelHelperImpl m_helper;
+    private final Logger m_logger;
+
+    public RepositoryCache(File dir, DataModelHelperImpl helper, Logger logger)
+    {
+        m_dir = dir;
+        m_helper = helper;
+        m_logger = logger;
+    }
+
+    /**
+     * Loads the repository at the given URL, from the cache if it has not changed.
+     */
+    public RepositoryImpl repository(URL url) throws Exception
+    {
+        File file = getFile(url);
+        Header cached = readHeader(file, url);
+
+        URLConnection conn = url.openConnection();
+        if (cached != null)
+        {
+            if (cached.etag != null)
+            {
+                conn.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != 0)
+            {
+                conn.setIfModifiedSince(cached.lastModified);
+            }
+        }
+        InputStream is = FileUtil.openURL(conn);
+        String etag = conn.getHeaderField("ETag");
+        long lastModified = conn.getLastModified();
+
+        if (cached != null && isUnchanged(conn, cached, etag, lastModified))
+        {
+            close(is);
+            RepositoryImpl repository = read(file, url);
+            if (repository != null)
+            {
+                return repository;
+            }
+            conn = url.openConnection();
+            is = FileUtil.openURL(conn);
+            etag = conn.getHeaderField("ETag");
+            lastModified = conn.getLastModified();
+        }
+
+        RepositoryImpl repository = m_helper.repository(url, is);
+        if (etag != null || lastModified != 0)
+        {
+            write(file, url, new Header(url.toExternalForm(), etag, lastModified), repository);
+        }
+        else
+        {
+            // The repository could never be validated
+            file.delete();
+        }
+        return repository;
+    }
+
+    private static boolean isUnchanged(URLConnection conn, Header cached, String etag, long lastModified)
+        throws IOException
+    {
+        if (conn instanceof HttpURLConnection
+            && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+        {
+            return true;
+        }
+        if (etag != null)
+        {
+            return etag.equals(cached.etag);
+        }
+        return lastModified != 0 && lastModified == cached.lastModified;
+    }
+
+    File getFile(URL url)
+    {
+        String name = url.toExternalForm();
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(name.getBytes("UTF-8"));
+            StringBuffer sb = new StringBuffer();
+            for (int i = 0; i < digest.length; i++)
+            {
+                sb.append(Integer.toHexString((digest[i] >> 4) & 0x0F));
+                sb.append(Integer.toHexString(digest[i] & 0x0F));
+            }
+            name = sb.toString();
+        }
+        catch (Exception e)
+        {
+            name = Integer.toHexString(name.hashCode());
+        }
+        return new File(m_dir, name + ".obr");
+    }
+
+    private Header readHeader(File file, URL url)
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024));
+            Header header = readHeader(in);
+            return header != null && header.url.equals(url.toExternalForm()) ? header : null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    private static Header readHeader(DataInputStream in) throws IOException
+    {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        {
+            return null;
+        }
+        String url = in.readUTF();
+        String etag = in.readUTF();
+        long lastModified = in.readLong();
+        return new Header(url, etag.length() > 0 ? etag : null, lastModified);
+    }
+
+    /**
+     * Reads a cached repository, or returns <code>null</code> if it can not be read.
+     */
+    RepositoryImpl read(File file, URL url)
+    {
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            Header header = readHeader(in);
+            if (header == null || !header.url.equals(url.toExternalForm()))
+            {
+                return null;
+            }
+            return new Reader(in).readRepository(url.toExternalForm());
+        }
+        catch (Exception e)
+        {
+            m_logger.log(Logger.LOG_WARNING, "Ignoring cached repository " + url, e);
+            file.delete();
+            return null;
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    void write(File file, URL url, Header header, RepositoryImpl repository)
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try
+        {
+            m_dir.mkdirs();
+            Writer writer = new Writer();
+            writer.writeRepository(repository);
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(header.url);
+            out.writeUTF(header.etag != null ? header.etag : "");
+            out.writeLong(header.lastModified);
+            writer.writeTo(out);
+            out.close();
+            out = null;
+
+            file.delete();
+            if (!tmp.renameTo(file))
+            {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        }
+        catch (Exception e)
+        {
+            m_logger.log(Logger.LOG_WARNING, "Unable to cache repository " + url, e);
+            close(out);
+            tmp.delete();
+        }
+    }
+
+    private static void close(InputStream is)
+    {
+        try
+        {
+            if (is != null)
+            {
+                is.close();
+            }
+        }
+        catch (IOException e)
+        {
+            // Not much we can do.
+        }
+    }
+
+    private static void close(DataOutputStream out)
+    {
+        try
+        {
+            if (out != null)
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            // Not much we can do.
+        }
+    }
+
+    static class Header
+    {
+        final String url;
+        final String etag;
+        final long lastModified;
+
+        Header(String url, String etag, long lastModified)
+        {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Writes the body of the file, that is the string table followed by the
+     * repository, where strings are replaced by their index in the table.
+     */
+    private static class Writer
+    {
+        private final Map m_strings = new HashMap();
+        private final List m_table = new ArrayList();
+        private final ByteArrayOutputStream m_bytes = new ByteArrayOutputStream();
+        private final DataOutputStream m_out = new DataOutputStream(m_bytes);
+
+        void writeRepository(RepositoryImpl repository) throws IOException
+        {
+            writeString(repository.getName());
+            m_out.writeLong(repository.getLastModified());
+
+            Referral[] referrals = repository.getReferrals();
+            writeInt(referrals != null ? referrals.length : 0);
+            for (int i = 0; referrals != null && i < referrals.length; i++)
+            {
+                writeString(referrals[i].getUrl());
+                writeInt(referrals[i].getDepth());
+            }
+
+            Resource[] resources = repository.getResources();
+            writeInt(resources.length);
+            for (int i = 0; i < resources.length; i++)
+            {
+                writeResource(resources[i]);
+            }
+        }
+
+        private void writeResource(Resource resource) throws IOException
+        {
+            Map props = resource.getProperties();
+            writeInt(props.size());
+            for (Iterator it = props.entrySet().iterator(); it.hasNext();)
+            {
+                Map.Entry entry = (Map.Entry) it.next();
+                String key = (String) entry.getKey();
+                Object value = entry.getValue();
+                writeString(key);
+                if (value instanceof Version)
+                {
+                    writeString(Property.VERSION);
+                    writeString(value.toString());
+                }
+                else if (value instanceof Long)
+                {
+                    writeString(Property.LONG);
+                    writeString(value.toString());
+                }
+                else if (value instanceof Collection)
+                {
+                    // Categories are a list, other collections are sets
+                    writeString(value instanceof Set ? Property.SET : CATEGORY_LIST);
+                    writeInt(((Collection) value).size());
+                    for (Iterator vit = ((Collection) value).iterator(); vit.hasNext();)
+                    {
+                        writeString(vit.next().toString());
+                    }
+                }
+                else
+                {
+                    writeString(null);
+                    writeString(value.toString());
+                }
+            }
+
+            Capability[] caps = resource.getCapabilities();
+            writeInt(caps.length);
+            for (int i = 0; i < caps.length; i++)
+            {
+                writeString(caps[i].getName());
+                Property[] p = caps[i].getProperties();
+                writeInt(p.length);
+                for (int j = 0; j < p.length; j++)
+                {
+                    writeString(p[j].getName());
+                    writeString(p[j].getType());
+                    writeString(p[j].getValue());
+                }
+            }
+
+            Requirement[] reqs = resource.getRequirements();
+            writeInt(reqs.length);
+            for (int i = 0; i < reqs.length; i++)
+            {
+                writeString(reqs[i].getName());
+                writeString(reqs[i].getFilter());
+                m_out.writeByte((reqs[i].isExtend() ? 1 : 0)
+                    | (reqs[i].isMultiple() ? 2 : 0)
+                    | (reqs[i].isOptional() ? 4 : 0));
+                writeString(reqs[i].getComment());
+            }
+        }
+
+        private void writeString(String s) throws IOException
+        {
+            if (s == null)
+            {
+                writeInt(0);
+                return;
+            }
+            Integer index = (Integer) m_strings.get(s);
+            if (index == null)
+            {
+                m_table.add(s);
+                index = new Integer(m_table.size());
+                m_strings.put(s, index);
+            }
+            writeInt(index.intValue());
+        }
+
+        private void writeInt(int i) throws IOException
+        {
+            writeInt(m_out, i);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException
+        {
+            writeInt(out, m_table.size());
+            for (int i = 0; i < m_table.size(); i++)
+            {
+                byte[] b = ((String) m_table.get(i)).getBytes("UTF-8");
+                writeInt(out, b.length);
+                out.write(b);
+            }
+            m_out.flush();
+            m_bytes.writeTo(out);
+        }
+
+        /**
+         * Writes a positive int on 1 to 5 bytes, 7 bits at a time.
+         */
+        private static void writeInt(DataOutputStream out, int i) throws IOException
+        {
+            while ((i & ~0x7F) != 0)
+            {
+                out.writeByte((i & 0x7F) | 0x80);
+                i >>>= 7;
+            }
+            out.writeByte(i);
+        }
+    }
+
+    private static class Reader
+    {
+        private final DataInputStream m_in;
+        private String[] m_table;
+        // Map of filter string to the parsed filter, shared by requirements
+        private final Map m_filters = new HashMap();
+
+        Reader(DataInputStream in)
+        {
+            m_in = in;
+        }
+
+        RepositoryImpl readRepository(String uri) throws IOException
+        {
+            int count = readInt();
+            m_table = new String[count + 1];
+            byte[] buffer = new byte[256];
+            for (int i = 1; i <= count; i++)
+            {
+                int length = readInt();
+                if (length > buffer.length)
+                {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                m_in.readFully(buffer, 0, length);
+                m_table[i] = new String(buffer, 0, length, "UTF-8");
+            }
+
+            RepositoryImpl repository = new RepositoryImpl();
+            repository.setURI(uri);
+            repository.setName(readString());
+            repository.setLastModified(m_in.readLong());
+
+            int referrals = readInt();
+            for (int i = 0; i < referrals; i++)
+            {
+                Referral referral = new Referral();
+                referral.setUrl(readString());
+                referral.setDepth(Integer.toString(readInt()));
+                try
+                {
+                    repository.addReferral(referral);
+                }
+                catch (Exception e)
+                {
+                    IOException ex = new IOException("Invalid referral " + referral.getUrl());
+                    ex.initCause(e);
+                    throw ex;
+                }
+            }
+
+            int resources = readInt();
+            for (int i = 0; i < resources; i++)
+            {
+                repository.addResource(readResource());
+            }
+            return repository;
+        }
+
+        private ResourceImpl readResource() throws IOException
+        {
+            ResourceImpl resource = new ResourceImpl();
+            int props = readInt();
+            for (int i = 0; i < props; i++)
+            {
+                String key = readString();
+                String type = readString();
+                if (CATEGORY_LIST.equals(type))
+                {
+                    for (int n = readInt(); n > 0; n--)
+                    {
+                        resource.addCategory(readString());
+                    }
+                }
+                else if (Property.SET.equals(type))
+                {
+                    StringBuffer sb = new StringBuffer();
+                    for (int n = readInt(); n > 0; n--)
+                    {
+                        sb.append(readString());
+                        if (n > 1)
+                        {
+                            sb.append(',');
+                        }
+                    }
+                    resource.put(key, sb.toString(), type);
+                }
+                else
+                {
+                    resource.put(key, readString(), type);
+                }
+            }
+
+            int caps = readInt();
+            for (int i = 0; i < caps; i++)
+            {
+                CapabilityImpl cap = new CapabilityImpl(readString());
+                for (int n = readInt(); n > 0; n--)
+                {
+                    cap.addProperty(readString(), readString(), readString());
+                }
+                resource.addCapability(cap);
+            }
+
+            int reqs = readInt();
+            for (int i = 0; i < reqs; i++)
+            {
+                RequirementImpl req = new RequirementImpl(readString());
+                req.setFilter(readFilter());
+                int flags = m_in.readByte();
+                req.setExtend((flags & 1) != 0);
+                req.setMultiple((flags & 2) != 0);
+                req.setOptional((flags & 4) != 0);
+                String comment = readString();
+                if (comment != null)
+                {
+                    req.addText(comment);
+                }
+                resource.addRequire(req);
+            }
+            return resource;
+        }
+
+        private FilterImpl readFilter() throws IOException
+        {
+            // Filters are written once rewritten, so they only need to be parsed
+            String s = readString();
+            FilterImpl filter = (FilterImpl) m_filters.get(s);
+            if (filter == null)
+            {
+                try
+                {
+                    filter = FilterImpl.newInstance(s, true);
+                }
+                catch (InvalidSyntaxException e)
+                {
+                    IOException ex = new IOException("Invalid filter " + s);
+                    ex.initCause(e);
+                    throw ex;
+                }
+                m_filters.put(s, filter);
+            }
+            return filter;
+        }
+
+        private String readString() throws IOException
+        {
+            return m_table[readInt()];
+        }
+
+        private int readInt() throws IOException
+        {
+            int i = 0;
+            for (int shift = 0; shift < 35; shift += 7)
+            {
+                int b = m_in.readByte();
+                i |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                {
+                    return i;
+                }
+            }
+            throw new IOException("Invalid cached repository");
+        }
+    }
+}
@@ -81,6 +81,15 @@ public class RequirementImpl implements Requirement
         }
     }
 
+    /**
+     * Sets a filter which has already been parsed and rewritten by {@link #setFilter(String)},
+     * so that requirements with the same filter can share it.
+     */
+    void setFilter(FilterImpl filter)
+    {
+        m_filter = filter;
+    }
+
     public boolean isSatisfied(Capability capability)
     {
         return m_name.equals(capability.getName()) && m_filter.matchCase(capability.getPropertiesAsMap())
@@ -18,7 +18,8 @@
  */
 package org.apache.felix.bundlerepository.impl;
 
-import java.net.URL;
+import java.io.File;
+import java.io.InputStream;
 import java.util.*;
 
 import org.apache.felix.bundlerepository.*;
@@ -29,9 +30,13 @@ import org.osgi.framework.*;
 
 public class ResolverImpl implements Resolver
 {
+    public static final String DEPLOY_THREADS_PROP = "obr.deploy.threads";
+    public static final int DEFAULT_DEPLOY_THREADS = 4;
+
     private final BundleContext m_context;
     private final Logger m_logger;
     private final Repository[] m_repositories;
+    private final RepositoryAdminImpl m_admin;
     private final Set m_addedSet = new HashSet();
     private final Set m_addedRequirementSet = new HashSet();
     private final Set m_globalCapabilities = new HashSet();
@@ -41,16 +46,27 @@ public class ResolverImpl implements Resolver
     private final Set m_optionalSet = new HashSet();
     private final Map m_reasonMap = new HashMap();
     private final Set m_unsatisfiedSet = new HashSet();
+    // Map of requirement to the list of local and remote capabilities satisfying it
+    private final Map m_matchMap = new HashMap();
+    // Resources which are not in the capability indexes
+    private final Set m_unindexedSet = new HashSet();
+    private CapabilityIndex[] m_indexes;
     private boolean m_resolved = false;
     private long m_resolveTimeStamp;
     private int m_resolutionFlags;
     private int m_deployFlags;
 
     public ResolverImpl(BundleContext context, Repository[] repositories, Logger logger)
+    {
+        this(context, repositories, null, logger);
+    }
+
+    public ResolverImpl(BundleContext context, Repository[] repositories, RepositoryAdminImpl admin, Logger logger)
     {
         m_context = context;
         m_logger = logger;
         m_repositories = repositories;
+        m_admin = admin;
     }
 
     public synchronized void add(Resource resource)
@@ -147,6 +163,29 @@ public class ResolverImpl implements Resolver
         return (Resource[]) resources.toArray(new Resource[resources.size()]);
     }
 
+    /**
+     * Returns the capability indexes of the repositories used by
+     * {@link #getResources(boolean)}, in the same order.
+     */
+    private CapabilityIndex[] getIndexes()
+    {
+        List indexes = new ArrayList();
+        for (int repoIdx = 0; (m_repositories != null) && (repoIdx < m_repositories.length); repoIdx++)
+        {
+            boolean isLocal = m_repositories[repoIdx] instanceof LocalRepositoryImpl;
+            boolean isSystem = m_repositories[repoIdx] instanceof SystemRepositoryImpl;
+            if (isLocal && (m_resolutionFlags & NO_LOCAL_RESOURCES) != 0) {
+                continue;
+            }
+            if (isSystem && (m_resolutionFlags & NO_SYSTEM_BUNDLE) != 0) {
+                continue;
+            }
+            indexes.add(m_admin != null ? m_admin.getCapabilityIndex(m_repositories[repoIdx])
+                : new CapabilityIndex(m_repositories[repoIdx]));
+        }
+        return (CapabilityIndex[]) indexes.toArray(new CapabilityIndex[indexes.size()]);
+    }
+
     public synchronized boolean resolve()
     {
         return resolve(0);
@@ -157,6 +196,7 @@ public class ResolverImpl implements Resolver
         // Find resources
         Resource[] locals = getResources(true);
         Resource[] remotes = getResources(false);
+        m_indexes = getIndexes();
 
         // time of the resolution process start
         m_resolveTimeStamp = 0;
@@ -172,6 +212,9 @@ public class ResolverImpl implements Resolver
         m_optionalSet.clear();
         m_reasonMap.clear();
         m_unsatisfiedSet.clear();
+        m_matchMap.clear();
+        m_unindexedSet.clear();
+        m_unindexedSet.addAll(m_addedSet);
         m_resolved = true;
         m_resolutionFlags = flags;
 
@@ -191,6 +234,7 @@ public class ResolverImpl implements Resolver
                 Requirement req = (Requirement) iter.next();
                 fake.addRequire(req);
             }
+            m_unindexedSet.add(fake);
             if (!resolve(fake, locals, remotes, false))
             {
                 result = false;
@@ -271,8 +315,7 @@ public class ResolverImpl implements Resolver
                 }
                 if (candidate == null)
                 {
-                    List candidateCapabilities = searchResources(reqs[reqIdx], locals);
-                    candidateCapabilities.addAll(searchResources(reqs[reqIdx], remotes));
+                    List candidateCapabilities = searchCapabilities(reqs[reqIdx]);
 
                     // Determine the best candidate available that
                     // can resolve.
@@ -350,53 +393,117 @@ public class ResolverImpl implements Resolver
 
     private Resource searchResources(Requirement req, Set resourceSet)
     {
-        for (Iterator iter = resourceSet.iterator(); iter.hasNext(); )
+        List matches = getMatches(req);
+        if (matches.size() < resourceSet.size())
         {
-            checkInterrupt();
-            Resource resource = (Resource) iter.next();
-            Capability[] caps = resource.getCapabilities();
-            for (int capIdx = 0; (caps != null) && (capIdx < caps.length); capIdx++)
+            // Look for the resources satisfying the requirement in the set
+            // rather than checking all the resources of the set
+            for (int capIdx = 0; capIdx < matches.size(); capIdx++)
+            {
+                checkInterrupt();
+                Resource resource = ((ResourceCapability) matches.get(capIdx)).getResource();
+                if (resourceSet.contains(resource))
+                {
+                    return resource;
+                }
+            }
+            for (Iterator iter = m_unindexedSet.iterator(); iter.hasNext(); )
             {
-                if (req.isSatisfied(caps[capIdx]))
+                Resource resource = (Resource) iter.next();
+                if (resourceSet.contains(resource) && isSatisfied(req, resource))
                 {
-                    // The requirement is already satisfied an existing
-                    // resource, return the resource.
                     return resource;
                 }
             }
+            return null;
+        }
+
+        for (Iterator iter = resourceSet.iterator(); iter.hasNext(); )
+        {
+            checkInterrupt();
+            Resource resource = (Resource) iter.next();
+            if (isSatisfied(req, resource))
+            {
+                // The requirement is already satisfied an existing
+                // resource, return the resource.
+                return resource;
+            }
         }
 
         return null;
     }
 
+    private boolean isSatisfied(Requirement req, Resource resource)
+    {
+        Capability[] caps = resource.getCapabilities();
+        for (int capIdx = 0; (caps != null) && (capIdx < caps.length); capIdx++)
+        {
+            if (req.isSatisfied(caps[capIdx]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
-     * Searches for resources that do meet the given requirement
+     * Searches for local and remote resources that do meet the given requirement.
+     * The matching capabilities are looked up in the capability indexes of the
+     * repositories and remembered for the whole resolution, so that a requirement
+     * shared by several resources is only matched once.
      * @param req the the requirement that must be satisfied by resources
-     * @param resources list of resources to look at
-     * @return all resources meeting the given requirement
+     * @return the capabilities of local resources, then of remote resources,
+     * meeting the given requirement, excluding the resources which failed to resolve
      */
-    private List searchResources(Requirement req, Resource[] resources)
+    private List searchCapabilities(Requirement req)
     {
-        List matchingCapabilities = new ArrayList();
-
-        for (int resIdx = 0; (resources != null) && (resIdx < resources.length); resIdx++)
+        List matches = getMatches(req);
+        List matchingCapabilities = new ArrayList(matches.size());
+        for (int capIdx = 0; capIdx < matches.size(); capIdx++)
         {
-            checkInterrupt();
+            ResourceCapability cap = (ResourceCapability) matches.get(capIdx);
             // We don't need to look at resources we've already looked at.
-            if (!m_failedSet.contains(resources[resIdx]))
+            if (!m_failedSet.contains(cap.getResource()))
             {
-                Capability[] caps = resources[resIdx].getCapabilities();
-                for (int capIdx = 0; (caps != null) && (capIdx < caps.length); capIdx++)
+                matchingCapabilities.add(cap);
+            }
+        }
+        return matchingCapabilities;
+    }
+
+    /**
+     * Returns the capabilities of local resources, then of remote resources,
+     * meeting the given requirement.
+     */
+    private List getMatches(Requirement req)
+    {
+        List matches = (List) m_matchMap.get(req);
+        if (matches == null)
+        {
+            matches = new ArrayList();
+            // Local resources are preferred, so list them first
+            searchCapabilities(req, true, matches);
+            searchCapabilities(req, false, matches);
+            m_matchMap.put(req, matches);
+        }
+        return matches;
+    }
+
+    private void searchCapabilities(Requirement req, boolean local, List matches)
+    {
+        for (int idx = 0; idx < m_indexes.length; idx++)
+        {
+            List candidates = m_indexes[idx].getCandidates(req);
+            for (int capIdx = 0; capIdx < candidates.size(); capIdx++)
+            {
+                checkInterrupt();
+                ResourceCapability cap = (ResourceCapability) candidates.get(capIdx);
+                if (cap.getResource().isLocal() == local && req.isSatisfied(cap.getCapability()))
                 {
-                    if (req.isSatisfied(caps[capIdx]))
-                    {
-                        matchingCapabilities.add(new ResourceCapabilityImpl(resources[resIdx], caps[capIdx]));
-                    }
+                    matches.add(cap);
                 }
             }
         }
-
-        return matchingCapabilities;
     }
 
     /**
@@ -543,26 +650,82 @@ public class ResolverImpl implements Resolver
 
         // List to hold all resources to be started.
         List startList = new ArrayList();
+        // Map of the bundles to start to the resource they were deployed from.
+        Map startMap = new HashMap();
+
+        long deployStart = System.currentTimeMillis();
+        int threads = getDownloadThreads();
+        ResourceDownloader downloader = new ResourceDownloader(getDownloadDir(), threads);
+        try
+        {
+            // Deploy each resource, which will involve either finding a locally
+            // installed resource to update or the installation of a new version
+            // of the resource to be deployed.  Decide first which resources
+            // must be downloaded, so that they are fetched in the background
+            // while the previous ones are being installed.
+            LocalResourceImpl[] localResources = new LocalResourceImpl[deployResources.length];
+            ResourceDownloader.Download[] downloads = new ResourceDownloader.Download[deployResources.length];
+            for (int i = 0; i < deployResources.length; i++)
+            {
+                // For the resource being deployed, see if there is an older
+                // version of the resource already installed that can potentially
+                // be updated.
+                LocalResourceImpl localResource =
+                    findUpdatableLocalResource(deployResources[i]);
+                // If a potentially updatable older version was found,
+                // then verify that updating the local resource will not
+                // break any of the requirements of any of the other
+                // resources being deployed.
+                if ((localResource != null) &&
+                    isResourceUpdatable(localResource, deployResources[i], deployResources))
+                {
+                    // Only update if it is a different version.
+                    if (localResource.equals(deployResources[i]))
+                    {
+                        continue;
+                    }
+                    localResources[i] = localResource;
+                }
+                try
+                {
+                    downloads[i] = downloader.add(deployResources[i]);
+                }
+                catch (Exception ex)
+                {
+                    m_logger.log(
+                        Logger.LOG_ERROR,
+                        (localResource != null)
+                            ? "Resolver: Update error - " + getBundleName(localResource.getBundle())
+                            : "Resolver: Install error - " + deployResources[i].getSymbolicName(),
+                        ex);
+                    return;
+                }
+            }
+            downloader.start();
 
-        // Deploy each resource, which will involve either finding a locally
-        // installed resource to update or the installation of a new version
-        // of the resource to be deployed.
-        for (int i = 0; i < deployResources.length; i++)
-        {
-            // For the resource being deployed, see if there is an older
-            // version of the resource already installed that can potentially
-            // be updated.
-            LocalResourceImpl localResource =
-                findUpdatableLocalResource(deployResources[i]);
-            // If a potentially updatable older version was found,
-            // then verify that updating the local resource will not
-            // break any of the requirements of any of the other
-            // resources being deployed.
-            if ((localResource != null) &&
-                isResourceUpdatable(localResource, deployResources[i], deployResources))
+            for (int i = 0; i < deployResources.length; i++)
             {
-                // Only update if it is a different version.
-                if (!localResource.equals(deployResources[i]))
+                if (downloads[i] == null)
+                {
+                    continue;
+                }
+                InputStream is;
+                try
+                {
+                    is = downloads[i].getInputStream();
+                }
+                catch (Exception ex)
+                {
+                    m_logger.log(
+                        Logger.LOG_ERROR,
+                        "Resolver: Download error - " + deployResources[i].getSymbolicName(),
+                        ex);
+                    return;
+                }
+
+                long installStart = System.currentTimeMillis();
+                LocalResourceImpl localResource = localResources[i];
+                if (localResource != null)
                 {
                     // Update the installed bundle.
                     try
@@ -577,7 +740,7 @@ public class ResolverImpl implements Resolver
                             localResource.getBundle().stop();
                         }
 
-                        localResource.getBundle().update(FileUtil.openURL(new URL(deployResources[i].getURI())));
+                        localResource.getBundle().update(is);
 
                         // If necessary, save the updated bundle to be
                         // started later.
@@ -587,6 +750,7 @@ public class ResolverImpl implements Resolver
                             if (!isFragmentBundle(bundle))
                             {
                                 startList.add(bundle);
+                                startMap.put(bundle, deployResources[i]);
                             }
                         }
                     }
@@ -599,24 +763,20 @@ public class ResolverImpl implements Resolver
                         return;
                     }
                 }
-            }
-            else
-            {
-                // Install the bundle.
-                try
+                else
                 {
-                    // Perform the install, but do not use the actual
-                    // bundle JAR URL for the bundle location, since this will
-                    // limit OBR's ability to manipulate bundle versions. Instead,
-                    // use a unique timestamp as the bundle location.
-                    URL url = new URL(deployResources[i].getURI());
-                    if (url != null)
+                    // Install the bundle.
+                    try
                     {
+                        // Perform the install, but do not use the actual
+                        // bundle JAR URL for the bundle location, since this will
+                        // limit OBR's ability to manipulate bundle versions. Instead,
+                        // use a unique timestamp as the bundle location.
                         Bundle bundle = m_context.installBundle(
                             "obr://"
                             + deployResources[i].getSymbolicName()
                             + "/-" + System.currentTimeMillis(),
-                            FileUtil.openURL(url));
+                            is);
 
                         // If necessary, save the installed bundle to be
                         // started later.
@@ -625,26 +785,47 @@ public class ResolverImpl implements Resolver
                             if (!isFragmentBundle(bundle))
                             {
                                 startList.add(bundle);
+                                startMap.put(bundle, deployResources[i]);
                             }
                         }
                     }
+                    catch (Exception ex)
+                    {
+                        m_logger.log(
+                            Logger.LOG_ERROR,
+                            "Resolver: Install error - " + deployResources[i].getSymbolicName(),
+                            ex);
+                        return;
+                    }
                 }
-                catch (Exception ex)
-                {
-                    m_logger.log(
-                        Logger.LOG_ERROR,
-                        "Resolver: Install error - " + deployResources[i].getSymbolicName(),
-                        ex);
-                    return;
-                }
+                downloads[i].release();
+                m_logger.log(
+                    Logger.LOG_DEBUG,
+                    "Resolver: Deployed " + deployResources[i].getSymbolicName()
+                    + " (" + downloads[i].getSize() + " bytes downloaded in "
+                    + downloads[i].getTime() + " ms, "
+                    + ((localResource != null) ? "updated" : "installed") + " in "
+                    + (System.currentTimeMillis() - installStart) + " ms)");
             }
         }
+        finally
+        {
+            downloader.close();
+        }
+        long startStart = System.currentTimeMillis();
 
+        // Start the bundles providing capabilities before the bundles requiring them.
+        startList = getStartOrder(startList, startMap);
         for (int i = 0; i < startList.size(); i++)
         {
             try
             {
+                long bundleStart = System.currentTimeMillis();
                 ((Bundle) startList.get(i)).start();
+                m_logger.log(
+                    Logger.LOG_DEBUG,
+                    "Resolver: Started " + ((Bundle) startList.get(i)).getSymbolicName()
+                    + " in " + (System.currentTimeMillis() - bundleStart) + " ms");
             }
             catch (BundleException ex)
             {
@@ -654,6 +835,99 @@ public class ResolverImpl implements Resolver
                     ex);
             }
         }
+
+        m_logger.log(
+            Logger.LOG_INFO,
+            "Resolver: Deployed " + deployResources.length + " resources in "
+            + (startStart - deployStart) + " ms with " + threads + " download threads, started "
+            + startList.size() + " bundles in " + (System.currentTimeMillis() - startStart) + " ms");
+    }
+
+    private int getDownloadThreads()
+    {
+        String threads = m_context.getProperty(DEPLOY_THREADS_PROP);
+        try
+        {
+            return (threads != null) ? Math.max(1, Integer.parseInt(threads.trim())) : DEFAULT_DEPLOY_THREADS;
+        }
+        catch (NumberFormatException ex)
+        {
+            m_logger.log(Logger.LOG_WARNING, "Resolver: Invalid " + DEPLOY_THREADS_PROP + ": " + threads);
+            return DEFAULT_DEPLOY_THREADS;
+        }
+    }
+
+    private File getDownloadDir()
+    {
+        File dir = m_context.getDataFile("downloads");
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+        {
+            return null;
+        }
+        return dir;
+    }
+
+    /**
+     * Orders the bundles to start so that the bundles providing capabilities
+     * are started before the bundles requiring them, according to the reasons
+     * why the resources were selected.  Bundles from resources which depend on
+     * each other are kept in their original order.
+     *
+     * @param bundles the bundles to start
+     * @param resources map of the bundles to the resources they were deployed from
+     * @return the bundles to start, in order
+     */
+    private List getStartOrder(List bundles, Map resources)
+    {
+        // Map of resource to the bundle to start
+        Map bundleMap = new HashMap();
+        for (int i = 0; i < bundles.size(); i++)
+        {
+            bundleMap.put(resources.get(bundles.get(i)), bundles.get(i));
+        }
+        // Map of resource to the list of resources it requires
+        Map dependencies = new HashMap();
+        for (Iterator it = m_reasonMap.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) it.next();
+            List reasons = (List) entry.getValue();
+            for (int i = 0; i < reasons.size(); i++)
+            {
+                Resource requirer = ((Reason) reasons.get(i)).getResource();
+                List l = (List) dependencies.get(requirer);
+                if (l == null)
+                {
+                    l = new ArrayList();
+                    dependencies.put(requirer, l);
+                }
+                l.add(entry.getKey());
+            }
+        }
+        List ordered = new ArrayList();
+        Set visited = new HashSet();
+        for (int i = 0; i < bundles.size(); i++)
+        {
+            addStartOrder(resources.get(bundles.get(i)), dependencies, bundleMap, visited, ordered);
+        }
+        return ordered;
+    }
+
+    private void addStartOrder(Object resource, Map dependencies, Map bundleMap, Set visited, List ordered)
+    {
+        if (!visited.add(resource))
+        {
+            return;
+        }
+        List l = (List) dependencies.get(resource);
+        for (int i = 0; (l != null) && (i < l.size()); i++)
+        {
+            addStartOrder(l.get(i), dependencies, bundleMap, visited, ordered);
+        }
+        Object bundle = bundleMap.get(resource);
+        if (bundle != null)
+        {
+            ordered.add(bundle);
+        }
     }
 
     /**
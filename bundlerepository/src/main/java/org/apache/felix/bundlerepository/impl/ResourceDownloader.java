@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.felix.bundlerepository.Resource;
+
+/**
+ * Downloads the resources to deploy with a bounded number of threads, so
+ * that they are fetched while the previous ones are being installed.
+ *
+ * Each resource is copied to a temporary file and its size is checked
+ * against the size declared by the repository, so that a truncated download
+ * is reported before the bundle is installed.  Resources from local files
+ * are not copied: they are checked in place and streamed when installed.
+ */
+public class ResourceDownloader
+{
+    // Maximum time to wait for the downloads in progress when closing, in milliseconds
+    private static final long CLOSE_TIMEOUT = 5000;
+
+    private final File m_dir;
+    private final int m_threads;
+    private final List m_downloads = new ArrayList();
+    private final List m_workers = new ArrayList();
+    private int m_next = 0;
+    private boolean m_closed = false;
+
+    /**
+     * @param dir the directory of the temporary files, or <code>null</code> for the default one
+     * @param threads the maximum number of concurrent downloads
+     */
+    public ResourceDownloader(File dir, int threads)
+    {
+        m_dir = dir;
+        m_threads = Math.max(1, threads);
+    }
+
+    /**
+     * Adds a resource to download.  Resources are downloaded in the order they are added.
+     */
+    public Download add(Resource resource) throws MalformedURLException
+    {
+        Download download = new Download(resource, new URL(resource.getURI()));
+        synchronized (this)
+        {
+            m_downloads.add(download);
+        }
+        return download;
+    }
+
+    /**
+     * Starts downloading the resources.
+     */
+    public synchronized void start()
+    {
+        int count = Math.min(m_threads, m_downloads.size());
+        for (int i = 0; i < count; i++)
+        {
+            Thread worker = new Thread("OBR Download " + i)
+            {
+                public void run()
+                {
+                    for (Download download = next(); download != null; download = next())
+                    {
+                        download.fetch();
+                        if (isClosed())
+                        {
+                            download.release();
+                        }
+                    }
+                }
+            };
+            worker.setDaemon(true);
+            m_workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops downloading and deletes the temporary files.  The downloads in
+     * progress are waited for at most {@link #CLOSE_TIMEOUT} ms: the files of
+     * the ones still running after that are deleted when they complete.
+     */
+    public void close()
+    {
+        synchronized (this)
+        {
+            m_closed = true;
+        }
+        long end = System.currentTimeMillis() + CLOSE_TIMEOUT;
+        for (int i = 0; i < m_workers.size(); i++)
+        {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+                break;
+            }
+            try
+            {
+                ((Thread) m_workers.get(i)).join(remaining);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (int i = 0; i < m_downloads.size(); i++)
+        {
+            ((Download) m_downloads.get(i)).release();
+        }
+    }
+
+    private synchronized Download next()
+    {
+        return (!m_closed && m_next < m_downloads.size()) ? (Download) m_downloads.get(m_next++) : null;
+    }
+
+    private synchronized boolean isClosed()
+    {
+        return m_closed;
+    }
+
+    public class Download
+    {
+        private final Resource m_resource;
+        private final URL m_url;
+        private File m_file;
+        private boolean m_temporary;
+        private long m_size = -1;
+        private long m_time;
+        private Throwable m_error;
+        private boolean m_done = false;
+
+        Download(Resource resource, URL url)
+        {
+            m_resource = resource;
+            m_url = url;
+        }
+
+        public Resource getResource()
+        {
+            return m_resource;
+        }
+
+        /**
+         * Returns the number of bytes downloaded.
+         */
+        public synchronized long getSize()
+        {
+            return m_size;
+        }
+
+        /**
+         * Returns the time spent downloading the resource, in milliseconds.
+         */
+        public synchronized long getTime()
+        {
+            return m_time;
+        }
+
+        /**
+         * Waits for the resource to be downloaded and returns its content.
+         * @throws Exception if the resource could not be downloaded
+         */
+        public InputStream getInputStream() throws Exception
+        {
+            synchronized (this)
+            {
+                while (!m_done)
+                {
+                    wait();
+                }
+                if (m_error instanceof Exception)
+                {
+                    throw (Exception) m_error;
+                }
+                else if (m_error != null)
+                {
+                    throw new Exception("Unable to download " + m_url, m_error);
+                }
+            }
+            return (m_file != null)
+                ? new BufferedInputStream(new FileInputStream(m_file))
+                : FileUtil.openURL(m_url);
+        }
+
+        /**
+         * Deletes the temporary file, if any.
+         */
+        public synchronized void release()
+        {
+            if (m_temporary && m_file != null)
+            {
+                m_file.delete();
+                m_file = null;
+            }
+        }
+
+        void fetch()
+        {
+            long start = System.currentTimeMillis();
+            File file = null;
+            boolean temporary = false;
+            long size = -1;
+            Throwable error = null;
+            try
+            {
+                file = toFile(m_url);
+                if (file != null)
+                {
+                    if (!file.isFile())
+                    {
+                        throw new IOException("File not found: " + file);
+                    }
+                    size = file.length();
+                }
+                else
+                {
+                    file = File.createTempFile("obr", ".jar", m_dir);
+                    temporary = true;
+                    size = copy(FileUtil.openURL(m_url), file);
+                }
+                Long expected = m_resource.getSize();
+                if (expected != null && expected.longValue() > 0 && expected.longValue() != size)
+                {
+                    throw new IOException("Downloaded " + size + " bytes instead of "
+                        + expected + " for " + m_url);
+                }
+            }
+            catch (Throwable t)
+            {
+                error = t;
+                if (temporary)
+                {
+                    file.delete();
+                }
+                file = null;
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    m_file = file;
+                    m_temporary = temporary;
+                    m_size = size;
+                    m_error = error;
+                    m_time = System.currentTimeMillis() - start;
+                    m_done = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Returns the local file of a file: URL, or <code>null</code> if the
+         * URL must be downloaded.
+         */
+        private File toFile(URL url)
+        {
+            if ("file".equals(url.getProtocol()) && url.getQuery() == null)
+            {
+                try
+                {
+                    return new File(url.toURI());
+                }
+                catch (Exception e)
+                {
+                    // Not a hierarchical URI, e.g. with spaces not encoded: read it as a stream
+                }
+            }
+            return null;
+        }
+
+        private long copy(InputStream is, File file) throws IOException
+        {
+            OutputStream os = null;
+            try
+            {
+                os = new FileOutputStream(file);
+                byte[] buffer = new byte[8192];
+                long count = 0;
+                for (int len = is.read(buffer); len > 0; len = is.read(buffer))
+                {
+                    os.write(buffer, 0, len);
+                    count += len;
+                }
+                return count;
+            }
+            finally
+            {
+                is.close();
+                if (os != null)
+                {
+                    os.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Resource;
+
+public class CapabilityIndexTest extends TestCase
+{
+    public void testRequiredValue()
+    {
+        assertEquals("a.b", CapabilityIndex.getRequiredValue("(package=a.b)", "package"));
+        assertEquals("a.b", CapabilityIndex.getRequiredValue(
+            "(&(package=a.b)(version>=1.0.0)(!(version>=2.0.0)))", "package"));
+        assertEquals("a.b", CapabilityIndex.getRequiredValue(
+            "(&(!(package=c))(version>=1.0.0)(package=a.b))", "package"));
+        assertNull(CapabilityIndex.getRequiredValue("(|(package=a.b)(package=c))", "package"));
+        assertNull(CapabilityIndex.getRequiredValue("(&(package=a.*)(version>=1.0.0))", "package"));
+        assertNull(CapabilityIndex.getRequiredValue("(symbolicname=a.b)", "package"));
+    }
+
+    public void testCandidates()
+    {
+        ResourceImpl r1 = resource("r1", "a");
+        ResourceImpl r2 = resource("r2", "b");
+        ResourceImpl r3 = resource("r3", "a");
+        CapabilityIndex index = new CapabilityIndex(new Resource[] { r1, r2, r3 }, 0);
+
+        RequirementImpl req = new RequirementImpl("package");
+        req.setFilter("(&(package=a)(version>=1.0.0))");
+        List candidates = index.getCandidates(req);
+        assertEquals(2, candidates.size());
+        assertSame(r1, ((ResourceCapability) candidates.get(0)).getResource());
+        assertSame(r3, ((ResourceCapability) candidates.get(1)).getResource());
+
+        RequirementImpl any = new RequirementImpl("package");
+        any.setFilter("(package=*)");
+        assertEquals(3, index.getCandidates(any).size());
+
+        RequirementImpl bundle = new RequirementImpl("bundle");
+        bundle.setFilter("(symbolicname=r2)");
+        assertEquals(1, index.getCandidates(bundle).size());
+
+        RequirementImpl missing = new RequirementImpl("service");
+        missing.setFilter("(service=s)");
+        assertTrue(index.getCandidates(missing).isEmpty());
+    }
+
+    public void testValid()
+    {
+        ResourceImpl r1 = resource("r1", "a");
+        RepositoryImpl repo = new RepositoryImpl(new Resource[] { r1 });
+        CapabilityIndex index = new CapabilityIndex(repo);
+        assertTrue(index.isValid(repo));
+
+        repo.addResource(resource("r2", "b"));
+        assertFalse(index.isValid(repo));
+    }
+
+    private ResourceImpl resource(String name, String pkg)
+    {
+        ResourceImpl resource = new ResourceImpl();
+        resource.put(Resource.SYMBOLIC_NAME, name);
+        CapabilityImpl cap = new CapabilityImpl("bundle");
+        cap.addProperty(Resource.SYMBOLIC_NAME, name);
+        resource.addCapability(cap);
+        cap = new CapabilityImpl("package");
+        cap.addProperty("package", pkg);
+        cap.addProperty("version", "version", "1.0.0");
+        resource.addCapability(cap);
+        return resource;
+    }
+}
@@ -66,6 +66,7 @@ public class RepositoryAdminTest extends TestCase
         EasyMock.expect(systemBundle.getBundleContext()).andReturn(bundleContext);
         bundleContext.addBundleListener((BundleListener) EasyMock.anyObject());
         bundleContext.addServiceListener((ServiceListener) EasyMock.anyObject());
+        EasyMock.expect(bundleContext.getDataFile((String) EasyMock.anyObject())).andReturn(null).anyTimes();
         EasyMock.expect(bundleContext.getBundles()).andReturn(new Bundle[] { systemBundle });
         final Capture c = new Capture();
         EasyMock.expect(bundleContext.createFilter((String) capture(c))).andAnswer(new IAnswer() {
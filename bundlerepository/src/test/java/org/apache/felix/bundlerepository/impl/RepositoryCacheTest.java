@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+
+public class RepositoryCacheTest extends TestCase
+{
+    private File m_dir;
+    private DataModelHelperImpl m_helper;
+    private RepositoryCache m_cache;
+
+    protected void setUp() throws Exception
+    {
+        m_dir = new File("target/repository-cache");
+        File[] files = m_dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++)
+        {
+            files[i].delete();
+        }
+        m_helper = new DataModelHelperImpl();
+        m_cache = new RepositoryCache(m_dir, m_helper, new Logger(null)
+        {
+            public void log(int level, String message, Throwable exception)
+            {
+            }
+        });
+    }
+
+    public void testCachedRepositoryIsIdentical() throws Exception
+    {
+        URL url = copy("/repo_for_resolvertest.xml", "repository.xml");
+        RepositoryImpl parsed = m_cache.repository(url);
+        File file = m_cache.getFile(url);
+        assertTrue(file.isFile());
+
+        RepositoryImpl cached = m_cache.read(file, url);
+        assertNotNull(cached);
+        assertEquals(m_helper.writeRepository(parsed), m_helper.writeRepository(cached));
+        assertEquals(url.toExternalForm(), cached.getURI());
+        assertEquals(m_helper.writeRepository(parsed), m_helper.writeRepository(m_cache.repository(url)));
+    }
+
+    public void testModifiedRepositoryIsParsedAgain() throws Exception
+    {
+        URL url = copy("/repo_for_resolvertest.xml", "repository.xml");
+        int count = m_cache.repository(url).getResources().length;
+
+        url = copy("/repo_for_mandatory.xml", "repository.xml");
+        new File(m_dir, "repository.xml").setLastModified(System.currentTimeMillis() + 60000);
+        RepositoryImpl repository = m_cache.repository(url);
+        assertTrue(count != repository.getResources().length);
+
+        RepositoryImpl cached = m_cache.read(m_cache.getFile(url), url);
+        assertEquals(getIds(repository), getIds(cached));
+    }
+
+    public void testInvalidCacheIsIgnored() throws Exception
+    {
+        URL url = copy("/repo_for_resolvertest.xml", "repository.xml");
+        RepositoryImpl parsed = m_cache.repository(url);
+
+        // a truncated file can not be read
+        File file = m_cache.getFile(url);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() / 2);
+        raf.close();
+
+        assertNull(m_cache.read(file, url));
+        assertEquals(m_helper.writeRepository(parsed), m_helper.writeRepository(m_cache.repository(url)));
+    }
+
+    private Set getIds(RepositoryImpl repository)
+    {
+        Set ids = new HashSet();
+        Resource[] resources = repository.getResources();
+        for (int i = 0; i < resources.length; i++)
+        {
+            ids.add(resources[i].getId() + ":" + resources[i].getRequirements().length);
+        }
+        return ids;
+    }
+
+    private URL copy(String resource, String name) throws IOException
+    {
+        m_dir.mkdirs();
+        File file = new File(m_dir, name);
+        InputStream is = getClass().getResourceAsStream(resource);
+        OutputStream os = new FileOutputStream(file);
+        byte[] buffer = new byte[4096];
+        for (int len = is.read(buffer); len > 0; len = is.read(buffer))
+        {
+            os.write(buffer, 0, len);
+        }
+        os.close();
+        is.close();
+        return file.toURI().toURL();
+    }
+}
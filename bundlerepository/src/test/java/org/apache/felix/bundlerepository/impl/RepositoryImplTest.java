@@ -104,6 +104,7 @@ public class RepositoryImplTest extends TestCase
         EasyMock.expect(systemBundle.getBundleContext()).andReturn(bundleContext);
         bundleContext.addBundleListener((BundleListener) EasyMock.anyObject());
         bundleContext.addServiceListener((ServiceListener) EasyMock.anyObject());
+        EasyMock.expect(bundleContext.getDataFile((String) EasyMock.anyObject())).andReturn(null).anyTimes();
         EasyMock.expect(bundleContext.getBundles()).andReturn(new Bundle[] { systemBundle });
         EasyMock.expect(bundleContext.createFilter(null)).andReturn(new Filter() {
             public boolean match(ServiceReference reference) {
@@ -18,8 +18,16 @@
  */
 package org.apache.felix.bundlerepository.impl;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -131,6 +139,106 @@ public class ResolverImplTest extends TestCase
 
     }
 
+    public void testDeployStartsProvidersFirst() throws Exception
+    {
+        // a requires b which requires c
+        ResourceImpl a = createResource("a", "pa", "pb");
+        ResourceImpl b = createResource("b", "pb", "pc");
+        ResourceImpl c = createResource("c", "pc", null);
+        Repository repo = new RepositoryImpl(new Resource[] { a, b, c });
+
+        final List started = new ArrayList();
+        BundleContext context = createDeployContext(started);
+        Resolver resolver = new ResolverImpl(context, new Repository[] { repo }, new Logger(context));
+        resolver.add(a);
+        resolver.deploy(Resolver.START);
+
+        List expected = new ArrayList();
+        expected.add("c");
+        expected.add("b");
+        expected.add("a");
+        assertEquals(expected, started);
+    }
+
+    private ResourceImpl createResource(String name, String export, String imp) throws Exception
+    {
+        File dir = new File("target/resolvertest");
+        dir.mkdirs();
+        File file = new File(dir, name + ".jar");
+        FileOutputStream os = new FileOutputStream(file);
+        os.write(name.getBytes());
+        os.close();
+
+        ResourceImpl resource = new ResourceImpl();
+        resource.put(Resource.SYMBOLIC_NAME, name);
+        resource.put(Resource.URI, file.getAbsoluteFile().toURI().toString());
+        CapabilityImpl cap = new CapabilityImpl("package");
+        cap.addProperty("package", export);
+        resource.addCapability(cap);
+        if (imp != null)
+        {
+            RequirementImpl req = new RequirementImpl("package");
+            req.setFilter("(package=" + imp + ")");
+            resource.addRequire(req);
+        }
+        return resource;
+    }
+
+    /**
+     * Creates a context which installs bundles named after their location
+     * and records the names of the bundles when they are started.
+     */
+    private BundleContext createDeployContext(final List started)
+    {
+        return (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] { BundleContext.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if (method.getName().equals("installBundle"))
+                {
+                    ((InputStream) args[1]).close();
+                    String location = (String) args[0];
+                    String name = location.substring("obr://".length(), location.lastIndexOf('/'));
+                    return createBundle(name, started);
+                }
+                return null;
+            }
+        });
+    }
+
+    private Bundle createBundle(final String name, final List started)
+    {
+        return (Bundle) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] { Bundle.class }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if (method.getName().equals("equals"))
+                {
+                    return Boolean.valueOf(proxy == args[0]);
+                }
+                else if (method.getName().equals("hashCode"))
+                {
+                    return new Integer(name.hashCode());
+                }
+                else if (method.getName().equals("getHeaders"))
+                {
+                    return new Hashtable();
+                }
+                else if (method.getName().equals("getSymbolicName"))
+                {
+                    return name;
+                }
+                else if (method.getName().equals("start"))
+                {
+                    started.add(name);
+                }
+                return null;
+            }
+        });
+    }
+
     public static void main(String[] args) throws Exception
     {
         new ResolverImplTest().testReferral1();
@@ -152,6 +260,7 @@ public class ResolverImplTest extends TestCase
         EasyMock.expect(systemBundle.getBundleContext()).andReturn(bundleContext);
         bundleContext.addBundleListener((BundleListener) EasyMock.anyObject());
         bundleContext.addServiceListener((ServiceListener) EasyMock.anyObject());
+        EasyMock.expect(bundleContext.getDataFile((String) EasyMock.anyObject())).andReturn(null).anyTimes();
         EasyMock.expect(bundleContext.getBundles()).andReturn(new Bundle[] { systemBundle });
         final Capture c = new Capture();
         EasyMock.expect(bundleContext.createFilter((String) capture(c))).andAnswer(new IAnswer() {
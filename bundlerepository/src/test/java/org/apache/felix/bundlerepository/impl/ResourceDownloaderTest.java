@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Resource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ResourceDownloaderTest extends TestCase
+{
+    private File m_dir;
+    private HttpServer m_server;
+    private ExecutorService m_executor;
+    private int m_active;
+    private int m_maxActive;
+    private boolean m_stalled;
+
+    protected void setUp() throws Exception
+    {
+        m_dir = new File("target/downloads");
+        delete(m_dir);
+        m_dir.mkdirs();
+        m_server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        m_server.createContext("/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                serve(exchange);
+            }
+        });
+        m_executor = Executors.newCachedThreadPool();
+        m_server.setExecutor(m_executor);
+        m_server.start();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        synchronized (this)
+        {
+            m_stalled = false;
+            notifyAll();
+        }
+        m_server.stop(0);
+        m_executor.shutdown();
+    }
+
+    public void testResourcesAreDownloadedInParallel() throws Exception
+    {
+        ResourceDownloader downloader = new ResourceDownloader(m_dir, 2);
+        ResourceDownloader.Download[] downloads = new ResourceDownloader.Download[4];
+        for (int i = 0; i < downloads.length; i++)
+        {
+            downloads[i] = downloader.add(createResource("r" + i, getURL("/r" + i + "?size=1000"), 1000));
+        }
+        downloader.start();
+        try
+        {
+            for (int i = 0; i < downloads.length; i++)
+            {
+                assertEquals(1000, read(downloads[i].getInputStream()).length);
+                assertEquals(1000, downloads[i].getSize());
+            }
+        }
+        finally
+        {
+            downloader.close();
+        }
+        synchronized (this)
+        {
+            assertEquals(2, m_maxActive);
+        }
+        assertEquals(0, m_dir.list().length);
+    }
+
+    public void testSizeMismatchIsReported() throws Exception
+    {
+        ResourceDownloader downloader = new ResourceDownloader(m_dir, 1);
+        ResourceDownloader.Download download = downloader.add(
+            createResource("r", getURL("/r?size=100"), 200));
+        downloader.start();
+        try
+        {
+            download.getInputStream();
+            fail("The size of the resource should have been checked");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("100 bytes instead of 200") >= 0);
+        }
+        finally
+        {
+            downloader.close();
+        }
+        assertEquals(0, m_dir.list().length);
+    }
+
+    public void testFileWithEncodedURLIsReadInPlace() throws Exception
+    {
+        File dir = new File("target/download repository");
+        dir.mkdirs();
+        File file = new File(dir, "a b.jar");
+        OutputStream os = new FileOutputStream(file);
+        os.write(new byte[10]);
+        os.close();
+
+        ResourceDownloader downloader = new ResourceDownloader(m_dir, 1);
+        String uri = file.getAbsoluteFile().toURI().toString();
+        assertTrue(uri, uri.indexOf("%20") >= 0);
+        ResourceDownloader.Download download = downloader.add(createResource("r", uri, 10));
+        downloader.start();
+        try
+        {
+            assertEquals(10, read(download.getInputStream()).length);
+            assertEquals(0, m_dir.list().length);
+        }
+        finally
+        {
+            downloader.close();
+        }
+        assertTrue(file.exists());
+    }
+
+    public void testErrorIsReported() throws Exception
+    {
+        ResourceImpl resource = new ResourceImpl()
+        {
+            public Long getSize()
+            {
+                throw new LinkageError("test");
+            }
+        };
+        resource.put(Resource.SYMBOLIC_NAME, "r");
+        resource.put(Resource.URI, getURL("/r?size=10"));
+
+        ResourceDownloader downloader = new ResourceDownloader(m_dir, 1);
+        ResourceDownloader.Download download = downloader.add(resource);
+        downloader.start();
+        try
+        {
+            download.getInputStream();
+            fail("The error should have been reported");
+        }
+        catch (Exception e)
+        {
+            assertTrue(e.getCause() instanceof LinkageError);
+        }
+        finally
+        {
+            downloader.close();
+        }
+        assertEquals(0, m_dir.list().length);
+    }
+
+    public void testCloseDoesNotWaitForStalledDownload() throws Exception
+    {
+        synchronized (this)
+        {
+            m_stalled = true;
+        }
+        ResourceDownloader downloader = new ResourceDownloader(m_dir, 1);
+        downloader.add(createResource("r", getURL("/r?size=10"), 10));
+        downloader.start();
+        synchronized (this)
+        {
+            while (m_active == 0)
+            {
+                wait();
+            }
+        }
+        long start = System.currentTimeMillis();
+        downloader.close();
+        assertTrue(System.currentTimeMillis() - start < 15000);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException
+    {
+        String query = exchange.getRequestURI().getQuery();
+        int size = Integer.parseInt(query.substring(query.indexOf('=') + 1));
+        synchronized (this)
+        {
+            m_active++;
+            m_maxActive = Math.max(m_maxActive, m_active);
+            notifyAll();
+            try
+            {
+                // Wait for another download to start, or for the test to end
+                long end = System.currentTimeMillis() + 2000;
+                long now;
+                while ((m_stalled || m_active < 2) && (now = System.currentTimeMillis()) < end)
+                {
+                    wait(end - now);
+                }
+                while (m_stalled)
+                {
+                    wait();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            m_active--;
+        }
+        exchange.sendResponseHeaders(200, size);
+        OutputStream os = exchange.getResponseBody();
+        os.write(new byte[size]);
+        os.close();
+    }
+
+    private String getURL(String path)
+    {
+        return "http://localhost:" + m_server.getAddress().getPort() + path;
+    }
+
+    private Resource createResource(String name, String uri, long size)
+    {
+        ResourceImpl resource = new ResourceImpl();
+        resource.put(Resource.SYMBOLIC_NAME, name);
+        resource.put(Resource.URI, uri);
+        resource.put(Resource.SIZE, Long.toString(size));
+        return resource;
+    }
+
+    private static byte[] read(InputStream is) throws IOException
+    {
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int len = is.read(buffer); len > 0; len = is.read(buffer))
+            {
+                baos.write(buffer, 0, len);
+            }
+            return baos.toByteArray();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        for (int i = 0; children != null && i < children.length; i++)
+        {
+            delete(children[i]);
+        }
+        file.delete();
+    }
+}
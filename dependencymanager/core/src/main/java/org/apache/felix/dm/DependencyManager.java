@@ -24,11 +24,14 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.felix.dm.impl.AdapterServiceImpl;
 import org.apache.felix.dm.impl.AspectServiceImpl;
 import org.apache.felix.dm.impl.BundleAdapterServiceImpl;
+import org.apache.felix.dm.impl.ComponentExecutorPool;
 import org.apache.felix.dm.impl.ComponentImpl;
 import org.apache.felix.dm.impl.FactoryConfigurationAdapterServiceImpl;
 import org.apache.felix.dm.impl.Logger;
@@ -60,11 +63,27 @@ import org.osgi.framework.FrameworkUtil;
  */
 public class DependencyManager {
     public static final String ASPECT = "org.apache.felix.dependencymanager.aspect";
+    /**
+     * System property with the filter indices to use, separated by semicolons. Each entry
+     * is either a comma separated list of property keys, <code>*aspect*</code>,
+     * <code>*adapter*</code> or <code>*auto*</code>. The latter enables adaptive indices
+     * which are created for frequently used filters.
+     */
     public static final String SERVICEREGISTRY_CACHE_INDICES = "org.apache.felix.dependencymanager.filterindex";
     public static final String METHOD_CACHE_SIZE = "org.apache.felix.dependencymanager.methodcache";
+    /**
+     * System property with the number of threads used to process component state
+     * changes and dependency callbacks in parallel. Each component still processes
+     * its own events serially. If not set, the thread that triggers a change also
+     * processes it.
+     */
+    public static final String PARALLEL = "org.apache.felix.dependencymanager.parallel";
     private final BundleContext m_context;
     private final Logger m_logger;
     private List m_components = Collections.synchronizedList(new ArrayList());
+    // shared executor pool used in parallel mode, released by clear()
+    private ComponentExecutorPool m_pool;
+    private boolean m_poolAcquired;
 
     /**
      * Creates a new dependency manager. You need to supply the
@@ -81,6 +100,7 @@ public class DependencyManager {
     DependencyManager(BundleContext context, Logger logger) {
         m_context = createContext(context);
         m_logger = logger;
+        acquirePool();
         synchronized (m_dependencyManagers) {
             m_dependencyManagers.add(new WeakReference(this));
         }
@@ -103,7 +123,9 @@ public class DependencyManager {
                 m_serviceRegistryCache.open(); // TODO close it somewhere
                 String[] props = index.split(";");
                 for (int i = 0; i < props.length; i++) {
-                    if (props[i].equals("*aspect*")) {
+                    if (props[i].equals("*auto*")) {
+                        m_serviceRegistryCache.setAdaptive(true);
+                    } else if (props[i].equals("*aspect*")) {
                         m_serviceRegistryCache.addFilterIndex(new AspectFilterIndex());
                     } else if (props[i].equals("*adapter*")) {
                     	m_serviceRegistryCache.addFilterIndex(new AdapterFilterIndex());
@@ -143,6 +165,26 @@ public class DependencyManager {
         return result;
     }
     
+    /**
+     * Returns runtime statistics of the dependency manager, such as the metrics
+     * of the shared component executor if running in parallel mode and the hits
+     * and misses of the filter indices. The map is sorted by the names of the
+     * statistics.
+     * 
+     * @return a map with the names of the statistics as keys and numbers as values
+     */
+    public static Map getStatistics() {
+        Map statistics = new TreeMap();
+        ComponentExecutorPool pool = ComponentExecutorPool.getInstance();
+        if (pool != null) {
+            pool.getStatistics(statistics);
+        }
+        if (m_serviceRegistryCache != null) {
+            m_serviceRegistryCache.getStatistics(statistics);
+        }
+        return statistics;
+    }
+    
     private BundleContext createContext(BundleContext context) {
         if (m_serviceRegistryCache != null) {
 //            System.out.println("DM: Enabling bundle context interceptor for bundle #" + context.getBundle().getBundleId());
@@ -164,13 +206,15 @@ public class DependencyManager {
      * @param service the service to add
      */
     public void add(Component service) {
+        acquirePool();
         m_components.add(service);
         service.start();
     }
 
     /**
      * Removes a service from the dependency manager. Before the service is removed
-     * it is stopped first.
+     * it is stopped first. In parallel mode, this method waits until the service
+     * has been deactivated, unless it is called by one of the service callbacks.
      * 
      * @param service the service to remove
      */
@@ -600,7 +644,9 @@ public class DependencyManager {
     }
 
     /**
-     * Removes all components and their dependencies.
+     * Removes all components and their dependencies. In parallel mode, this
+     * also releases the shared executor pool, whose threads are stopped once
+     * no dependency manager uses it anymore.
      */
     public void clear() {
         List services = getComponents();
@@ -613,6 +659,22 @@ public class DependencyManager {
                 si.removeStateListeners();
             }
         }
+        releasePool();
+    }
+    
+    private synchronized void acquirePool() {
+        if (!m_poolAcquired) {
+            m_pool = ComponentExecutorPool.acquire();
+            m_poolAcquired = true;
+        }
+    }
+    
+    private synchronized void releasePool() {
+        if (m_poolAcquired) {
+            ComponentExecutorPool.release(m_pool);
+            m_pool = null;
+            m_poolAcquired = false;
+        }
     }
     
 }
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl;
+
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.dm.DependencyManager;
+
+/**
+ * A shared pool of daemon threads used by the serial executors of all components
+ * when the dependency manager runs in parallel mode. Each component still processes
+ * its own tasks sequentially, but tasks of different components are executed
+ * concurrently. Parallel mode is enabled by setting the
+ * {@link DependencyManager#PARALLEL} system property to the number of threads
+ * that should be used.
+ * <p>
+ * The pool is started by the first dependency manager that acquires it, and its
+ * threads are stopped once the last one has released it, so that they do not
+ * outlive the dependency manager classes after a bundle refresh.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public final class ComponentExecutorPool {
+    private static final int SIZE;
+    static {
+        int size = 0;
+        String threads = System.getProperty(DependencyManager.PARALLEL);
+        if (threads != null) {
+            try {
+                size = Integer.parseInt(threads.trim());
+            }
+            catch (NumberFormatException e) {
+                // parallel mode stays disabled
+            }
+        }
+        SIZE = size;
+    }
+    
+    // guarded by ComponentExecutorPool.class
+    private static ComponentExecutorPool s_instance;
+    private static int s_users;
+    
+    private final ThreadPoolExecutor m_executor;
+    
+    // statistics, guarded by this
+    private long m_scheduled;
+    private long m_tasks;
+    private long m_contended;
+    private int m_maxPoolQueue;
+    private int m_maxComponentQueue;
+    
+    /**
+     * Returns the shared pool, or <code>null</code> if parallel mode is disabled
+     * or no dependency manager currently uses the pool.
+     */
+    public static synchronized ComponentExecutorPool getInstance() {
+        return s_instance;
+    }
+    
+    /**
+     * Registers a user of the shared pool, starting the pool if needed. Each call
+     * must be matched by a call to {@link #release(ComponentExecutorPool)}.
+     * 
+     * @return the shared pool, or <code>null</code> if parallel mode is disabled
+     */
+    public static synchronized ComponentExecutorPool acquire() {
+        if (SIZE <= 0) {
+            return null;
+        }
+        if (s_instance == null) {
+            s_instance = new ComponentExecutorPool(SIZE);
+        }
+        s_users++;
+        return s_instance;
+    }
+    
+    /**
+     * Unregisters a user of the shared pool. The threads of the pool are stopped
+     * once its last user has released it and the queued tasks have been executed.
+     * 
+     * @param pool the pool returned by {@link #acquire()}
+     */
+    public static synchronized void release(ComponentExecutorPool pool) {
+        if (pool == null || pool != s_instance) {
+            return;
+        }
+        if (--s_users == 0) {
+            s_instance = null;
+            pool.m_executor.shutdown();
+        }
+    }
+    
+    /**
+     * Returns <code>true</code> if the calling thread is one of the threads
+     * of a pool.
+     */
+    static boolean isPoolThread() {
+        return Thread.currentThread() instanceof PoolThread;
+    }
+    
+    private ComponentExecutorPool(int size) {
+        m_executor = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue(), new ThreadFactory() {
+            private final AtomicInteger m_count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new PoolThread(runnable, "DependencyManager-" + m_count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Schedules an executor whose tasks must be run by one of the pool threads.
+     * Once the pool has been shut down, the tasks are run on the calling thread.
+     * 
+     * @param executor the executor with the tasks to run
+     */
+    void execute(final SerialExecutor executor) {
+        try {
+            // the executor logs the failures of its tasks
+            m_executor.execute(new Runnable() {
+                public void run() {
+                    executor.runScheduled();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            executor.runScheduled();
+            return;
+        }
+        int queued = m_executor.getQueue().size();
+        synchronized (this) {
+            m_scheduled++;
+            if (queued > m_maxPoolQueue) {
+                m_maxPoolQueue = queued;
+            }
+        }
+    }
+
+    /**
+     * Records that a component executor has executed a task.
+     * 
+     * @param queued the number of tasks the component had queued before
+     */
+    synchronized void taskExecuted(int queued) {
+        m_tasks++;
+        if (queued > m_maxComponentQueue) {
+            m_maxComponentQueue = queued;
+        }
+    }
+    
+    /**
+     * Records that tasks were added to a component executor that was
+     * already being processed by another thread.
+     */
+    synchronized void contended() {
+        m_contended++;
+    }
+    
+    /**
+     * Adds the statistics of this pool to the given map.
+     * 
+     * @param statistics the map to add the statistics to
+     */
+    public synchronized void getStatistics(Map statistics) {
+        statistics.put("Executor threads", new Integer(m_executor.getCorePoolSize()));
+        statistics.put("Executor busy threads", new Integer(m_executor.getActiveCount()));
+        statistics.put("Executor scheduled components", new Long(m_scheduled));
+        statistics.put("Executor executed tasks", new Long(m_tasks));
+        statistics.put("Executor contended components", new Long(m_contended));
+        statistics.put("Executor queue size", new Integer(m_executor.getQueue().size()));
+        statistics.put("Executor max queue size", new Integer(m_maxPoolQueue));
+        statistics.put("Executor max component queue size", new Integer(m_maxComponentQueue));
+    }
+    
+    /** The threads of the pools, so they can be recognized by {@link #isPoolThread()}. */
+    private static final class PoolThread extends Thread {
+        PoolThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+}
@@ -88,7 +88,7 @@ public class ComponentImpl implements Component, DependencyService, ComponentDec
     private final List m_stateListeners = new ArrayList();
 
     // work queue
-    private final SerialExecutor m_executor = new SerialExecutor();
+    private final SerialExecutor m_executor;
 
     // instance factory
 	private Object m_instanceFactory;
@@ -112,6 +112,7 @@ public class ComponentImpl implements Component, DependencyService, ComponentDec
             m_id = HIGHEST_ID++;
         }
     	m_logger = logger;
+        m_executor = new SerialExecutor(ComponentExecutorPool.getInstance(), logger);
         m_state = new State((List) m_dependencies.clone(), false, false, false);
         m_context = context;
         m_manager = manager;
@@ -394,8 +395,11 @@ public class ComponentImpl implements Component, DependencyService, ComponentDec
     	}
     }
 
-    public synchronized void stop() {
-        if (m_isStarted) {
+    public void stop() {
+        synchronized (this) {
+            if (!m_isStarted) {
+                return;
+            }
             m_isStarted = false;
 	        State oldState, newState;
 	        synchronized (m_dependencies) {
@@ -405,6 +409,28 @@ public class ComponentImpl implements Component, DependencyService, ComponentDec
 	        }
 	        calculateStateChanges(oldState, newState);
     	}
+        // in parallel mode, the deactivation must be complete before the caller goes on,
+        // the bundle context may not be valid anymore afterwards (pool threads do not
+        // wait, as the component might be waiting for them)
+        m_executor.await();
+    }
+
+    /**
+     * Invokes a dependency callback. In parallel mode, the callback is queued
+     * after the pending state changes of this component, so that it does not
+     * run concurrently with the lifecycle callbacks. Otherwise, it is invoked
+     * on the calling thread.
+     * 
+     * @param callback the callback to invoke
+     */
+    public void invokeCallback(Runnable callback) {
+        if (m_executor.isPooled()) {
+            m_executor.enqueue(callback);
+            m_executor.execute();
+        }
+        else {
+            callback.run();
+        }
     }
 
     public synchronized Component setInterface(String serviceName, Dictionary properties) {
@@ -28,12 +28,51 @@ import java.util.NoSuchElementException;
  * task that comes along whilst making sure subsequent tasks return
  * without waiting.
  * 
+ * If a {@link ComponentExecutorPool} is supplied, the tasks are not executed
+ * on the thread that calls {@link #execute()} but handed over to the pool.
+ * Tasks are still executed sequentially and in order, and a failing task
+ * is logged without stopping the ones after it.
+ * 
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public final class SerialExecutor {
     private final LinkedList m_workQueue = new LinkedList();
+    private final ComponentExecutorPool m_pool;
+    private final Logger m_logger;
     private Runnable m_active;
+    // pool mode only: a pool thread is about to drain the tasks
+    private boolean m_scheduled;
+    // pool mode only: the thread draining the tasks
+    private Thread m_thread;
     
+    /**
+     * Creates an executor that runs its tasks on the threads calling {@link #execute()}.
+     * 
+     * @param logger the logger used to report failing tasks
+     */
+    public SerialExecutor(Logger logger) {
+        this(null, logger);
+    }
+
+    /**
+     * Creates an executor that runs its tasks on the given pool.
+     * 
+     * @param pool the pool to use, or <code>null</code> to run tasks on the calling threads
+     * @param logger the logger used to report failing tasks
+     */
+    public SerialExecutor(ComponentExecutorPool pool, Logger logger) {
+        m_pool = pool;
+        m_logger = logger;
+    }
+
+    /**
+     * Returns <code>true</code> if the tasks are executed by a pool
+     * instead of the threads calling {@link #execute()}.
+     */
+    public boolean isPooled() {
+        return m_pool != null;
+    }
+
     /**
      * Enqueue a new task for later execution. This method is
      * thread-safe, so multiple threads can contribute tasks.
@@ -41,6 +80,10 @@ public final class SerialExecutor {
      * @param runnable the runnable containing the actual task
      */
     public synchronized void enqueue(final Runnable runnable) {
+        if (m_pool != null) {
+            m_workQueue.addLast(runnable);
+            return;
+        }
     	m_workQueue.addLast(new Runnable() {
 			public void run() {
 				try {
@@ -60,6 +103,10 @@ public final class SerialExecutor {
      * so. Other threads will return immediately.
      */
     public void execute() {
+        if (m_pool != null) {
+            schedule();
+            return;
+        }
     	Runnable active;
     	synchronized (this) {
     		active = m_active;
@@ -69,6 +116,45 @@ public final class SerialExecutor {
     	}
     }
 
+    /**
+     * Waits until the pending tasks have been executed. If no thread is
+     * working on them, they are executed on the calling thread. Returns
+     * immediately if called by a task of this executor, or if the tasks are
+     * not executed by a pool, in which case {@link #execute()} has already
+     * executed them.
+     * <p>
+     * A pool thread never waits for another thread, which might itself be
+     * waiting for a component the pool thread is working on, for example when
+     * two components stop each other. The tasks then complete asynchronously.
+     */
+    public void await() {
+        if (m_pool == null) {
+            return;
+        }
+        synchronized (this) {
+            while (m_thread != null || !m_workQueue.isEmpty()) {
+                if (m_thread == Thread.currentThread()) {
+                    return;
+                }
+                if (m_thread != null && ComponentExecutorPool.isPoolThread()) {
+                    return;
+                }
+                if (m_thread == null) {
+                    // nobody is working on the tasks yet, so we do it ourselves
+                    break;
+                }
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        drain();
+    }
+
     private void scheduleNext() {
     	Runnable active;
     	synchronized (this) {
@@ -84,4 +170,70 @@ public final class SerialExecutor {
             active.run();
         }
     }
+    
+    /**
+     * Hands the pending tasks over to the pool, unless a thread
+     * is already working on them.
+     */
+    private void schedule() {
+        synchronized (this) {
+            if (m_workQueue.isEmpty()) {
+                return;
+            }
+            if (m_scheduled || m_thread != null) {
+                m_pool.contended();
+                return;
+            }
+            m_scheduled = true;
+        }
+        m_pool.execute(this);
+    }
+    
+    /**
+     * Called by the pool thread that picked up this executor
+     * after {@link #schedule()} handed it over.
+     */
+    void runScheduled() {
+        synchronized (this) {
+            m_scheduled = false;
+        }
+        drain();
+    }
+    
+    /**
+     * Runs all pending tasks on the current thread, unless another
+     * thread is already working on them.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (m_thread != null || m_workQueue.isEmpty()) {
+                return;
+            }
+            m_thread = Thread.currentThread();
+        }
+        while (true) {
+            Runnable active;
+            int queued;
+            synchronized (this) {
+                if (m_workQueue.isEmpty()) {
+                    m_active = null;
+                    m_thread = null;
+                    // wake up the threads waiting for the tasks to complete
+                    notifyAll();
+                    return;
+                }
+                queued = m_workQueue.size();
+                active = (Runnable) m_workQueue.removeFirst();
+                m_active = active;
+            }
+            try {
+                active.run();
+            }
+            catch (Throwable t) {
+                // do not let one failing task stop the others
+                m_logger.log(Logger.LOG_ERROR, "Error executing component task.", t);
+            }
+            m_pool.taskExecuted(queued);
+        }
+    }
 }
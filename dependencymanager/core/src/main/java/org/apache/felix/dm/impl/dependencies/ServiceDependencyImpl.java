@@ -41,6 +41,7 @@ import org.apache.felix.dm.DependencyService;
 import org.apache.felix.dm.InvocationUtil;
 import org.apache.felix.dm.ServiceDependency;
 import org.apache.felix.dm.ServiceUtil;
+import org.apache.felix.dm.impl.ComponentImpl;
 import org.apache.felix.dm.impl.DefaultNullObject;
 import org.apache.felix.dm.impl.Logger;
 import org.apache.felix.dm.tracker.ServiceTracker;
@@ -457,7 +458,7 @@ public class ServiceDependencyImpl extends DependencyBase implements ServiceDepe
             DependencyService ds = (DependencyService) services[i];
             if (makeAvailable) {
                 if (ds.isInstantiated() && isInstanceBound() && isRequired()) {
-                    invokeAdded(ds, ref, service);
+                    invokeAddedCallback(ds, ref, service);
                 }
                 // The dependency callback will be defered until all required dependency are available.
                 ds.dependencyAvailable(this);
@@ -466,7 +467,7 @@ public class ServiceDependencyImpl extends DependencyBase implements ServiceDepe
                     // that the service has been started, and the service start method has been called.
                     // (See the ServiceImpl.bindService method, which will activate optional dependencies using 
                     // startTrackingOptional() method). 
-                    invokeAdded(ds, ref, service);
+                    invokeAddedCallback(ds, ref, service);
                 }
             }
             else {
@@ -478,7 +479,7 @@ public class ServiceDependencyImpl extends DependencyBase implements ServiceDepe
                 
                 // we only try to invoke the method here if we are really already instantiated
                 if (ds.isInstantiated() && ds.getCompositionInstances().length > 0) {
-                    invokeAdded(ds, ref, service);
+                    invokeAddedCallback(ds, ref, service);
                 }
             }
         }
@@ -493,7 +494,14 @@ public class ServiceDependencyImpl extends DependencyBase implements ServiceDepe
             DependencyService ds = (DependencyService) services[i];
             ds.dependencyChanged(this);
             if (ds.isRegistered()) {
-                invokeChanged(ds, ref, service);
+                final DependencyService dependencyService = ds;
+                final ServiceReference reference = ref;
+                final Object serviceObject = service;
+                invokeCallback(ds, new Runnable() {
+                    public void run() {
+                        invokeChanged(dependencyService, reference, serviceObject);
+                    }
+                });
             }
         }
     }
@@ -506,22 +514,82 @@ public class ServiceDependencyImpl extends DependencyBase implements ServiceDepe
             services = m_services.toArray();
         }
 
+        // unget what we got in addingService (see ServiceTracker 701.4.1),
+        // once the removed callbacks have been invoked
+        final UngetService unget = new UngetService(ref, services.length);
         for (int i = 0; i < services.length; i++) {
             DependencyService ds = (DependencyService) services[i];
+            final boolean invokeRemoved;
             if (makeUnavailable) {
                 ds.dependencyUnavailable(this);
-                if (!isRequired() || (ds.isInstantiated() && isInstanceBound())) {
-                    invokeRemoved(ds, ref, service);
-                }
+                invokeRemoved = !isRequired() || (ds.isInstantiated() && isInstanceBound());
             }
             else {
                 ds.dependencyChanged(this);
-                invokeRemoved(ds, ref, service);
+                invokeRemoved = true;
             }
+            final DependencyService dependencyService = ds;
+            final ServiceReference reference = ref;
+            final Object serviceObject = service;
+            invokeCallback(ds, new Runnable() {
+                public void run() {
+                    try {
+                        if (invokeRemoved) {
+                            invokeRemoved(dependencyService, reference, serviceObject);
+                        }
+                    }
+                    finally {
+                        unget.done();
+                    }
+                }
+            });
+        }
+        unget.done();
+    }
+    
+    private void invokeAddedCallback(final DependencyService dependencyService, final ServiceReference reference, final Object service) {
+        invokeCallback(dependencyService, new Runnable() {
+            public void run() {
+                invokeAdded(dependencyService, reference, service);
+            }
+        });
+    }
+    
+    /**
+     * Invokes a callback of the given dependency service. In parallel mode, the callback is
+     * executed by the component after its pending state changes, see {@link ComponentImpl#invokeCallback(Runnable)}.
+     */
+    private void invokeCallback(DependencyService dependencyService, Runnable callback) {
+        if (dependencyService instanceof ComponentImpl) {
+            ((ComponentImpl) dependencyService).invokeCallback(callback);
+        }
+        else {
+            callback.run();
+        }
+    }
+    
+    /**
+     * Ungets a removed service once the removed callbacks of all the dependency services
+     * have been invoked, which may happen later on other threads in parallel mode.
+     */
+    private class UngetService {
+        private final ServiceReference m_reference;
+        // the callbacks, plus the thread that queues them
+        private int m_pending;
+        
+        UngetService(ServiceReference reference, int callbacks) {
+            m_reference = reference;
+            m_pending = callbacks + 1;
+        }
+        
+        void done() {
+            synchronized (this) {
+                if (--m_pending > 0) {
+                    return;
+                }
+            }
+            m_context.ungetService(m_reference);
         }
-        // unget what we got in addingService (see ServiceTracker 701.4.1)
-        m_context.ungetService(ref);
-
     }
     
     public void invokeAdded(DependencyService dependencyService, ServiceReference reference, Object service) {
@@ -0,0 +1,494 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.dm.FilterIndex;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * A filter index that is created on the fly by the {@link ServiceRegistryCache} for
+ * a frequently used {@link FilterShape}. Services are partitioned by the value of the
+ * primary attribute of the shape (or by its presence), so lookups and event dispatching
+ * only have to consider the services in one partition. Every candidate is matched
+ * against the actual filter, so the index never changes the outcome of a lookup.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class AdaptiveFilterIndex implements FilterIndex {
+    /** The maximum number of compiled filters kept per index. */
+    private static final int FILTER_CACHE_SIZE = 256;
+    private final FilterShape m_shape;
+    private final Object m_lock = new Object();
+    private BundleContext m_context;
+    private boolean m_ready;
+    /** Services with a String value for the primary attribute, by value. */
+    private final Map /* <String, List<ServiceReference>> */ m_valueToReferencesMap = new HashMap();
+    /** Services with a value for the primary attribute that is not a String. */
+    private final List /* <ServiceReference> */ m_otherReferences = new ArrayList();
+    /** All indexed services and the values they are stored under (null for other). */
+    private final Map /* <ServiceReference, String[]> */ m_referenceToValuesMap = new HashMap();
+    /** Listeners by the value of the primary attribute in their filter (null for presence). */
+    private final Map /* <String, List<ListenerEntry>> */ m_valueToListenersMap = new HashMap();
+    private final Map /* <ServiceListener, ListenerEntry> */ m_listenerToEntryMap = new HashMap();
+    /** Services unregistered while the index is populated, which must not be added. */
+    private final Set /* <ServiceReference> */ m_unregistered = new HashSet();
+    private final Map /* <String, Filter> */ m_filterCache = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > FILTER_CACHE_SIZE;
+        }
+    };
+    private long m_lastUsed = System.currentTimeMillis();
+    private final AtomicLong m_hits = new AtomicLong();
+
+    public AdaptiveFilterIndex(FilterShape shape) {
+        m_shape = shape;
+    }
+    
+    public FilterShape getShape() {
+        return m_shape;
+    }
+
+    public void open(BundleContext context) {
+        synchronized (m_lock) {
+            if (m_context != null) {
+                throw new IllegalStateException("Filter already open.");
+            }
+            m_context = context;
+        }
+        // events might already be delivered while we populate the index, so
+        // adding a reference twice must be harmless, and services unregistered
+        // in the meantime are recorded so they are not left in the index
+        try {
+            ServiceReference[] references = context.getAllServiceReferences(null, null);
+            if (references != null) {
+                for (int i = 0; i < references.length; i++) {
+                    if (references[i].getBundle() != null) {
+                        add(references[i]);
+                    }
+                }
+            }
+        }
+        catch (InvalidSyntaxException e) {
+            throw new Error("Invalid filter syntax thrown for null filter.", e);
+        }
+        synchronized (m_lock) {
+            Iterator iterator = m_unregistered.iterator();
+            while (iterator.hasNext()) {
+                remove((ServiceReference) iterator.next());
+            }
+            m_unregistered.clear();
+            m_ready = true;
+        }
+    }
+
+    public void close() {
+        synchronized (m_lock) {
+            if (m_context == null) {
+                throw new IllegalStateException("Filter already closed.");
+            }
+            m_context = null;
+            m_ready = false;
+            m_valueToReferencesMap.clear();
+            m_otherReferences.clear();
+            m_referenceToValuesMap.clear();
+            m_unregistered.clear();
+        }
+    }
+
+    /**
+     * Closes the index if it has no listeners and has not been found applicable
+     * for the given time. Checked under the same lock as {@link #isApplicable(FilterShape)},
+     * so an index that was just handed out for a lookup is not closed.
+     * 
+     * @return <code>true</code> if the index was closed
+     */
+    public boolean closeIfIdle(long now, long idleTime) {
+        synchronized (m_lock) {
+            if (m_context == null || !m_listenerToEntryMap.isEmpty() || now - m_lastUsed <= idleTime) {
+                return false;
+            }
+            close();
+            return true;
+        }
+    }
+
+    public boolean isApplicable(String clazz, String filter) {
+        FilterShape shape = FilterShape.parse(clazz, filter);
+        return shape != null && isApplicable(shape);
+    }
+    
+    /** Determines if a shape, parsed before, can be handled by this index. */
+    public boolean isApplicable(FilterShape shape) {
+        if (!m_shape.getKey().equals(shape.getKey())) {
+            return false;
+        }
+        synchronized (m_lock) {
+            if (!m_ready) {
+                return false;
+            }
+            m_lastUsed = System.currentTimeMillis();
+        }
+        m_hits.incrementAndGet();
+        return true;
+    }
+
+    public List /* <ServiceReference> */ getAllServiceReferences(String clazz, String filter) {
+        List /* <ServiceReference> */ result = new ArrayList();
+        FilterShape shape = FilterShape.parse(clazz, filter);
+        if (shape == null) {
+            return result;
+        }
+        Filter compiled = getFilter(filter);
+        synchronized (m_lock) {
+            if (shape.isPrimaryEquality()) {
+                List references = (List) m_valueToReferencesMap.get(shape.getPrimaryValue());
+                if (references != null) {
+                    addMatching(references, clazz, compiled, result);
+                }
+                addMatching(m_otherReferences, clazz, compiled, result);
+            }
+            else {
+                addMatching(m_referenceToValuesMap.keySet(), clazz, compiled, result);
+            }
+        }
+        return result;
+    }
+
+    private void addMatching(Collection references, String clazz, Filter filter, List result) {
+        Iterator iterator = references.iterator();
+        while (iterator.hasNext()) {
+            ServiceReference reference = (ServiceReference) iterator.next();
+            if (matches(reference, clazz, filter)) {
+                result.add(reference);
+            }
+        }
+    }
+    
+    private boolean matches(ServiceReference reference, String clazz, Filter filter) {
+        if (clazz != null) {
+            String[] objectClasses = (String[]) reference.getProperty(Constants.OBJECTCLASS);
+            boolean found = false;
+            for (int i = 0; objectClasses != null && i < objectClasses.length && !found; i++) {
+                found = clazz.equals(objectClasses[i]);
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return filter == null || filter.match(reference);
+    }
+
+    private Filter getFilter(String filter) {
+        if (filter == null) {
+            return null;
+        }
+        BundleContext context;
+        synchronized (m_lock) {
+            Filter compiled = (Filter) m_filterCache.get(filter);
+            if (compiled != null) {
+                return compiled;
+            }
+            context = m_context;
+        }
+        if (context == null) {
+            throw new IllegalStateException("No valid bundle context.");
+        }
+        try {
+            Filter compiled = context.createFilter(filter);
+            synchronized (m_lock) {
+                m_filterCache.put(filter, compiled);
+            }
+            return compiled;
+        }
+        catch (InvalidSyntaxException e) {
+            throw new IllegalArgumentException("Invalid filter: " + filter);
+        }
+    }
+
+    /**
+     * Returns the String values of the primary attribute of a service, an empty array
+     * if the attribute is not present, or <code>null</code> if it has non String values.
+     */
+    private String[] getValues(ServiceReference reference) {
+        Object value = reference.getProperty(m_shape.getPrimaryAttribute());
+        if (value == null) {
+            return new String[0];
+        }
+        if (!m_shape.isPrimaryEquality()) {
+            // partitioned by presence only
+            return new String[] { "" };
+        }
+        if (value instanceof String) {
+            return new String[] { (String) value };
+        }
+        if (value instanceof String[]) {
+            return (String[]) value;
+        }
+        if (value instanceof Collection) {
+            Collection values = (Collection) value;
+            String[] result = new String[values.size()];
+            Iterator iterator = values.iterator();
+            for (int i = 0; iterator.hasNext(); i++) {
+                Object item = iterator.next();
+                if (!(item instanceof String)) {
+                    return null;
+                }
+                result[i] = (String) item;
+            }
+            return result;
+        }
+        // numbers and other types can match differently formatted filter values
+        return null;
+    }
+
+    private void add(ServiceReference reference) {
+        String[] values = getValues(reference);
+        if (values != null && values.length == 0) {
+            return;
+        }
+        synchronized (m_lock) {
+            if (m_context == null || m_referenceToValuesMap.containsKey(reference) || m_unregistered.contains(reference)) {
+                return;
+            }
+            m_referenceToValuesMap.put(reference, values);
+            if (values == null) {
+                m_otherReferences.add(reference);
+            }
+            else if (m_shape.isPrimaryEquality()) {
+                for (int i = 0; i < values.length; i++) {
+                    List references = (List) m_valueToReferencesMap.get(values[i]);
+                    if (references == null) {
+                        references = new ArrayList();
+                        m_valueToReferencesMap.put(values[i], references);
+                    }
+                    references.add(reference);
+                }
+            }
+        }
+    }
+
+    /** Removes a service and returns the values it was stored under. */
+    private String[] remove(ServiceReference reference) {
+        synchronized (m_lock) {
+            if (!m_referenceToValuesMap.containsKey(reference)) {
+                return new String[0];
+            }
+            String[] values = (String[]) m_referenceToValuesMap.remove(reference);
+            if (values == null) {
+                m_otherReferences.remove(reference);
+            }
+            else if (m_shape.isPrimaryEquality()) {
+                for (int i = 0; i < values.length; i++) {
+                    List references = (List) m_valueToReferencesMap.get(values[i]);
+                    if (references != null) {
+                        references.remove(reference);
+                        if (references.isEmpty()) {
+                            m_valueToReferencesMap.remove(values[i]);
+                        }
+                    }
+                }
+            }
+            return values;
+        }
+    }
+
+    public void serviceChanged(ServiceEvent event) {
+        ServiceReference reference = event.getServiceReference();
+        String[] oldValues = null;
+        switch (event.getType()) {
+            case ServiceEvent.REGISTERED:
+                add(reference);
+                break;
+            case ServiceEvent.MODIFIED:
+                oldValues = remove(reference);
+                add(reference);
+                break;
+        }
+        
+        // collect the listeners that might be interested in this event
+        String[] values = getValues(reference);
+        List /* <ListenerEntry> */ candidates = new ArrayList();
+        List /* <ListenerEntry> */ previous = new ArrayList();
+        synchronized (m_lock) {
+            collectListeners(values, candidates);
+            if (oldValues != null) {
+                collectListeners(oldValues, previous);
+                previous.removeAll(candidates);
+            }
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            ListenerEntry entry = (ListenerEntry) candidates.get(i);
+            if (entry.m_filter.match(reference)) {
+                entry.m_listener.serviceChanged(event);
+            }
+            else if (event.getType() == ServiceEvent.MODIFIED) {
+                // the service might have matched before the modification
+                entry.m_listener.serviceChanged(new ServiceEvent(8 /* ServiceEvent.MODIFIED_ENDMATCH */, reference));
+            }
+        }
+        for (int i = 0; i < previous.size(); i++) {
+            ListenerEntry entry = (ListenerEntry) previous.get(i);
+            entry.m_listener.serviceChanged(new ServiceEvent(8 /* ServiceEvent.MODIFIED_ENDMATCH */, reference));
+        }
+
+        if (event.getType() == ServiceEvent.UNREGISTERING) {
+            synchronized (m_lock) {
+                if (m_context != null && !m_ready) {
+                    m_unregistered.add(reference);
+                }
+                remove(reference);
+            }
+        }
+    }
+    
+    private void collectListeners(String[] values, List result) {
+        if (!m_shape.isPrimaryEquality()) {
+            if (values == null || values.length > 0) {
+                List listeners = (List) m_valueToListenersMap.get(null);
+                if (listeners != null) {
+                    result.addAll(listeners);
+                }
+            }
+        }
+        else if (values == null) {
+            // the value could match any of the listeners
+            Iterator iterator = m_valueToListenersMap.values().iterator();
+            while (iterator.hasNext()) {
+                result.addAll((List) iterator.next());
+            }
+        }
+        else {
+            for (int i = 0; i < values.length; i++) {
+                List listeners = (List) m_valueToListenersMap.get(values[i]);
+                if (listeners != null) {
+                    result.addAll(listeners);
+                }
+            }
+        }
+    }
+
+    public void addServiceListener(ServiceListener listener, String filter) {
+        FilterShape shape = FilterShape.parse(null, filter);
+        ListenerEntry entry = new ListenerEntry(listener, getFilter(filter), shape.getPrimaryValue());
+        synchronized (m_lock) {
+            removeListenerEntry(listener);
+            List listeners = (List) m_valueToListenersMap.get(entry.m_value);
+            if (listeners == null) {
+                listeners = new ArrayList();
+                m_valueToListenersMap.put(entry.m_value, listeners);
+            }
+            listeners.add(entry);
+            m_listenerToEntryMap.put(listener, entry);
+        }
+    }
+
+    public void removeServiceListener(ServiceListener listener) {
+        synchronized (m_lock) {
+            removeListenerEntry(listener);
+        }
+    }
+    
+    /**
+     * Removes a listener if it was registered with this index.
+     * 
+     * @return <code>true</code> if the listener was registered with this index
+     */
+    public boolean removeListener(ServiceListener listener) {
+        synchronized (m_lock) {
+            return removeListenerEntry(listener);
+        }
+    }
+
+    private boolean removeListenerEntry(ServiceListener listener) {
+        ListenerEntry entry = (ListenerEntry) m_listenerToEntryMap.remove(listener);
+        if (entry == null) {
+            return false;
+        }
+        List listeners = (List) m_valueToListenersMap.get(entry.m_value);
+        if (listeners != null) {
+            listeners.remove(entry);
+            if (listeners.isEmpty()) {
+                m_valueToListenersMap.remove(entry.m_value);
+            }
+        }
+        return true;
+    }
+    
+    /** Returns the number of listeners registered with this index. */
+    public int getListenerCount() {
+        synchronized (m_lock) {
+            return m_listenerToEntryMap.size();
+        }
+    }
+    
+    /** Returns the time this index was last found applicable. */
+    public long getLastUsed() {
+        synchronized (m_lock) {
+            return m_lastUsed;
+        }
+    }
+    
+    /** Returns the number of times this index was found applicable. */
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("AdaptiveFilterIndex[");
+        sb.append(m_shape);
+        synchronized (m_lock) {
+            sb.append(", V2SR: " + m_valueToReferencesMap.size());
+            sb.append(", SR: " + m_referenceToValuesMap.size());
+            sb.append(", L: " + m_listenerToEntryMap.size());
+        }
+        sb.append(", hits: " + m_hits.get());
+        sb.append("]");
+        return sb.toString();
+    }
+    
+    private static class ListenerEntry {
+        private final ServiceListener m_listener;
+        private final Filter m_filter;
+        private final String m_value;
+
+        public ListenerEntry(ServiceListener listener, Filter filter, String value) {
+            m_listener = listener;
+            m_filter = filter;
+            m_value = value;
+        }
+    }
+}
@@ -68,7 +68,7 @@ public class BundleContextInterceptor extends BundleContextInterceptorBase {
         if (filterIndex != null) {
             filterIndex.removeServiceListener(listener);
         }
-        else {
+        else if (!m_cache.removeAdaptiveServiceListener(listener)) {
             m_context.removeServiceListener(listener);
         }
     }
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.osgi.framework.Constants;
+
+/**
+ * The shape of a service lookup: the attributes and operators of a class and filter
+ * combination without the actual values. Only conjunctions of equality, presence and
+ * range clauses have a shape, all other filters cannot be indexed.
+ * <p>
+ * For example <code>(&amp;(objectClass=a.B)(version&gt;=2)(name=*))</code> has the shape
+ * <code>name=*;objectclass=;version&gt;=</code>. The primary attribute of a shape is
+ * used to partition the services of an index. It is the <code>objectClass</code> if
+ * there is an equality clause for it, or else the first attribute with an equality
+ * clause. Shapes without any equality clause are partitioned by the presence of their
+ * first attribute.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class FilterShape {
+    private static final String OBJECTCLASS = Constants.OBJECTCLASS.toLowerCase();
+    private final String m_key;
+    private final String m_primaryAttribute;
+    private final String m_primaryValue;
+    private final boolean m_primaryEquality;
+
+    private FilterShape(String key, String primaryAttribute, String primaryValue, boolean primaryEquality) {
+        m_key = key;
+        m_primaryAttribute = primaryAttribute;
+        m_primaryValue = primaryValue;
+        m_primaryEquality = primaryEquality;
+    }
+
+    /** Returns the key that identifies this shape, it does not contain any values. */
+    public String getKey() {
+        return m_key;
+    }
+
+    /** Returns the lower case name of the attribute used to partition services. */
+    public String getPrimaryAttribute() {
+        return m_primaryAttribute;
+    }
+
+    /** Returns <code>true</code> if the primary attribute has an equality clause. */
+    public boolean isPrimaryEquality() {
+        return m_primaryEquality;
+    }
+
+    /** Returns the value of the equality clause of the primary attribute, if any. */
+    public String getPrimaryValue() {
+        return m_primaryValue;
+    }
+
+    /**
+     * Determines the shape of a class and filter combination.
+     * 
+     * @param clazz the class, can be <code>null</code>
+     * @param filter the filter, can be <code>null</code>
+     * @return the shape, or <code>null</code> if the combination cannot be indexed
+     */
+    public static FilterShape parse(String clazz, String filter) {
+        List /* <String[]> */ clauses = new ArrayList();
+        if (clazz != null) {
+            clauses.add(new String[] { OBJECTCLASS, "=", clazz });
+        }
+        if (filter != null) {
+            int end = parseFilter(filter.trim(), 0, clauses);
+            if (end == -1 || end != filter.trim().length()) {
+                return null;
+            }
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        List /* <String> */ parts = new ArrayList();
+        String[] equality = null;
+        String firstAttribute = null;
+        for (int i = 0; i < clauses.size(); i++) {
+            String[] clause = (String[]) clauses.get(i);
+            parts.add(clause[0] + clause[1]);
+            if (clause[1].equals("=")) {
+                if (equality == null || clause[0].equals(OBJECTCLASS) 
+                    || (!equality[0].equals(OBJECTCLASS) && clause[0].compareTo(equality[0]) < 0)) {
+                    equality = clause;
+                }
+            }
+            if (firstAttribute == null || clause[0].compareTo(firstAttribute) < 0) {
+                firstAttribute = clause[0];
+            }
+        }
+        Collections.sort(parts);
+        StringBuffer key = new StringBuffer();
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) {
+                key.append(';');
+            }
+            key.append(parts.get(i));
+        }
+        if (equality != null) {
+            return new FilterShape(key.toString(), equality[0], equality[2], true);
+        }
+        return new FilterShape(key.toString(), firstAttribute, null, false);
+    }
+
+    /**
+     * Parses a (nested) conjunction of simple clauses starting at <code>pos</code>.
+     * 
+     * @return the position after the parsed filter, or -1 if it cannot be indexed
+     */
+    private static int parseFilter(String filter, int pos, List clauses) {
+        if (pos >= filter.length() || filter.charAt(pos) != '(') {
+            return -1;
+        }
+        pos++;
+        if (pos >= filter.length()) {
+            return -1;
+        }
+        char c = filter.charAt(pos);
+        if (c == '&') {
+            pos++;
+            int count = 0;
+            while (pos < filter.length() && filter.charAt(pos) == '(') {
+                pos = parseFilter(filter, pos, clauses);
+                if (pos == -1) {
+                    return -1;
+                }
+                count++;
+            }
+            if (count == 0 || pos >= filter.length() || filter.charAt(pos) != ')') {
+                return -1;
+            }
+            return pos + 1;
+        }
+        if (c == '|' || c == '!') {
+            return -1;
+        }
+        // simple clause: attribute, operator, value
+        int start = pos;
+        while (pos < filter.length() && "=<>~()".indexOf(filter.charAt(pos)) == -1) {
+            pos++;
+        }
+        if (pos >= filter.length() || pos == start) {
+            return -1;
+        }
+        String attribute = filter.substring(start, pos).trim().toLowerCase();
+        String operator;
+        c = filter.charAt(pos);
+        if (c == '=') {
+            operator = "=";
+            pos++;
+        }
+        else if ((c == '<' || c == '>') && pos + 1 < filter.length() && filter.charAt(pos + 1) == '=') {
+            operator = c + "=";
+            pos += 2;
+        }
+        else {
+            // approximate matching and anything else is not supported
+            return -1;
+        }
+        StringBuffer value = new StringBuffer();
+        boolean wildcard = false;
+        while (pos < filter.length() && filter.charAt(pos) != ')') {
+            c = filter.charAt(pos);
+            if (c == '\\') {
+                pos++;
+                if (pos >= filter.length()) {
+                    return -1;
+                }
+                value.append(filter.charAt(pos));
+            }
+            else if (c == '(') {
+                return -1;
+            }
+            else {
+                if (c == '*') {
+                    wildcard = true;
+                }
+                value.append(c);
+            }
+            pos++;
+        }
+        if (pos >= filter.length()) {
+            return -1;
+        }
+        if (wildcard) {
+            if (operator.equals("=") && value.length() == 1) {
+                operator = "=*";
+            }
+            else {
+                // substring matching is not supported
+                return -1;
+            }
+        }
+        clauses.add(new String[] { attribute, operator, value.toString() });
+        return pos + 1;
+    }
+    
+    public String toString() {
+        return m_key;
+    }
+}
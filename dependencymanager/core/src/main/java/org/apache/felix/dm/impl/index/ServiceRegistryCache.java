@@ -20,9 +20,11 @@ package org.apache.felix.dm.impl.index;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.dm.FilterIndex;
 import org.osgi.framework.BundleContext;
@@ -31,10 +33,40 @@ import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceRegistration;
 
 /**
+ * Keeps track of the filter indices and hands out bundle contexts that use them.
+ * <p>
+ * If adaptive indexing is enabled, the shapes of all lookups that are not handled
+ * by any filter index are counted. Once a shape has been used often enough, an
+ * {@link AdaptiveFilterIndex} is created for it. Adaptive indices without listeners
+ * that have not been used for a while are dropped again.
+ * 
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*/ {
+    /** Number of lookups of a shape after which an adaptive index is created. */
+    private static final int ADAPTIVE_THRESHOLD = 50;
+    /** Time in milliseconds after which an unused adaptive index is dropped. */
+    private static final long ADAPTIVE_IDLE_TIME = 60000;
+    /** Maximum number of shapes that are counted and parsed filters that are cached. */
+    private static final int SHAPE_CACHE_SIZE = 1024;
     private final List /* <FilterIndex> */ m_filterIndexList = new CopyOnWriteArrayList();
+    private final List /* <AdaptiveFilterIndex> */ m_adaptiveIndexList = new CopyOnWriteArrayList();
+    private volatile boolean m_adaptive;
+    private final Map /* <String, int[]> */ m_shapeCounts = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > SHAPE_CACHE_SIZE;
+        }
+    };
+    private final Map /* <String, FilterShape> */ m_shapeCache = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > SHAPE_CACHE_SIZE;
+        }
+    };
+    private long m_lastSweep = System.currentTimeMillis();
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    private final AtomicLong m_adaptiveBuilt = new AtomicLong();
+    private final AtomicLong m_adaptiveDropped = new AtomicLong();
     private final BundleContext m_context;
     private final FilterIndexBundleContext m_filterIndexBundleContext;
     private final Map /* <BundleContext, BundleContextInterceptor> */ m_bundleContextInterceptorMap = new HashMap();
@@ -59,6 +91,14 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
         m_context.removeServiceListener(this);
     }
     
+    /**
+     * Enables adaptive indexing, creating and dropping indices for frequently
+     * used filter shapes.
+     */
+    public void setAdaptive(boolean adaptive) {
+        m_adaptive = adaptive;
+    }
+    
     public void addFilterIndex(FilterIndex index) {
         m_filterIndexList.add(index);
         index.open(m_filterIndexBundleContext);
@@ -103,11 +143,127 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
         while (iterator.hasNext()) {
             FilterIndex filterIndex = (FilterIndex) iterator.next();
             if (filterIndex.isApplicable(clazz, filter)) {
+                m_hits.incrementAndGet();
                 return filterIndex;
             }
         }
+        if (clazz == null && filter == null) {
+            // listeners without a filter, there is nothing to learn here
+            return null;
+        }
+        if (m_adaptive) {
+            FilterShape shape = getShape(clazz, filter);
+            if (shape != null) {
+                iterator = m_adaptiveIndexList.iterator();
+                while (iterator.hasNext()) {
+                    AdaptiveFilterIndex filterIndex = (AdaptiveFilterIndex) iterator.next();
+                    if (filterIndex.isApplicable(shape)) {
+                        m_hits.incrementAndGet();
+                        return filterIndex;
+                    }
+                }
+                learn(shape);
+            }
+        }
+        m_misses.incrementAndGet();
         return null;
     }
+    
+    /**
+     * Removes a listener from the adaptive index it was registered with.
+     * 
+     * @return <code>true</code> if the listener was registered with an adaptive index
+     */
+    public boolean removeAdaptiveServiceListener(ServiceListener listener) {
+        Iterator iterator = m_adaptiveIndexList.iterator();
+        while (iterator.hasNext()) {
+            AdaptiveFilterIndex filterIndex = (AdaptiveFilterIndex) iterator.next();
+            if (filterIndex.removeListener(listener)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private FilterShape getShape(String clazz, String filter) {
+        String key = clazz + "|" + filter;
+        synchronized (m_shapeCache) {
+            if (m_shapeCache.containsKey(key)) {
+                return (FilterShape) m_shapeCache.get(key);
+            }
+        }
+        FilterShape shape = FilterShape.parse(clazz, filter);
+        synchronized (m_shapeCache) {
+            m_shapeCache.put(key, shape);
+        }
+        return shape;
+    }
+    
+    /** Counts the usage of a shape that has no index and creates one if it is used often. */
+    private void learn(FilterShape shape) {
+        AdaptiveFilterIndex filterIndex = null;
+        synchronized (m_shapeCounts) {
+            int[] count = (int[]) m_shapeCounts.get(shape.getKey());
+            if (count == null) {
+                count = new int[1];
+                m_shapeCounts.put(shape.getKey(), count);
+            }
+            count[0]++;
+            if (count[0] >= ADAPTIVE_THRESHOLD) {
+                m_shapeCounts.remove(shape.getKey());
+                filterIndex = new AdaptiveFilterIndex(shape);
+            }
+        }
+        if (filterIndex != null) {
+            // the index is registered first, so it does not miss any events while it is populated
+            m_adaptiveIndexList.add(filterIndex);
+            filterIndex.open(m_filterIndexBundleContext);
+            m_adaptiveBuilt.incrementAndGet();
+        }
+        sweep();
+    }
+    
+    /** Drops adaptive indices that have no listeners and have not been used for a while. */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        synchronized (m_shapeCounts) {
+            if (now - m_lastSweep < ADAPTIVE_IDLE_TIME) {
+                return;
+            }
+            m_lastSweep = now;
+        }
+        Iterator iterator = m_adaptiveIndexList.iterator();
+        while (iterator.hasNext()) {
+            AdaptiveFilterIndex filterIndex = (AdaptiveFilterIndex) iterator.next();
+            // checked and closed atomically, so an index handed out by a concurrent
+            // lookup is not closed under it
+            if (filterIndex.closeIfIdle(now, ADAPTIVE_IDLE_TIME)) {
+                m_adaptiveIndexList.remove(filterIndex);
+                m_adaptiveDropped.incrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Adds the statistics of this cache to the given map.
+     * 
+     * @param statistics the map to add the statistics to
+     */
+    public void getStatistics(Map statistics) {
+        statistics.put("Filter index hits", new Long(m_hits.get()));
+        statistics.put("Filter index misses", new Long(m_misses.get()));
+        statistics.put("Filter indices", new Integer(m_filterIndexList.size()));
+        if (m_adaptive) {
+            statistics.put("Filter indices adaptive", new Integer(m_adaptiveIndexList.size()));
+            statistics.put("Filter indices adaptive built", new Long(m_adaptiveBuilt.get()));
+            statistics.put("Filter indices adaptive dropped", new Long(m_adaptiveDropped.get()));
+            Iterator iterator = m_adaptiveIndexList.iterator();
+            while (iterator.hasNext()) {
+                AdaptiveFilterIndex filterIndex = (AdaptiveFilterIndex) iterator.next();
+                statistics.put("Filter index [" + filterIndex.getShape() + "] hits", new Long(filterIndex.getHits()));
+            }
+        }
+    }
 
     public void serviceChangedForFilterIndices(ServiceEvent event) {
         Iterator iterator = m_filterIndexList.iterator();
@@ -115,6 +271,11 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
             FilterIndex filterIndex = (FilterIndex) iterator.next();
             filterIndex.serviceChanged(event);
         }
+        iterator = m_adaptiveIndexList.iterator();
+        while (iterator.hasNext()) {
+            FilterIndex filterIndex = (FilterIndex) iterator.next();
+            filterIndex.serviceChanged(event);
+        }
     }
 
 //    public void _sc(CommandInterpreter ci) {
@@ -165,6 +326,7 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
         StringBuffer sb = new StringBuffer();
         sb.append("ServiceRegistryCache[");
         sb.append("FilterIndices: " + m_filterIndexList.size());
+        sb.append(", AdaptiveFilterIndices: " + m_adaptiveIndexList.size());
         sb.append(", BundleContexts intercepted: " + m_bundleContextInterceptorMap.size());
         sb.append("]");
         return sb.toString();
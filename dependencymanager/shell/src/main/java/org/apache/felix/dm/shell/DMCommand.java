@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.apache.felix.dm.Component;
@@ -161,6 +162,11 @@ public class DMCommand {
                 if (!nodeps) {
                     out.println(" - Dependencies: " + numberOfDependencies);
                 }
+                Iterator statistics = DependencyManager.getStatistics().entrySet().iterator();
+                while (statistics.hasNext()) {
+                    Map.Entry entry = (Map.Entry) statistics.next();
+                    out.println(" - " + entry.getKey() + ": " + entry.getValue());
+                }
             }
         }
         else {
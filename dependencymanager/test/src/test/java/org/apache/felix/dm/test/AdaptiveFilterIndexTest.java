@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.test;
+
+import static org.ops4j.pax.exam.CoreOptions.mavenBundle;
+import static org.ops4j.pax.exam.CoreOptions.options;
+import static org.ops4j.pax.exam.CoreOptions.provision;
+import static org.ops4j.pax.exam.CoreOptions.systemProperty;
+
+import java.util.Hashtable;
+
+import junit.framework.Assert;
+
+import org.apache.felix.dm.Component;
+import org.apache.felix.dm.DependencyManager;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.Configuration;
+import org.ops4j.pax.exam.junit.JUnit4TestRunner;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+
+@RunWith(JUnit4TestRunner.class)
+public class AdaptiveFilterIndexTest extends Base {
+    @Configuration
+    public static Option[] configuration() {
+        return options(
+            systemProperty(DependencyManager.SERVICEREGISTRY_CACHE_INDICES).value("*auto*"),
+            provision(
+                mavenBundle().groupId("org.osgi").artifactId("org.osgi.compendium").version(Base.OSGI_SPEC_VERSION),
+                mavenBundle().groupId("org.apache.felix").artifactId("org.apache.felix.dependencymanager").versionAsInProject()
+            )
+        );
+    }
+    
+    @Test
+    public void testAdaptiveIndex(BundleContext context) throws Exception {
+        DependencyManager m = new DependencyManager(context);
+        Hashtable props = new Hashtable();
+        props.put("name", "a");
+        props.put("size", new Integer(5));
+        Component a = m.createComponent().setInterface(Service.class.getName(), props).setImplementation(new Provider());
+        props = new Hashtable();
+        props.put("name", "b");
+        props.put("size", new Integer(10));
+        Component b = m.createComponent().setInterface(Service.class.getName(), props).setImplementation(new Provider());
+        m.add(a);
+        m.add(b);
+        
+        // the results must be the same before and after the index has been built
+        BundleContext bc = m.getBundleContext();
+        for (int i = 0; i < 100; i++) {
+            ServiceReference[] refs = bc.getServiceReferences(Service.class.getName(), "(&(name=a)(size>=3))");
+            Assert.assertNotNull(refs);
+            Assert.assertEquals(1, refs.length);
+            Assert.assertEquals("a", refs[0].getProperty("name"));
+            refs = bc.getServiceReferences(Service.class.getName(), "(&(name=b)(size>=30))");
+            Assert.assertNull(refs);
+        }
+        Assert.assertEquals(new Long(1), DependencyManager.getStatistics().get("Filter indices adaptive built"));
+        
+        // dependencies with the same shape now use the index for their listeners
+        Ensure e = new Ensure();
+        Component c = m.createComponent()
+            .setImplementation(new Consumer(e))
+            .add(m.createServiceDependency()
+                .setService(Service.class, "(&(name=b)(size>=3))")
+                .setRequired(true));
+        m.add(c);
+        e.waitForStep(1, 5000);
+        m.remove(b);
+        e.waitForStep(2, 5000);
+        m.remove(c);
+        m.remove(a);
+    }
+
+    public static class Consumer {
+        volatile Service m_service;
+        private final Ensure m_ensure;
+        
+        public Consumer(Ensure e) {
+            m_ensure = e;
+        }
+
+        public void start() {
+            m_ensure.step(1);
+        }
+        
+        public void stop() {
+            m_ensure.step(2);
+        }
+    }
+    
+    public static interface Service {
+    }
+    
+    public static class Provider implements Service {
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.test;
+
+import static org.ops4j.pax.exam.CoreOptions.mavenBundle;
+import static org.ops4j.pax.exam.CoreOptions.options;
+import static org.ops4j.pax.exam.CoreOptions.provision;
+import static org.ops4j.pax.exam.CoreOptions.systemProperty;
+import junit.framework.Assert;
+
+import org.apache.felix.dm.Component;
+import org.apache.felix.dm.DependencyManager;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.Configuration;
+import org.ops4j.pax.exam.junit.JUnit4TestRunner;
+import org.osgi.framework.BundleContext;
+
+@RunWith(JUnit4TestRunner.class)
+public class ParallelComponentExecutorTest extends Base {
+    private static final int COMPONENTS = 20;
+    
+    @Configuration
+    public static Option[] configuration() {
+        return options(
+            systemProperty(DependencyManager.PARALLEL).value("4"),
+            provision(
+                mavenBundle().groupId("org.osgi").artifactId("org.osgi.compendium").version(Base.OSGI_SPEC_VERSION),
+                mavenBundle().groupId("org.apache.felix").artifactId("org.apache.felix.dependencymanager").versionAsInProject()
+            )
+        );
+    }
+    
+    @Test
+    public void testComponentsStartedOnPool(BundleContext context) throws Exception {
+        DependencyManager m = new DependencyManager(context);
+        // helper class that ensures certain steps get executed in sequence
+        Ensure e = new Ensure();
+        Consumer[] consumers = new Consumer[COMPONENTS];
+        Component[] components = new Component[COMPONENTS];
+        for (int i = 0; i < COMPONENTS; i++) {
+            consumers[i] = new Consumer(e);
+            components[i] = m.createComponent()
+                .setImplementation(consumers[i])
+                .add(m.createServiceDependency()
+                    .setService(Service.class)
+                    .setRequired(true));
+            m.add(components[i]);
+        }
+        // once the provider is available, all consumers are started by the pool
+        Component p = m.createComponent()
+            .setInterface(Service.class.getName(), null)
+            .setImplementation(new Provider());
+        m.add(p);
+        e.waitForStep(COMPONENTS, 5000);
+        for (int i = 0; i < COMPONENTS; i++) {
+            Assert.assertTrue("Component should be started by a pool thread", 
+                consumers[i].m_thread.startsWith("DependencyManager-"));
+        }
+        // removing the provider stops all consumers
+        m.remove(p);
+        e.waitForStep(COMPONENTS * 2, 5000);
+        Assert.assertNotNull(DependencyManager.getStatistics().get("Executor executed tasks"));
+        for (int i = 0; i < COMPONENTS; i++) {
+            m.remove(components[i]);
+        }
+    }
+
+    public static class Consumer {
+        volatile Service m_service;
+        volatile String m_thread;
+        private final Ensure m_ensure;
+        
+        public Consumer(Ensure e) {
+            m_ensure = e;
+        }
+
+        public void start() {
+            m_thread = Thread.currentThread().getName();
+            m_ensure.step();
+        }
+        
+        public void stop() {
+            m_ensure.step();
+        }
+    }
+    
+    public static interface Service {
+    }
+    
+    public static class Provider implements Service {
+    }
+}
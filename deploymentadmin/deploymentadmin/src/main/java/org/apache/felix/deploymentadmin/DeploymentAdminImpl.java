@@ -30,7 +30,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.jar.JarInputStream;
 
 import org.apache.felix.deploymentadmin.spi.CommitResourceCommand;
 import org.apache.felix.deploymentadmin.spi.DeploymentSessionImpl;
@@ -163,10 +162,10 @@ public class DeploymentAdminImpl implements DeploymentAdmin {
         }
 
         File tempPackage = null;
+        JarSpooler spooler = null;
         StreamDeploymentPackage source = null;
         boolean succeeded = false;
         try {
-            JarInputStream jarInput = null;
             File tempIndex = null;
             File tempContents = null;
             try {
@@ -178,20 +177,21 @@ public class DeploymentAdminImpl implements DeploymentAdmin {
                 tempIndex = new File(tempPackage, PACKAGEINDEX_FILE);
                 tempContents = new File(tempPackage, PACKAGECONTENTS_DIR);
                 tempContents.mkdirs();
-                input = new ExplodingOutputtingInputStream(input, tempIndex, tempContents);
             }
             catch (IOException e) {
                 m_log.log(LogService.LOG_ERROR, "Error writing package to disk", e);
                 throw new DeploymentException(DeploymentException.CODE_OTHER_ERROR, "Error writing package to disk", e);
             }
             try {
-                jarInput = new JarInputStream(input);
+                spooler = new JarSpooler(input, tempIndex, tempContents);
             }
             catch (IOException e) {
                 m_log.log(LogService.LOG_ERROR, "Stream does not contain a valid Jar", e);
                 throw new DeploymentException(DeploymentException.CODE_NOT_A_JAR, "Stream does not contain a valid Jar", e);
             }
-            source = new StreamDeploymentPackage(jarInput, m_context, this);
+            // entries are written to disk and verified while the session works on the ones read before
+            spooler.start();
+            source = new StreamDeploymentPackage(spooler, m_context, this);
             sendStartedEvent(source.getName());
             
             AbstractDeploymentPackage target = (AbstractDeploymentPackage) getDeploymentPackage(source.getName());
@@ -213,12 +213,14 @@ public class DeploymentAdminImpl implements DeploymentAdmin {
                 throw de;
             }
             try {
-                jarInput.close();
+                // the session is committed, entries which were not needed by it are only kept in the index
+                spooler.waitFor();
             }
             catch (IOException e) {
                 // nothing we can do
-                m_log.log(LogService.LOG_WARNING, "Could not close stream properly", e);
+                m_log.log(LogService.LOG_WARNING, "Could not read stream properly", e);
             }
+            m_log.log(LogService.LOG_DEBUG, "Spooled " + spooler.getSize() + " bytes of deployment package '" + source.getName() + "' in " + spooler.getTime() + " ms");
 
             File targetContents = m_context.getDataFile(PACKAGE_DIR + File.separator + source.getName() + File.separator + PACKAGECONTENTS_DIR);
             File targetIndex = m_context.getDataFile(PACKAGE_DIR + File.separator + source.getName() + File.separator + PACKAGEINDEX_FILE);
@@ -250,6 +252,9 @@ public class DeploymentAdminImpl implements DeploymentAdmin {
             return fileDeploymentPackage;
         }
         finally {
+            if (spooler != null) {
+                spooler.close();
+            }
             if (tempPackage != null) {
                 delete(tempPackage);
             }
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class reads all entries of a deployment package stream on a separate thread and writes them to disk,
+ * while the deployment session works on the entries written before. Each entry is made available once it has
+ * been read completely, which is also when the jar verification has checked its digest if the package is signed.
+ * Each file is compressed using GZIP. An index of the files is kept in the order they were encountered, starting
+ * with the manifest, in the same format as the index of an installed deployment package.
+ */
+class JarSpooler implements Runnable {
+
+    private static final long CLOSE_TIMEOUT = 5000;
+
+    private final InputStream m_source;
+    private final JarInputStream m_input;
+    private final Manifest m_manifest;
+    private final File m_indexFile;
+    private final File m_contentDir;
+    private final Thread m_task;
+    private final List m_entries = new ArrayList();
+    private int m_next;
+    private boolean m_done;
+    private boolean m_closed;
+    private IOException m_exception;
+    private long m_size;
+    private long m_time;
+
+    /**
+     * Creates an instance of this class, use <code>start()</code> to start spooling the entries.
+     *
+     * @param inputStream The stream containing the deployment package.
+     * @param indexFile File to be used to write the index of all encountered files.
+     * @param contentDir File to be used as the directory to hold all files encountered in the stream.
+     * @throws IOException If the stream does not contain a valid jar.
+     */
+    public JarSpooler(InputStream inputStream, File indexFile, File contentDir) throws IOException {
+        m_source = inputStream;
+        m_input = new JarInputStream(inputStream);
+        m_manifest = m_input.getManifest();
+        m_indexFile = indexFile;
+        m_contentDir = contentDir;
+        m_task = new Thread(this, "Apache Felix DeploymentAdmin - JarSpooler");
+    }
+
+    /**
+     * @return The manifest of the deployment package, or null if the stream does not start with a manifest.
+     */
+    public Manifest getManifest() {
+        return m_manifest;
+    }
+
+    public void start() {
+        m_task.start();
+    }
+
+    /**
+     * Waits until the next entry of the stream has been written to disk.
+     *
+     * @return The name of the next entry, or null if there are no more entries.
+     * @throws IOException If the next entry could not be read, verified or written to disk.
+     */
+    public synchronized String next() throws IOException {
+        while (m_next == m_entries.size() && !m_done) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the next entry");
+            }
+        }
+        if (m_next < m_entries.size()) {
+            return (String) m_entries.get(m_next++);
+        }
+        if (m_exception != null) {
+            throw m_exception;
+        }
+        return null;
+    }
+
+    /**
+     * Opens an entry that has been returned by <code>next()</code>.
+     *
+     * @param name The name of the entry.
+     * @return Stream to the contents of the entry, to be closed by the caller.
+     * @throws IOException If the entry could not be read from disk.
+     */
+    public InputStream getEntryStream(String name) throws IOException {
+        return new GZIPInputStream(new FileInputStream(new File(m_contentDir, name)));
+    }
+
+    /**
+     * Waits until all entries of the stream have been written to disk and the index is complete.
+     *
+     * @throws IOException If an entry could not be read, verified or written to disk.
+     */
+    public void waitFor() throws IOException {
+        join(0);
+        synchronized (this) {
+            if (m_exception != null) {
+                throw m_exception;
+            }
+        }
+    }
+
+    /**
+     * Stops writing entries to disk and waits for the spooling thread to finish. The stream is closed so that
+     * a read blocked on a stalled stream fails, the wait is bounded in case closing does not unblock it.
+     */
+    public void close() {
+        synchronized (this) {
+            m_closed = true;
+        }
+        if (m_task.isAlive()) {
+            try {
+                m_source.close();
+            }
+            catch (IOException e) {
+                // Not much we can do
+            }
+        }
+        join(CLOSE_TIMEOUT);
+    }
+
+    /**
+     * @return The number of bytes of the entries written to disk, before compression.
+     */
+    public synchronized long getSize() {
+        return m_size;
+    }
+
+    /**
+     * @return The time in milliseconds it took to read the stream, or the time spent so far if it is still being read.
+     */
+    public synchronized long getTime() {
+        return m_done ? m_time : System.currentTimeMillis() - m_time;
+    }
+
+    public void run() {
+        synchronized (this) {
+            m_time = System.currentTimeMillis();
+        }
+        PrintWriter writer = null;
+        String name = null;
+        try {
+            writer = new PrintWriter(new FileWriter(m_indexFile));
+            if (m_manifest != null) {
+                name = JarFile.MANIFEST_NAME;
+                OutputStream output = createOutput(name);
+                try {
+                    m_manifest.write(output);
+                }
+                finally {
+                    output.close();
+                }
+                writer.println(name);
+            }
+            byte[] buffer = new byte[4096];
+            for (JarEntry entry = m_input.getNextJarEntry(); entry != null && !isClosed(); entry = m_input.getNextJarEntry()) {
+                name = entry.getName();
+                if (entry.isDirectory()) {
+                    new File(m_contentDir, name).mkdirs();
+                    continue;
+                }
+                long size = 0;
+                OutputStream output = createOutput(name);
+                try {
+                    for (int i = m_input.read(buffer); i > -1 && !isClosed(); i = m_input.read(buffer)) {
+                        output.write(buffer, 0, i);
+                        size += i;
+                    }
+                }
+                finally {
+                    output.close();
+                }
+                writer.println(name);
+                synchronized (this) {
+                    m_size += size;
+                    m_entries.add(name);
+                    notifyAll();
+                }
+            }
+            if (writer.checkError()) {
+                throw new IOException("Could not write index file " + m_indexFile);
+            }
+        }
+        catch (IOException e) {
+            fail(e);
+        }
+        catch (SecurityException e) {
+            // thrown by the jar verification when the digest of an entry does not match the signed one
+            fail(new IOException("Verification of entry '" + name + "' failed: " + e.getMessage()));
+        }
+        finally {
+            if (writer != null) {
+                writer.close();
+            }
+            try {
+                m_input.close();
+            }
+            catch (IOException e) {
+                // Not much we can do
+            }
+            synchronized (this) {
+                m_done = true;
+                m_time = System.currentTimeMillis() - m_time;
+                notifyAll();
+            }
+        }
+    }
+
+    private OutputStream createOutput(String name) throws IOException {
+        File current = new File(m_contentDir, name);
+        File parent = current.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        return new GZIPOutputStream(new FileOutputStream(current));
+    }
+
+    private synchronized boolean isClosed() {
+        return m_closed;
+    }
+
+    private synchronized void fail(IOException e) {
+        if (!m_closed) {
+            m_exception = e;
+        }
+    }
+
+    private void join(long timeout) {
+        if (!m_task.isAlive()) {
+            return;
+        }
+        try {
+            m_task.join(timeout);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
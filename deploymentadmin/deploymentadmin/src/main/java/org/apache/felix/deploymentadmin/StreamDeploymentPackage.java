@@ -23,29 +23,29 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.jar.JarInputStream;
-import java.util.zip.ZipEntry;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.service.deploymentadmin.DeploymentException;
 
 /**
- * This class represents a deployment package that is read from a jar stream.
+ * This class represents a deployment package that is read from a jar stream. The entries are
+ * read from disk once they have been spooled.
  */
 public class StreamDeploymentPackage extends AbstractDeploymentPackage {
-    private final JarInputStream m_input;
+    private final JarSpooler m_spooler;
     private final List m_names = new ArrayList();
+    private String m_current;
 
     /**
      * Creates an instance of this class.
      *
-     * @param input The stream from which the deployment package can be read.
+     * @param spooler The spooler reading the stream of the deployment package.
      * @param bundleContext The bundle context.
      * @throws DeploymentException If it was not possible to read a valid deployment package from the specified stream.
      */
-    public StreamDeploymentPackage(JarInputStream input, BundleContext bundleContext, DeploymentAdminImpl deploymentAdmin) throws DeploymentException {
-        super(input.getManifest(), bundleContext, deploymentAdmin);
-        m_input = input;
+    StreamDeploymentPackage(JarSpooler spooler, BundleContext bundleContext, DeploymentAdminImpl deploymentAdmin) throws DeploymentException {
+        super(spooler.getManifest(), bundleContext, deploymentAdmin);
+        m_spooler = spooler;
     }
 
     public InputStream getBundleStream(String symbolicName) {
@@ -80,17 +80,60 @@ public class StreamDeploymentPackage extends AbstractDeploymentPackage {
     }
 
     public AbstractInfo getNextEntry() throws IOException {
-        ZipEntry nextEntry = m_input.getNextJarEntry();
-        if (nextEntry == null) {
+        String name = m_spooler.next();
+        m_current = name;
+        if (name == null) {
             return null;
         }
-        String name = nextEntry.getName();
         m_names.add(name);
         AbstractInfo abstractInfoByPath = getAbstractInfoByPath(name);
         return abstractInfoByPath;
     }
 
+    /**
+     * Returns a stream to the current entry. Each entry is read from its own stream, so the stream remains valid after
+     * the next entry has been determined. The spooled entry is opened when it is first read, the caller is responsible
+     * for closing the stream.
+     */
     public InputStream getCurrentEntryStream() {
-        return new NonCloseableStream(m_input);
+        if (m_current == null) {
+            return null;
+        }
+        return new EntryStream(m_current);
+    }
+
+    private final class EntryStream extends InputStream {
+        private final String m_name;
+        private InputStream m_input;
+        private boolean m_closed;
+
+        private EntryStream(String name) {
+            m_name = name;
+        }
+
+        public int read() throws IOException {
+            return getInput().read();
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            return getInput().read(b, off, len);
+        }
+
+        public void close() throws IOException {
+            m_closed = true;
+            if (m_input != null) {
+                m_input.close();
+            }
+        }
+
+        private InputStream getInput() throws IOException {
+            if (m_closed) {
+                throw new IOException("Unable to read, stream is closed.");
+            }
+            if (m_input == null) {
+                m_input = m_spooler.getEntryStream(m_name);
+            }
+            return m_input;
+        }
     }
 }
\ No newline at end of file
@@ -50,7 +50,7 @@ public abstract class Command {
      * command was never executed, a best effort should be made though.
      */
     public void rollback() {
-        for (ListIterator i = m_rollback.listIterator(m_commit.size()); i.hasPrevious();) {
+        for (ListIterator i = m_rollback.listIterator(m_rollback.size()); i.hasPrevious();) {
             Runnable runnable = (Runnable) i.previous();
             runnable.run();
         }
@@ -69,6 +69,7 @@ public class DeploymentSessionImpl implements DeploymentSession {
                 throw new DeploymentException(DeploymentException.CODE_CANCELLED);
             }
             m_currentCommand = (Command) i.next();
+            long start = System.currentTimeMillis();
             try {
                 executedCommands.add(m_currentCommand);
                 m_currentCommand.execute(this);
@@ -77,13 +78,23 @@ public class DeploymentSessionImpl implements DeploymentSession {
                 rollback(executedCommands);
                 throw de;
             }
+            logTime(m_currentCommand, "executed", start);
         }
         for (Iterator i = m_commands.iterator(); i.hasNext();) {
-            ((Command) i.next()).commit();
+            Command command = (Command) i.next();
+            long start = System.currentTimeMillis();
+            command.commit();
+            logTime(command, "committed", start);
         }
         m_currentCommand = null;
     }
 
+    private void logTime(Command command, String phase, long start) {
+        String name = command.getClass().getName();
+        name = name.substring(name.lastIndexOf('.') + 1);
+        getLog().log(LogService.LOG_DEBUG, name + " " + phase + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
     private void rollback(List executedCommands) {
         for (ListIterator i = executedCommands.listIterator(executedCommands.size()); i.hasPrevious();) {
             Command command = (Command) i.previous();
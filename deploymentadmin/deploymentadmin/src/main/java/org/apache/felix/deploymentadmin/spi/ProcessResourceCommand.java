@@ -19,11 +19,16 @@
 package org.apache.felix.deploymentadmin.spi;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.felix.deploymentadmin.AbstractDeploymentPackage;
 import org.apache.felix.deploymentadmin.AbstractInfo;
+import org.apache.felix.deploymentadmin.NonCloseableStream;
 import org.apache.felix.deploymentadmin.ResourceInfoImpl;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
@@ -34,7 +39,8 @@ import org.osgi.service.deploymentadmin.spi.ResourceProcessorException;
 /**
  * Command that processes all the processed resources in the source deployment package
  * of a deployment session by finding their Resource Processors and having those process
- * the resources.
+ * the resources. Resources are processed in the order in which they appear in the stream by each
+ * Resource Processor, different Resource Processors work concurrently.
  * System property <code>org.apache.felix.deploymentadmin.allowforeigncustomizers</code> allows
  * you to skip the source handling of resource processors, allowing the use of processors already on
  * the system. Defaults to <code>false</code>.
@@ -42,6 +48,7 @@ import org.osgi.service.deploymentadmin.spi.ResourceProcessorException;
 public class ProcessResourceCommand extends Command {
 
     private final CommitResourceCommand m_commitCommand;
+    private volatile boolean m_failed;
 
     /**
      * Creates an instance of this command, the <code>CommitCommand</code> is used
@@ -68,6 +75,9 @@ public class ProcessResourceCommand extends Command {
             }
         }
 
+        m_failed = false;
+        List tasks = new ArrayList();
+        Map groups = new HashMap();
         try {
         	while (!expectedResources.isEmpty()) {
             	AbstractInfo jarEntry = source.getNextEntry();
@@ -89,20 +99,16 @@ public class ProcessResourceCommand extends Command {
                     if (source.getBundleInfoByName(serviceOwnerSymName) != null || allowForeignCustomerizers.equals("true")) {
                         ResourceProcessor resourceProcessor = (ResourceProcessor) context.getService(ref);
                         if (resourceProcessor != null) {
-                            try {
-                                if (m_commitCommand.addResourceProcessor(resourceProcessor)) {
-                                	resourceProcessor.begin(session);
-                                }
-                                resourceProcessor.process(name, source.getCurrentEntryStream());
-                            }
-                            catch (ResourceProcessorException rpe) {
-                                if (rpe.getCode() == ResourceProcessorException.CODE_RESOURCE_SHARING_VIOLATION) {
-                                    throw new DeploymentException(DeploymentException.CODE_RESOURCE_SHARING_VIOLATION, "Violation while processing resource '" + name + "'", rpe);
-                                }
-                                else {
-                                    throw new DeploymentException(DeploymentException.CODE_OTHER_ERROR, "Error while processing resource '" + name + "'", rpe);
-                                }
+                            // a single thread per resource processor keeps its resources in stream order
+                            TaskGroup group = (TaskGroup) groups.get(resourceProcessor);
+                            boolean begin = (group == null);
+                            if (begin) {
+                                group = new TaskGroup("ProcessResourceCommand", 1);
+                                groups.put(resourceProcessor, group);
                             }
+                            ProcessTask task = new ProcessTask(session, resourceProcessor, begin, name, source.getCurrentEntryStream());
+                            tasks.add(task);
+                            group.execute(task);
                         }
                         else {
                             throw new DeploymentException(DeploymentException.CODE_PROCESSOR_NOT_FOUND, "No resource processor for resource: '" + name + "'");
@@ -118,8 +124,91 @@ public class ProcessResourceCommand extends Command {
             }
         }
         catch (IOException e) {
+            m_failed = true;
             throw new DeploymentException(DeploymentException.CODE_OTHER_ERROR, "Problem while reading stream", e);
         }
+        catch (DeploymentException de) {
+            m_failed = true;
+            throw de;
+        }
+        finally {
+            // resource processors must be done before they are rolled back, they are committed or
+            // rolled back in the order in which they first appeared in the stream
+            for (Iterator i = groups.values().iterator(); i.hasNext();) {
+                ((TaskGroup) i.next()).await();
+            }
+            for (Iterator i = tasks.iterator(); i.hasNext();) {
+                ProcessTask task = (ProcessTask) i.next();
+                if (task.m_begun) {
+                    m_commitCommand.addResourceProcessor(task.m_processor);
+                }
+            }
+        }
+
+        for (Iterator i = tasks.iterator(); i.hasNext();) {
+            ProcessTask task = (ProcessTask) i.next();
+            ResourceProcessorException rpe = task.m_exception;
+            if (rpe != null) {
+                if (rpe.getCode() == ResourceProcessorException.CODE_RESOURCE_SHARING_VIOLATION) {
+                    throw new DeploymentException(DeploymentException.CODE_RESOURCE_SHARING_VIOLATION, "Violation while processing resource '" + task.m_name + "'", rpe);
+                }
+                else {
+                    throw new DeploymentException(DeploymentException.CODE_OTHER_ERROR, "Error while processing resource '" + task.m_name + "'", rpe);
+                }
+            }
+        }
     }
 
+    /**
+     * Has a resource processor process a single resource, starting its session if this is the first
+     * resource it processes. Nothing is processed anymore once a resource could not be processed.
+     */
+    private final class ProcessTask implements Runnable {
+
+        private final DeploymentSessionImpl m_session;
+        private final ResourceProcessor m_processor;
+        private final boolean m_begin;
+        private final String m_name;
+        private final InputStream m_input;
+        // read by the command once the task groups have completed
+        private boolean m_begun;
+        private ResourceProcessorException m_exception;
+
+        private ProcessTask(DeploymentSessionImpl session, ResourceProcessor processor, boolean begin, String name, InputStream input) {
+            m_session = session;
+            m_processor = processor;
+            m_begin = begin;
+            m_name = name;
+            m_input = input;
+        }
+
+        public void run() {
+            try {
+                if (m_failed || isCancelled()) {
+                    return;
+                }
+                if (m_begin) {
+                    m_begun = true;
+                    m_processor.begin(m_session);
+                }
+                m_processor.process(m_name, new NonCloseableStream(m_input));
+            }
+            catch (ResourceProcessorException rpe) {
+                m_exception = rpe;
+                m_failed = true;
+            }
+            catch (Throwable t) {
+                m_exception = new ResourceProcessorException(ResourceProcessorException.CODE_OTHER_ERROR, t.getMessage(), t);
+                m_failed = true;
+            }
+            finally {
+                try {
+                    m_input.close();
+                }
+                catch (IOException e) {
+                    // Not much we can do
+                }
+            }
+        }
+    }
 }
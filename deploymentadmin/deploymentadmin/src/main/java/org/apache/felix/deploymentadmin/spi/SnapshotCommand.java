@@ -24,20 +24,35 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.Set;
 
 import org.apache.felix.deploymentadmin.AbstractDeploymentPackage;
+import org.apache.felix.deploymentadmin.BundleInfoImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
-import org.osgi.service.deploymentadmin.BundleInfo;
 import org.osgi.service.deploymentadmin.DeploymentException;
 import org.osgi.service.log.LogService;
 
+/**
+ * Command that makes a copy of the storage areas which can be changed during the session, so that they
+ * can be restored if the session is rolled back.
+ * <p>
+ * The bundles of the target deployment package are stopped for the whole session and an update keeps the
+ * storage area of a bundle, so only the storage areas of the customizers, which are started during the
+ * session, and of the bundles which are uninstalled are copied. The copies are deleted when the session
+ * ends. A rollback only copies back the files which have been modified during the session and deletes
+ * the ones which have been created. A file is considered unchanged if its length and modification time
+ * are the same as the ones of its copy.
+ */
 public class SnapshotCommand extends Command {
 
+    // files modified less than this before a copy was made may have been modified
+    // again without a change of their modification time, they are always restored
+    private static final long RACY_INTERVAL = 2000;
+
     private final GetStorageAreaCommand m_getStorageAreaCommand;
 
     public SnapshotCommand(GetStorageAreaCommand getStorageAreaCommand) {
@@ -46,35 +61,63 @@ public class SnapshotCommand extends Command {
 
     public void execute(DeploymentSessionImpl session) throws DeploymentException {
         AbstractDeploymentPackage target = session.getTargetAbstractDeploymentPackage();
+        AbstractDeploymentPackage source = session.getSourceAbstractDeploymentPackage();
         BundleContext context = session.getBundleContext();
+        LogService log = session.getLog();
+
+        File snapshots = context.getDataFile("snapshots");
+        // snapshots left by an earlier session or version are obsolete
+        delete(snapshots, false);
+        snapshots.mkdirs();
 
-        BundleInfo[] infos = target.getBundleInfos();
+        BundleInfoImpl[] infos = target.getBundleInfoImpls();
         Map storageAreas = m_getStorageAreaCommand.getStorageAreas();
         for (int i = 0; i < infos.length; i++) {
             if (isCancelled()) {
                 throw new DeploymentException(DeploymentException.CODE_CANCELLED);
             }
+            if (!isChangedBySession(infos[i], source)) {
+                continue;
+            }
             Bundle bundle = target.getBundle(infos[i].getSymbolicName());
             if (bundle != null) {
                 File root = (File) storageAreas.get(bundle.getSymbolicName());
                 if (root != null) {
-                    File snapshot = context.getDataFile("snapshots");
-                    snapshot.mkdirs();
-                    snapshot = new File(snapshot, infos[i].getSymbolicName());
+                    File snapshot = new File(snapshots, infos[i].getSymbolicName());
                     try {
-                        snapshot.createNewFile();
-                        store(root, snapshot);
-                        addRollback(new RestoreSnapshotRunnable(snapshot, root));
-                        addCommit(new DeleteSnapshotRunnable(snapshot));
+                        long time = System.currentTimeMillis();
+                        if (root.isDirectory()) {
+                            sync(root, snapshot, 0);
+                        }
+                        else {
+                            // the bundle has not stored anything yet
+                            snapshot.mkdirs();
+                        }
+                        addRollback(new RestoreSnapshotRunnable(snapshot, root, time, log));
                     }
                     catch (IOException e) {
-                        snapshot.delete();
+                        log.log(LogService.LOG_WARNING, "Could not create snapshot of storage area of bundle '" + bundle.getSymbolicName() + "'", e);
+                        delete(snapshot, true);
                     }
                 } else {
-                    session.getLog().log(LogService.LOG_WARNING, "Could not retrieve storage area of bundle '" + bundle.getSymbolicName() + "', skipping it.");
+                    log.log(LogService.LOG_WARNING, "Could not retrieve storage area of bundle '" + bundle.getSymbolicName() + "', skipping it.");
                 }
             }
         }
+        addCommit(new DeleteSnapshotsRunnable(snapshots));
+    }
+
+    /**
+     * Determines if the storage area of a bundle of the target deployment package can be changed during the
+     * session: customizers are started by the session and bundles which are not in the source deployment package
+     * are uninstalled, the other bundles stay stopped until the session has been committed.
+     */
+    private boolean isChangedBySession(BundleInfoImpl info, AbstractDeploymentPackage source) {
+        if (info.isCustomizer()) {
+            return true;
+        }
+        BundleInfoImpl sourceInfo = source.getBundleInfoByName(info.getSymbolicName());
+        return (sourceInfo == null) || sourceInfo.isCustomizer();
     }
 
     private void delete(File root, boolean deleteRoot) {
@@ -89,88 +132,55 @@ public class SnapshotCommand extends Command {
         }
     }
 
-    private void store(File source, File target) throws IOException {
-        ZipOutputStream output = null;
-        try {
-            File[] children = source.listFiles();
-            output = new ZipOutputStream(new FileOutputStream(target));
-            for (int i = 0; i < children.length; i++) {
-                storeRecursive(source, new File(children[i].getName()), output);
-            }
+    /**
+     * Makes the target a copy of the source, only copying the files which differ from their copy or have
+     * been modified shortly before the given time, and deleting the files which do not exist in the source.
+     */
+    private void sync(File source, File target, long since) throws IOException {
+        if (!source.exists()) {
+            delete(target, true);
         }
-        finally {
-            if (output != null) {
-                try {
-                    output.close();
-                }
-                catch (Exception ex) {
-                    // Not much we can do
+        else if (source.isDirectory()) {
+            if (target.isFile()) {
+                target.delete();
+            }
+            target.mkdirs();
+            String[] names = source.list();
+            String[] targetNames = target.list();
+            if (names == null || targetNames == null) {
+                throw new IOException("Could not list '" + source + "' or '" + target + "'");
+            }
+            Set sourceNames = new HashSet(Arrays.asList(names));
+            for (int i = 0; i < targetNames.length; i++) {
+                if (!sourceNames.contains(targetNames[i])) {
+                    delete(new File(target, targetNames[i]), true);
                 }
             }
-        }
-    }
-
-    private void storeRecursive(File current, File path, ZipOutputStream output) throws IOException {
-        output.putNextEntry(new ZipEntry(path.getPath()));
-        if (current.isDirectory()) {
-            output.closeEntry();
-            File[] childs = current.listFiles();
-            for (int i = 0; i < childs.length; i++) {
-                storeRecursive(childs[i], new File(path, childs[i].getName()), output);
+            for (int i = 0; i < names.length; i++) {
+                sync(new File(source, names[i]), new File(target, names[i]), since);
             }
         }
         else {
-            InputStream input = null;
-            try {
-                input = new FileInputStream(current);
-                byte[] buffer = new byte[4096];
-                for (int i = input.read(buffer); i != -1; i = input.read(buffer)) {
-                    output.write(buffer, 0, i);
-                }
-                output.closeEntry();
+            if (target.isDirectory()) {
+                delete(target, true);
             }
-            finally {
-                try {
-                    if (input != null) {
-                        input.close();
-                    }
-                }
-                catch (Exception ex) {
-                    // Not much we can do
-                }
+            long modified = source.lastModified();
+            if (!target.isFile() || target.length() != source.length() || target.lastModified() != modified
+                || modified >= since - RACY_INTERVAL) {
+                copy(source, target);
             }
         }
     }
 
-    private void unpack(File source, File target) throws IOException {
-        ZipInputStream input = null;
+    private void copy(File source, File target) throws IOException {
+        InputStream input = null;
+        OutputStream output = null;
         try {
-            input = new ZipInputStream(new FileInputStream(source));
-            for (ZipEntry entry = input.getNextEntry(); entry != null; entry = input.getNextEntry()) {
-                if (entry.isDirectory()) {
-                    (new File(target, entry.getName())).mkdirs();
-                }
-                else {
-                    OutputStream output = null;
-                    try {
-                        output = new FileOutputStream(target);
-                        byte[] buffer = new byte[4096];
-                        for (int i = input.read(buffer); i > -1; i = input.read(buffer)) {
-                            output.write(buffer, 0, i);
-                        }
-                    }
-                    finally {
-                        if (output != null) {
-                            try {
-                                output.close();
-                            }
-                            catch (Exception ex) {
-                                // Not much we can do
-                            }
-                        }
-                    }
-                }
-                input.closeEntry();
+            input = new FileInputStream(source);
+            output = new FileOutputStream(target);
+            byte[] buffer = new byte[4096];
+            for (int i = input.read(buffer); i != -1; i = input.read(buffer)) {
+                output.write(buffer, 0, i);
             }
         }
         finally {
@@ -182,19 +192,23 @@ public class SnapshotCommand extends Command {
                     // Not much we can do
                 }
             }
+            if (output != null) {
+                output.close();
+            }
         }
+        target.setLastModified(source.lastModified());
     }
 
-    class DeleteSnapshotRunnable implements Runnable {
+    private class DeleteSnapshotsRunnable implements Runnable {
 
-        private final File m_snapshot;
+        private final File m_snapshots;
 
-        private DeleteSnapshotRunnable(File snapshot) {
-            m_snapshot = snapshot;
+        private DeleteSnapshotsRunnable(File snapshots) {
+            m_snapshots = snapshots;
         }
 
         public void run() {
-            m_snapshot.delete();
+            delete(m_snapshots, false);
         }
     }
 
@@ -202,23 +216,27 @@ public class SnapshotCommand extends Command {
 
         private final File m_snapshot;
         private final File m_root;
+        private final long m_time;
+        private final LogService m_log;
 
-        private RestoreSnapshotRunnable(File snapshot, File root) {
+        private RestoreSnapshotRunnable(File snapshot, File root, long time, LogService log) {
             m_snapshot = snapshot;
             m_root = root;
+            m_time = time;
+            m_log = log;
         }
 
         public void run() {
             try {
-                delete(m_root, false);
-                unpack(m_snapshot, m_root);
+                // only restores the files modified since the snapshot was made
+                sync(m_snapshot, m_root, m_time);
             }
             catch (Exception ex) {
-                // TODO: log this
+                m_log.log(LogService.LOG_ERROR, "Could not restore storage area '" + m_root + "' from snapshot", ex);
             }
             finally {
-                m_snapshot.delete();
+                delete(m_snapshot, true);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin.spi;
+
+import java.util.LinkedList;
+
+/**
+ * Runs tasks on a bounded number of threads, in the order in which they were added. Commands use this class
+ * to work on the entries of a deployment package concurrently, while the next entries are still being read.
+ * System property <code>org.apache.felix.deploymentadmin.threads</code> limits the number of threads used for
+ * the tasks of a single command. Defaults to <code>4</code>.
+ */
+class TaskGroup implements Runnable {
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private final String m_name;
+    private final int m_maxThreads;
+    private final LinkedList m_queue = new LinkedList();
+    private int m_threads;
+    private int m_pending;
+
+    /**
+     * Creates a group using at most the number of threads configured for the commands.
+     *
+     * @param name Name of the threads of this group.
+     */
+    public TaskGroup(String name) {
+        this(name, getConfiguredThreads());
+    }
+
+    /**
+     * Creates a group using at most the specified number of threads. A group with a single thread runs its
+     * tasks one after another.
+     *
+     * @param name Name of the threads of this group.
+     * @param maxThreads Maximum number of threads running the tasks of this group.
+     */
+    public TaskGroup(String name, int maxThreads) {
+        m_name = name;
+        m_maxThreads = Math.max(1, maxThreads);
+    }
+
+    /**
+     * Adds a task to be run by this group. Tasks should handle their own exceptions, an exception or error thrown
+     * by a task does not stop the other tasks.
+     *
+     * @param task The task to run.
+     */
+    public synchronized void execute(Runnable task) {
+        m_queue.add(task);
+        m_pending++;
+        if (m_threads < m_maxThreads) {
+            m_threads++;
+            Thread thread = new Thread(this, "Apache Felix DeploymentAdmin - " + m_name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Waits until all tasks added to this group have completed. Completed tasks may have changed the state of the
+     * framework, so this method does not give up when the calling thread is interrupted, the interrupt is restored
+     * before returning.
+     */
+    public synchronized void await() {
+        boolean interrupted = false;
+        while (m_pending > 0) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void run() {
+        while (true) {
+            Runnable task;
+            synchronized (this) {
+                if (m_queue.isEmpty()) {
+                    m_threads--;
+                    return;
+                }
+                task = (Runnable) m_queue.removeFirst();
+            }
+            try {
+                task.run();
+            }
+            catch (Throwable t) {
+                // tasks report their own failures, nothing to add here; the thread must survive so that
+                // the remaining tasks run and await() returns
+            }
+            finally {
+                synchronized (this) {
+                    m_pending--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private static int getConfiguredThreads() {
+        try {
+            return Integer.parseInt(System.getProperty("org.apache.felix.deploymentadmin.threads", Integer.toString(DEFAULT_THREADS)));
+        }
+        catch (NumberFormatException e) {
+            return DEFAULT_THREADS;
+        }
+    }
+}
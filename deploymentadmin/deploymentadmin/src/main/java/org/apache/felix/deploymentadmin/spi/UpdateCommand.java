@@ -20,7 +20,10 @@ package org.apache.felix.deploymentadmin.spi;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.felix.deploymentadmin.AbstractDeploymentPackage;
@@ -36,7 +39,9 @@ import org.osgi.service.deploymentadmin.DeploymentException;
 /**
  * Command that installs all bundles described in the source deployment package of a deployment
  * session. If a bundle was already defined in the target deployment package of the same session
- * it is updated, otherwise the bundle is simply installed.
+ * it is updated, otherwise the bundle is simply installed. Bundles are installed concurrently as
+ * they are read from the stream, they are independent until they are resolved and started by later
+ * commands.
  */
 public class UpdateCommand extends Command {
 
@@ -54,6 +59,8 @@ public class UpdateCommand extends Command {
             }
         }
 
+        List tasks = new ArrayList();
+        TaskGroup group = new TaskGroup("UpdateCommand");
         try {
             while (!expectedBundles.isEmpty()) {
             	AbstractInfo entry = source.getNextEntry();
@@ -68,34 +75,95 @@ public class UpdateCommand extends Command {
                 }
 
                 Bundle bundle = targetPackage.getBundle(bundleInfo.getSymbolicName());
-                try {
-                    if (bundle == null) {
-                        // new bundle, install it
-                        bundle = context.installBundle(Constants.BUNDLE_LOCATION_PREFIX + bundleInfo.getSymbolicName(), new BundleInputStream(source.getCurrentEntryStream()));
-                        addRollback(new UninstallBundleRunnable(bundle));
-                    } else {
-                        // existing bundle, update it
-                        Version sourceVersion = bundleInfo.getVersion();
-                        Version targetVersion = Version.parseVersion((String) bundle.getHeaders().get(org.osgi.framework.Constants.BUNDLE_VERSION));
-                        if (!sourceVersion.equals(targetVersion)) {
-                            bundle.update(new BundleInputStream(source.getCurrentEntryStream()));
-                            addRollback(new UpdateBundleRunnable(bundle, targetPackage, bundleInfo.getSymbolicName()));
-                        }
-                    }
+                InstallTask task = new InstallTask(context, targetPackage, bundleInfo, bundle, source.getCurrentEntryStream());
+                tasks.add(task);
+                group.execute(task);
+            }
+        }
+        catch (IOException e) {
+            throw new DeploymentException(DeploymentException.CODE_OTHER_ERROR, "Problem while reading stream", e);
+        }
+        finally {
+            // wait for the bundles being installed, also when a later entry failed, so they can be rolled back
+            group.await();
+            for (Iterator i = tasks.iterator(); i.hasNext();) {
+                InstallTask task = (InstallTask) i.next();
+                if (task.m_rollback != null) {
+                    addRollback(task.m_rollback);
                 }
-                catch (BundleException be) {
-                    if (isCancelled()) {
-                        return;
+            }
+        }
+
+        for (Iterator i = tasks.iterator(); i.hasNext();) {
+            InstallTask task = (InstallTask) i.next();
+            if (task.m_exception instanceof DeploymentException) {
+                throw (DeploymentException) task.m_exception;
+            }
+            if (task.m_exception != null) {
+                if (isCancelled()) {
+                    return;
+                }
+                throw new DeploymentException(DeploymentException.CODE_OTHER_ERROR, "Could not install new bundle '" + task.m_bundleInfo.getPath() + "'", task.m_exception);
+            }
+        }
+    }
+
+    /**
+     * Installs or updates a single bundle, keeping the action that undoes it and the exception that
+     * prevented it, if any.
+     */
+    private final class InstallTask implements Runnable {
+
+        private final BundleContext m_context;
+        private final AbstractDeploymentPackage m_targetPackage;
+        private final BundleInfoImpl m_bundleInfo;
+        private final InputStream m_input;
+        private Bundle m_bundle;
+        // read by the command once the task group has completed
+        private Runnable m_rollback;
+        private Throwable m_exception;
+
+        private InstallTask(BundleContext context, AbstractDeploymentPackage targetPackage, BundleInfoImpl bundleInfo, Bundle bundle, InputStream input) {
+            m_context = context;
+            m_targetPackage = targetPackage;
+            m_bundleInfo = bundleInfo;
+            m_bundle = bundle;
+            m_input = input;
+        }
+
+        public void run() {
+            try {
+                if (isCancelled()) {
+                    throw new BundleException("Deployment session was cancelled");
+                }
+                if (m_bundle == null) {
+                    // new bundle, install it
+                    m_bundle = m_context.installBundle(Constants.BUNDLE_LOCATION_PREFIX + m_bundleInfo.getSymbolicName(), new BundleInputStream(m_input));
+                    m_rollback = new UninstallBundleRunnable(m_bundle);
+                } else {
+                    // existing bundle, update it
+                    Version sourceVersion = m_bundleInfo.getVersion();
+                    Version targetVersion = Version.parseVersion((String) m_bundle.getHeaders().get(org.osgi.framework.Constants.BUNDLE_VERSION));
+                    if (!sourceVersion.equals(targetVersion)) {
+                        m_bundle.update(new BundleInputStream(m_input));
+                        m_rollback = new UpdateBundleRunnable(m_bundle, m_targetPackage, m_bundleInfo.getSymbolicName());
                     }
-                    throw new DeploymentException(DeploymentException.CODE_OTHER_ERROR, "Could not install new bundle '" + name + "'", be);
                 }
-                if (!bundle.getSymbolicName().equals(bundleInfo.getSymbolicName()) || !Version.parseVersion((String)bundle.getHeaders().get(org.osgi.framework.Constants.BUNDLE_VERSION)).equals(bundleInfo.getVersion())) {
-                    throw new DeploymentException(DeploymentException.CODE_OTHER_ERROR, "Installed/updated bundle version and/or symbolicnames do not match what was installed/updated");
+                if (!m_bundle.getSymbolicName().equals(m_bundleInfo.getSymbolicName()) || !Version.parseVersion((String)m_bundle.getHeaders().get(org.osgi.framework.Constants.BUNDLE_VERSION)).equals(m_bundleInfo.getVersion())) {
+                    m_exception = new DeploymentException(DeploymentException.CODE_OTHER_ERROR, "Installed/updated bundle version and/or symbolicnames do not match what was installed/updated");
+                }
+            }
+            catch (Throwable t) {
+                m_exception = t;
+            }
+            finally {
+                try {
+                    m_input.close();
+                }
+                catch (IOException e) {
+                    // Not much we can do
                 }
             }
-        }
-        catch (IOException e) {
-            throw new DeploymentException(DeploymentException.CODE_OTHER_ERROR, "Problem while reading stream", e);
         }
     }
 
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+public class JarSpoolerTest extends TestCase {
+    private File m_tempDir;
+
+    protected void setUp() throws Exception {
+        m_tempDir = File.createTempFile("temp", "dir");
+        m_tempDir.delete();
+        m_tempDir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        delete(m_tempDir);
+    }
+
+    public void testEntriesAreSpooledInOrder() throws Exception {
+        String data = createData();
+        File index = new File(m_tempDir, "index");
+        File dir = new File(m_tempDir, "contents");
+        JarSpooler spooler = new JarSpooler(new ByteArrayInputStream(createJar(data)), index, dir);
+        assertEquals("1.0", spooler.getManifest().getMainAttributes().getValue(Attributes.Name.MANIFEST_VERSION));
+        spooler.start();
+
+        assertEquals("dummy", spooler.next());
+        assertEquals(data, read(spooler.getEntryStream("dummy")));
+        assertEquals("dir/dummy2", spooler.next());
+        assertEquals(data, read(spooler.getEntryStream("dir/dummy2")));
+        assertNull(spooler.next());
+        spooler.waitFor();
+        spooler.close();
+
+        // the manifest is the first entry of the index, like for installed deployment packages
+        List entries = ExplodingOutputtingInputStream.readIndex(index);
+        assertEquals(3, entries.size());
+        assertEquals("META-INF/MANIFEST.MF", entries.get(0));
+        assertEquals("dummy", entries.get(1));
+        assertEquals("dir/dummy2", entries.get(2));
+        assertEquals(2 * data.length(), spooler.getSize());
+    }
+
+    public void testTruncatedStreamFails() throws Exception {
+        String data = createData();
+        byte[] jar = createJar(data);
+        byte[] truncated = new byte[jar.length / 2];
+        System.arraycopy(jar, 0, truncated, 0, truncated.length);
+
+        JarSpooler spooler = new JarSpooler(new ByteArrayInputStream(truncated), new File(m_tempDir, "index"), new File(m_tempDir, "contents"));
+        spooler.start();
+        try {
+            while (spooler.next() != null) {
+                // entries read before the error remain available
+            }
+            fail("Truncated stream should not be spooled completely");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        spooler.close();
+    }
+
+    public void testCloseDoesNotWaitForStalledStream() throws Exception {
+        byte[] jar = createJar(createData());
+        final byte[] start = new byte[jar.length / 2];
+        System.arraycopy(jar, 0, start, 0, start.length);
+        // delivers the first half of the jar, then blocks until closed, like a stalled remote stream
+        InputStream stalled = new InputStream() {
+            private int m_pos;
+            private boolean m_closed;
+
+            public synchronized int read() throws IOException {
+                while (m_pos == start.length && !m_closed) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        throw new IOException("Interrupted");
+                    }
+                }
+                if (m_closed) {
+                    throw new IOException("Stream closed");
+                }
+                return start[m_pos++] & 0xff;
+            }
+
+            public synchronized int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                // returns what is available instead of blocking until the buffer is filled
+                b[off] = (byte) read();
+                int count = Math.min(len - 1, start.length - m_pos);
+                System.arraycopy(start, m_pos, b, off + 1, count);
+                m_pos += count;
+                return count + 1;
+            }
+
+            public synchronized void close() {
+                m_closed = true;
+                notifyAll();
+            }
+        };
+
+        JarSpooler spooler = new JarSpooler(stalled, new File(m_tempDir, "index"), new File(m_tempDir, "contents"));
+        spooler.start();
+        Thread.sleep(200);
+        long begin = System.currentTimeMillis();
+        spooler.close();
+        assertTrue("close should not wait for the stalled stream", System.currentTimeMillis() - begin < 2000);
+        try {
+            while (spooler.next() != null) {
+                // entries read before closing remain available
+            }
+        }
+        catch (IOException e) {
+            fail("A closed spooler reports no failure");
+        }
+    }
+
+    private String createData() {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("DATAdataDATAdata");
+        }
+        return sb.toString();
+    }
+
+    private byte[] createJar(String data) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JarOutputStream jos = new JarOutputStream(bytes, manifest);
+        jos.putNextEntry(new JarEntry("dummy"));
+        jos.write(data.getBytes());
+        jos.closeEntry();
+        jos.putNextEntry(new JarEntry("dir/"));
+        jos.closeEntry();
+        jos.putNextEntry(new JarEntry("dir/dummy2"));
+        jos.write(data.getBytes());
+        jos.closeEntry();
+        jos.close();
+        return bytes.toByteArray();
+    }
+
+    private String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int i = input.read(buffer); i > -1; i = input.read(buffer)) {
+            output.write(buffer, 0, i);
+        }
+        input.close();
+        return new String(output.toByteArray());
+    }
+
+    private void delete(File root) {
+        File[] children = root.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        root.delete();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin.spi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CommandTest extends TestCase {
+
+    public void testRollbackRunsInReverseOrder() throws Exception {
+        List order = new ArrayList();
+        Command command = createCommand();
+        for (int i = 0; i < 3; i++) {
+            command.addRollback(new Record(order, "rollback" + i));
+            command.addCommit(new Record(order, "commit" + i));
+        }
+        command.rollback();
+        assertEquals("[rollback2, rollback1, rollback0]", order.toString());
+
+        // the actions are cleared once run
+        command.rollback();
+        command.commit();
+        assertEquals(3, order.size());
+    }
+
+    public void testCommitRunsInOrder() throws Exception {
+        List order = new ArrayList();
+        Command command = createCommand();
+        for (int i = 0; i < 3; i++) {
+            command.addRollback(new Record(order, "rollback" + i));
+            command.addCommit(new Record(order, "commit" + i));
+        }
+        command.commit();
+        assertEquals("[commit0, commit1, commit2]", order.toString());
+    }
+
+    private Command createCommand() {
+        return new Command() {
+            public void execute(DeploymentSessionImpl session) {
+            }
+        };
+    }
+
+    private static class Record implements Runnable {
+        private final List m_order;
+        private final String m_name;
+
+        private Record(List order, String name) {
+            m_order = order;
+            m_name = name;
+        }
+
+        public void run() {
+            m_order.add(m_name);
+        }
+    }
+}
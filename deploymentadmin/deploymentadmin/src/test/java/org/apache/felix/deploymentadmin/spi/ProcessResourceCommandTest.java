@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin.spi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.deploymentadmin.DeploymentException;
+import org.osgi.service.deploymentadmin.spi.DeploymentSession;
+import org.osgi.service.deploymentadmin.spi.ResourceProcessor;
+import org.osgi.service.deploymentadmin.spi.ResourceProcessorException;
+
+public class ProcessResourceCommandTest extends TestCase {
+
+    protected void setUp() throws Exception {
+        // the processors of the fixture are not part of the deployment package
+        System.setProperty("org.apache.felix.deploymentadmin.allowforeigncustomizers", "true");
+    }
+
+    protected void tearDown() throws Exception {
+        System.getProperties().remove("org.apache.felix.deploymentadmin.allowforeigncustomizers");
+    }
+
+    public void testProcessorsWorkConcurrentlyInStreamOrder() throws Exception {
+        final Object lock = new Object();
+        final Processor second = new Processor();
+        Processor first = new Processor() {
+            public void process(String name, InputStream stream) throws ResourceProcessorException {
+                super.process(name, stream);
+                if (name.equals("r1")) {
+                    // waits until the other processor has processed its resource, which comes later in the stream
+                    synchronized (lock) {
+                        long end = System.currentTimeMillis() + 5000;
+                        while (second.getProcessed().isEmpty() && System.currentTimeMillis() < end) {
+                            try {
+                                lock.wait(100);
+                            }
+                            catch (InterruptedException e) {
+                                break;
+                            }
+                        }
+                    }
+                    if (second.getProcessed().isEmpty()) {
+                        throw new ResourceProcessorException(ResourceProcessorException.CODE_OTHER_ERROR, "Resources were not processed concurrently");
+                    }
+                }
+            }
+        };
+        SessionFixture fixture = new SessionFixture();
+        fixture.addResource("r1", "first", first);
+        fixture.addResource("r2", "second", second);
+        fixture.addResource("r3", "first", first);
+
+        CommitResourceCommand commit = new CommitResourceCommand();
+        new ProcessResourceCommand(commit).execute(fixture.createSession());
+        assertEquals(1, first.m_begun);
+        assertEquals(1, second.m_begun);
+        assertEquals("[r1, r3]", first.getProcessed().toString());
+        assertEquals("[r2]", second.getProcessed().toString());
+    }
+
+    public void testErrorFailsCommand() throws Exception {
+        Processor processor = new Processor() {
+            public void process(String name, InputStream stream) throws ResourceProcessorException {
+                super.process(name, stream);
+                throw new NoClassDefFoundError("test");
+            }
+        };
+        SessionFixture fixture = new SessionFixture();
+        fixture.addResource("r1", "first", processor);
+        fixture.addResource("r2", "first", processor);
+
+        try {
+            new ProcessResourceCommand(new CommitResourceCommand()).execute(fixture.createSession());
+            fail("Processing r1 should fail");
+        }
+        catch (DeploymentException e) {
+            assertEquals(DeploymentException.CODE_OTHER_ERROR, e.getCode());
+            assertTrue(e.getCause().getCause() instanceof NoClassDefFoundError);
+        }
+        // nothing is processed anymore once a resource failed
+        assertEquals("[r1]", processor.getProcessed().toString());
+    }
+
+    private static class Processor implements ResourceProcessor {
+        private final List m_processed = new ArrayList();
+        volatile int m_begun;
+
+        public void begin(DeploymentSession session) {
+            m_begun++;
+        }
+
+        public void process(String name, InputStream stream) throws ResourceProcessorException {
+            try {
+                assertEquals(name, SessionFixture.read(stream));
+            }
+            catch (IOException e) {
+                throw new ResourceProcessorException(ResourceProcessorException.CODE_OTHER_ERROR, e.getMessage(), e);
+            }
+            synchronized (this) {
+                m_processed.add(name);
+            }
+        }
+
+        synchronized List getProcessed() {
+            return new ArrayList(m_processed);
+        }
+
+        public void dropped(String resource) {
+        }
+
+        public void dropAllResources() {
+        }
+
+        public void prepare() {
+        }
+
+        public void commit() {
+        }
+
+        public void rollback() {
+        }
+
+        public void cancel() {
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin.spi;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.apache.felix.deploymentadmin.AbstractDeploymentPackage;
+import org.apache.felix.deploymentadmin.AbstractInfo;
+import org.apache.felix.deploymentadmin.BundleInfoImpl;
+import org.apache.felix.deploymentadmin.DeploymentAdminImpl;
+import org.apache.felix.deploymentadmin.ResourceInfoImpl;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.deploymentadmin.DeploymentException;
+import org.osgi.service.log.LogService;
+
+/**
+ * Deployment session of the command tests. The framework is simulated by dynamic proxies, the source deployment
+ * package returns its entries in the order in which they were added.
+ */
+class SessionFixture {
+
+    private final Manifest m_manifest = new Manifest();
+    private final Manifest m_target = new Manifest();
+    private final List m_entries = new ArrayList();
+    private final List m_bundles = Collections.synchronizedList(new ArrayList());
+    private final Map m_processors = new HashMap();
+    final List m_events = Collections.synchronizedList(new ArrayList());
+    private File m_dataDir;
+
+    SessionFixture() {
+        Attributes main = m_manifest.getMainAttributes();
+        main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        main.putValue("DeploymentPackage-SymbolicName", "test.dp");
+        main.putValue("DeploymentPackage-Version", "1.0.0");
+        m_target.getMainAttributes().putAll(main);
+    }
+
+    void addBundle(String symbolicName) {
+        String path = symbolicName;
+        m_manifest.getEntries().put(path, createBundleAttributes(symbolicName));
+        m_entries.add(path);
+    }
+
+    /**
+     * Adds a bundle to the target deployment package, the bundle is installed.
+     */
+    void addInstalledBundle(String symbolicName) {
+        addInstalledBundle(symbolicName, false);
+    }
+
+    /**
+     * Adds a bundle to the target deployment package, the bundle is installed.
+     */
+    void addInstalledBundle(String symbolicName, boolean customizer) {
+        Attributes attributes = createBundleAttributes(symbolicName);
+        if (customizer) {
+            attributes.putValue("DeploymentPackage-Customizer", "true");
+        }
+        m_target.getEntries().put(symbolicName, attributes);
+        m_bundles.add(createBundle(symbolicName));
+    }
+
+    /**
+     * Sets the directory returned by <code>BundleContext.getDataFile()</code>.
+     */
+    void setDataDir(File dataDir) {
+        m_dataDir = dataDir;
+    }
+
+    private Attributes createBundleAttributes(String symbolicName) {
+        Attributes attributes = new Attributes();
+        attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+        attributes.putValue(Constants.BUNDLE_VERSION, "1.0.0");
+        return attributes;
+    }
+
+    void addResource(String path, String pid, Object processor) {
+        Attributes attributes = new Attributes();
+        attributes.putValue("Resource-Processor", pid);
+        m_manifest.getEntries().put(path, attributes);
+        m_entries.add(path);
+        m_processors.put(pid, processor);
+    }
+
+    /**
+     * Called by <code>BundleContext.installBundle()</code>, installs a bundle with the symbolic name given by the
+     * contents of the stream, which is the path of the bundle in the deployment package.
+     */
+    Bundle installBundle(String location, InputStream input) throws Exception {
+        Bundle bundle = createBundle(read(input));
+        m_bundles.add(bundle);
+        m_events.add("installed " + bundle.getSymbolicName());
+        return bundle;
+    }
+
+    DeploymentSessionImpl createSession() throws Exception {
+        BundleContext context = (BundleContext) proxy(BundleContext.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("installBundle")) {
+                    return installBundle((String) args[0], (InputStream) args[1]);
+                }
+                if (name.equals("getBundles")) {
+                    return m_bundles.toArray(new Bundle[0]);
+                }
+                if (name.equals("getServiceReferences")) {
+                    String filter = (String) args[1];
+                    String pid = filter.substring(filter.indexOf('=') + 1, filter.length() - 1);
+                    return m_processors.containsKey(pid) ? new ServiceReference[] { createReference(pid) } : null;
+                }
+                if (name.equals("getService")) {
+                    return m_processors.get(((ServiceReference) args[0]).getProperty(Constants.SERVICE_PID));
+                }
+                if (name.equals("getDataFile")) {
+                    return new File(m_dataDir, (String) args[0]);
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+        LogService log = (LogService) proxy(LogService.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                return null;
+            }
+        });
+        DeploymentAdminImpl admin = new DeploymentAdminImpl();
+        inject(admin, "m_context", context);
+        inject(admin, "m_log", log);
+        return new DeploymentSessionImpl(new Package(m_manifest, context, admin), new Package(m_target, context, admin), new ArrayList(), admin);
+    }
+
+    private static void inject(DeploymentAdminImpl admin, String name, Object value) throws Exception {
+        Field field = DeploymentAdminImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(admin, value);
+    }
+
+    private Bundle createBundle(final String symbolicName) {
+        final Hashtable headers = new Hashtable();
+        headers.put(Constants.BUNDLE_VERSION, "1.0.0");
+        return (Bundle) proxy(Bundle.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getSymbolicName")) {
+                    return symbolicName;
+                }
+                if (name.equals("getHeaders")) {
+                    return headers;
+                }
+                if (name.equals("uninstall")) {
+                    m_bundles.remove(proxy);
+                    m_events.add("uninstalled " + symbolicName);
+                    return null;
+                }
+                if (name.equals("equals")) {
+                    return Boolean.valueOf(proxy == args[0]);
+                }
+                if (name.equals("hashCode")) {
+                    return new Integer(System.identityHashCode(proxy));
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private ServiceReference createReference(final String pid) {
+        final Bundle bundle = createBundle("processor." + pid);
+        return (ServiceReference) proxy(ServiceReference.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getBundle")) {
+                    return bundle;
+                }
+                if (name.equals("getProperty") && Constants.SERVICE_PID.equals(args[0])) {
+                    return pid;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private static Object proxy(Class type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(SessionFixture.class.getClassLoader(), new Class[] { type }, handler);
+    }
+
+    static String read(InputStream input) throws IOException {
+        StringBuffer result = new StringBuffer();
+        for (int c = input.read(); c != -1; c = input.read()) {
+            result.append((char) c);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Deployment package returning its entries in order, the contents of an entry is its path.
+     */
+    private final class Package extends AbstractDeploymentPackage {
+        private final Iterator m_next = new ArrayList(m_entries).iterator();
+        private String m_current;
+
+        Package(Manifest manifest, BundleContext context, DeploymentAdminImpl admin) throws DeploymentException {
+            super(manifest, context, admin);
+        }
+
+        public BundleInfoImpl[] getOrderedBundleInfos() {
+            return getBundleInfoImpls();
+        }
+
+        public ResourceInfoImpl[] getOrderedResourceInfos() {
+            return getResourceInfos();
+        }
+
+        public InputStream getBundleStream(String symbolicName) throws IOException {
+            return null;
+        }
+
+        public AbstractInfo getNextEntry() throws IOException {
+            if (!m_next.hasNext()) {
+                m_current = null;
+                return null;
+            }
+            m_current = (String) m_next.next();
+            AbstractInfo info = getResourceInfoByPath(m_current);
+            return (info != null) ? info : getBundleInfoByPath(m_current);
+        }
+
+        public InputStream getCurrentEntryStream() {
+            return new ByteArrayInputStream(m_current.getBytes());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin.spi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+public class SnapshotCommandTest extends TestCase {
+    // well before the racy interval of the snapshots, on a whole second for coarse file systems
+    private static final long OLD_TIME = (System.currentTimeMillis() / 1000 - 100) * 1000;
+
+    private File m_tempDir;
+    private File m_root;
+    private SessionFixture m_fixture;
+
+    protected void setUp() throws Exception {
+        m_tempDir = File.createTempFile("temp", "dir");
+        m_tempDir.delete();
+        m_tempDir.mkdirs();
+        m_root = new File(m_tempDir, "storage");
+        m_root.mkdirs();
+        m_fixture = new SessionFixture();
+        m_fixture.addInstalledBundle("bundle.a");
+        m_fixture.setDataDir(new File(m_tempDir, "admin"));
+    }
+
+    protected void tearDown() throws Exception {
+        delete(m_tempDir);
+    }
+
+    public void testRollbackRestoresStorageArea() throws Exception {
+        write(new File(m_root, "modified"), "original", OLD_TIME);
+        write(new File(m_root, "deleted"), "deleted", OLD_TIME);
+        write(new File(m_root, "dir/unchanged"), "unchanged", OLD_TIME);
+
+        SnapshotCommand command = createCommand();
+        command.execute(m_fixture.createSession());
+
+        // changes made during the session
+        write(new File(m_root, "modified"), "changed during the session", System.currentTimeMillis());
+        new File(m_root, "deleted").delete();
+        write(new File(m_root, "created"), "created", System.currentTimeMillis());
+        write(new File(m_root, "newdir/created"), "created", System.currentTimeMillis());
+
+        command.rollback();
+        assertEquals("original", read(new File(m_root, "modified")));
+        assertEquals("deleted", read(new File(m_root, "deleted")));
+        assertEquals("unchanged", read(new File(m_root, "dir/unchanged")));
+        assertFalse(new File(m_root, "created").exists());
+        assertFalse(new File(m_root, "newdir").exists());
+    }
+
+    public void testSnapshotIsDeletedOnCommit() throws Exception {
+        write(new File(m_root, "file"), "file", OLD_TIME);
+        SnapshotCommand command = createCommand();
+        command.execute(m_fixture.createSession());
+        assertTrue(getSnapshot("bundle.a").isDirectory());
+
+        command.commit();
+        assertFalse(getSnapshot("bundle.a").exists());
+        assertEquals("file", read(new File(m_root, "file")));
+    }
+
+    public void testSnapshotIsDeletedAfterRollback() throws Exception {
+        write(new File(m_root, "file"), "file", OLD_TIME);
+        SnapshotCommand command = createCommand();
+        command.execute(m_fixture.createSession());
+
+        command.rollback();
+        assertFalse(getSnapshot("bundle.a").exists());
+    }
+
+    public void testOnlyStorageAreasChangedBySessionAreCopied() throws Exception {
+        // updated bundle, stopped during the whole session
+        m_fixture.addInstalledBundle("bundle.b");
+        m_fixture.addBundle("bundle.b");
+        // customizer, started during the session
+        m_fixture.addInstalledBundle("bundle.c", true);
+        m_fixture.addBundle("bundle.c");
+        write(new File(m_root, "file"), "a", OLD_TIME);
+        write(new File(getRoot("bundle.b"), "file"), "b", OLD_TIME);
+        write(new File(getRoot("bundle.c"), "file"), "c", OLD_TIME);
+
+        createCommand().execute(m_fixture.createSession());
+        assertEquals("a", read(new File(getSnapshot("bundle.a"), "file")));
+        assertFalse(getSnapshot("bundle.b").exists());
+        assertEquals("c", read(new File(getSnapshot("bundle.c"), "file")));
+    }
+
+    public void testObsoleteSnapshotsAreDeleted() throws Exception {
+        write(new File(getSnapshot("old"), "data/file"), "old", OLD_TIME);
+        createCommand().execute(m_fixture.createSession());
+        assertFalse(getSnapshot("old").exists());
+    }
+
+    private SnapshotCommand createCommand() {
+        GetStorageAreaCommand storageAreas = new GetStorageAreaCommand();
+        storageAreas.getStorageAreas().put("bundle.a", m_root);
+        storageAreas.getStorageAreas().put("bundle.b", getRoot("bundle.b"));
+        storageAreas.getStorageAreas().put("bundle.c", getRoot("bundle.c"));
+        return new SnapshotCommand(storageAreas);
+    }
+
+    private File getRoot(String symbolicName) {
+        return new File(m_tempDir, "storage." + symbolicName);
+    }
+
+    private File getSnapshot(String symbolicName) {
+        return new File(m_tempDir, "admin/snapshots/" + symbolicName);
+    }
+
+    private void write(File file, String data, long time) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data.getBytes());
+        }
+        finally {
+            output.close();
+        }
+        file.setLastModified(time);
+    }
+
+    private String read(File file) throws IOException {
+        return SessionFixture.read(new FileInputStream(file));
+    }
+
+    private void delete(File root) {
+        File[] children = root.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        root.delete();
+    }
+}
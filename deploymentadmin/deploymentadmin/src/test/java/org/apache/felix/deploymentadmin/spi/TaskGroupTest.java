@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin.spi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TaskGroupTest extends TestCase {
+
+    public void testSingleThreadRunsTasksInOrder() throws Exception {
+        final List order = new ArrayList();
+        TaskGroup group = new TaskGroup("test", 1);
+        for (int i = 0; i < 10; i++) {
+            final Integer value = new Integer(i);
+            group.execute(new Runnable() {
+                public void run() {
+                    synchronized (order) {
+                        order.add(value);
+                    }
+                }
+            });
+        }
+        group.await();
+        assertEquals(10, order.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(new Integer(i), order.get(i));
+        }
+    }
+
+    public void testTasksRunConcurrently() throws Exception {
+        final Object lock = new Object();
+        final int[] running = new int[1];
+        TaskGroup group = new TaskGroup("test", 2);
+        for (int i = 0; i < 2; i++) {
+            group.execute(new Runnable() {
+                public void run() {
+                    synchronized (lock) {
+                        running[0]++;
+                        lock.notifyAll();
+                        long end = System.currentTimeMillis() + 5000;
+                        // each task waits for the other one, which only works with two threads
+                        while (running[0] < 2 && System.currentTimeMillis() < end) {
+                            try {
+                                lock.wait(100);
+                            }
+                            catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        group.await();
+        assertEquals(2, running[0]);
+    }
+
+    public void testErrorDoesNotStopGroup() throws Exception {
+        final List done = new ArrayList();
+        TaskGroup group = new TaskGroup("test", 1);
+        group.execute(new Runnable() {
+            public void run() {
+                throw new NoClassDefFoundError("test");
+            }
+        });
+        group.execute(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("test");
+            }
+        });
+        group.execute(new Runnable() {
+            public void run() {
+                synchronized (done) {
+                    done.add("last");
+                }
+            }
+        });
+        group.await();
+        assertEquals(1, done.size());
+
+        // the group still starts a thread for new tasks
+        group.execute(new Runnable() {
+            public void run() {
+                synchronized (done) {
+                    done.add("again");
+                }
+            }
+        });
+        group.await();
+        assertEquals(2, done.size());
+    }
+}
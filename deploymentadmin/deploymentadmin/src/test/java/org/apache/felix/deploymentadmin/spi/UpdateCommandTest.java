@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin.spi;
+
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.service.deploymentadmin.DeploymentException;
+
+public class UpdateCommandTest extends TestCase {
+
+    public void testBundlesAreInstalledConcurrently() throws Exception {
+        final Object lock = new Object();
+        SessionFixture fixture = new SessionFixture() {
+            Bundle installBundle(String location, InputStream input) throws Exception {
+                Bundle bundle = super.installBundle(location, input);
+                synchronized (lock) {
+                    lock.notifyAll();
+                    // the first bundle waits until the second one has been installed
+                    long end = System.currentTimeMillis() + 5000;
+                    while (m_events.size() < 2 && System.currentTimeMillis() < end) {
+                        lock.wait(100);
+                    }
+                }
+                if (m_events.size() < 2) {
+                    throw new BundleException("Bundles were not installed concurrently");
+                }
+                return bundle;
+            }
+        };
+        fixture.addBundle("bundle.a");
+        fixture.addBundle("bundle.b");
+
+        UpdateCommand command = new UpdateCommand();
+        command.execute(fixture.createSession());
+        assertEquals(2, fixture.m_events.size());
+        assertTrue(fixture.m_events.contains("installed bundle.a"));
+        assertTrue(fixture.m_events.contains("installed bundle.b"));
+    }
+
+    public void testErrorFailsCommandAndRollsBack() throws Exception {
+        SessionFixture fixture = new SessionFixture() {
+            Bundle installBundle(String location, InputStream input) throws Exception {
+                if (location.endsWith("bundle.b")) {
+                    throw new NoClassDefFoundError("test");
+                }
+                return super.installBundle(location, input);
+            }
+        };
+        fixture.addBundle("bundle.a");
+        fixture.addBundle("bundle.b");
+
+        UpdateCommand command = new UpdateCommand();
+        try {
+            command.execute(fixture.createSession());
+            fail("Installing bundle.b should fail");
+        }
+        catch (DeploymentException e) {
+            assertTrue(e.getCause() instanceof NoClassDefFoundError);
+        }
+        command.rollback();
+        assertEquals("installed bundle.a", fixture.m_events.get(0));
+        assertEquals("uninstalled bundle.a", fixture.m_events.get(1));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin;
+
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+/**
+ * The Apache Felix Event Admin registers its <tt>EventAdmin</tt> service
+ * under this interface, too. It allows producers of many events to hand
+ * them over at once.
+ * <p>
+ * Compared to calling {@link EventAdmin#postEvent(Event)} for each event,
+ * the event handlers and permissions are resolved only once per distinct
+ * topic and the whole batch is queued as a single unit for asynchronous
+ * delivery. Each event of the batch counts against a bounded queue.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public interface BatchEventAdmin extends EventAdmin
+{
+    /**
+     * Initiate asynchronous delivery of a batch of events. This method
+     * returns to the caller before delivery of the events is completed.
+     * <p>
+     * Each event handler receives its matching events in the order of the
+     * array and all of them before the next handler is called. Ordering with
+     * events posted by the same thread through {@link #postEvent(Event)} is
+     * kept as well.
+     *
+     * @param events The events to send to all event handlers which are
+     *        interested in them.
+     * @throws SecurityException If the caller does not have
+     *         <code>TopicPermission[topic,PUBLISH]</code> for the topic of
+     *         one of the events. In this case no event is delivered.
+     */
+    void postEvents(Event[] events);
+}
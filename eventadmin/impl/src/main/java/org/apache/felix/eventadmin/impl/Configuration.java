@@ -21,9 +21,11 @@ package org.apache.felix.eventadmin.impl;
 
 import java.util.*;
 
+import org.apache.felix.eventadmin.BatchEventAdmin;
 import org.apache.felix.eventadmin.impl.adapter.*;
 import org.apache.felix.eventadmin.impl.handler.EventAdminImpl;
 import org.apache.felix.eventadmin.impl.security.SecureEventAdminFactory;
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
 import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.framework.*;
@@ -83,6 +85,18 @@ import org.osgi.service.metatype.MetaTypeProvider;
  * all handlers in exactly this package are ignored. If the string ends with a star,
  * all handlers in this package and all subpackages are ignored. If the string neither
  * ends with a dot nor with a start, this is assumed to define an exact class name.
+ * </p>
+ * <p>
+ * <p>
+ *      <tt>org.apache.felix.eventadmin.AsyncQueueSize</tt> - The maximum number of
+ *          events queued for asynchronous delivery per sending thread.
+ * </p>
+ * The default is 0 which means the queues are unbounded. Once the queue of a
+ * sending thread is full, <tt>org.apache.felix.eventadmin.AsyncQueuePolicy</tt>
+ * decides what happens: with <tt>block</tt> (the default) the sending thread waits
+ * until an event has been delivered, with <tt>drop</tt> the new event is discarded.
+ * Threads delivering asynchronous events themselves never wait.
+ * </p>
  *
  * These properties are read at startup and serve as a default configuration.
  * If a configuration admin is configured, the event admin can be configured
@@ -100,6 +114,8 @@ public class Configuration
     static final String PROP_REQUIRE_TOPIC = "org.apache.felix.eventadmin.RequireTopic";
     static final String PROP_IGNORE_TIMEOUT = "org.apache.felix.eventadmin.IgnoreTimeout";
     static final String PROP_LOG_LEVEL = "org.apache.felix.eventadmin.LogLevel";
+    static final String PROP_ASYNC_QUEUE_SIZE = "org.apache.felix.eventadmin.AsyncQueueSize";
+    static final String PROP_ASYNC_QUEUE_POLICY = "org.apache.felix.eventadmin.AsyncQueuePolicy";
 
     /** The bundle context. */
     private final BundleContext m_bundleContext;
@@ -114,6 +130,10 @@ public class Configuration
 
     private int m_logLevel;
 
+    private int m_asyncQueueSize;
+
+    private String m_asyncQueuePolicy;
+
     // The thread pool used - this is a member because we need to close it on stop
     private volatile DefaultThreadPool m_sync_pool;
 
@@ -128,6 +148,9 @@ public class Configuration
     // The registration of the security decorator factory (i.e., the service)
     private volatile ServiceRegistration m_registration;
 
+    // The registration of the delivery statistics printer for the web console
+    private volatile ServiceRegistration m_printerRegistration;
+
     // all adapters
     private AbstractAdapter[] m_adapters;
 
@@ -239,6 +262,10 @@ public class Configuration
                     m_bundleContext.getProperty(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+            m_asyncQueueSize = getIntProperty(PROP_ASYNC_QUEUE_SIZE,
+                    m_bundleContext.getProperty(PROP_ASYNC_QUEUE_SIZE), 0, 0);
+            m_asyncQueuePolicy = getPolicyProperty(
+                    m_bundleContext.getProperty(PROP_ASYNC_QUEUE_POLICY));
         }
         else
         {
@@ -264,6 +291,9 @@ public class Configuration
                     config.get(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+            m_asyncQueueSize = getIntProperty(PROP_ASYNC_QUEUE_SIZE,
+                    config.get(PROP_ASYNC_QUEUE_SIZE), 0, 0);
+            m_asyncQueuePolicy = getPolicyProperty(config.get(PROP_ASYNC_QUEUE_POLICY));
         }
         // a timeout less or equals to 100 means : disable timeout
         if ( m_timeout <= 100 )
@@ -283,6 +313,10 @@ public class Configuration
             PROP_TIMEOUT + "=" + m_timeout);
         LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
             PROP_REQUIRE_TOPIC + "=" + m_requireTopic);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_ASYNC_QUEUE_SIZE + "=" + m_asyncQueueSize);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_ASYNC_QUEUE_POLICY + "=" + m_asyncQueuePolicy);
 
         // Note that this uses a lazy thread pool that will create new threads on
         // demand - in case none of its cached threads is free - until threadPoolSize
@@ -313,7 +347,9 @@ public class Configuration
                     m_async_pool,
                     m_timeout,
                     m_ignoreTimeout,
-                    m_requireTopic);
+                    m_requireTopic,
+                    m_asyncQueueSize,
+                    m_asyncQueuePolicy);
 
             // Finally, adapt the outside events to our kind of events as per spec
             adaptEvents(m_admin);
@@ -321,12 +357,25 @@ public class Configuration
             // register the admin wrapped in a service factory (SecureEventAdminFactory)
             // that hands-out the m_admin object wrapped in a decorator that checks
             // appropriated permissions of each calling bundle
-            m_registration = m_bundleContext.registerService(EventAdmin.class.getName(),
+            m_registration = m_bundleContext.registerService(
+                    new String[] {EventAdmin.class.getName(), BatchEventAdmin.class.getName()},
                     new SecureEventAdminFactory(m_admin), null);
+
+            // the web console picks up services with these properties
+            // as configuration printers
+            final Dictionary props = new Hashtable();
+            props.put( "felix.webconsole.label", DeliveryStatisticsPrinter.LABEL );
+            props.put( "felix.webconsole.title", DeliveryStatisticsPrinter.TITLE );
+            props.put( "felix.webconsole.configprinter.modes", "always" );
+            m_printerRegistration = m_bundleContext.registerService(
+                    DeliveryStatisticsPrinter.class.getName(),
+                    new DeliveryStatisticsPrinter(m_admin.getStatistics(), m_sync_pool, m_async_pool),
+                    props);
         }
         else
         {
-            m_admin.update(m_timeout, m_ignoreTimeout, m_requireTopic);
+            m_admin.update(m_timeout, m_ignoreTimeout, m_requireTopic,
+                    m_asyncQueueSize, m_asyncQueuePolicy);
         }
 
     }
@@ -361,8 +410,15 @@ public class Configuration
                 m_registration.unregister();
                 m_registration = null;
             }
+            if ( m_printerRegistration != null )
+            {
+                m_printerRegistration.unregister();
+                m_printerRegistration = null;
+            }
             if ( m_admin != null )
             {
+                LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+                        "Delivery statistics: " + m_admin.getStatistics());
                 m_admin.stop();
                 m_admin = null;
             }
@@ -397,7 +453,7 @@ public class Configuration
         {
             return new MetaTypeProviderImpl((ManagedService)managedService,
                     m_threadPoolSize, m_timeout, m_requireTopic,
-                    m_ignoreTimeout);
+                    m_ignoreTimeout, m_asyncQueueSize, m_asyncQueuePolicy);
         }
         catch (final Throwable t)
         {
@@ -466,6 +522,26 @@ public class Configuration
         return defaultValue;
     }
 
+    /**
+     * Returns the overflow policy for the async queues if the value is a known
+     * policy or the default (block) otherwise.
+     */
+    private String getPolicyProperty(final Object obj)
+    {
+        if ( null != obj )
+        {
+            final String value = obj.toString().trim().toLowerCase();
+            if ( AsyncDeliverTasks.POLICY_BLOCK.equals(value)
+                 || AsyncDeliverTasks.POLICY_DROP.equals(value) )
+            {
+                return value;
+            }
+            LogWrapper.getLogger().log(LogWrapper.LOG_WARNING,
+                    "Value for property: " + PROP_ASYNC_QUEUE_POLICY + " is unknown - Using default");
+        }
+        return AsyncDeliverTasks.POLICY_BLOCK;
+    }
+
     /**
      * Returns true if the value of the property is set and is either 1, true, or yes
      * Returns false if the value of the property is set and is either 0, false, or no
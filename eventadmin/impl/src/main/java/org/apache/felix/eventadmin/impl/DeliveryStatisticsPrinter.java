@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl;
+
+import java.io.PrintWriter;
+
+import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
+import org.apache.felix.eventadmin.impl.tasks.DeliveryStatistics;
+
+/**
+ * Prints the delivery statistics and the state of the thread pools.
+ * This is registered as a configuration printer of the Apache Felix
+ * Web Console. The web console finds the {@link #printConfiguration(PrintWriter)}
+ * method by reflection, so there is no dependency on its API.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class DeliveryStatisticsPrinter
+{
+    /** The web console label of the printer. */
+    static final String LABEL = "eventadmin";
+
+    /** The web console title of the printer. */
+    static final String TITLE = "Event Admin";
+
+    private final DeliveryStatistics m_statistics;
+
+    private final DefaultThreadPool m_syncPool;
+
+    private final DefaultThreadPool m_asyncPool;
+
+    public DeliveryStatisticsPrinter( final DeliveryStatistics statistics,
+            final DefaultThreadPool syncPool,
+            final DefaultThreadPool asyncPool )
+    {
+        m_statistics = statistics;
+        m_syncPool = syncPool;
+        m_asyncPool = asyncPool;
+    }
+
+    /**
+     * Print the statistics.
+     */
+    public void printConfiguration( final PrintWriter pw )
+    {
+        pw.println( "Asynchronous Delivery" );
+        pw.println( "  Posted events: " + m_statistics.getPostedEvents() );
+        pw.println( "  Delivered events: " + m_statistics.getDeliveredEvents() );
+        pw.println( "  Dropped events: " + m_statistics.getDroppedEvents() );
+        pw.println( "  Queued events: " + m_statistics.getQueueDepth() );
+        pw.println( "  Maximum queued events: " + m_statistics.getMaxQueueDepth() );
+        pw.println( "  Average latency: " + m_statistics.getAverageLatency() + "ms" );
+        pw.println( "  Maximum latency: " + m_statistics.getMaxLatency() + "ms" );
+        pw.println();
+        pw.println( "Blacklisted handlers: " + m_statistics.getBlacklistedHandlers() );
+        pw.println();
+        printPool( pw, "Synchronous Thread Pool", m_syncPool );
+        printPool( pw, "Asynchronous Thread Pool", m_asyncPool );
+    }
+
+    private static void printPool( final PrintWriter pw, final String title, final DefaultThreadPool pool )
+    {
+        pw.println( title );
+        pw.println( "  Active threads: " + pool.getActiveCount() );
+        pw.println( "  Waiting tasks: " + pool.getQueueSize() );
+    }
+}
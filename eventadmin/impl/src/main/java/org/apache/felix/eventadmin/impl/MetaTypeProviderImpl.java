@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Dictionary;
 
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.metatype.*;
@@ -38,19 +39,25 @@ public class MetaTypeProviderImpl
     private final int m_timeout;
     private final boolean m_requireTopic;
     private final String[] m_ignoreTimeout;
+    private final int m_asyncQueueSize;
+    private final String m_asyncQueuePolicy;
 
     private final ManagedService m_delegatee;
 
     public MetaTypeProviderImpl(final ManagedService delegatee,
             final int threadPoolSize,
             final int timeout, final boolean requireTopic,
-            final String[] ignoreTimeout)
+            final String[] ignoreTimeout,
+            final int asyncQueueSize,
+            final String asyncQueuePolicy)
     {
         m_threadPoolSize = threadPoolSize;
         m_timeout = timeout;
         m_requireTopic = requireTopic;
         m_delegatee = delegatee;
         m_ignoreTimeout = ignoreTimeout;
+        m_asyncQueueSize = asyncQueueSize;
+        m_asyncQueuePolicy = asyncQueuePolicy;
     }
 
     private ObjectClassDefinition ocd;
@@ -116,6 +123,16 @@ public class MetaTypeProviderImpl
                     "all handlers in this package and all subpackages are ignored. If the string neither " +
                     "ends with a dot nor with a star, this is assumed to define an exact class name.",
                     AttributeDefinition.STRING, m_ignoreTimeout, Integer.MAX_VALUE, null, null));
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_ASYNC_QUEUE_SIZE, "Async Queue Size",
+                    "The maximum number of events queued for asynchronous delivery per sending thread. " +
+                    "The default value is 0 which means the queues are unbounded.",
+                    m_asyncQueueSize ) );
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_ASYNC_QUEUE_POLICY, "Async Queue Policy",
+                    "What happens if the asynchronous queue of a sending thread is full: either the " +
+                    "sending thread waits until there is free space or the event is dropped.",
+                    AttributeDefinition.STRING, new String[] {m_asyncQueuePolicy}, 0,
+                    new String[] {"Block sender", "Drop event"},
+                    new String[] {AsyncDeliverTasks.POLICY_BLOCK, AsyncDeliverTasks.POLICY_DROP}));
             ocd = new ObjectClassDefinition()
             {
 
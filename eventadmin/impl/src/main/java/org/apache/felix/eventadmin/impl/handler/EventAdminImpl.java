@@ -18,10 +18,12 @@
  */
 package org.apache.felix.eventadmin.impl.handler;
 
+import java.util.*;
+
+import org.apache.felix.eventadmin.BatchEventAdmin;
 import org.apache.felix.eventadmin.impl.tasks.*;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.event.Event;
-import org.osgi.service.event.EventAdmin;
 
 /**
  * This is the actual implementation of the OSGi R4 Event Admin Service (see the
@@ -36,7 +38,7 @@ import org.osgi.service.event.EventAdmin;
  *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
-public class EventAdminImpl implements EventAdmin
+public class EventAdminImpl implements BatchEventAdmin
 {
     /** The tracker for the event handlers. */
     private volatile EventHandlerTracker tracker;
@@ -47,11 +49,16 @@ public class EventAdminImpl implements EventAdmin
     // The synchronous event dispatcher
     private final SyncDeliverTasks m_sendManager;
 
+    // The statistics of both dispatchers
+    private final DeliveryStatistics m_statistics = new DeliveryStatistics();
+
     /**
      * The constructor of the <tt>EventAdmin</tt> implementation.
      *
      * @param syncPool The synchronous thread pool
      * @param asyncPool The asynchronous thread pool
+     * @param asyncQueueSize The maximum number of queued events per sending thread
+     * @param asyncQueuePolicy The policy if the queue of a sending thread is full
      */
     public EventAdminImpl(
             final BundleContext bundleContext,
@@ -59,7 +66,9 @@ public class EventAdminImpl implements EventAdmin
             final DefaultThreadPool asyncPool,
             final int timeout,
             final String[] ignoreTimeout,
-            final boolean requireTopic)
+            final boolean requireTopic,
+            final int asyncQueueSize,
+            final String asyncQueuePolicy)
     {
         checkNull(syncPool, "syncPool");
         checkNull(asyncPool, "asyncPool");
@@ -67,8 +76,9 @@ public class EventAdminImpl implements EventAdmin
         this.tracker = new EventHandlerTracker(bundleContext);
         this.tracker.update(ignoreTimeout, requireTopic);
         this.tracker.open();
-        m_sendManager = new SyncDeliverTasks(syncPool, timeout);
-        m_postManager = new AsyncDeliverTasks(asyncPool, m_sendManager);
+        m_sendManager = new SyncDeliverTasks(syncPool, m_statistics, timeout);
+        m_postManager = new AsyncDeliverTasks(asyncPool, m_sendManager, m_statistics,
+                asyncQueueSize, asyncQueuePolicy);
     }
 
     /**
@@ -98,6 +108,63 @@ public class EventAdminImpl implements EventAdmin
         m_postManager.execute(this.getTracker().getHandlers(event), event);
     }
 
+    /**
+     * Post a batch of asynchronous events. The handlers for each distinct
+     * topic are looked up only once, only the filters are checked per event.
+     *
+     * @param events The events to be posted by this service
+     *
+     * @throws IllegalStateException - In case we are stopped
+     *
+     * @see org.apache.felix.eventadmin.BatchEventAdmin#postEvents(org.osgi.service.event.Event[])
+     */
+    public void postEvents(final Event[] events)
+    {
+        final EventHandlerTracker localTracker = this.getTracker();
+
+        final Map handlersByTopic = new HashMap();
+        // the events for each handler - keep the order of the handlers
+        final Map eventsByHandler = new LinkedHashMap();
+        for(int i=0; i<events.length; i++)
+        {
+            final Event event = events[i];
+            final String topic = event.getTopic();
+            Collection handlers = (Collection)handlersByTopic.get(topic);
+            if ( handlers == null )
+            {
+                handlers = localTracker.getHandlers(topic);
+                handlersByTopic.put(topic, handlers);
+            }
+            final Iterator hi = handlers.iterator();
+            while ( hi.hasNext() )
+            {
+                final EventHandlerProxy proxy = (EventHandlerProxy) hi.next();
+                if ( proxy.matches(event) )
+                {
+                    List handlerEvents = (List)eventsByHandler.get(proxy);
+                    if ( handlerEvents == null )
+                    {
+                        handlerEvents = new ArrayList();
+                        eventsByHandler.put(proxy, handlerEvents);
+                    }
+                    handlerEvents.add(event);
+                }
+            }
+        }
+        if ( eventsByHandler.isEmpty() )
+        {
+            return;
+        }
+        final Iterator ei = eventsByHandler.entrySet().iterator();
+        while ( ei.hasNext() )
+        {
+            final Map.Entry entry = (Map.Entry)ei.next();
+            final List handlerEvents = (List)entry.getValue();
+            entry.setValue(handlerEvents.toArray(new Event[handlerEvents.size()]));
+        }
+        m_postManager.executeBatch(eventsByHandler, events.length);
+    }
+
     /**
      * Send a synchronous event.
      *
@@ -126,14 +193,25 @@ public class EventAdminImpl implements EventAdmin
      */
     public void update(final int timeout,
             final String[] ignoreTimeout,
-            final boolean requireTopic)
+            final boolean requireTopic,
+            final int asyncQueueSize,
+            final String asyncQueuePolicy)
     {
         this.tracker.close();
         this.tracker.update(ignoreTimeout, requireTopic);
         this.m_sendManager.update(timeout);
+        this.m_postManager.update(asyncQueueSize, asyncQueuePolicy);
         this.tracker.open();
     }
 
+    /**
+     * Return the delivery statistics of this event admin.
+     */
+    public DeliveryStatistics getStatistics()
+    {
+        return m_statistics;
+    }
+
     /**
      * This is a utility method that will throw a <tt>NullPointerException</tt>
      * in case that the given object is null. The message will be of the form
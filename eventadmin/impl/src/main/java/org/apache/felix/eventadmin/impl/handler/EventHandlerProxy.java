@@ -240,6 +240,17 @@ public class EventHandlerProxy {
      * - check permission
      */
     public boolean canDeliver(final Event event)
+    {
+        return this.canDeliver(event.getTopic()) && this.matches(event);
+    }
+
+    /**
+     * Check if this handler is allowed to receive events for the topic
+     * - blacklisted
+     * - check permission
+     * The filter is not checked, see {@link #matches(Event)}.
+     */
+    public boolean canDeliver(final String topic)
     {
         if ( this.blacklisted )
         {
@@ -252,15 +263,8 @@ public class EventHandlerProxy {
             return false;
         }
 
-        // filter match
-        final Filter eventFilter = this.filter;
-        if ( eventFilter != null && !event.matches(eventFilter) )
-        {
-            return false;
-        }
-
         // permission check
-        final Object p = PermissionsUtil.createSubscribePermission(event.getTopic());
+        final Object p = PermissionsUtil.createSubscribePermission(topic);
         if (p != null && !bundle.hasPermission(p) )
         {
             return false;
@@ -269,6 +273,15 @@ public class EventHandlerProxy {
         return true;
     }
 
+    /**
+     * Check if the event matches the filter of this handler.
+     */
+    public boolean matches(final Event event)
+    {
+        final Filter eventFilter = this.filter;
+        return eventFilter == null || event.matches(eventFilter);
+    }
+
     /**
      * Should a timeout be used for this handler?
      */
@@ -272,8 +272,27 @@ public class EventHandlerTracker extends ServiceTracker {
 	 * @return All handlers for the event
 	 */
 	public Collection getHandlers(final Event event) {
-	    final String topic = event.getTopic();
+		final Collection handlers = this.getHandlers(event.getTopic());
 
+		// now check filters
+		final Iterator i = handlers.iterator();
+		while ( i.hasNext() ) {
+		    final EventHandlerProxy proxy = (EventHandlerProxy) i.next();
+		    if ( !proxy.matches(event) ) {
+		        i.remove();
+		    }
+		}
+		return handlers;
+	}
+
+	/**
+	 * Get all handlers for this topic which are allowed to receive
+	 * events for the topic. The filters of the handlers are not checked.
+	 *
+	 * @param topic The event topic
+	 * @return A new modifiable collection of handlers for the topic
+	 */
+	public Collection getHandlers(final String topic) {
 		final Set handlers = new HashSet();
 
 		// Add all handlers matching everything
@@ -302,11 +321,11 @@ public class EventHandlerTracker extends ServiceTracker {
 			handlers.addAll(proxies);
 		}
 
-		// now check permission and filters
+		// now check permission and blacklisting
 		final Iterator i = handlers.iterator();
 		while ( i.hasNext() ) {
 		    final EventHandlerProxy proxy = (EventHandlerProxy) i.next();
-		    if ( !proxy.canDeliver(event) ) {
+		    if ( !proxy.canDeliver(topic) ) {
 		        i.remove();
 		    }
 		}
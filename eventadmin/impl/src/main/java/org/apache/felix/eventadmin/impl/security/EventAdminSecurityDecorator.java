@@ -19,10 +19,12 @@
 package org.apache.felix.eventadmin.impl.security;
 
 import java.security.Permission;
+import java.util.HashSet;
+import java.util.Set;
 
+import org.apache.felix.eventadmin.BatchEventAdmin;
 import org.osgi.framework.Bundle;
 import org.osgi.service.event.Event;
-import org.osgi.service.event.EventAdmin;
 
 /**
  * This class is a decorator for an <tt>EventAdmin</tt> service. It secures the
@@ -34,13 +36,13 @@ import org.osgi.service.event.EventAdmin;
  *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
-public class EventAdminSecurityDecorator implements EventAdmin
+public class EventAdminSecurityDecorator implements BatchEventAdmin
 {
     // The bundle used to determine appropriate permissions
     private final Bundle m_bundle;
 
     // The decorated service instance
-    private final EventAdmin m_admin;
+    private final BatchEventAdmin m_admin;
 
     /**
      * The constructor of this decorator. The given bundle and permission factory
@@ -52,7 +54,7 @@ public class EventAdminSecurityDecorator implements EventAdmin
      * @param bundle The calling bundle used to determine appropriate permissions
      * @param admin The decorated service instance
      */
-    public EventAdminSecurityDecorator(final Bundle bundle, final EventAdmin admin)
+    public EventAdminSecurityDecorator(final Bundle bundle, final BatchEventAdmin admin)
     {
         checkNull(bundle, "Bundle");
         checkNull(admin, "Admin");
@@ -79,6 +81,32 @@ public class EventAdminSecurityDecorator implements EventAdmin
         m_admin.postEvent(event);
     }
 
+    /**
+     * This method checks whether the given (i.e., calling) bundle has
+     * appropriate permissions to post events to the targeted topics. Each
+     * distinct topic is checked only once. A <tt>SecurityException</tt> is
+     * thrown in case it has not for one of them. Otherwise, the events are
+     * posted using this decorator's service instance.
+     *
+     * @param events The events that should be posted
+     *
+     * @see org.apache.felix.eventadmin.BatchEventAdmin#postEvents(org.osgi.service.event.Event[])
+     */
+    public void postEvents(final Event[] events)
+    {
+        final Set checkedTopics = new HashSet();
+        for(int i=0; i<events.length; i++)
+        {
+            final String topic = events[i].getTopic();
+            if ( checkedTopics.add(topic) )
+            {
+                checkPermission(topic);
+            }
+        }
+
+        m_admin.postEvents(events);
+    }
+
     /**
      * This method checks whether the given (i.e., calling) bundle has
      * appropriate permissions to send an event to the targeted topic. A
@@ -18,8 +18,8 @@
  */
 package org.apache.felix.eventadmin.impl.security;
 
+import org.apache.felix.eventadmin.BatchEventAdmin;
 import org.osgi.framework.*;
-import org.osgi.service.event.EventAdmin;
 
 /**
  * This class is a factory that secures a given <tt>EventAdmin</tt> service by
@@ -33,7 +33,7 @@ import org.osgi.service.event.EventAdmin;
 public class SecureEventAdminFactory implements ServiceFactory
 {
     // The EventAdmin to secure
-    private final EventAdmin m_admin;
+    private final BatchEventAdmin m_admin;
 
     /**
      * The constructor of the factory. The factory will use the given event admin and
@@ -42,7 +42,7 @@ public class SecureEventAdminFactory implements ServiceFactory
      *
      * @param admin The <tt>EventAdmin</tt> service to secure.
      */
-    public SecureEventAdminFactory(final EventAdmin admin)
+    public SecureEventAdminFactory(final BatchEventAdmin admin)
     {
         checkNull(admin, "Admin");
 
@@ -19,16 +19,35 @@
 package org.apache.felix.eventadmin.impl.tasks;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.service.event.Event;
 
 /**
  * This class does the actual work of the asynchronous event dispatch.
  *
+ * Events posted by the same thread are queued in a queue for this thread
+ * and delivered in order by a single pooled thread. The queue can be bounded,
+ * in which case the sending thread either waits for free space
+ * ({@link #POLICY_BLOCK}) or the event is dropped ({@link #POLICY_DROP}).
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class AsyncDeliverTasks
 {
+    /** Overflow policy: the sending thread waits until there is free space. */
+    public static final String POLICY_BLOCK = "block";
+
+    /** Overflow policy: the event is dropped. */
+    public static final String POLICY_DROP = "drop";
+
+    /** Marks threads currently delivering asynchronous events. Such threads
+     * never wait for free space as this could starve the thread pool.
+     */
+    private static final ThreadLocal DELIVERING = new ThreadLocal();
+
     /** The thread pool to use to spin-off new threads. */
     private final DefaultThreadPool m_pool;
 
@@ -38,8 +57,17 @@ public class AsyncDeliverTasks
      */
     private final SyncDeliverTasks m_deliver_task;
 
+    /** The statistics to update. */
+    private final DeliveryStatistics m_statistics;
+
     /** A map of running threads currently delivering async events. */
-    private final Map m_running_threads = new HashMap();
+    private final ConcurrentMap m_running_threads = new ConcurrentHashMap();
+
+    /** The maximum number of queued events per sending thread, 0 means unbounded. */
+    private volatile int m_queueSize;
+
+    /** Drop events instead of blocking the sender if the queue is full? */
+    private volatile boolean m_dropOnOverflow;
 
     /**
      * The constructor of the class that will use the asynchronous.
@@ -48,82 +76,230 @@ public class AsyncDeliverTasks
      *      dispatching threads in case of timeout or that the asynchronous event
      *      dispatching thread is used to send a synchronous event
      * @param deliverTask The deliver tasks for dispatching the event.
+     * @param statistics The statistics to update
+     * @param queueSize The maximum number of queued events per sending thread
+     * @param policy The overflow policy
      */
-    public AsyncDeliverTasks(final DefaultThreadPool pool, final SyncDeliverTasks deliverTask)
+    public AsyncDeliverTasks(final DefaultThreadPool pool,
+            final SyncDeliverTasks deliverTask,
+            final DeliveryStatistics statistics,
+            final int queueSize,
+            final String policy)
     {
         m_pool = pool;
         m_deliver_task = deliverTask;
+        m_statistics = statistics;
+        this.update(queueSize, policy);
+    }
+
+    /**
+     * Update the queue configuration
+     */
+    public void update(final int queueSize, final String policy)
+    {
+        m_queueSize = queueSize;
+        m_dropOnOverflow = POLICY_DROP.equals(policy);
     }
 
     /**
      * This does not block an unrelated thread used to send a synchronous event.
+     * If the queue of the current thread is full, this method might block
+     * depending on the configured policy.
      *
      * @param tasks The event handler dispatch tasks to execute
      *
      */
     public void execute(final Collection tasks, final Event event)
+    {
+        this.enqueue(new QueuedEvent(tasks, event, null, 1));
+    }
+
+    /**
+     * Queue a batch of events. The batch is delivered as a whole by
+     * {@link SyncDeliverTasks#executeBatch(Map)}, each of its events counts
+     * against the bound of the queue of the current thread. A batch larger
+     * than the bound is queued once the queue is empty.
+     *
+     * @param eventsByHandler The events for each event handler dispatch task
+     * @param count The number of events in the batch
+     */
+    public void executeBatch(final Map eventsByHandler, final int count)
+    {
+        this.enqueue(new QueuedEvent(null, null, eventsByHandler, count));
+    }
+
+    private void enqueue(final QueuedEvent queuedEvent)
     {
         final Thread currentThread = Thread.currentThread();
-        TaskExecuter executer = null;
-        synchronized (m_running_threads )
+        while ( true )
+        {
+            final TaskExecuter runningExecutor = (TaskExecuter)m_running_threads.get(currentThread);
+            if ( runningExecutor == null )
+            {
+                // only the current thread adds executers for its own key,
+                // so there is no need for an atomic put here
+                final TaskExecuter executer = new TaskExecuter( queuedEvent, currentThread );
+                m_running_threads.put(currentThread, executer);
+                m_pool.executeTask(executer);
+                return;
+            }
+            if ( runningExecutor.add(queuedEvent) )
+            {
+                return;
+            }
+            // the executer finished in the meantime, start a new one
+        }
+    }
+
+    /**
+     * A queued event together with its handlers or a batch of events.
+     */
+    private final class QueuedEvent
+    {
+        private final Collection m_tasks;
+
+        private final Event m_event;
+
+        private final Map m_eventsByHandler;
+
+        public final int count;
+
+        public final long postedAt = System.nanoTime();
+
+        public QueuedEvent(final Collection tasks, final Event event,
+                final Map eventsByHandler, final int count)
+        {
+            m_tasks = tasks;
+            m_event = event;
+            m_eventsByHandler = eventsByHandler;
+            this.count = count;
+        }
+
+        public void deliver()
         {
-            TaskExecuter runningExecutor = (TaskExecuter)m_running_threads.get(currentThread);
-            if ( runningExecutor != null )
+            if ( m_eventsByHandler != null )
             {
-                runningExecutor.add(tasks, event);
+                m_deliver_task.executeBatch(m_eventsByHandler);
             }
             else
             {
-                executer = new TaskExecuter( tasks, event, currentThread );
-                m_running_threads.put(currentThread, executer);
+                m_deliver_task.execute(m_tasks, m_event);
             }
         }
-        if ( executer != null )
+
+        public String toString()
         {
-            m_pool.executeTask(executer);
+            return m_eventsByHandler != null ? "batch of " + count + " events" : String.valueOf(m_event);
         }
     }
 
     private final class TaskExecuter implements Runnable
     {
-        private final List m_tasks = new LinkedList();
+        private final LinkedList m_tasks = new LinkedList();
+
+        /** The number of events in the queued tasks. */
+        private int m_queued;
 
         private final Object m_key;
 
-        public TaskExecuter(final Collection tasks, final Event event, final Object key)
+        /** Set once the queue has been drained - no tasks can be added afterwards. */
+        private boolean m_closed;
+
+        public TaskExecuter(final QueuedEvent queuedEvent, final Object key)
         {
             m_key = key;
-            m_tasks.add(new Object[] {tasks, event});
+            m_tasks.add(queuedEvent);
+            m_queued = queuedEvent.count;
+            m_statistics.eventQueued(queuedEvent.count);
         }
 
         public void run()
         {
-            boolean running;
-            do
+            DELIVERING.set(Boolean.TRUE);
+            try
             {
-                Object[] tasks = null;
-                synchronized ( m_tasks )
-                {
-                    tasks = (Object[]) m_tasks.remove(0);
-                }
-                m_deliver_task.execute((Collection)tasks[0], (Event)tasks[1]);
-                synchronized ( m_running_threads )
+                while ( true )
                 {
-                    running = m_tasks.size() > 0;
-                    if ( !running )
+                    final QueuedEvent task;
+                    synchronized ( this )
                     {
-                        m_running_threads.remove(m_key);
+                        if ( m_tasks.isEmpty() )
+                        {
+                            m_closed = true;
+                            m_running_threads.remove(m_key, this);
+                            return;
+                        }
+                        task = (QueuedEvent) m_tasks.removeFirst();
+                        m_queued -= task.count;
+                        // wake up senders waiting for free space
+                        this.notifyAll();
                     }
+                    task.deliver();
+                    m_statistics.eventDelivered(task.postedAt, task.count);
                 }
-            } while ( running );
+            }
+            finally
+            {
+                DELIVERING.set(null);
+            }
         }
 
-        public void add(final Collection tasks, final Event event)
+        /**
+         * Add an event to this executer.
+         * @return <code>false</code> if this executer has already finished and
+         *         the event has not been added
+         */
+        public synchronized boolean add(final QueuedEvent queuedEvent)
         {
-            synchronized ( m_tasks )
+            if ( m_closed )
+            {
+                return false;
+            }
+            final int queueSize = m_queueSize;
+            if ( queueSize > 0 && isFull(queueSize, queuedEvent.count) )
             {
-                m_tasks.add(new Object[] {tasks, event});
+                if ( m_dropOnOverflow )
+                {
+                    m_statistics.eventDropped(queuedEvent.count);
+                    LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+                            "Queue full - dropping " + queuedEvent);
+                    return true;
+                }
+                if ( DELIVERING.get() == null )
+                {
+                    while ( !m_closed && isFull(queueSize, queuedEvent.count) )
+                    {
+                        try
+                        {
+                            this.wait();
+                        }
+                        catch (final InterruptedException ie)
+                        {
+                            // restore the flag and queue the event anyway
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                    if ( m_closed )
+                    {
+                        // the queue has been drained while waiting
+                        return false;
+                    }
+                }
             }
+            m_tasks.add(queuedEvent);
+            m_queued += queuedEvent.count;
+            m_statistics.eventQueued(queuedEvent.count);
+            return true;
+        }
+
+        /**
+         * Is there no room for the given number of events? An empty queue
+         * always accepts the events, even if there are more than the bound.
+         */
+        private boolean isFull(final int queueSize, final int count)
+        {
+            return m_queued > 0 && m_queued + count > queueSize;
         }
     }
 }
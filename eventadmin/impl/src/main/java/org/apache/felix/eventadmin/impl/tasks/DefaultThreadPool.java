@@ -16,9 +16,9 @@
  */
 package org.apache.felix.eventadmin.impl.tasks;
 
-import org.apache.felix.eventadmin.impl.util.LogWrapper;
+import java.util.concurrent.*;
 
-import EDU.oswego.cs.dl.util.concurrent.*;
+import org.apache.felix.eventadmin.impl.util.LogWrapper;
 
 /**
  * A thread pool that allows to execute tasks using pooled threads in order
@@ -27,18 +27,19 @@ import EDU.oswego.cs.dl.util.concurrent.*;
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class DefaultThreadPool
-    extends PooledExecutor
 {
+    /** The executor doing the actual work. */
+    private final ThreadPoolExecutor m_executor;
 
     /**
      * Create a new pool.
      */
     public DefaultThreadPool(final int poolSize, final boolean syncThreads)
     {
-   	    super(new LinkedQueue());
-   	    if ( syncThreads )
-   	    {
-            this.setThreadFactory(new ThreadFactory()
+        final ThreadFactory factory;
+        if ( syncThreads )
+        {
+            factory = new ThreadFactory()
             {
 
                 public Thread newThread( final Runnable command )
@@ -49,11 +50,11 @@ public class DefaultThreadPool
 
                     return thread;
                 }
-            });
-   	    }
-   	    else
-   	    {
-            this.setThreadFactory(new ThreadFactory()
+            };
+        }
+        else
+        {
+            factory = new ThreadFactory()
             {
 
                 public Thread newThread( final Runnable command )
@@ -64,11 +65,25 @@ public class DefaultThreadPool
 
                     return thread;
                 }
-            });
-   	    }
-   	    configure(poolSize);
-        setKeepAliveTime(60000);
-        runWhenBlocked();
+            };
+        }
+        // the queue is unbounded: bounding is done per sender by the
+        // async deliver tasks and the sync tasks must never be rejected
+        m_executor = new ThreadPoolExecutor(poolSize, poolSize,
+                60000, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue(),
+                factory,
+                new RejectedExecutionHandler()
+                {
+
+                    public void rejectedExecution( final Runnable command, final ThreadPoolExecutor executor )
+                    {
+                        // the pool is closed, spin-off an unpooled thread
+                        executor.getThreadFactory().newThread( command ).start();
+                    }
+                });
+        m_executor.allowCoreThreadTimeOut(true);
+        configure(poolSize);
     }
 
     /**
@@ -76,8 +91,16 @@ public class DefaultThreadPool
      */
     public void configure(final int poolSize)
     {
-        setMinimumPoolSize(poolSize);
-        setMaximumPoolSize(poolSize + 10);
+        if ( poolSize > m_executor.getMaximumPoolSize() )
+        {
+            m_executor.setMaximumPoolSize(poolSize);
+            m_executor.setCorePoolSize(poolSize);
+        }
+        else
+        {
+            m_executor.setCorePoolSize(poolSize);
+            m_executor.setMaximumPoolSize(poolSize);
+        }
     }
 
     /**
@@ -86,8 +109,23 @@ public class DefaultThreadPool
      */
     public void close()
     {
-        shutdownNow();
+        m_executor.shutdownNow();
+    }
+
+    /**
+     * Return the number of threads currently executing tasks.
+     */
+    public int getActiveCount()
+    {
+        return m_executor.getActiveCount();
+    }
 
+    /**
+     * Return the number of tasks waiting for a free thread.
+     */
+    public int getQueueSize()
+    {
+        return m_executor.getQueue().size();
     }
 
     /**
@@ -98,7 +136,7 @@ public class DefaultThreadPool
     {
         try
         {
-            super.execute(task);
+            m_executor.execute(task);
         }
         catch (final Throwable t)
         {
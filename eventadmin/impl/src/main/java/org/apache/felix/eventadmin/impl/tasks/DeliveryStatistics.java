@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters collected during event delivery. All counters are updated
+ * without locking and can be read at any time; the values read are
+ * therefore only a close approximation while events are delivered.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class DeliveryStatistics
+{
+    /** Number of events accepted for asynchronous delivery. */
+    private final AtomicLong m_posted = new AtomicLong();
+
+    /** Number of asynchronous events dropped due to a full queue. */
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    /** Number of asynchronous events delivered to all handlers. */
+    private final AtomicLong m_delivered = new AtomicLong();
+
+    /** Accumulated time between posting and finished delivery in nanos. */
+    private final AtomicLong m_latency = new AtomicLong();
+
+    /** Maximum time between posting and finished delivery in nanos. */
+    private final AtomicLong m_maxLatency = new AtomicLong();
+
+    /** Number of asynchronous events currently queued. */
+    private final AtomicInteger m_queueDepth = new AtomicInteger();
+
+    /** Highest number of queued asynchronous events seen so far. */
+    private final AtomicInteger m_maxQueueDepth = new AtomicInteger();
+
+    /** Number of handlers blacklisted due to a timeout. */
+    private final AtomicLong m_blacklisted = new AtomicLong();
+
+    void eventQueued(final int count)
+    {
+        m_posted.addAndGet(count);
+        final int depth = m_queueDepth.addAndGet(count);
+        int max = m_maxQueueDepth.get();
+        while ( depth > max && !m_maxQueueDepth.compareAndSet(max, depth) )
+        {
+            max = m_maxQueueDepth.get();
+        }
+    }
+
+    void eventDropped(final int count)
+    {
+        m_dropped.addAndGet(count);
+    }
+
+    void eventDelivered(final long postedAt, final int count)
+    {
+        m_queueDepth.addAndGet(-count);
+        m_delivered.addAndGet(count);
+        final long latency = System.nanoTime() - postedAt;
+        m_latency.addAndGet(latency * count);
+        long max = m_maxLatency.get();
+        while ( latency > max && !m_maxLatency.compareAndSet(max, latency) )
+        {
+            max = m_maxLatency.get();
+        }
+    }
+
+    void handlerBlacklisted()
+    {
+        m_blacklisted.incrementAndGet();
+    }
+
+    /**
+     * Return the number of events accepted for asynchronous delivery.
+     */
+    public long getPostedEvents()
+    {
+        return m_posted.get();
+    }
+
+    /**
+     * Return the number of asynchronous events dropped because the
+     * queue of the sending thread was full.
+     */
+    public long getDroppedEvents()
+    {
+        return m_dropped.get();
+    }
+
+    /**
+     * Return the number of asynchronous events delivered.
+     */
+    public long getDeliveredEvents()
+    {
+        return m_delivered.get();
+    }
+
+    /**
+     * Return the number of asynchronous events waiting for delivery.
+     */
+    public int getQueueDepth()
+    {
+        return m_queueDepth.get();
+    }
+
+    /**
+     * Return the highest number of asynchronous events waiting for delivery.
+     */
+    public int getMaxQueueDepth()
+    {
+        return m_maxQueueDepth.get();
+    }
+
+    /**
+     * Return the average time in milliseconds from posting an event until
+     * it has been delivered to all handlers.
+     */
+    public double getAverageLatency()
+    {
+        final long delivered = m_delivered.get();
+        if ( delivered == 0 )
+        {
+            return 0;
+        }
+        return m_latency.get() / 1000000.0 / delivered;
+    }
+
+    /**
+     * Return the longest time in milliseconds from posting an event until
+     * it has been delivered to all handlers.
+     */
+    public double getMaxLatency()
+    {
+        return m_maxLatency.get() / 1000000.0;
+    }
+
+    /**
+     * Return the number of handlers blacklisted due to a timeout.
+     */
+    public long getBlacklistedHandlers()
+    {
+        return m_blacklisted.get();
+    }
+
+    public String toString()
+    {
+        return "posted=" + getPostedEvents()
+            + ", delivered=" + getDeliveredEvents()
+            + ", dropped=" + getDroppedEvents()
+            + ", queueDepth=" + getQueueDepth()
+            + ", maxQueueDepth=" + getMaxQueueDepth()
+            + ", avgLatency=" + getAverageLatency() + "ms"
+            + ", maxLatency=" + getMaxLatency() + "ms"
+            + ", blacklisted=" + getBlacklistedHandlers();
+    }
+}
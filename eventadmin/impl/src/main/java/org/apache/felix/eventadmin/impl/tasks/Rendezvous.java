@@ -18,7 +18,10 @@
  */
 package org.apache.felix.eventadmin.impl.tasks;
 
-import EDU.oswego.cs.dl.util.concurrent.*;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This is a simplified version of the CyclicBarrier implementation.
@@ -41,7 +44,7 @@ public class Rendezvous extends CyclicBarrier
     }
 
     /**
-     * see {@link CyclicBarrier#barrier()}
+     * see {@link CyclicBarrier#await()}
      */
     public void waitForRendezvous()
     {
@@ -52,7 +55,7 @@ public class Rendezvous extends CyclicBarrier
         }
         try
         {
-            this.barrier();
+            this.await();
         }
         catch (BrokenBarrierException ignore1)
         {
@@ -63,15 +66,14 @@ public class Rendezvous extends CyclicBarrier
     }
 
     /**
-     * see {@link CyclicBarrier#attemptBarrier(long)}
+     * see {@link CyclicBarrier#await(long, TimeUnit)}
      */
     public void waitAttemptForRendezvous(final long timeout)
     throws TimeoutException
     {
         try
         {
-            this.attemptBarrier(timeout);
-            this.restart();
+            this.await(timeout, TimeUnit.MILLISECONDS);
         }
         catch (BrokenBarrierException ignore1)
         {
@@ -20,12 +20,12 @@ package org.apache.felix.eventadmin.impl.tasks;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
 import org.osgi.service.event.Event;
 
-import EDU.oswego.cs.dl.util.concurrent.TimeoutException;
-
 /**
  * This class does the actual work of the synchronous event delivery.
  *
@@ -59,15 +59,22 @@ public class SyncDeliverTasks
     /** The thread pool used to spin-off new threads. */
     private final DefaultThreadPool pool;
 
+    /** The statistics updated on blacklisting. */
+    private final DeliveryStatistics statistics;
+
     private long timeout;
 
     /**
      * Construct a new sync deliver tasks.
      * @param pool The thread pool used to spin-off new threads.
+     * @param statistics The statistics to update
      */
-    public SyncDeliverTasks(final DefaultThreadPool pool, final long timeout)
+    public SyncDeliverTasks(final DefaultThreadPool pool,
+            final DeliveryStatistics statistics,
+            final long timeout)
     {
         this.pool = pool;
+        this.statistics = statistics;
         this.update(timeout);
     }
 
@@ -116,46 +123,113 @@ public class SyncDeliverTasks
                 // no timeout, we can directly execute
                 task.sendEvent(event);
             }
-            else if ( syncThread != null )
+            else
+            {
+                this.executeWithTimeout(syncThread, task, new Event[] {event});
+            }
+        }
+    }
+
+    /**
+     * This blocks an unrelated thread until a batch of events is
+     * delivered (or a timeout occurs). Each handler gets all of its
+     * events in order before the next handler is called. The configured
+     * timeout applies to each of these events; once a handler times out
+     * it is blacklisted and does not get the rest of its events.
+     *
+     * @param eventsByHandler A map with the event handler dispatch tasks
+     *      as keys and the <code>Event[]</code> for each task as values
+     */
+    public void executeBatch(final Map eventsByHandler)
+    {
+        final Thread sleepingThread = Thread.currentThread();
+        final SyncThread syncThread = sleepingThread instanceof SyncThread ? (SyncThread)sleepingThread : null;
+
+        final Iterator i = eventsByHandler.entrySet().iterator();
+        while ( i.hasNext() )
+        {
+            final Map.Entry entry = (Map.Entry)i.next();
+            final EventHandlerProxy task = (EventHandlerProxy)entry.getKey();
+            final Event[] events = (Event[])entry.getValue();
+
+            if ( !useTimeout(task) )
+            {
+                // no timeout, we can directly execute
+                for(int n=0; n<events.length; n++)
+                {
+                    task.sendEvent(events[n]);
+                }
+            }
+            else
+            {
+                this.executeWithTimeout(syncThread, task, events);
+            }
+        }
+    }
+
+    /**
+     * Deliver the events to the handler using timeout handling. The
+     * timeout is applied to each event.
+     */
+    private void executeWithTimeout(final SyncThread syncThread,
+            final EventHandlerProxy task,
+            final Event[] events)
+    {
+        if ( syncThread != null )
+        {
+            // if this is a cascaded event, we directly use this thread
+            // otherwise we could end up in a starvation
+            for(int n=0; n<events.length; n++)
             {
-                // if this is a cascaded event, we directly use this thread
-                // otherwise we could end up in a starvation
                 final long startTime = System.currentTimeMillis();
-                task.sendEvent(event);
+                task.sendEvent(events[n]);
                 if ( System.currentTimeMillis() - startTime > this.timeout )
                 {
                     task.blackListHandler();
+                    this.statistics.handlerBlacklisted();
+                    return;
                 }
             }
-            else
+        }
+        else
+        {
+            final Rendezvous startBarrier = new Rendezvous();
+            final Rendezvous timerBarrier = new Rendezvous();
+            this.pool.executeTask(new Runnable()
             {
-                final Rendezvous startBarrier = new Rendezvous();
-                final Rendezvous timerBarrier = new Rendezvous();
-                this.pool.executeTask(new Runnable()
+                public void run()
                 {
-                    public void run()
+                    try
                     {
-                        try
+                        // notify the outer thread to start the timer
+                        startBarrier.waitForRendezvous();
+                        // execute the task
+                        for(int n=0; n<events.length; n++)
                         {
-                            // notify the outer thread to start the timer
-                            startBarrier.waitForRendezvous();
-                            // execute the task
-                            task.sendEvent(event);
-                            // stop the timer
+                            task.sendEvent(events[n]);
+                            // stop the timer for this event
                             timerBarrier.waitForRendezvous();
-                        }
-                        catch (final IllegalStateException ise)
-                        {
-                            // this can happen on shutdown, so we ignore it
+                            if ( timerBarrier.isBroken() )
+                            {
+                                // the handler timed out and is blacklisted
+                                break;
+                            }
                         }
                     }
-                });
-                // we wait for the inner thread to start
-                startBarrier.waitForRendezvous();
+                    catch (final IllegalStateException ise)
+                    {
+                        // this can happen on shutdown, so we ignore it
+                    }
+                }
+            });
+            // we wait for the inner thread to start
+            startBarrier.waitForRendezvous();
 
-                // timeout handling
-                // we sleep for the sleep time
-                // if someone wakes us up it's the finished inner task
+            // timeout handling
+            // we sleep for the sleep time of each event
+            // if someone wakes us up it's the inner task finishing the event
+            for(int n=0; n<events.length; n++)
+            {
                 try
                 {
                     timerBarrier.waitAttemptForRendezvous(this.timeout);
@@ -164,8 +238,9 @@ public class SyncDeliverTasks
                 {
                     // if we timed out, we have to blacklist the handler
                     task.blackListHandler();
+                    this.statistics.handlerBlacklisted();
+                    return;
                 }
-
             }
         }
     }
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.eventadmin.impl.DeliveryStatisticsPrinter;
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
+import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
+import org.apache.felix.eventadmin.impl.tasks.DeliveryStatistics;
+import org.apache.felix.eventadmin.impl.tasks.SyncDeliverTasks;
+
+/**
+ * Tests for the asynchronous delivery of events: the per sender
+ * queues, their bound and the delivery statistics.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class AsyncDeliveryTest extends TestCase
+{
+    private DefaultThreadPool syncPool;
+
+    private DefaultThreadPool asyncPool;
+
+    private DeliveryStatistics statistics;
+
+    private RecordingEventHandler handler;
+
+    private Collection tasks;
+
+    protected void setUp()
+    {
+        syncPool = new DefaultThreadPool(2, true);
+        asyncPool = new DefaultThreadPool(2, false);
+        statistics = new DeliveryStatistics();
+        handler = new RecordingEventHandler();
+        tasks = Collections.singleton(handler.createProxy());
+    }
+
+    protected void tearDown()
+    {
+        handler.unblock();
+        syncPool.close();
+        asyncPool.close();
+    }
+
+    public void testEventsOfSenderAreDeliveredInOrder()
+    {
+        final AsyncDeliverTasks deliverTasks = createDeliverTasks(0, AsyncDeliverTasks.POLICY_BLOCK);
+
+        final List expected = new ArrayList();
+        for(int i=0; i<100; i++)
+        {
+            deliverTasks.execute(tasks, RecordingEventHandler.createEvent("e" + i));
+            expected.add("test/e" + i);
+        }
+        assertEquals(expected, handler.waitForEvents(100));
+    }
+
+    public void testSendersAreDeliveredIndependently() throws InterruptedException
+    {
+        final AsyncDeliverTasks deliverTasks = createDeliverTasks(0, AsyncDeliverTasks.POLICY_BLOCK);
+
+        handler.block("test/a");
+        deliverTasks.execute(tasks, RecordingEventHandler.createEvent("a"));
+        handler.waitForEvents(1);
+
+        // the blocked delivery of the first sender does not hold up another sender
+        final Thread sender = new Thread()
+        {
+            public void run()
+            {
+                deliverTasks.execute(tasks, RecordingEventHandler.createEvent("b"));
+            }
+        };
+        sender.start();
+        sender.join();
+        assertEquals(RecordingEventHandler.topics(new String[] {"a", "b"}), handler.waitForEvents(2));
+    }
+
+    public void testBlockPolicyWaitsForFreeSpace() throws InterruptedException
+    {
+        final AsyncDeliverTasks deliverTasks = createDeliverTasks(1, AsyncDeliverTasks.POLICY_BLOCK);
+
+        // the queues are per sender, so the blocked sender is another thread
+        handler.block("test/a");
+        final Thread sender = new Thread()
+        {
+            public void run()
+            {
+                deliverTasks.execute(tasks, RecordingEventHandler.createEvent("a"));
+                handler.waitForEvents(1);
+                deliverTasks.execute(tasks, RecordingEventHandler.createEvent("b"));
+                // the queue is full, the sender waits
+                deliverTasks.execute(tasks, RecordingEventHandler.createEvent("c"));
+            }
+        };
+        sender.start();
+        handler.waitForEvents(1);
+        sender.join(500);
+        assertTrue(sender.isAlive());
+
+        handler.unblock();
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+        assertEquals(RecordingEventHandler.topics(new String[] {"a", "b", "c"}), handler.waitForEvents(3));
+        assertEquals(0, statistics.getDroppedEvents());
+    }
+
+    public void testDropPolicyDropsEvents()
+    {
+        final AsyncDeliverTasks deliverTasks = createDeliverTasks(1, AsyncDeliverTasks.POLICY_DROP);
+
+        handler.block("test/a");
+        deliverTasks.execute(tasks, RecordingEventHandler.createEvent("a"));
+        handler.waitForEvents(1);
+        deliverTasks.execute(tasks, RecordingEventHandler.createEvent("b"));
+        deliverTasks.execute(tasks, RecordingEventHandler.createEvent("c"));
+        assertEquals(1, statistics.getDroppedEvents());
+
+        handler.unblock();
+        assertEquals(RecordingEventHandler.topics(new String[] {"a", "b"}), handler.waitForEvents(2));
+        RecordingEventHandler.sleep(200);
+        assertEquals(2, handler.getReceived().size());
+    }
+
+    public void testStatisticsArePrinted()
+    {
+        final AsyncDeliverTasks deliverTasks = createDeliverTasks(1, AsyncDeliverTasks.POLICY_DROP);
+
+        handler.block("test/a");
+        deliverTasks.execute(tasks, RecordingEventHandler.createEvent("a"));
+        handler.waitForEvents(1);
+        deliverTasks.execute(tasks, RecordingEventHandler.createEvent("b"));
+        deliverTasks.execute(tasks, RecordingEventHandler.createEvent("c"));
+        handler.unblock();
+        handler.waitForEvents(2);
+        waitForDelivery(2);
+
+        final StringWriter writer = new StringWriter();
+        new DeliveryStatisticsPrinter(statistics, syncPool, asyncPool).printConfiguration(new PrintWriter(writer));
+        final String output = writer.toString();
+        assertTrue(output, output.indexOf("Posted events: 2") >= 0);
+        assertTrue(output, output.indexOf("Delivered events: 2") >= 0);
+        assertTrue(output, output.indexOf("Dropped events: 1") >= 0);
+        assertTrue(output, output.indexOf("Queued events: 0") >= 0);
+        assertTrue(output, output.indexOf("Maximum queued events: 2") >= 0);
+        assertTrue(output, output.indexOf("Asynchronous Thread Pool") >= 0);
+    }
+
+    private AsyncDeliverTasks createDeliverTasks(final int queueSize, final String policy)
+    {
+        return new AsyncDeliverTasks(asyncPool, new SyncDeliverTasks(syncPool, statistics, 0),
+                statistics, queueSize, policy);
+    }
+
+    /**
+     * The statistics are updated after the handlers have been called.
+     */
+    private void waitForDelivery(final long count)
+    {
+        final long end = System.currentTimeMillis() + 5000;
+        while ( statistics.getDeliveredEvents() < count && System.currentTimeMillis() < end )
+        {
+            RecordingEventHandler.sleep(10);
+        }
+        assertEquals(count, statistics.getDeliveredEvents());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
+import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
+import org.apache.felix.eventadmin.impl.tasks.DeliveryStatistics;
+import org.apache.felix.eventadmin.impl.tasks.SyncDeliverTasks;
+import org.osgi.service.event.Event;
+
+/**
+ * Tests for the delivery of batches of events posted with
+ * {@link org.apache.felix.eventadmin.BatchEventAdmin#postEvents(Event[])}.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class BatchDeliveryTest extends TestCase
+{
+    private DefaultThreadPool syncPool;
+
+    private DefaultThreadPool asyncPool;
+
+    private DeliveryStatistics statistics;
+
+    private RecordingEventHandler handler;
+
+    private EventHandlerProxy proxy;
+
+    protected void setUp()
+    {
+        syncPool = new DefaultThreadPool(2, true);
+        asyncPool = new DefaultThreadPool(2, false);
+        statistics = new DeliveryStatistics();
+        handler = new RecordingEventHandler();
+        proxy = handler.createProxy();
+    }
+
+    protected void tearDown()
+    {
+        handler.unblock();
+        syncPool.close();
+        asyncPool.close();
+    }
+
+    public void testBatchIsDeliveredInOrder()
+    {
+        final AsyncDeliverTasks tasks = createDeliverTasks(0, AsyncDeliverTasks.POLICY_BLOCK);
+
+        tasks.execute(Collections.singleton(proxy), RecordingEventHandler.createEvent("a"));
+        tasks.executeBatch(createBatch(new String[] {"b", "c", "d"}), 3);
+        tasks.execute(Collections.singleton(proxy), RecordingEventHandler.createEvent("e"));
+
+        assertEquals(RecordingEventHandler.topics(new String[] {"a", "b", "c", "d", "e"}),
+                handler.waitForEvents(5));
+        assertEquals(5, statistics.getPostedEvents());
+    }
+
+    public void testTimeoutIsAppliedPerEvent()
+    {
+        final SyncDeliverTasks tasks = new SyncDeliverTasks(syncPool, statistics, 500);
+        // obtain the handler, this enables the timeout handling
+        tasks.execute(Collections.singleton(proxy), RecordingEventHandler.createEvent("init"));
+
+        // all events of the batch together take longer than the timeout
+        handler.setDelay("test/a", 300);
+        handler.setDelay("test/b", 300);
+        handler.setDelay("test/c", 300);
+        tasks.executeBatch(createBatch(new String[] {"a", "b", "c"}));
+        assertEquals(0, statistics.getBlacklistedHandlers());
+        handler.waitForEvents(4);
+
+        // a single event takes longer than the timeout
+        handler.setDelay("test/e", 1000);
+        tasks.executeBatch(createBatch(new String[] {"d", "e", "f"}));
+        assertEquals(1, statistics.getBlacklistedHandlers());
+
+        // the blacklisted handler does not get the rest of the batch
+        handler.waitForEvents(6);
+        RecordingEventHandler.sleep(1000);
+        assertEquals(RecordingEventHandler.topics(new String[] {"init", "a", "b", "c", "d", "e"}),
+                handler.getReceived());
+    }
+
+    public void testBatchCountsAgainstQueueBound()
+    {
+        final AsyncDeliverTasks tasks = createDeliverTasks(3, AsyncDeliverTasks.POLICY_DROP);
+
+        // the first event is taken from the queue and blocks the delivery
+        handler.block("test/a");
+        tasks.execute(Collections.singleton(proxy), RecordingEventHandler.createEvent("a"));
+        handler.waitForEvents(1);
+
+        tasks.executeBatch(createBatch(new String[] {"b", "c"}), 2);
+        // two more events exceed the bound of three
+        tasks.executeBatch(createBatch(new String[] {"d", "e"}), 2);
+        assertEquals(2, statistics.getDroppedEvents());
+        tasks.execute(Collections.singleton(proxy), RecordingEventHandler.createEvent("f"));
+        assertEquals(2, statistics.getDroppedEvents());
+        assertEquals(4, statistics.getPostedEvents());
+
+        handler.unblock();
+        handler.waitForEvents(4);
+        RecordingEventHandler.sleep(200);
+        assertEquals(RecordingEventHandler.topics(new String[] {"a", "b", "c", "f"}), handler.getReceived());
+    }
+
+    public void testBatchLargerThanQueueBoundIsDelivered()
+    {
+        final AsyncDeliverTasks tasks = createDeliverTasks(2, AsyncDeliverTasks.POLICY_BLOCK);
+
+        tasks.execute(Collections.singleton(proxy), RecordingEventHandler.createEvent("a"));
+        tasks.executeBatch(createBatch(new String[] {"b", "c", "d"}), 3);
+
+        assertEquals(RecordingEventHandler.topics(new String[] {"a", "b", "c", "d"}), handler.waitForEvents(4));
+        assertEquals(0, statistics.getDroppedEvents());
+    }
+
+    private AsyncDeliverTasks createDeliverTasks(final int queueSize, final String policy)
+    {
+        return new AsyncDeliverTasks(asyncPool, new SyncDeliverTasks(syncPool, statistics, 0),
+                statistics, queueSize, policy);
+    }
+
+    private Map createBatch(final String[] names)
+    {
+        final Event[] events = new Event[names.length];
+        for(int i=0; i<names.length; i++)
+        {
+            events[i] = RecordingEventHandler.createEvent(names[i]);
+        }
+        final Map eventsByHandler = new LinkedHashMap();
+        eventsByHandler.put(proxy, events);
+        return eventsByHandler;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * An event handler for the <code>test/*</code> topics recording the
+ * topics of the received events. The handler can be blocked on a topic
+ * and can be slowed down per topic.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+class RecordingEventHandler implements EventHandler
+{
+    private static final long WAIT = 5000;
+
+    /** The topics of the received events. */
+    private final List received = new ArrayList();
+
+    /** The topics the handler blocks on until {@link #unblock()} is called. */
+    private final Set blocked = new HashSet();
+
+    /** The time an event keeps the handler busy, by topic. */
+    private final Map delays = new HashMap();
+
+    public void handleEvent(final Event event)
+    {
+        final Long delay;
+        synchronized ( received )
+        {
+            received.add(event.getTopic());
+            received.notifyAll();
+            while ( blocked.contains(event.getTopic()) )
+            {
+                try
+                {
+                    received.wait();
+                }
+                catch (final InterruptedException ie)
+                {
+                    return;
+                }
+            }
+            delay = (Long) delays.get(event.getTopic());
+        }
+        if ( delay != null )
+        {
+            sleep(delay.longValue());
+        }
+    }
+
+    /**
+     * Block the handler on events with the given topic.
+     */
+    public void block(final String topic)
+    {
+        synchronized ( received )
+        {
+            blocked.add(topic);
+        }
+    }
+
+    /**
+     * Release the handler blocked on any topic.
+     */
+    public void unblock()
+    {
+        synchronized ( received )
+        {
+            blocked.clear();
+            received.notifyAll();
+        }
+    }
+
+    /**
+     * Keep the handler busy when it receives an event with the given topic.
+     */
+    public void setDelay(final String topic, final long millis)
+    {
+        synchronized ( received )
+        {
+            delays.put(topic, new Long(millis));
+        }
+    }
+
+    /**
+     * Wait until the handler has received the given number of events.
+     * @return A copy of the topics of the received events
+     */
+    public List waitForEvents(final int count)
+    {
+        final long end = System.currentTimeMillis() + WAIT;
+        synchronized ( received )
+        {
+            long now;
+            while ( received.size() < count && (now = System.currentTimeMillis()) < end )
+            {
+                try
+                {
+                    received.wait(end - now);
+                }
+                catch (final InterruptedException ie)
+                {
+                    Assert.fail("Interrupted");
+                }
+            }
+            Assert.assertEquals(count, received.size());
+            return new ArrayList(received);
+        }
+    }
+
+    /**
+     * Return a copy of the topics of the received events.
+     */
+    public List getReceived()
+    {
+        synchronized ( received )
+        {
+            return new ArrayList(received);
+        }
+    }
+
+    /**
+     * Create the proxy used by the event admin to deliver events to this handler.
+     */
+    public EventHandlerProxy createProxy()
+    {
+        final ServiceReference reference = (ServiceReference) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {ServiceReference.class}, new InvocationHandler()
+                {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args)
+                    {
+                        if ( method.getName().equals("getProperty") && EventConstants.EVENT_TOPIC.equals(args[0]) )
+                        {
+                            return "test/*";
+                        }
+                        return null;
+                    }
+                });
+        final BundleContext context = (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {BundleContext.class}, new InvocationHandler()
+                {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args)
+                    {
+                        if ( method.getName().equals("getService") )
+                        {
+                            return RecordingEventHandler.this;
+                        }
+                        if ( method.getName().equals("ungetService") )
+                        {
+                            return Boolean.TRUE;
+                        }
+                        return null;
+                    }
+                });
+        final EventHandlerProxy proxy = new EventHandlerProxy(
+                new EventHandlerTracker.HandlerContext(context, null, true), reference);
+        Assert.assertTrue(proxy.update());
+        return proxy;
+    }
+
+    /**
+     * Create an event with the topic <code>test/</code> followed by the name.
+     */
+    public static Event createEvent(final String name)
+    {
+        return new Event("test/" + name, (Dictionary) new Hashtable());
+    }
+
+    /**
+     * Create the topics for the names.
+     */
+    public static List topics(final String[] names)
+    {
+        final List result = new ArrayList();
+        for(int i=0; i<names.length; i++)
+        {
+            result.add("test/" + names[i]);
+        }
+        return result;
+    }
+
+    public static void sleep(final long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (final InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -59,6 +59,8 @@ import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
 import org.osgi.framework.Version;
 import org.osgi.service.packageadmin.PackageAdmin;
 import org.osgi.service.startlevel.StartLevel;
@@ -103,6 +105,16 @@ public class DirectoryWatcher extends Thread implements BundleListener
     public final static String START_LEVEL = "felix.fileinstall.start.level";
     public final static String ACTIVE_LEVEL = "felix.fileinstall.active.level";
     public final static String UPDATE_WITH_LISTENERS = "felix.fileinstall.bundles.updateWithListeners";
+    public final static String WATCH = "felix.fileinstall.watch";
+    public final static String WATCH_DEBOUNCE = "felix.fileinstall.watch.debounce";
+    public final static String WATCH_RESCAN = "felix.fileinstall.watch.rescan";
+    public final static String START_THREADS = "felix.fileinstall.bundles.startThreads";
+
+    // Default maximum time to wait for a refresh of the framework to complete
+    static final long REFRESH_TIMEOUT = 60000;
+
+    // Number of artifacts between two progress messages
+    static final int PROGRESS_INTERVAL = 50;
 
     static final SecureRandom random = new SecureRandom();
 
@@ -123,6 +135,12 @@ public class DirectoryWatcher extends Thread implements BundleListener
     int startLevel;
     int activeLevel;
     boolean updateWithListeners;
+    boolean watch;
+    long watchDebounce;
+    long watchRescan;
+    int startThreads;
+    // Maximum time to wait for a refresh of the framework to complete
+    long refreshTimeout = REFRESH_TIMEOUT;
 
     // Map of all installed artifacts
     Map/* <File, Artifact> */ currentManagedArtifacts = new HashMap/* <File, Artifact> */();
@@ -130,6 +148,15 @@ public class DirectoryWatcher extends Thread implements BundleListener
     // The scanner to report files changes
     Scanner scanner;
 
+    // The file system events of the watched directory, when watching instead of polling
+    volatile FileSystemMonitor monitor;
+
+    // Files changed since the last scan, or null if the whole directory must be scanned
+    Set/* <File> */ changedFiles;
+
+    // The time of the last scan of the whole directory
+    long lastFullScan;
+
     // Represents files that could not be processed because of a missing artifact listener
     Set/* <File> */ processingFailures = new HashSet/* <File> */();
     
@@ -159,6 +186,10 @@ public class DirectoryWatcher extends Thread implements BundleListener
         startLevel = getInt(properties, START_LEVEL, 0);    // by default, do not touch start level
         activeLevel = getInt(properties, ACTIVE_LEVEL, 0);    // by default, always scan
         updateWithListeners = getBoolean(properties, UPDATE_WITH_LISTENERS, false); // Do not update bundles when listeners are updated
+        watch = getBoolean(properties, WATCH, false); // by default, poll the directory
+        watchDebounce = getLong(properties, WATCH_DEBOUNCE, 500);
+        watchRescan = getLong(properties, WATCH_RESCAN, 60000); // full scans catch any missed event
+        startThreads = getInt(properties, START_THREADS, 1); // by default, start bundles one at a time
         this.context.addBundleListener(this);
 
         FilenameFilter flt;
@@ -259,7 +290,8 @@ public class DirectoryWatcher extends Thread implements BundleListener
                 + START_NEW_BUNDLES + " = " + startBundles + ", "
                 + TMPDIR + " = " + tmpDir + ", "
                 + FILTER + " = " + filter + ", "
-                + START_LEVEL + " = " + startLevel + "}", null);
+                + START_LEVEL + " = " + startLevel + ", "
+                + WATCH + " = " + watch + "}", null);
 
         if (!noInitialDelay)
         {
@@ -274,45 +306,144 @@ public class DirectoryWatcher extends Thread implements BundleListener
             initializeCurrentManagedBundles();
         }
 
-        while (!interrupted())
+        try
         {
-            try
+            while (!interrupted())
             {
-                // Don't access the disk when the framework is still in a startup phase.
-                if (FileInstall.getStartLevel().getStartLevel() >= activeLevel
-                        && context.getBundle(0).getState() == Bundle.ACTIVE)
+                try
                 {
-                    Set/*<File>*/ files = scanner.scan(false);
-                    // Check that there is a result.  If not, this means that the directory can not be listed,
-                    // so it's presumably not a valid directory (it may have been deleted by someone).
-                    // In such case, just sleep
-                    if (files != null)
+                    // Don't access the disk when the framework is still in a startup phase.
+                    if (FileInstall.getStartLevel().getStartLevel() >= activeLevel
+                            && context.getBundle(0).getState() == Bundle.ACTIVE)
                     {
-                        process(files);
+                        Set/*<File>*/ files = scan();
+                        // Check that there is a result.  If not, this means that the directory can not be listed,
+                        // so it's presumably not a valid directory (it may have been deleted by someone).
+                        // In such case, just sleep
+                        if (files != null)
+                        {
+                            process(files);
+                        }
                     }
+                    waitForChanges();
                 }
-                synchronized (this)
+                catch (InterruptedException e)
                 {
-                    wait(poll);
+                    return;
+                }
+                catch (Throwable e)
+                {
+                    try
+                    {
+                        context.getBundle();
+                    }
+                    catch (IllegalStateException t)
+                    {
+                        // FileInstall bundle has been uninstalled, exiting loop
+                        return;
+                    }
+                    log(Logger.LOG_ERROR, "In main loop, we have serious trouble", e);
                 }
             }
-            catch (InterruptedException e)
+        }
+        finally
+        {
+            if (monitor != null)
             {
-                return;
+                monitor.close();
+                monitor = null;
             }
-            catch (Throwable e)
+        }
+    }
+
+    /**
+     * Report the changed files.  When the directory is watched, only the files
+     * reported by the file system events are checked, and the whole directory
+     * is only scanned periodically in case some events were missed.
+     *
+     * @return the changed files, or null if the directory can not be listed
+     */
+    private Set/*<File>*/ scan()
+    {
+        long now = System.currentTimeMillis();
+        if (monitor == null || changedFiles == null || now - lastFullScan >= watchRescan)
+        {
+            changedFiles = new HashSet/*<File>*/();
+            lastFullScan = now;
+            return scanner.scan(false);
+        }
+        Set/*<File>*/ files = scanner.scan(false, changedFiles);
+        changedFiles.clear();
+        return files;
+    }
+
+    /**
+     * Wait before the next scan.  When polling, this waits for the poll interval.
+     * When the directory is watched, this waits for a file system event, then
+     * until no event has been received for the debounce window, so that a file
+     * being copied is only scanned once the copy is over.
+     */
+    private void waitForChanges() throws InterruptedException
+    {
+        if (watch && (monitor == null || !monitor.isValid()))
+        {
+            openMonitor();
+        }
+        if (monitor == null)
+        {
+            synchronized (this)
             {
-                try
-                {
-                    context.getBundle();
-                }
-                catch (IllegalStateException t)
-                {
-                    // FileInstall bundle has been uninstalled, exiting loop
-                    return;
-                }
-                log(Logger.LOG_ERROR, "In main loop, we have serious trouble", e);
+                wait(poll);
+            }
+            return;
+        }
+
+        long timeout = scanner.hasPendingFiles()
+            ? watchDebounce : Math.max(watchDebounce, lastFullScan + watchRescan - System.currentTimeMillis());
+        Set/*<File>*/ changes = monitor.poll(timeout);
+        long start = System.currentTimeMillis();
+        while (changes != null && !changes.isEmpty())
+        {
+            if (changedFiles != null)
+            {
+                changedFiles.addAll(changes);
             }
+            // Do not wait forever for a directory which keeps changing
+            if (System.currentTimeMillis() - start >= Math.max(poll, watchDebounce))
+            {
+                return;
+            }
+            changes = monitor.poll(watchDebounce);
+        }
+        if (changes == null)
+        {
+            // Some events have been lost
+            changedFiles = null;
+        }
+    }
+
+    private void openMonitor()
+    {
+        if (monitor != null)
+        {
+            monitor.close();
+            monitor = null;
+        }
+        if (!scanner.getDirectory().isDirectory())
+        {
+            return;
+        }
+        try
+        {
+            monitor = new FileSystemMonitor(scanner.getDirectory());
+            // Catch up with the changes made before the directory was watched
+            changedFiles = null;
+        }
+        catch (Throwable t)
+        {
+            // IOException, or NoClassDefFoundError before Java 7
+            log(Logger.LOG_WARNING, "Unable to watch " + watchedDirectory + ", polling it instead", t);
+            watch = false;
         }
     }
 
@@ -335,7 +466,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
         }
     }
 
-    private void process(Set files)
+    void process(Set files)
     {
         List/*<ArtifactListener>*/ listeners = FileInstall.getListeners();
         List/*<Artifact>*/ deleted = new ArrayList/*<Artifact>*/();
@@ -477,10 +608,19 @@ public class DirectoryWatcher extends Thread implements BundleListener
         }
         // Handle deleted artifacts
         // We do the operations in the following order:
-        // uninstall, update, install, refresh & start.
+        // uninstall, update, install, refresh, resolve & start.
+        // The whole batch is installed before the framework is refreshed and resolved once.
+        int total = deleted.size() + modified.size() + created.size();
+        if (total > 0)
+        {
+            log(Logger.LOG_DEBUG, "Processing " + total + " artifacts: " + deleted.size() + " deleted, "
+                + modified.size() + " modified, " + created.size() + " created", null);
+        }
+        long start = System.currentTimeMillis();
         Collection uninstalledBundles = uninstall(deleted);
         Collection updatedBundles = update(modified);
         Collection installedBundles = install(created);
+        long installed = System.currentTimeMillis();
         
         Set toRefresh = new HashSet();
         toRefresh.addAll( uninstalledBundles );
@@ -488,21 +628,47 @@ public class DirectoryWatcher extends Thread implements BundleListener
         toRefresh.addAll( installedBundles );
         findBundlesWithFragmentsToRefresh( toRefresh );
         findBundlesWithOptionalPackagesToRefresh( toRefresh );
+        // Newly installed bundles are not wired yet, so they do not need to be refreshed:
+        // they are only used above to find the bundles they affect
+        toRefresh.removeAll( installedBundles );
         if (toRefresh.size() > 0)
         {
             // Refresh if any bundle got uninstalled or updated.
             refresh((Bundle[]) toRefresh.toArray(new Bundle[toRefresh.size()]));
         }
+        long refreshed = System.currentTimeMillis();
+
+        // Resolve the whole batch at once instead of bundle by bundle when they are started
+        Set toResolve = new HashSet();
+        toResolve.addAll(updatedBundles);
+        toResolve.addAll(installedBundles);
+        if (toResolve.size() > 0)
+        {
+            resolve((Bundle[]) toResolve.toArray(new Bundle[toResolve.size()]));
+        }
+        long resolved = System.currentTimeMillis();
 
+        int started = 0;
         if (startBundles)
         {
             // Try to start all the bundles that are not persistently stopped
-            startAllBundles();
+            started += startAllBundles();
             
             delayedStart.addAll(installedBundles);
             delayedStart.removeAll(uninstalledBundles);
             // Try to start newly installed bundles, or bundles which we missed on a previous round
-            startBundles(delayedStart);
+            started += startBundles(delayedStart);
+        }
+        long end = System.currentTimeMillis();
+
+        if (total > 0)
+        {
+            log(Logger.LOG_INFO, "Processed " + total + " artifacts in " + (end - start) + " ms ("
+                + uninstalledBundles.size() + " bundles uninstalled, " + updatedBundles.size() + " updated, "
+                + installedBundles.size() + " installed in " + (installed - start) + " ms, "
+                + toRefresh.size() + " refreshed in " + (refreshed - installed) + " ms, "
+                + toResolve.size() + " resolved in " + (resolved - refreshed) + " ms, "
+                + started + " started in " + (end - resolved) + " ms)", null);
         }
     }
 
@@ -670,14 +836,79 @@ public class DirectoryWatcher extends Thread implements BundleListener
     }
 
     /**
-     * Convenience to refresh the packages
+     * Convenience to refresh the packages.
+     *
+     * The refresh is asynchronous, so this method waits for the
+     * PACKAGES_REFRESHED event, at most {@link #refreshTimeout} ms.
+     * PackageAdmin does not tell which refresh an event belongs to: when
+     * another party refreshes packages at the same time, its event may end
+     * the wait before this refresh is complete. Bundles which then fail to
+     * start because the framework is still refreshing them are left in the
+     * list of bundles to start and retried on the next scan.
      */
     void refresh(Bundle[] bundles)
     {
         PackageAdmin padmin = FileInstall.getPackageAdmin();
         if (padmin != null)
         {
-            padmin.refreshPackages(bundles);
+            // The refresh is asynchronous: wait for it to complete so that
+            // bundles are not started while the framework restarts them.
+            // The listener is added before the refresh is requested so that
+            // the event of an earlier refresh is not mistaken for this one
+            final boolean[] done = new boolean[1];
+            FrameworkListener listener = new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED)
+                    {
+                        synchronized (done)
+                        {
+                            done[0] = true;
+                            done.notifyAll();
+                        }
+                    }
+                }
+            };
+            context.addFrameworkListener(listener);
+            try
+            {
+                padmin.refreshPackages(bundles);
+                long end = System.currentTimeMillis() + refreshTimeout;
+                synchronized (done)
+                {
+                    long now;
+                    while (!done[0] && (now = System.currentTimeMillis()) < end)
+                    {
+                        done.wait(end - now);
+                    }
+                }
+                if (!done[0])
+                {
+                    log(Logger.LOG_WARNING, "Refresh of " + bundles.length + " bundles did not complete in "
+                        + refreshTimeout + " ms", null);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                context.removeFrameworkListener(listener);
+            }
+        }
+    }
+
+    /**
+     * Convenience to resolve bundles
+     */
+    void resolve(Bundle[] bundles)
+    {
+        PackageAdmin padmin = FileInstall.getPackageAdmin();
+        if (padmin != null)
+        {
+            padmin.resolveBundles(bundles);
         }
     }
 
@@ -852,6 +1083,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
     private Collection/* <Bundle> */ install(Collection/* <Artifact> */ artifacts)
     {
         List bundles = new ArrayList();
+        int count = 0;
         for (Iterator iter = artifacts.iterator(); iter.hasNext();)
         {
             Artifact artifact = (Artifact) iter.next();
@@ -860,6 +1092,10 @@ public class DirectoryWatcher extends Thread implements BundleListener
             {
                 bundles.add(bundle);
             }
+            if (++count % PROGRESS_INTERVAL == 0)
+            {
+                log(Logger.LOG_DEBUG, "Installed " + count + " of " + artifacts.size() + " artifacts", null);
+            }
         }
         return bundles;
     }
@@ -1186,7 +1422,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
      * is set to true or when a bundle is persistently started. Persistently stopped bundles
      * are ignored.
      */
-    private void startAllBundles()
+    private int startAllBundles()
     {
         List bundles = new ArrayList();
         for (Iterator it = currentManagedArtifacts.values().iterator(); it.hasNext();)
@@ -1206,22 +1442,99 @@ public class DirectoryWatcher extends Thread implements BundleListener
                 }
             }
         }
-        startBundles(bundles);
+        return startBundles(bundles);
     }
 
      /**
       * Starts a bundle and removes it from the Collection when successfully started.
+      * When {@link #START_THREADS} is greater than one, the bundles are started
+      * by that many threads in parallel.
       * @param bundles
+      * @return the number of bundles started
       */
-    private void startBundles(Collection/* <Bundle> */ bundles)
+    private int startBundles(Collection/* <Bundle> */ bundles)
     {
-        for (Iterator b = bundles.iterator(); b.hasNext(); )
+        if (startThreads <= 1 || bundles.size() <= 1)
+        {
+            int started = 0;
+            for (Iterator b = bundles.iterator(); b.hasNext(); )
+            {
+                if (startBundle((Bundle) b.next()))
+                {
+                    b.remove();
+                    started++;
+                }
+            }
+            return started;
+        }
+
+        final LinkedList/* <Bundle> */ queue = new LinkedList/* <Bundle> */(bundles);
+        final List/* <Bundle> */ started = new ArrayList/* <Bundle> */();
+        final boolean[] stopped = new boolean[1];
+        Thread[] threads = new Thread[Math.min(startThreads, queue.size())];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread(getName() + "-start-" + i)
+            {
+                public void run()
+                {
+                    while (true)
+                    {
+                        Bundle bundle;
+                        synchronized (queue)
+                        {
+                            if (stopped[0] || queue.isEmpty())
+                            {
+                                return;
+                            }
+                            bundle = (Bundle) queue.removeFirst();
+                        }
+                        if (startBundle(bundle))
+                        {
+                            synchronized (started)
+                            {
+                                started.add(bundle);
+                            }
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < threads.length; i++)
         {
-            if (startBundle((Bundle) b.next()))
+            while (threads[i].isAlive())
             {
-                b.remove();
+                try
+                {
+                    threads[i].join();
+                }
+                catch (InterruptedException e)
+                {
+                    // The watcher is closing: do not start the remaining bundles,
+                    // but wait for the bundles being started before returning
+                    interrupted = true;
+                    synchronized (queue)
+                    {
+                        stopped[0] = true;
+                    }
+                    for (int j = 0; j < threads.length; j++)
+                    {
+                        threads[j].interrupt();
+                    }
+                }
             }
         }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (started)
+        {
+            bundles.removeAll(started);
+            return started.size();
+        }
     }
 
      /**
@@ -1393,10 +1706,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
                 }
             }
         }
-        synchronized (this)
-        {
-            this.notifyAll();
-        }
+        wakeup();
     }
 
     public void removeListener(ArtifactListener listener)
@@ -1409,6 +1719,20 @@ public class DirectoryWatcher extends Thread implements BundleListener
                 artifact.setListener(null);
             }
         }
+        wakeup();
+    }
+
+    /**
+     * Wake up the watcher thread, whether it waits for the poll interval or
+     * for a file system event, so that the artifacts are processed again.
+     */
+    private void wakeup()
+    {
+        FileSystemMonitor m = monitor;
+        if (m != null)
+        {
+            m.wakeup();
+        }
         synchronized (this)
         {
             this.notifyAll();
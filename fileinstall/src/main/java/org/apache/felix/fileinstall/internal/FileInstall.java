@@ -110,6 +110,10 @@ public class FileInstall implements BundleActivator, ServiceTrackerCustomizer
         set(ht, DirectoryWatcher.USE_START_TRANSIENT);
         set(ht, DirectoryWatcher.NO_INITIAL_DELAY);
         set(ht, DirectoryWatcher.START_LEVEL);
+        set(ht, DirectoryWatcher.WATCH);
+        set(ht, DirectoryWatcher.WATCH_DEBOUNCE);
+        set(ht, DirectoryWatcher.WATCH_RESCAN);
+        set(ht, DirectoryWatcher.START_THREADS);
 
         // check if dir is an array of dirs
         String dirs = (String)ht.get(DirectoryWatcher.DIR);
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A FileSystemMonitor reports the files of a directory which have been
+ * created, modified or deleted, using the file system events of a
+ * java.nio.file.WatchService instead of listing the directory.
+ *
+ * Exploded directories are watched as well, so that a change deep inside
+ * an exploded artifact is reported as a change of the top level directory.
+ *
+ * This class requires Java 7: it is only loaded when the watch mode is
+ * enabled, and the caller falls back to polling if it cannot be loaded.
+ */
+class FileSystemMonitor
+{
+
+    private static final WatchEvent.Kind[] KINDS = new WatchEvent.Kind[] {
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY,
+        StandardWatchEventKinds.ENTRY_DELETE
+    };
+
+    // The WatchService can not be woken up, so it is polled in slices of
+    // this length (in milliseconds) to check whether wakeup() was called
+    private static final long WAKEUP_INTERVAL = 100;
+
+    final File directory;
+    final Path root;
+    final WatchService watchService;
+
+    // The watched directories
+    Map/* <WatchKey, Path> */ keys = new HashMap/* <WatchKey, Path> */();
+    boolean valid = true;
+    volatile boolean wakeup;
+
+    /**
+     * Create a monitor for the specified directory and its sub directories.
+     *
+     * @param directory the canonical directory to watch
+     * @throws IOException if the directory can not be watched
+     */
+    public FileSystemMonitor(File directory) throws IOException
+    {
+        this.directory = directory;
+        this.root = directory.toPath();
+        this.watchService = root.getFileSystem().newWatchService();
+        try
+        {
+            register(root);
+        }
+        catch (IOException e)
+        {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for changes in the directory.
+     *
+     * @param timeout the maximum time to wait for a change, in milliseconds
+     * @return the files of the directory which changed, an empty set if none
+     *         changed before the timeout or the monitor was woken up, or
+     *         <code>null</code> if events have been lost and the whole directory
+     *         must be scanned
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public Set/*<File>*/ poll(long timeout) throws InterruptedException
+    {
+        Set/*<File>*/ files = new HashSet/*<File>*/();
+        boolean overflow = false;
+        WatchKey key = null;
+        long end = System.currentTimeMillis() + Math.max(1, timeout);
+        while (key == null && !wakeup)
+        {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+                break;
+            }
+            key = watchService.poll(Math.min(remaining, WAKEUP_INTERVAL), TimeUnit.MILLISECONDS);
+        }
+        wakeup = false;
+        while (key != null)
+        {
+            Path dir = (Path) keys.get(key);
+            for (Iterator it = key.pollEvents().iterator(); it.hasNext();)
+            {
+                WatchEvent event = (WatchEvent) it.next();
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null)
+                {
+                    overflow = true;
+                    continue;
+                }
+                Path path = dir.resolve((Path) event.context());
+                Path relative = root.relativize(path);
+                if (relative.getNameCount() > 0)
+                {
+                    files.add(new File(directory, relative.getName(0).toString()));
+                }
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && path.toFile().isDirectory())
+                {
+                    try
+                    {
+                        register(path);
+                    }
+                    catch (IOException e)
+                    {
+                        overflow = true;
+                    }
+                }
+            }
+            if (!key.reset())
+            {
+                keys.remove(key);
+                if (root.equals(dir))
+                {
+                    // The watched directory itself is gone
+                    valid = false;
+                    overflow = true;
+                }
+            }
+            key = watchService.poll();
+        }
+        return overflow ? null : files;
+    }
+
+    /**
+     * Make the current or next call to {@link #poll(long)} return without
+     * waiting for a change.
+     */
+    public void wakeup()
+    {
+        wakeup = true;
+    }
+
+    /**
+     * Check if the monitor still watches the directory.
+     *
+     * @return <code>false</code> if the directory has been deleted or the monitor closed
+     */
+    public boolean isValid()
+    {
+        return valid;
+    }
+
+    /**
+     * Stop watching the directory.
+     */
+    public void close()
+    {
+        valid = false;
+        try
+        {
+            watchService.close();
+        }
+        catch (IOException e)
+        {
+            // Ignore
+        }
+    }
+
+    private void register(Path dir) throws IOException
+    {
+        keys.put(dir.register(watchService, KINDS), dir);
+        File[] children = dir.toFile().listFiles();
+        if (children != null)
+        {
+            for (int i = 0; i < children.length; i++)
+            {
+                if (children[i].isDirectory())
+                {
+                    register(children[i].toPath());
+                }
+            }
+        }
+    }
+
+}
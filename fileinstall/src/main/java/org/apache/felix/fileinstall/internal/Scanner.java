@@ -49,6 +49,8 @@ public class Scanner {
     // Store checksums of files or directories
     Map/* <File, Long> */ lastChecksums = new HashMap/* <File, Long> */();
     Map/* <File, Long> */ storedChecksums = new HashMap/* <File, Long> */();
+    // Files which changed but have not been reported yet
+    Set/* <File> */ pendingFiles = new HashSet/* <File> */();
 
     /**
      * Create a scanner for the specified directory
@@ -116,6 +118,15 @@ public class Scanner {
             {
                 storedChecksums.put(file, new Long(newChecksum));
                 files.add(file);
+                pendingFiles.remove(file);
+            }
+            else if (newChecksum != storedChecksum)
+            {
+                pendingFiles.add(file);
+            }
+            else
+            {
+                pendingFiles.remove(file);
             }
             removed.remove(file);
         }
@@ -127,10 +138,87 @@ public class Scanner {
             // Remove no longer used checksums
             lastChecksums.remove(file);
             storedChecksums.remove(file);
+            pendingFiles.remove(file);
+        }
+        return files;
+    }
+
+    /**
+     * Report a set of new, modified or deleted files among the given files.
+     * Only the given files and the files which changed in previous scans but
+     * were not reported yet are checked, so that a scan does not compute the
+     * checksum of all the files of the directory.  The checksums are compared
+     * in the same way as in {@link #scan(boolean)}.
+     *
+     * @param reportImmediately report all files immediately without waiting for the checksum to be stable
+     * @param changed the files of the directory which may have changed
+     * @return a list of changes on the given files
+     */
+    public Set/*<File>*/ scan(boolean reportImmediately, Set/*<File>*/ changed)
+    {
+        Set/*<File>*/ candidates = new HashSet/*<File>*/(pendingFiles);
+        candidates.addAll(changed);
+        Set/*<File>*/ files = new HashSet/*<File>*/();
+        for (Iterator it = candidates.iterator(); it.hasNext();)
+        {
+            File file = (File) it.next();
+            if (file.exists() && (filter == null || filter.accept(directory, file.getName())))
+            {
+                long lastChecksum = lastChecksums.get(file) != null ? ((Long) lastChecksums.get(file)).longValue() : 0;
+                long storedChecksum = storedChecksums.get(file) != null ? ((Long) storedChecksums.get(file)).longValue() : 0;
+                long newChecksum = checksum(file);
+                lastChecksums.put(file, new Long(newChecksum));
+                if ((newChecksum == lastChecksum || reportImmediately) && newChecksum != storedChecksum)
+                {
+                    storedChecksums.put(file, new Long(newChecksum));
+                    files.add(file);
+                    pendingFiles.remove(file);
+                }
+                else if (newChecksum == storedChecksum)
+                {
+                    pendingFiles.remove(file);
+                }
+                else
+                {
+                    pendingFiles.add(file);
+                }
+            }
+            else
+            {
+                // Make sure we'll handle a file that has been deleted
+                if (storedChecksums.containsKey(file))
+                {
+                    files.add(file);
+                }
+                lastChecksums.remove(file);
+                storedChecksums.remove(file);
+                pendingFiles.remove(file);
+            }
         }
         return files;
     }
 
+    /**
+     * Check if some changed files have not been reported yet because their
+     * checksum was not stable.
+     *
+     * @return <code>true</code> if a further scan is needed to report them
+     */
+    public boolean hasPendingFiles()
+    {
+        return !pendingFiles.isEmpty();
+    }
+
+    /**
+     * Retrieve the directory scanned.
+     *
+     * @return the canonical directory
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
     private static File canon(File file)
     {
         try
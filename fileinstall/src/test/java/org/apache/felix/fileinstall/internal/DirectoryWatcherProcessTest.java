@@ -0,0 +1,488 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.startlevel.StartLevel;
+
+
+/**
+ * Tests the processing of a batch of changed bundles by the DirectoryWatcher:
+ * the bundles are updated, refreshed once, resolved and started.
+ * The framework is simulated by proxies recording the calls made to it.
+ */
+public class DirectoryWatcherProcessTest extends TestCase
+{
+
+    private static final int BUNDLES = 6;
+    private static final long WAIT = 2000;
+
+    private File dir;
+    private Set files = new HashSet();
+    private Bundle[] bundles = new Bundle[BUNDLES];
+    private int[] states = new int[BUNDLES];
+    private int[] startAttempts = new int[BUNDLES];
+    private long failingBundle = -1;
+    private boolean refreshing = true;
+    private int parallelStarts;
+    private int starting;
+    private int maxStarting;
+    // The calls made to the framework, in order
+    private List calls = new ArrayList();
+    private List frameworkListeners = new ArrayList();
+    private BundleContext context;
+    private DirectoryWatcher dw;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        dir = new File( "target/process" );
+        dir.mkdirs();
+        context = ( BundleContext ) proxy( BundleContext.class, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                String name = method.getName();
+                if ( name.equals( "getBundle" ) && args != null )
+                {
+                    return bundles[( int ) ( ( Long ) args[0] ).longValue() - 1];
+                }
+                if ( name.equals( "getBundles" ) )
+                {
+                    return bundles.clone();
+                }
+                if ( name.equals( "getDataFile" ) )
+                {
+                    return new File( dir, ( String ) args[0] );
+                }
+                if ( name.equals( "addFrameworkListener" ) )
+                {
+                    synchronized ( frameworkListeners )
+                    {
+                        frameworkListeners.add( args[0] );
+                    }
+                }
+                if ( name.equals( "removeFrameworkListener" ) )
+                {
+                    synchronized ( frameworkListeners )
+                    {
+                        frameworkListeners.remove( args[0] );
+                    }
+                }
+                return null;
+            }
+        } );
+        FileInstall.padmin = new MockServiceTracker( context, proxy( PackageAdmin.class, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                String name = method.getName();
+                if ( name.equals( "getBundleType" ) )
+                {
+                    return new Integer( 0 );
+                }
+                if ( name.equals( "refreshPackages" ) )
+                {
+                    record( "refresh " + ( ( Bundle[] ) args[0] ).length );
+                    if ( refreshing )
+                    {
+                        new Thread()
+                        {
+                            public void run()
+                            {
+                                fireRefreshed();
+                            }
+                        }.start();
+                    }
+                }
+                if ( name.equals( "resolveBundles" ) )
+                {
+                    record( "resolve " + ( ( Bundle[] ) args[0] ).length );
+                    return Boolean.TRUE;
+                }
+                return null;
+            }
+        } ) );
+        FileInstall.startLevel = new MockServiceTracker( context, proxy( StartLevel.class, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                if ( method.getName().equals( "isBundlePersistentlyStarted" ) )
+                {
+                    return Boolean.TRUE;
+                }
+                if ( method.getReturnType() == Integer.TYPE )
+                {
+                    return new Integer( 1 );
+                }
+                return null;
+            }
+        } ) );
+
+        for ( int i = 0; i < BUNDLES; i++ )
+        {
+            bundles[i] = createBundle( i + 1 );
+            states[i] = Bundle.ACTIVE;
+        }
+
+        Dictionary props = new Hashtable();
+        props.put( DirectoryWatcher.DIR, dir.getAbsolutePath() );
+        props.put( DirectoryWatcher.TMPDIR, new File( "target/process-tmp" ).getAbsolutePath() );
+        props.put( DirectoryWatcher.LOG_LEVEL, "0" );
+        dw = new DirectoryWatcher( props, context );
+
+        // The bundles are managed and their files have changed
+        for ( int i = 0; i < BUNDLES; i++ )
+        {
+            File file = createJar( "bundle" + ( i + 1 ) );
+            Artifact artifact = new Artifact();
+            artifact.setPath( file );
+            artifact.setBundleId( i + 1 );
+            artifact.setListener( FileInstall.bundleTransformer );
+            dw.currentManagedArtifacts.put( file, artifact );
+            files.add( file );
+        }
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        FileInstall.padmin = null;
+        FileInstall.startLevel = null;
+        super.tearDown();
+    }
+
+
+    public void testUpdatedBundlesAreRefreshedOnce()
+    {
+        dw.process( files );
+
+        List calls = getCalls();
+        assertEquals( calls.toString(), BUNDLES, count( calls, "update" ) );
+        assertEquals( calls.toString(), 1, count( calls, "refresh " ) );
+        assertTrue( calls.toString(), calls.contains( "refresh " + BUNDLES ) );
+        assertEquals( calls.toString(), 1, count( calls, "resolve" ) );
+        assertEquals( calls.toString(), BUNDLES, count( calls, "start" ) );
+        // The bundles are only resolved and started once the refresh is complete
+        int refreshed = calls.indexOf( "refreshed" );
+        assertTrue( calls.toString(), refreshed > calls.lastIndexOf( "update" ) );
+        assertTrue( calls.toString(), refreshed < indexOf( calls, "resolve" ) );
+        assertTrue( calls.toString(), indexOf( calls, "resolve" ) < indexOf( calls, "start" ) );
+        assertTrue( frameworkListeners.isEmpty() );
+    }
+
+
+    public void testRefreshTimeout()
+    {
+        refreshing = false;
+        dw.refreshTimeout = 200;
+
+        long start = System.currentTimeMillis();
+        dw.process( files );
+        long time = System.currentTimeMillis() - start;
+
+        assertTrue( "The refresh has been awaited: " + time, time >= 200 );
+        assertTrue( "The refresh has not been awaited after the timeout: " + time, time < WAIT );
+        List calls = getCalls();
+        assertEquals( calls.toString(), 1, count( calls, "resolve" ) );
+        assertEquals( calls.toString(), BUNDLES, count( calls, "start" ) );
+        assertTrue( "The framework listener has been removed", frameworkListeners.isEmpty() );
+    }
+
+
+    public void testParallelStart()
+    {
+        dw.startThreads = 3;
+        parallelStarts = 3;
+
+        dw.process( files );
+
+        List calls = getCalls();
+        assertEquals( calls.toString(), BUNDLES, count( calls, "start" ) );
+        assertTrue( calls.toString(), calls.indexOf( "refreshed" ) < indexOf( calls, "start" ) );
+        assertEquals( "The bundles are started by all threads", 3, maxStarting );
+        for ( int i = 0; i < BUNDLES; i++ )
+        {
+            assertEquals( Bundle.ACTIVE, getState( i ) );
+        }
+    }
+
+
+    public void testParallelStartFailure()
+    {
+        dw.startThreads = 3;
+        failingBundle = 2;
+
+        dw.process( files );
+
+        for ( int i = 0; i < BUNDLES; i++ )
+        {
+            assertEquals( i + 1 == failingBundle ? Bundle.RESOLVED : Bundle.ACTIVE, getState( i ) );
+        }
+
+        // The failed bundle is started again on the next scan, the other ones are not
+        failingBundle = -1;
+        dw.process( new HashSet() );
+        for ( int i = 0; i < BUNDLES; i++ )
+        {
+            assertEquals( Bundle.ACTIVE, getState( i ) );
+            synchronized ( calls )
+            {
+                assertEquals( i + 1 == 2 ? 2 : 1, startAttempts[i] );
+            }
+        }
+    }
+
+
+    private Bundle createBundle( final long id )
+    {
+        final int index = ( int ) id - 1;
+        return ( Bundle ) proxy( Bundle.class, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+            {
+                String name = method.getName();
+                if ( name.equals( "getBundleId" ) )
+                {
+                    return new Long( id );
+                }
+                if ( name.equals( "getState" ) )
+                {
+                    return new Integer( getState( index ) );
+                }
+                if ( name.equals( "getHeaders" ) )
+                {
+                    return new Hashtable();
+                }
+                if ( name.equals( "getLocation" ) || name.equals( "toString" ) )
+                {
+                    return "bundle" + id;
+                }
+                if ( name.equals( "stop" ) )
+                {
+                    setState( index, Bundle.RESOLVED );
+                }
+                if ( name.equals( "update" ) )
+                {
+                    record( "update" );
+                }
+                if ( name.equals( "start" ) )
+                {
+                    start( index );
+                }
+                if ( name.equals( "equals" ) )
+                {
+                    return Boolean.valueOf( proxy == args[0] );
+                }
+                if ( name.equals( "hashCode" ) )
+                {
+                    return new Integer( System.identityHashCode( proxy ) );
+                }
+                return null;
+            }
+        } );
+    }
+
+
+    private void start( int index ) throws BundleException
+    {
+        synchronized ( calls )
+        {
+            calls.add( "start" );
+            startAttempts[index]++;
+            starting++;
+            maxStarting = Math.max( maxStarting, starting );
+            calls.notifyAll();
+            try
+            {
+                // Wait for the other threads to start a bundle as well
+                long end = System.currentTimeMillis() + WAIT;
+                long now;
+                while ( starting < parallelStarts && maxStarting < parallelStarts
+                    && ( now = System.currentTimeMillis() ) < end )
+                {
+                    calls.wait( end - now );
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                starting--;
+            }
+        }
+        if ( index + 1 == failingBundle )
+        {
+            throw new BundleException( "Failed to start bundle" + ( index + 1 ) );
+        }
+        setState( index, Bundle.ACTIVE );
+    }
+
+
+    private void fireRefreshed()
+    {
+        try
+        {
+            Thread.sleep( 100 );
+        }
+        catch ( InterruptedException e )
+        {
+            return;
+        }
+        record( "refreshed" );
+        List listeners;
+        synchronized ( frameworkListeners )
+        {
+            listeners = new ArrayList( frameworkListeners );
+        }
+        for ( int i = 0; i < listeners.size(); i++ )
+        {
+            ( ( FrameworkListener ) listeners.get( i ) ).frameworkEvent(
+                new FrameworkEvent( FrameworkEvent.PACKAGES_REFRESHED, bundles[0], null ) );
+        }
+    }
+
+
+    private int getState( int index )
+    {
+        synchronized ( states )
+        {
+            return states[index];
+        }
+    }
+
+
+    private void setState( int index, int state )
+    {
+        synchronized ( states )
+        {
+            states[index] = state;
+        }
+    }
+
+
+    private void record( String call )
+    {
+        synchronized ( calls )
+        {
+            calls.add( call );
+        }
+    }
+
+
+    private List getCalls()
+    {
+        synchronized ( calls )
+        {
+            return new ArrayList( calls );
+        }
+    }
+
+
+    private static int count( List calls, String prefix )
+    {
+        int count = 0;
+        for ( int i = 0; i < calls.size(); i++ )
+        {
+            if ( ( ( String ) calls.get( i ) ).startsWith( prefix ) )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    private static int indexOf( List calls, String prefix )
+    {
+        for ( int i = 0; i < calls.size(); i++ )
+        {
+            if ( ( ( String ) calls.get( i ) ).startsWith( prefix ) )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private File createJar( String symbolicName ) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        manifest.getMainAttributes().putValue( "Bundle-SymbolicName", symbolicName );
+        File file = new File( dir, symbolicName + ".jar" );
+        JarOutputStream jar = new JarOutputStream( new FileOutputStream( file ), manifest );
+        jar.close();
+        return file;
+    }
+
+
+    private static Object proxy( Class clazz, final InvocationHandler handler )
+    {
+        return Proxy.newProxyInstance( DirectoryWatcherProcessTest.class.getClassLoader(), new Class[]
+            { clazz }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+            {
+                Object result = handler.invoke( proxy, method, args );
+                if ( result == null && method.getReturnType().isPrimitive() && method.getReturnType() != Void.TYPE )
+                {
+                    // Default values for the calls the tests do not care about
+                    if ( method.getReturnType() == Boolean.TYPE )
+                    {
+                        return Boolean.FALSE;
+                    }
+                    if ( method.getReturnType() == Long.TYPE )
+                    {
+                        return new Long( 0 );
+                    }
+                    return new Integer( 0 );
+                }
+                return result;
+            }
+        } );
+    }
+}
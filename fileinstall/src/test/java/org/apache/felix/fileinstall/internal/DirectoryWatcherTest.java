@@ -157,6 +157,7 @@ public class DirectoryWatcherTest extends TestCase
         props.put( DirectoryWatcher.POLL, "500" );
         props.put( DirectoryWatcher.LOG_LEVEL, "1" );
         props.put( DirectoryWatcher.START_NEW_BUNDLES, "false" );
+        props.put( DirectoryWatcher.START_THREADS, "4" );
         props.put( DirectoryWatcher.DIR, new File( "src/test/resources" ).getAbsolutePath() );
         props.put( DirectoryWatcher.TMPDIR, new File( "src/test/resources" ).getAbsolutePath() );
         props.put( DirectoryWatcher.FILTER, ".*\\.cfg" );
@@ -173,6 +174,7 @@ public class DirectoryWatcherTest extends TestCase
         assertTrue( "TMPDIR parameter correctly read", dw.tmpDir.getAbsolutePath().endsWith(
             "src" + File.separatorChar + "test" + File.separatorChar + "resources" ) );
         assertEquals("START_NEW_BUNDLES parameter correctly read", false, dw.startBundles);
+        assertEquals("START_THREADS parameter correctly read", 4, dw.startThreads);
         assertEquals( "FILTER parameter correctly read", ".*\\.cfg", dw.filter );
         EasyMock.verify(new Object[]{mockBundleContext});
     }
@@ -194,6 +196,7 @@ public class DirectoryWatcherTest extends TestCase
         assertTrue("Default TMPDIR parameter correctly read", dw.tmpDir.getAbsolutePath().startsWith(
                 new File(System.getProperty("java.io.tmpdir")).getAbsolutePath()));
         assertEquals("Default START_NEW_BUNDLES parameter correctly read", true, dw.startBundles);
+        assertEquals("Default START_THREADS parameter correctly read", 1, dw.startThreads);
         assertEquals( "Default FILTER parameter correctly read", null, dw.filter );
         EasyMock.verify(new Object[]{mockBundleContext});
     }
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+import java.io.File;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for the wake up of the FileSystemMonitor
+ */
+public class FileSystemMonitorTest extends TestCase
+{
+
+    FileSystemMonitor monitor;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        File dir = new File("target/monitor");
+        dir.mkdirs();
+        monitor = new FileSystemMonitor(dir.getCanonicalFile());
+    }
+
+    protected void tearDown() throws Exception
+    {
+        monitor.close();
+        super.tearDown();
+    }
+
+    public void testWakeupInterruptsPoll() throws Exception
+    {
+        final Set[] result = new Set[1];
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    result[0] = monitor.poll(60000);
+                }
+                catch (InterruptedException e)
+                {
+                    // Ignore
+                }
+            }
+        };
+        thread.start();
+        Thread.sleep(200);
+        assertTrue(thread.isAlive());
+
+        long start = System.currentTimeMillis();
+        monitor.wakeup();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertNotNull(result[0]);
+        assertTrue(result[0].isEmpty());
+    }
+
+    public void testWakeupBeforePollReturnsImmediately() throws Exception
+    {
+        monitor.wakeup();
+        long start = System.currentTimeMillis();
+        Set files = monitor.poll(60000);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(files.isEmpty());
+
+        // The wake up is consumed by the poll
+        start = System.currentTimeMillis();
+        monitor.poll(300);
+        assertTrue(System.currentTimeMillis() - start >= 250);
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for the incremental scans of the Scanner
+ */
+public class ScannerTest extends TestCase
+{
+
+    File dir;
+    Scanner scanner;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        dir = new File("target/scanner");
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++)
+        {
+            files[i].delete();
+        }
+        dir.mkdirs();
+        scanner = new Scanner(dir);
+    }
+
+    public void testChangedFileIsReportedWhenStable() throws IOException
+    {
+        File file = write("a.jar", 1);
+        Set changed = Collections.singleton(file);
+
+        assertTrue(scanner.scan(false, changed).isEmpty());
+        assertTrue(scanner.hasPendingFiles());
+
+        // The pending file is checked again without a new event
+        assertEquals(changed, scanner.scan(false, new HashSet()));
+        assertFalse(scanner.hasPendingFiles());
+
+        // Not reported again while unchanged
+        assertTrue(scanner.scan(false, changed).isEmpty());
+    }
+
+    public void testOnlyChangedFilesAreChecked() throws IOException
+    {
+        File a = write("a.jar", 1);
+        File b = write("b.jar", 1);
+
+        Set changed = Collections.singleton(a);
+        assertEquals(changed, scanner.scan(true, changed));
+        assertEquals(Collections.singleton(b), scanner.scan(true));
+    }
+
+    public void testDeletedFileIsReported() throws IOException
+    {
+        File file = write("a.jar", 1);
+        Set changed = Collections.singleton(file);
+        scanner.scan(true, changed);
+
+        file.delete();
+        assertEquals(changed, scanner.scan(false, changed));
+        assertEquals(0, scanner.getChecksum(file));
+
+        // Unknown files which do not exist are ignored
+        assertTrue(scanner.scan(false, Collections.singleton(new File(dir, "b.jar"))).isEmpty());
+    }
+
+    File write(String name, int content) throws IOException
+    {
+        File file = new File(dir, name);
+        FileOutputStream os = new FileOutputStream(file);
+        try
+        {
+            os.write(content);
+        }
+        finally
+        {
+            os.close();
+        }
+        return new File(scanner.getDirectory(), name);
+    }
+
+}
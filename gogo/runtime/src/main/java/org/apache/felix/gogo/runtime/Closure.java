@@ -25,6 +25,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.felix.gogo.runtime.Tokenizer.Type;
 import org.apache.felix.service.command.CommandSession;
@@ -58,7 +60,7 @@ public class Closure implements Function, Evaluate
 
         try
         {
-            program = new Parser(source).program();
+            program = session.parse(source);
         }
         catch (Exception e)
         {
@@ -184,25 +186,35 @@ public class Closure implements Function, Evaluate
             }
             else if (pipes.size() > 1)
             {
+                ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
                 for (Pipe pipe : pipes)
                 {
-                    pipe.start();
+                    futures.add(session.executor().submit(pipe));
                 }
                 try
                 {
-                    for (Pipe pipe : pipes)
+                    for (Future<?> future : futures)
                     {
-                        pipe.join();
+                        future.get();
                     }
                 }
                 catch (InterruptedException e)
                 {
-                    for (Pipe pipe : pipes)
+                    for (Future<?> future : futures)
                     {
-                        pipe.interrupt();
+                        future.cancel(true);
                     }
                     throw e;
                 }
+                catch (ExecutionException e)
+                {
+                    // exceptions are kept by the pipes, so this is an Error
+                    for (Future<?> future : futures)
+                    {
+                        future.cancel(true);
+                    }
+                    throw (Error) e.getCause();
+                }
             }
 
             last = pipes.remove(pipes.size() - 1);
@@ -249,19 +261,35 @@ public class Closure implements Function, Evaluate
         }
         else
         {
-            try
-            {
-                v = s;
-                v = Double.parseDouble(s);    // if it parses as double
-                v = Long.parseLong(s);        // see whether it is integral
-            }
-            catch (NumberFormatException e)
+            v = s;
+            if (isNumber(s))
             {
+                try
+                {
+                    v = Double.parseDouble(s);    // if it parses as double
+                    v = Long.parseLong(s);        // see whether it is integral
+                }
+                catch (NumberFormatException e)
+                {
+                }
             }
         }
         return v;
     }
 
+    // avoids throwing NumberFormatException for words which can't be numbers
+    private static boolean isNumber(String s)
+    {
+        if (s.length() == 0)
+        {
+            return false;
+        }
+        char c = s.charAt(0);
+        // the first characters accepted by Double.parseDouble()
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'I'
+            || c == 'N' || c <= ' ';
+    }
+
     public Object eval(final Token t) throws Exception
     {
         Object v = null;
@@ -21,17 +21,23 @@ package org.apache.felix.gogo.runtime;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.felix.gogo.api.CommandSessionListener;
 import org.apache.felix.service.command.CommandProcessor;
@@ -42,12 +48,37 @@ import org.apache.felix.service.threadio.ThreadIO;
 
 public class CommandProcessorImpl implements CommandProcessor
 {
+    public static final int PROGRAM_CACHE_SIZE = 256;
+
     protected final Set<Converter> converters = new HashSet<Converter>();
     protected final Set<CommandSessionListener> listeners = new CopyOnWriteArraySet<CommandSessionListener>();
     protected final Map<String, Object> commands = new LinkedHashMap<String, Object>();
     protected final Map<String, Object> constants = new HashMap<String, Object>();
     protected final ThreadIO threadIO;
     protected final WeakHashMap<CommandSession, Object> sessions = new WeakHashMap<CommandSession, Object>();
+    // runs the commands of pipelines, reusing idle threads
+    protected final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory()
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "gogo-pipe-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // parsed programs, most recently used last
+    private final Map<Object, List<List<List<Token>>>> programs = new LinkedHashMap<Object, List<List<List<Token>>>>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<Object, List<List<List<Token>>>> eldest)
+        {
+            return size() > PROGRAM_CACHE_SIZE;
+        }
+    };
 
     public CommandProcessorImpl(ThreadIO tio)
     {
@@ -67,6 +98,7 @@ public class CommandProcessorImpl implements CommandProcessor
         {
             session.close();
         }
+        executor.shutdown();
     }
 
     public void addConverter(Converter c)
@@ -280,6 +312,39 @@ public class CommandProcessorImpl implements CommandProcessor
         return session.execute(buf);
     }
 
+    /**
+     * parses the given source, or returns the program parsed for the same
+     * source before. The returned program must not be modified.
+     * @param source a command line, script or closure body.
+     * @return the program
+     */
+    List<List<List<Token>>> parse(CharSequence source)
+    {
+        // closure bodies are also identified by their position, which is
+        // reported in errors
+        Object key = source.toString();
+        if (source instanceof Token)
+        {
+            Token t = (Token) source;
+            key = Arrays.asList(key, t.line, t.column);
+        }
+
+        List<List<List<Token>>> program;
+        synchronized (programs)
+        {
+            program = programs.get(key);
+        }
+        if (program == null)
+        {
+            program = new Parser(source).program();
+            synchronized (programs)
+            {
+                programs.put(key, program);
+            }
+        }
+        return program;
+    }
+
     void beforeExecute(CommandSession session, CharSequence commandline)
     {
         for (CommandSessionListener l : listeners)
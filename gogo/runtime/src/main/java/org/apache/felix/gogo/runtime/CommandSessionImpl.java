@@ -31,7 +31,9 @@ import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Converter;
@@ -66,6 +68,16 @@ public class CommandSessionImpl implements CommandSession, Converter
         return processor.threadIO;
     }
 
+    ExecutorService executor()
+    {
+        return processor.executor;
+    }
+
+    List<List<List<Token>>> parse(CharSequence source)
+    {
+        return processor.parse(source);
+    }
+
     public void close()
     {
         this.closed = true;
@@ -20,23 +20,22 @@ package org.apache.felix.gogo.runtime;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.io.PrintStream;
-import java.lang.reflect.Method;
 import java.util.List;
 
 import org.apache.felix.service.command.Converter;
 
-public class Pipe extends Thread
+public class Pipe implements Runnable
 {
     static final ThreadLocal<InputStream> tIn = new ThreadLocal<InputStream>();
     static final ThreadLocal<PrintStream> tOut = new ThreadLocal<PrintStream>();
     static final ThreadLocal<PrintStream> tErr = new ThreadLocal<PrintStream>();
+    static final ThreadLocal<Pipe> tPipe = new ThreadLocal<Pipe>();
     InputStream in;
     PrintStream out;
     PrintStream err;
-    PipedOutputStream pout;
+    PipeBuffer pipe;
+    PipeBuffer inPipe;
     Closure closure;
     Exception exception;
     Object result;
@@ -44,7 +43,7 @@ public class Pipe extends Thread
 
     public static Object[] mark()
     {
-        Object[] mark = { tIn.get(), tOut.get(), tErr.get() };
+        Object[] mark = { tIn.get(), tOut.get(), tErr.get(), tPipe.get() };
         return mark;
     }
 
@@ -53,11 +52,50 @@ public class Pipe extends Thread
         tIn.set((InputStream) mark[0]);
         tOut.set((PrintStream) mark[1]);
         tErr.set((PrintStream) mark[2]);
+        tPipe.set((Pipe) mark[3]);
+    }
+
+    /**
+     * writes an object to the next command of the pipeline, which can read it
+     * with {@link #readObject()} or as text.
+     * @param o
+     * @return false if the output of the current command is not a pipe, in
+     * which case nothing is written.
+     * @throws IOException if the next command has stopped reading.
+     */
+    public static boolean writeObject(Object o) throws IOException
+    {
+        Pipe current = tPipe.get();
+        if (current == null || current.pipe == null || o == null)
+        {
+            return false;
+        }
+        current.out.flush();
+        current.pipe.writeObject(o);
+        return true;
+    }
+
+    /**
+     * reads the next object written by the previous command of the pipeline,
+     * discarding the text written before it.  The result of the previous
+     * command is written to the pipe as an object when the session variable
+     * .ObjectPipe is true.
+     * @return the object, or null if there are no more objects or the input
+     * of the current command is not a pipe.
+     * @throws IOException
+     */
+    public static Object readObject() throws IOException
+    {
+        Pipe current = tPipe.get();
+        if (current == null || current.inPipe == null)
+        {
+            return null;
+        }
+        return current.inPipe.readObject();
     }
 
     public Pipe(Closure closure, List<Token> statement)
     {
-        super("pipe-" + statement);
         this.closure = closure;
         this.statement = statement;
 
@@ -90,25 +128,44 @@ public class Pipe extends Thread
     {
         next.setOut(out);
         next.setErr(err);
-        pout = new PipedOutputStream();
-        next.setIn(new PipedInputStream(pout));
-        out = new PrintStream(pout);
+        boolean format = !Boolean.FALSE.equals(closure.session().get(".FormatPipe"));
+        pipe = new PipeBuffer(format ? closure.session() : null);
+        next.setIn(pipe.getInputStream());
+        next.inPipe = pipe;
+        out = new PrintStream(pipe.getOutputStream());
         return next;
     }
 
     public void run()
     {
+        Object[] mark = mark();
+        Thread thread = Thread.currentThread();
+        String name = thread.getName();
+        thread.setName("pipe-" + statement);
         tIn.set(in);
         tOut.set(out);
         tErr.set(err);
+        tPipe.set(this);
         closure.session().threadIO().setStreams(in, out, err);
 
         try
         {
             result = closure.executeStatement(statement);
-            if (result != null && pout != null)
+            if (result != null && pipe != null)
             {
-                if (!Boolean.FALSE.equals(closure.session().get(".FormatPipe")))
+                if (Boolean.TRUE.equals(closure.session().get(".ObjectPipe")))
+                {
+                    out.flush();
+                    try
+                    {
+                        pipe.writeObject(result);
+                    }
+                    catch (IOException e)
+                    {
+                        // the next command has stopped reading
+                    }
+                }
+                else if (!Boolean.FALSE.equals(closure.session().get(".FormatPipe")))
                 {
                     out.println(closure.session().format(result, Converter.INSPECT));
                 }
@@ -125,26 +182,24 @@ public class Pipe extends Thread
 
             try
             {
-                if (pout != null)
+                if (pipe != null)
                 {
-                    pout.close();
+                    pipe.getOutputStream().close();
                 }
 
-                if (in instanceof PipedInputStream)
+                if (inPipe != null)
                 {
-                    in.close();
-
                     // avoid writer waiting when reader has given up (FELIX-2380)
-                    Method m = in.getClass().getDeclaredMethod("receivedLast",
-                        (Class<?>[]) null);
-                    m.setAccessible(true);
-                    m.invoke(in, (Object[]) null);
+                    in.close();
                 }
             }
             catch (Exception e)
             {
                 e.printStackTrace();
             }
+
+            reset(mark);
+            thread.setName(name);
         }
     }
 }
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+import org.apache.felix.service.command.CommandSession;
+import org.apache.felix.service.command.Converter;
+
+/**
+ * In-memory pipe between two stages of a pipeline.
+ *
+ * Bytes go through a ring buffer; the writer blocks while it is full and the
+ * reader while it is empty, and either side is woken up as soon as the other
+ * one makes progress or closes its end.
+ *
+ * Objects may also be written to the pipe. A reader of objects gets them as
+ * they are, discarding the text written before them, while a reader of bytes
+ * gets them formatted as text, in the order they were written.
+ */
+class PipeBuffer
+{
+    static final int SIZE = 64 * 1024;
+    static final int MAX_OBJECTS = 1024;
+
+    private final CommandSession session;
+    private final byte[] buffer;
+    private int head; // index of the next byte to read
+    private int count; // number of bytes available
+    private long written; // total number of bytes written
+    private long read; // total number of bytes read
+    // objects, with the value of written when they were written
+    private final LinkedList<Object[]> objects = new LinkedList<Object[]>();
+    private boolean writerClosed;
+    private boolean readerClosed;
+
+    private final Input in = new Input();
+    private final Output out = new Output();
+
+    /**
+     * @param session the session used to format objects read as bytes, or
+     * null if objects must not be visible to readers of bytes.
+     */
+    PipeBuffer(CommandSession session)
+    {
+        this(session, SIZE);
+    }
+
+    PipeBuffer(CommandSession session, int size)
+    {
+        this.session = session;
+        this.buffer = new byte[size];
+    }
+
+    public InputStream getInputStream()
+    {
+        return in;
+    }
+
+    public OutputStream getOutputStream()
+    {
+        return out;
+    }
+
+    /**
+     * writes an object to the pipe, after the bytes already written.
+     * @param o
+     * @throws IOException if the reader has given up
+     */
+    synchronized void writeObject(Object o) throws IOException
+    {
+        while (objects.size() >= MAX_OBJECTS && !readerClosed && !writerClosed)
+        {
+            await();
+        }
+        checkWritable();
+        objects.add(new Object[] { written, o });
+        notifyAll();
+    }
+
+    /**
+     * reads the next object from the pipe, discarding the bytes written before it.
+     * @return the object, or null if the writer has closed the pipe.
+     */
+    synchronized Object readObject() throws IOException
+    {
+        while (objects.isEmpty() && !writerClosed)
+        {
+            // the text written so far comes before the next object, discard
+            // it so that a writer waiting for free space can go on
+            if (count > 0)
+            {
+                head = (head + count) % buffer.length;
+                read += count;
+                count = 0;
+                notifyAll();
+            }
+            await();
+        }
+        if (objects.isEmpty())
+        {
+            return null;
+        }
+        Object[] entry = objects.removeFirst();
+        int skip = (int) ((Long) entry[0] - read);
+        head = (head + skip) % buffer.length;
+        count -= skip;
+        read += skip;
+        in.pending = null;
+        notifyAll();
+        return entry[1];
+    }
+
+    private void checkWritable() throws IOException
+    {
+        if (writerClosed || readerClosed)
+        {
+            throw new IOException("Pipe closed");
+        }
+    }
+
+    private void await() throws InterruptedIOException
+    {
+        try
+        {
+            wait();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private class Input extends InputStream
+    {
+        // an object formatted as text, being read
+        private byte[] pending;
+        private int pendingPos;
+
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            while (true)
+            {
+                if (pending != null)
+                {
+                    int n = Math.min(len, pending.length - pendingPos);
+                    System.arraycopy(pending, pendingPos, b, off, n);
+                    pendingPos += n;
+                    if (pendingPos == pending.length)
+                    {
+                        pending = null;
+                    }
+                    return n;
+                }
+
+                Object o;
+                synchronized (PipeBuffer.this)
+                {
+                    while (true)
+                    {
+                        long next = objects.isEmpty() ? Long.MAX_VALUE
+                            : (Long) objects.getFirst()[0];
+                        if (next == read)
+                        {
+                            o = objects.removeFirst()[1];
+                            PipeBuffer.this.notifyAll();
+                            break;
+                        }
+                        if (count > 0)
+                        {
+                            int n = (int) Math.min(len, Math.min(count, next - read));
+                            n = Math.min(n, buffer.length - head);
+                            System.arraycopy(buffer, head, b, off, n);
+                            head = (head + n) % buffer.length;
+                            count -= n;
+                            read += n;
+                            PipeBuffer.this.notifyAll();
+                            return n;
+                        }
+                        if (writerClosed)
+                        {
+                            return -1;
+                        }
+                        await();
+                    }
+                }
+
+                // format outside of the lock, so that the writer can go on
+                if (session != null)
+                {
+                    CharSequence text = session.format(o, Converter.INSPECT);
+                    pending = (text + System.getProperty("line.separator")).getBytes();
+                    pendingPos = 0;
+                }
+            }
+        }
+
+        public int available()
+        {
+            synchronized (PipeBuffer.this)
+            {
+                return pending != null ? pending.length - pendingPos : count;
+            }
+        }
+
+        public void close()
+        {
+            synchronized (PipeBuffer.this)
+            {
+                // the writer must not wait for a reader which has given up
+                readerClosed = true;
+                count = 0;
+                objects.clear();
+                PipeBuffer.this.notifyAll();
+            }
+        }
+    }
+
+    private class Output extends OutputStream
+    {
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            synchronized (PipeBuffer.this)
+            {
+                while (len > 0)
+                {
+                    while (count == buffer.length && !readerClosed && !writerClosed)
+                    {
+                        await();
+                    }
+                    checkWritable();
+                    int tail = (head + count) % buffer.length;
+                    int n = Math.min(len, buffer.length - count);
+                    n = Math.min(n, buffer.length - tail);
+                    System.arraycopy(b, off, buffer, tail, n);
+                    count += n;
+                    written += n;
+                    off += n;
+                    len -= n;
+                    PipeBuffer.this.notifyAll();
+                }
+            }
+        }
+
+        public void close()
+        {
+            synchronized (PipeBuffer.this)
+            {
+                writerClosed = true;
+                PipeBuffer.this.notifyAll();
+            }
+        }
+    }
+}
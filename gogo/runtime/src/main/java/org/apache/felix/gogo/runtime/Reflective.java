@@ -19,6 +19,8 @@
 package org.apache.felix.gogo.runtime;
 
 import java.lang.annotation.Annotation;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -26,7 +28,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Parameter;
@@ -45,6 +51,25 @@ public final class Reflective
                 "finally", "long", "strictfp", "volatile", "const", "float", "native",
                 "super", "while" }));
 
+    // Cache of the methods of the classes on which commands are invoked.
+    // The cached methods are softly referenced, as they would otherwise keep
+    // their weak keys reachable, so they survive garbage collections but not
+    // a shortage of memory. A cleared entry is simply rebuilt. The cache is
+    // also cleared when bundles are refreshed, see clearCache().
+    private static final Map<Class<?>, Reference<ClassMethods>> methodCache = new WeakHashMap<Class<?>, Reference<ClassMethods>>();
+
+    /**
+     * clears the cached methods, so that they do not keep the classes of
+     * refreshed bundles from being unloaded.
+     */
+    public static void clearCache()
+    {
+        synchronized (methodCache)
+        {
+            methodCache.clear();
+        }
+    }
+
     /**
      * invokes the named method on the given target using the supplied args,
      * which are converted if necessary.
@@ -58,31 +83,22 @@ public final class Reflective
     public static Object invoke(CommandSession session, Object target, String name,
         List<Object> args) throws Exception
     {
-        Method[] methods = target.getClass().getMethods();
         name = name.toLowerCase();
 
-        String get = "get" + name;
-        String is = "is" + name;
-        String set = "set" + name;
-
-        if (KEYWORDS.contains(name))
+        Candidate[] candidates = null;
+        if (target instanceof Class<?>)
         {
-            name = "_" + name;
+            // use the static methods of the class, if any of them matches
+            candidates = getCandidates((Class<?>) target, name);
+        }
+        if (candidates == null || candidates.length == 0)
+        {
+            candidates = getCandidates(target.getClass(), name);
         }
 
-        if (target instanceof Class<?>)
+        if (KEYWORDS.contains(name))
         {
-            Method[] staticMethods = ((Class<?>) target).getMethods();
-            for (Method m : staticMethods)
-            {
-                String mname = m.getName().toLowerCase();
-                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                    || mname.equals(is) || mname.equals(MAIN))
-                {
-                    methods = staticMethods;
-                    break;
-                }
-            }
+            name = "_" + name;
         }
 
         Method bestMethod = null;
@@ -90,48 +106,45 @@ public final class Reflective
         int lowestMatch = Integer.MAX_VALUE;
         ArrayList<Class<?>[]> possibleTypes = new ArrayList<Class<?>[]>();
 
-        for (Method m : methods)
+        for (Candidate c : candidates)
         {
-            String mname = m.getName().toLowerCase();
-            if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                || mname.equals(is) || mname.equals(MAIN))
-            {
-                Class<?>[] types = m.getParameterTypes();
-                ArrayList<Object> xargs = new ArrayList<Object>(args);
+            ArrayList<Object> xargs = new ArrayList<Object>(args);
 
-                // pass command name as argv[0] to main, so it can handle
-                // multiple commands
-                if (mname.equals(MAIN))
-                {
-                    xargs.add(0, name);
-                }
+            // pass command name as argv[0] to main, so it can handle
+            // multiple commands
+            if (c.main)
+            {
+                xargs.add(0, name);
+            }
 
-                Object[] parms = new Object[types.length];
-                int match = coerce(session, target, m, types, parms, xargs);
+            Object[] parms = new Object[c.types.length];
+            int match = coerce(session, target, c, parms, xargs);
 
-                if (match < 0)
+            if (match < 0)
+            {
+                // coerce failed
+                possibleTypes.add(c.types);
+            }
+            else
+            {
+                if (match < lowestMatch)
                 {
-                    // coerce failed
-                    possibleTypes.add(types);
+                    lowestMatch = match;
+                    bestMethod = c.method;
+                    bestArgs = parms;
                 }
-                else
-                {
-                    if (match < lowestMatch)
-                    {
-                        lowestMatch = match;
-                        bestMethod = m;
-                        bestArgs = parms;
-                    }
 
-                    if (match == 0)
-                        break; // can't get better score
-                }
+                if (match == 0)
+                    break; // can't get better score
             }
         }
 
         if (bestMethod != null)
         {
-            bestMethod.setAccessible(true);
+            if (!bestMethod.isAccessible())
+            {
+                bestMethod.setAccessible(true);
+            }
             try
             {
                 return bestMethod.invoke(target, bestArgs);
@@ -180,54 +193,73 @@ public final class Reflective
         }
     }
 
+    /**
+     * returns the methods of the given class which may be invoked for the
+     * given (lower case) command name, in the order of Class.getMethods().
+     * @param type
+     * @param name
+     * @return the candidate methods, possibly empty.
+     */
+    private static Candidate[] getCandidates(Class<?> type, String name)
+    {
+        ClassMethods methods;
+        synchronized (methodCache)
+        {
+            Reference<ClassMethods> ref = methodCache.get(type);
+            methods = (ref != null) ? ref.get() : null;
+            if (methods == null)
+            {
+                methods = new ClassMethods(type);
+                methodCache.put(type, new SoftReference<ClassMethods>(methods));
+            }
+        }
+        return methods.getCandidates(name);
+    }
+
     /**
      * transform name/value parameters into ordered argument list.
      * params: --param2, value2, --flag1, arg3
      * args: true, value2, arg3
-     * @param method
-     * @param params
+     * @param candidate
+     * @param in
      * @return new ordered list of args.
      */
-    private static List<Object> transformParameters(Method method, List<Object> in)
+    private static List<Object> transformParameters(Candidate candidate, List<Object> in)
     {
-        Annotation[][] pas = method.getParameterAnnotations();
+        if (candidate.parameters.length == 0)
+        {
+            return new ArrayList<Object>(in);
+        }
+
         ArrayList<Object> out = new ArrayList<Object>();
         ArrayList<Object> parms = new ArrayList<Object>(in);
 
-        for (Annotation as[] : pas)
+        for (Parameter p : candidate.parameters)
         {
-            for (Annotation a : as)
+            int i = -1;
+            for (String name : p.names())
             {
-                if (a instanceof Parameter)
-                {
-                    int i = -1;
-                    Parameter p = (Parameter) a;
-                    for (String name : p.names())
-                    {
-                        i = parms.indexOf(name);
-                        if (i >= 0)
-                            break;
-                    }
-
-                    if (i >= 0)
-                    {
-                        // parameter present
-                        parms.remove(i);
-                        Object value = p.presentValue();
-                        if (Parameter.UNSPECIFIED.equals(value))
-                        {
-                            if (i >= parms.size())
-                                return null; // missing parameter, so try other methods
-                            value = parms.remove(i);
-                        }
-                        out.add(value);
-                    }
-                    else
-                    {
-                        out.add(p.absentValue());
-                    }
+                i = parms.indexOf(name);
+                if (i >= 0)
+                    break;
+            }
 
+            if (i >= 0)
+            {
+                // parameter present
+                parms.remove(i);
+                Object value = p.presentValue();
+                if (Parameter.UNSPECIFIED.equals(value))
+                {
+                    if (i >= parms.size())
+                        return null; // missing parameter, so try other methods
+                    value = parms.remove(i);
                 }
+                out.add(value);
+            }
+            else
+            {
+                out.add(p.absentValue());
             }
         }
 
@@ -244,16 +276,16 @@ public final class Reflective
      *
      * @param session
      * @param target
-     * @param m
-     * @param types
+     * @param c
      * @param out
      * @param in
      * @return -1 if arguments can't be coerced; 0 if no coercion was necessary; > 0 if coercion was needed.
      */
-    private static int coerce(CommandSession session, Object target, Method m,
-        Class<?> types[], Object out[], List<Object> in)
+    private static int coerce(CommandSession session, Object target, Candidate c,
+        Object out[], List<Object> in)
     {
-        in = transformParameters(m, in);
+        Class<?>[] types = c.types;
+        in = transformParameters(c, in);
         if (in == null)
         {
             // missing parameter argument?
@@ -263,8 +295,7 @@ public final class Reflective
         int[] convert = { 0 };
 
         // Check if the command takes a session
-        if ((types.length > 0) && types[0].isInterface()
-            && types[0].isAssignableFrom(session.getClass()))
+        if (c.sessionType && types[0].isAssignableFrom(session.getClass()))
         {
             in.add(0, session);
         }
@@ -457,4 +488,86 @@ public final class Reflective
         return null;
     }
 
+    /**
+     * The methods of a class, with the candidates already looked up by command name.
+     */
+    private static final class ClassMethods
+    {
+        private final Method[] methods;
+        private final String[] names;
+        private final ConcurrentMap<String, Candidate[]> candidates = new ConcurrentHashMap<String, Candidate[]>();
+
+        ClassMethods(Class<?> type)
+        {
+            methods = type.getMethods();
+            names = new String[methods.length];
+            for (int i = 0; i < methods.length; i++)
+            {
+                names[i] = methods[i].getName().toLowerCase();
+            }
+        }
+
+        Candidate[] getCandidates(String name)
+        {
+            Candidate[] result = candidates.get(name);
+            if (result == null)
+            {
+                String get = "get" + name;
+                String is = "is" + name;
+                String set = "set" + name;
+                String mname = KEYWORDS.contains(name) ? "_" + name : name;
+
+                ArrayList<Candidate> list = new ArrayList<Candidate>();
+                for (int i = 0; i < methods.length; i++)
+                {
+                    String n = names[i];
+                    if (n.equals(mname) || n.equals(get) || n.equals(set)
+                        || n.equals(is) || n.equals(MAIN))
+                    {
+                        list.add(new Candidate(methods[i], n.equals(MAIN)));
+                    }
+                }
+                result = list.toArray(new Candidate[list.size()]);
+                candidates.put(name, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A method which may be invoked for a command, with what is needed to
+     * convert the arguments.
+     */
+    private static final class Candidate
+    {
+        final Method method;
+        final Class<?>[] types;
+        // the @Parameter annotations, in the order of the parameters
+        final Parameter[] parameters;
+        final boolean main;
+        // whether the first parameter may be the session
+        final boolean sessionType;
+
+        Candidate(Method method, boolean main)
+        {
+            this.method = method;
+            this.types = method.getParameterTypes();
+            this.main = main;
+            this.sessionType = (types.length > 0) && types[0].isInterface();
+
+            ArrayList<Parameter> list = new ArrayList<Parameter>();
+            for (Annotation as[] : method.getParameterAnnotations())
+            {
+                for (Annotation a : as)
+                {
+                    if (a instanceof Parameter)
+                    {
+                        list.add((Parameter) a);
+                    }
+                }
+            }
+            this.parameters = list.toArray(new Parameter[list.size()]);
+        }
+    }
+
 }
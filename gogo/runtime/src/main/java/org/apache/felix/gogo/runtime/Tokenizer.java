@@ -69,7 +69,8 @@ public class Tokenizer
     private static final boolean DEBUG = false;
     private static final char EOT = (char) -1;
 
-    private final CharSequence text;
+    // read as a String, as tokens delegate each charAt() to their value
+    private final String text;
     private final Evaluate evaluate;
     private final boolean inArray;
     private final boolean inQuote;
@@ -91,7 +92,7 @@ public class Tokenizer
 
     public Tokenizer(CharSequence text, Evaluate evaluate, boolean inQuote)
     {
-        this.text = text;
+        this.text = (text.length() == 0) ? "" : text.toString();
         this.evaluate = evaluate;
         this.inQuote = inQuote;
         index = 0;
@@ -477,20 +478,30 @@ public class Tokenizer
 
     private static Object expand(CharSequence word, Evaluate eval, boolean inQuote) throws Exception
     {
-        final String special = "$\\\"'";
-        int i = word.length();
-
-        while ((--i >= 0) && (special.indexOf(word.charAt(i)) == -1))
-        {
-        }
-
         // shortcut if word doesn't contain any special characters
-        if (i < 0)
+        if (!isSpecial(word))
             return word;
 
         return new Tokenizer(word, eval, inQuote).expand();
     }
 
+    private static boolean isSpecial(CharSequence word)
+    {
+        String s = word.toString();
+        for (int i = s.length() - 1; i >= 0; i--)
+        {
+            switch (s.charAt(i))
+            {
+                case '$':
+                case '\\':
+                case '"':
+                case '\'':
+                    return true;
+            }
+        }
+        return false;
+    }
+
     public Object expand(CharSequence word, short line, short column) throws Exception
     {
         return expand(new Token(Type.WORD, word, line, column), evaluate, inQuote);
@@ -23,11 +23,14 @@ import java.util.List;
 
 import org.apache.felix.gogo.runtime.CommandProcessorImpl;
 import org.apache.felix.gogo.runtime.CommandProxy;
+import org.apache.felix.gogo.runtime.Reflective;
 import org.apache.felix.gogo.api.CommandSessionListener;
 import org.apache.felix.gogo.runtime.threadio.ThreadIOImpl;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
@@ -46,6 +49,17 @@ public class Activator implements BundleActivator
     private ServiceTracker listenerTracker;
     private ServiceRegistration processorRegistration;
     private ServiceRegistration threadioRegistration;
+    // the classes of refreshed bundles must not be kept by the method cache
+    private final FrameworkListener refreshListener = new FrameworkListener()
+    {
+        public void frameworkEvent(FrameworkEvent event)
+        {
+            if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED)
+            {
+                Reflective.clearCache();
+            }
+        }
+    };
     
     public static final String CONTEXT = ".context";
 
@@ -78,6 +92,7 @@ public class Activator implements BundleActivator
             threadio, null);
 
         processorRegistration = newProcessor(threadio, context);
+        context.addFrameworkListener(refreshListener);
         
         commandTracker = trackOSGiCommands(context);
         commandTracker.open();
@@ -121,6 +136,7 @@ public class Activator implements BundleActivator
 
     public void stop(BundleContext context) throws Exception
     {
+        context.removeFrameworkListener(refreshListener);
         processorRegistration.unregister();
         threadioRegistration.unregister();
         commandTracker.close();
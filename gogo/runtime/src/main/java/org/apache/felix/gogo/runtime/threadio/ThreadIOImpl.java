@@ -31,7 +31,9 @@ public class ThreadIOImpl implements ThreadIO
     ThreadPrintStream err = new ThreadPrintStream(System.err);
     ThreadPrintStream out = new ThreadPrintStream(System.out);
     ThreadInputStream in = new ThreadInputStream(System.in);
-    ThreadLocal<Marker> current = new InheritableThreadLocal<Marker>();
+    // not inherited: pooled pipe threads would otherwise keep the markers of
+    // the thread that created them
+    ThreadLocal<Marker> current = new ThreadLocal<Marker>();
 
     public void start()
     {
@@ -84,6 +86,7 @@ public class ThreadIOImpl implements ThreadIO
         Marker previous = top.previous;
         if (previous == null)
         {
+            this.current.remove();
             in.end();
             out.end();
             err.end();
@@ -130,6 +130,28 @@ public class TestCoercion extends TestCase
         assertEquals("bundles '1'", "string", c.execute("bundles '1'"));
     }
 
+    public void testCachedMethods() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("bundles", this);
+        c.set("s", "wibble");
+        c.set("sb", new StringBuilder("ab"));
+        c.set("i", Integer.class);
+
+        // methods are looked up for the class of each target
+        assertEquals("$s length", 6, c.execute("$s length"));
+        assertEquals("$sb length", 2, c.execute("$sb length"));
+        assertEquals("$s length", 6, c.execute("$s length"));
+
+        // static methods of a class, or else the methods of Class
+        assertEquals("$i parseint", 42, c.execute("$i parseint 42"));
+        assertEquals("$i name", "java.lang.Integer", c.execute("$i name"));
+
+        // overloads are still chosen for each invocation
+        assertEquals("bundles 1", "long", c.execute("bundles 1"));
+        assertEquals("bundles myloc", "string", c.execute("bundles myloc"));
+    }
+
     @Descriptor("list all installed bundles")
     public String p0(
         @Descriptor("show location") @Parameter(names = { "-l", "--location" }, presentValue = "true", absentValue = "false") boolean showLoc,
@@ -87,6 +87,36 @@ public class TestParser2 extends TestCase
         assertEquals(b, c.execute("c = $b"));
     }
 
+    public void testCachedPrograms() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("echo", this);
+
+        // the same parsed program runs with other arguments
+        c.execute("f = { echo $1 $2 }");
+        assertEquals("a b", c.execute("f a b"));
+        assertEquals("c null", c.execute("f c"));
+        assertEquals("a b", c.execute("f a b"));
+
+        assertEquals(1L, c.execute("x = 1"));
+        assertEquals(-1.5, c.execute("x = -1.5"));
+        assertEquals("a1", c.execute("x = a1"));
+
+        // errors in closures are reported at their own position
+        for (int i = 0; i < 2; i++)
+        {
+            try
+            {
+                c.execute("echo\nx = { | }");
+                fail("expected SyntaxError");
+            }
+            catch (SyntaxError e)
+            {
+                assertEquals(2, e.line());
+            }
+        }
+    }
+
     public CharSequence echo(Object args[])
     {
         if (args == null)
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestPipe extends TestCase
+{
+    public void produce(int lines)
+    {
+        for (int i = 0; i < lines; i++)
+        {
+            System.out.println("line " + i);
+        }
+    }
+
+    public long count() throws IOException
+    {
+        BufferedReader rdr = new BufferedReader(new InputStreamReader(System.in));
+        long count = 0;
+        while (rdr.readLine() != null)
+        {
+            count++;
+        }
+        return count;
+    }
+
+    public String head() throws IOException
+    {
+        return new BufferedReader(new InputStreamReader(System.in)).readLine();
+    }
+
+    public List<String> list(String[] args)
+    {
+        return Arrays.asList(args);
+    }
+
+    public List<Object> objects() throws IOException
+    {
+        List<Object> objects = new ArrayList<Object>();
+        for (Object o = Pipe.readObject(); o != null; o = Pipe.readObject())
+        {
+            objects.add(o);
+        }
+        return objects;
+    }
+
+    public void testLargeOutput() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("produce", this);
+        c.addCommand("count", this);
+        c.addCommand("head", this);
+
+        assertEquals(100000L, c.execute("produce 100000 | count"));
+        assertEquals(1L, c.execute("produce 100000 | count | count"));
+
+        // the writer must not wait for a reader which has given up
+        assertEquals("line 0", c.execute("produce 100000 | head"));
+    }
+
+    public void testObjectPipe() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("list", this);
+        c.addCommand("objects", this);
+        c.addCommand("count", this);
+
+        // results are formatted as text by default
+        assertEquals(Arrays.asList(), c.execute("list a b | objects"));
+
+        c.set(".ObjectPipe", true);
+        assertEquals(Arrays.asList(Arrays.asList("a", "b")), c.execute("list a b | objects"));
+        // and are still formatted for commands reading text
+        assertEquals(3L, c.execute("list a b | count"));
+    }
+
+    public void testObjectsAndText() throws Exception
+    {
+        PipeBuffer pipe = new PipeBuffer(null, 16);
+        OutputStream out = pipe.getOutputStream();
+        out.write("abc\n".getBytes());
+        pipe.writeObject("x");
+        out.write("def\n".getBytes());
+        out.close();
+
+        // text written before an object is discarded when reading objects
+        assertEquals("x", pipe.readObject());
+        InputStream in = pipe.getInputStream();
+        byte[] b = new byte[16];
+        assertEquals(4, in.read(b));
+        assertEquals("def\n", new String(b, 0, 4));
+        assertEquals(-1, in.read(b));
+        assertNull(pipe.readObject());
+    }
+
+    public void testLargeTextBeforeObject() throws Exception
+    {
+        final PipeBuffer pipe = new PipeBuffer(null, 16);
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    OutputStream out = pipe.getOutputStream();
+                    for (int i = 0; i < PipeBuffer.SIZE + 1; i++)
+                    {
+                        out.write('x');
+                    }
+                    pipe.writeObject("x");
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                    // the reader fails below
+                }
+            }
+        };
+        writer.start();
+
+        // more text than fits in the pipe is written before the object
+        assertEquals("x", pipe.readObject());
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertNull(pipe.readObject());
+    }
+}
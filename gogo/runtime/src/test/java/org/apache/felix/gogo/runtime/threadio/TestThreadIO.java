@@ -24,6 +24,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TestThreadIO extends TestCase
 {
@@ -86,4 +89,49 @@ public class TestThreadIO extends TestCase
         //assertEquals("Simple Error Message", error );
         System.out.println("Goodbye World");
     }
+
+    /**
+     * A pooled thread created while streams are set must not keep them, or
+     * the streams of its previous task, once its task has closed its own.
+     */
+    public void testPooledThread() throws Exception
+    {
+        final ThreadIOImpl tio = new ThreadIOImpl();
+        tio.start();
+        ByteArrayOutputStream session = new ByteArrayOutputStream();
+        tio.setStreams(System.in, new PrintStream(session), System.err);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            final ByteArrayOutputStream task = new ByteArrayOutputStream();
+            executor.submit(new Callable<Object>()
+            {
+                public Object call()
+                {
+                    tio.setStreams(System.in, new PrintStream(task), System.err);
+                    System.out.print("task");
+                    tio.close();
+                    return null;
+                }
+            }).get();
+            tio.close();
+
+            Object[] state = executor.submit(new Callable<Object[]>()
+            {
+                public Object[] call()
+                {
+                    return new Object[] { tio.current.get(), tio.out.getCurrent() };
+                }
+            }).get();
+            assertNull(state[0]);
+            assertSame(tio.out.dflt, state[1]);
+            assertEquals("task", task.toString());
+            assertEquals("", session.toString());
+        }
+        finally
+        {
+            executor.shutdown();
+            tio.stop();
+        }
+    }
 }
@@ -30,6 +30,8 @@ public final class FilterHandler
 {
     private final Filter filter;
     private final Pattern regex;
+    private final String prefix;
+    private final boolean exact;
     private final int ranking;
 
     public FilterHandler(ExtServletContext context, Filter filter, String pattern, int ranking)
@@ -38,6 +40,30 @@ public final class FilterHandler
         this.filter = filter;
         this.ranking = ranking;
 	    this.regex = Pattern.compile(pattern);
+
+        // Literal patterns and literal prefixes followed by ".*" do not
+        // need the regular expression engine
+        if (isLiteral(pattern)) {
+            this.prefix = pattern;
+            this.exact = true;
+        } else if (pattern.endsWith(".*") && isLiteral(pattern.substring(0, pattern.length() - 2))) {
+            this.prefix = pattern.substring(0, pattern.length() - 2);
+            this.exact = false;
+        } else {
+            this.prefix = null;
+            this.exact = false;
+        }
+    }
+
+    private static boolean isLiteral(String pattern)
+    {
+        for (int i = 0; i < pattern.length(); i++) {
+            if ("\\^$.|?*+()[]{}".indexOf(pattern.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     public Filter getFilter()
@@ -65,7 +91,26 @@ public final class FilterHandler
             uri = "/";
         }
 
-        return this.regex.matcher(uri).matches();
+        if (this.prefix == null) {
+            return this.regex.matcher(uri).matches();
+        } else if (this.exact) {
+            return uri.equals(this.prefix);
+        } else {
+            return uri.startsWith(this.prefix) && !hasLineTerminator(uri, this.prefix.length());
+        }
+    }
+
+    // "." does not match line terminators, keep the same semantics as the regex
+    private static boolean hasLineTerminator(String uri, int start)
+    {
+        for (int i = start; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     public void handle(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
@@ -29,7 +29,7 @@ public final class HandlerRegistry
     private final Map<Servlet, ServletHandler> servletMap;
     private final Map<Filter, FilterHandler> filterMap;
     private final Map<String, Servlet> aliasMap;
-    private ServletHandler[] servlets;
+    private ServletHandlerMapping servlets;
     private FilterHandler[] filters;
 
     public HandlerRegistry()
@@ -37,11 +37,16 @@ public final class HandlerRegistry
         this.servletMap = new HashMap<Servlet, ServletHandler>();
         this.filterMap = new HashMap<Filter, FilterHandler>();
         this.aliasMap = new HashMap<String, Servlet>();
-        this.servlets = new ServletHandler[0];
+        this.servlets = new ServletHandlerMapping(new ServletHandler[0]);
         this.filters = new FilterHandler[0];
     }
 
     public ServletHandler[] getServlets()
+    {
+        return this.servlets.getHandlers();
+    }
+
+    public ServletHandlerMapping getServletMapping()
     {
         return this.servlets;
     }
@@ -132,7 +137,7 @@ public final class HandlerRegistry
     {
         ServletHandler[] tmp = this.servletMap.values().toArray(new ServletHandler[this.servletMap.size()]);
         Arrays.sort(tmp);
-        this.servlets = tmp;
+        this.servlets = new ServletHandlerMapping(tmp);
     }
 
     private void updateFilterArray()
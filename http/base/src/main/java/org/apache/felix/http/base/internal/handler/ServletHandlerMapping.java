@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.handler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable dispatch table for servlet handlers. The aliases are stored in
+ * a trie of path segments, so finding the handler with the longest alias
+ * matching a path costs a single walk over the path instead of a call to
+ * {@link ServletHandler#matches(String)} for each registered servlet.
+ * <p>
+ * The lookup follows the matching rules of {@link ServletHandler}: the
+ * alias <code>/</code> matches every path starting with a slash as well as
+ * the <code>null</code> path, and any other alias matches the paths equal
+ * to it or starting with the alias followed by a slash.
+ */
+public final class ServletHandlerMapping
+{
+    private final ServletHandler[] handlers;
+    private final Node root;
+    private final ServletHandler rootHandler;
+
+    public ServletHandlerMapping(ServletHandler[] handlers)
+    {
+        this.handlers = handlers;
+        this.root = new Node();
+
+        ServletHandler rootHandler = null;
+        for (ServletHandler handler : handlers) {
+            String alias = handler.getAlias();
+            if (alias.equals("/")) {
+                rootHandler = handler;
+            } else {
+                Node node = this.root;
+                int start = 0;
+                int end;
+                while ((end = alias.indexOf('/', start)) >= 0) {
+                    node = node.child(alias.substring(start, end));
+                    start = end + 1;
+                }
+                node = node.child(alias.substring(start));
+                node.handler = handler;
+            }
+        }
+        this.rootHandler = rootHandler;
+    }
+
+    public ServletHandler[] getHandlers()
+    {
+        return this.handlers;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.handlers.length == 0;
+    }
+
+    /**
+     * Returns the handler with the longest alias matching the given path,
+     * or <code>null</code> if no alias matches.
+     */
+    public ServletHandler find(String path)
+    {
+        if (path == null) {
+            return this.rootHandler;
+        }
+
+        ServletHandler found = path.startsWith("/") ? this.rootHandler : null;
+        Node node = this.root;
+        int start = 0;
+        int end;
+        while (node.children != null) {
+            end = path.indexOf('/', start);
+            node = node.children.get(end < 0 ? path.substring(start) : path.substring(start, end));
+            if (node == null) {
+                break;
+            }
+
+            // A deeper node holds a longer alias
+            if (node.handler != null && (found == null || node.handler.getAlias().length() > found.getAlias().length())) {
+                found = node.handler;
+            }
+
+            if (end < 0) {
+                break;
+            }
+            start = end + 1;
+        }
+
+        return found;
+    }
+
+    private static final class Node
+    {
+        private Map<String, Node> children;
+        private ServletHandler handler;
+
+        public Node child(String segment)
+        {
+            if (this.children == null) {
+                this.children = new HashMap<String, Node>();
+            }
+
+            Node node = this.children.get(segment);
+            if (node == null) {
+                node = new Node();
+                this.children.put(segment, node);
+            }
+
+            return node;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.service;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded, least recently used cache of resource metadata and contents.
+ * Entries are keyed by the external form of the resource URL. The cache
+ * holds at most a fixed number of entries, and the contents of small
+ * resources up to a fixed total number of bytes.
+ */
+final class ResourceCache
+{
+    public final static int DEFAULT_MAX_ENTRIES = 1024;
+    public final static int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    public final static int DEFAULT_MAX_CONTENT_SIZE = 64 * 1024;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int maxContentSize;
+    private long bytes;
+
+    public ResourceCache()
+    {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, DEFAULT_MAX_CONTENT_SIZE);
+    }
+
+    public ResourceCache(int maxEntries, long maxBytes, int maxContentSize)
+    {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxContentSize = maxContentSize;
+    }
+
+    /**
+     * Returns the cached entry for the given URL, or <code>null</code> if
+     * there is none or if the backing file changed since it was cached.
+     */
+    public synchronized Entry get(URL url)
+    {
+        String key = url.toExternalForm();
+        Entry entry = this.entries.get(key);
+        if ((entry != null) && !entry.isValid()) {
+            remove(key);
+            entry = null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Adds the given entry and its pre-compressed variant, if any.
+     */
+    public synchronized void put(Entry entry)
+    {
+        if (entry.compressed != null) {
+            remove(entry.compressed.key);
+            this.entries.put(entry.compressed.key, entry.compressed);
+        }
+
+        remove(entry.key);
+        this.entries.put(entry.key, entry);
+        evict();
+    }
+
+    /**
+     * Stores the contents of the given entry if it is small enough.
+     * Returns <code>true</code> if the contents are cached.
+     */
+    public synchronized boolean putContent(Entry entry, byte[] content)
+    {
+        if ((content.length > this.maxContentSize) || (content.length > this.maxBytes)
+            || (this.entries.get(entry.key) != entry) || (entry.content != null))
+        {
+            return false;
+        }
+
+        entry.content = content;
+        this.bytes += content.length;
+        evict();
+        return entry.content != null;
+    }
+
+    public boolean isContentCacheable(Entry entry)
+    {
+        return (entry.length >= 0) && (entry.length <= this.maxContentSize) && (entry.length <= this.maxBytes);
+    }
+
+    public synchronized void clear()
+    {
+        for (Entry entry : this.entries.values()) {
+            entry.content = null;
+        }
+
+        this.entries.clear();
+        this.bytes = 0;
+    }
+
+    synchronized long getBytes()
+    {
+        return this.bytes;
+    }
+
+    synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    private void remove(String key)
+    {
+        Entry old = this.entries.remove(key);
+        if (old != null) {
+            this.bytes -= old.getContentSize();
+            old.content = null;
+        }
+    }
+
+    private void evict()
+    {
+        Iterator<Entry> it = this.entries.values().iterator();
+        while (it.hasNext() && (this.entries.size() > this.maxEntries)) {
+            Entry eldest = it.next();
+            this.bytes -= eldest.getContentSize();
+            eldest.content = null;
+            it.remove();
+        }
+
+        // Drop the contents of the least recently used entries, but keep their metadata
+        it = this.entries.values().iterator();
+        while (it.hasNext() && (this.bytes > this.maxBytes)) {
+            Entry eldest = it.next();
+            this.bytes -= eldest.getContentSize();
+            eldest.content = null;
+        }
+    }
+
+    /**
+     * Metadata of a single resource. The pre-compressed variant, if any,
+     * is described by its own entry.
+     */
+    static final class Entry
+    {
+        final String key;
+        final URL url;
+        final File file;
+        final long length;
+        final long lastModified;
+        final long fileLength;
+        final long fileLastModified;
+        final String contentType;
+        final String encoding;
+        /** The entity tag, or null if the metadata of the resource is not known. */
+        final String etag;
+        final Entry compressed;
+        private volatile byte[] content;
+
+        public Entry(URL url, File file, long length, long lastModified, String contentType, String encoding,
+            Entry compressed)
+        {
+            this.key = url.toExternalForm();
+            this.url = url;
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.fileLength = (file != null) ? file.length() : -1;
+            this.fileLastModified = (file != null) ? file.lastModified() : -1;
+            this.contentType = contentType;
+            this.encoding = encoding;
+            this.compressed = compressed;
+            this.etag = createETag(length, lastModified, contentType, encoding);
+        }
+
+        /**
+         * The tag is derived from the metadata of the resource, so there is
+         * none if its length or modification time is not known. Otherwise
+         * all such resources would share a tag which does not change with
+         * their content.
+         */
+        private static String createETag(long length, long lastModified, String contentType, String encoding)
+        {
+            if ((length < 0) || (lastModified <= 0))
+            {
+                return null;
+            }
+
+            return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified)
+                + ((contentType == null) ? "" : "-" + Integer.toHexString(contentType.hashCode()))
+                + ((encoding == null) ? "" : "-" + encoding)
+                + "\"";
+        }
+
+        public byte[] getContent()
+        {
+            return this.content;
+        }
+
+        private int getContentSize()
+        {
+            byte[] content = this.content;
+            return (content != null) ? content.length : 0;
+        }
+
+        /**
+         * Resources backed by a file are checked against the file on each
+         * lookup. Other resources, like bundle entries, do not change while
+         * their URL remains the same.
+         */
+        private boolean isValid()
+        {
+            if ((this.file != null)
+                && ((this.file.length() != this.fileLength) || (this.file.lastModified() != this.fileLastModified)))
+            {
+                return false;
+            }
+
+            return (this.compressed == null) || this.compressed.isValid();
+        }
+    }
+}
@@ -20,21 +20,39 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.ServletException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 public final class ResourceServlet 
     extends HttpServlet
 {
+    private final static String GZIP = "gzip";
+    private final static String GZIP_SUFFIX = ".gz";
+
     private final String path;
+    private final ResourceCache cache;
 
     public ResourceServlet(String path)
     {
         this.path = path;
+        this.cache = new ResourceCache();
+    }
+
+    @Override
+    public void destroy()
+    {
+        this.cache.clear();
+        super.destroy();
     }
 
     @Override
@@ -63,46 +81,147 @@ public final class ResourceServlet
     private void handle(HttpServletRequest req, HttpServletResponse res, URL url, String resName)
         throws IOException
     {
-        String contentType = getServletContext().getMimeType(resName);
-        if (contentType != null) {
-            res.setContentType(contentType);
+        ResourceCache.Entry entry = getEntry(url, resName);
+        String range = req.getHeader("Range");
+
+        // Pre-compressed variants are only sent for complete responses
+        ResourceCache.Entry variant = entry;
+        if ((entry.compressed != null) && (range == null) && acceptsGzip(req)) {
+            variant = entry.compressed;
+        }
+
+        if (entry.contentType != null) {
+            res.setContentType(entry.contentType);
         }
 
-        long lastModified  = getLastModified(url);
-        if (lastModified != 0) {
-            res.setDateHeader("Last-Modified", lastModified);
+        if (entry.lastModified != 0) {
+            res.setDateHeader("Last-Modified", entry.lastModified);
         }
 
-        if (!resourceModified(lastModified, req.getDateHeader("If-Modified-Since"))) {
+        if (variant.etag != null) {
+            res.setHeader("ETag", variant.etag);
+        }
+        if (entry.compressed != null) {
+            res.setHeader("Vary", "Accept-Encoding");
+        }
+        if (entry.length >= 0) {
+            res.setHeader("Accept-Ranges", "bytes");
+        }
+
+        // Conditional requests can not be answered without a tag
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            if ((variant.etag != null) && matchesETag(ifNoneMatch, variant.etag)) {
+                res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        } else if (!resourceModified(entry.lastModified, req.getDateHeader("If-Modified-Since"))) {
             res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-        } else {
-            copyResource(url, res);
+            return;
+        }
+
+        if (variant.encoding != null) {
+            res.setHeader("Content-Encoding", variant.encoding);
         }
+
+        long start = 0;
+        long length = variant.length;
+        if ((range != null) && (entry.length >= 0) && isRangeApplicable(req, entry)) {
+            long[] bounds = parseRange(range, entry.length);
+            if (bounds == null) {
+                // Malformed or multiple ranges, send the complete resource
+            } else if (bounds.length == 0) {
+                res.setHeader("Content-Range", "bytes */" + entry.length);
+                res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            } else {
+                start = bounds[0];
+                length = bounds[1] - bounds[0] + 1;
+                res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                res.setHeader("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + entry.length);
+            }
+        }
+
+        if ((length >= 0) && (length <= Integer.MAX_VALUE)) {
+            res.setContentLength((int)length);
+        }
+
+        copyResource(variant, start, length, res);
+    }
+
+    private ResourceCache.Entry getEntry(URL url, String resName)
+    {
+        ResourceCache.Entry entry = this.cache.get(url);
+        if (entry == null) {
+            String contentType = getServletContext().getMimeType(resName);
+
+            ResourceCache.Entry compressed = null;
+            try {
+                URL gzUrl = getServletContext().getResource(resName + GZIP_SUFFIX);
+                if (gzUrl != null) {
+                    compressed = createEntry(gzUrl, contentType, GZIP, null);
+                }
+            } catch (Exception e) {
+                // No pre-compressed variant
+            }
+
+            entry = createEntry(url, contentType, null, compressed);
+            this.cache.put(entry);
+        }
+
+        return entry;
     }
 
-    private long getLastModified(URL url)
+    private ResourceCache.Entry createEntry(URL url, String contentType, String encoding,
+        ResourceCache.Entry compressed)
     {
+        File file = getFile(url);
+        long length = -1;
         long lastModified = 0;
 
-        try {
-            URLConnection conn = url.openConnection();
-            lastModified = conn.getLastModified();
-        } catch (Exception e)
-        {
-            // Do nothing
-        }
-
-        if (lastModified == 0) {
-            String filepath = url.getPath();
-            if (filepath != null) {
-                File f = new File(filepath);
-                if (f.exists()) {
-                    lastModified = f.lastModified();
+        if (file != null) {
+            length = file.length();
+            lastModified = file.lastModified();
+        } else {
+            try {
+                URLConnection conn = url.openConnection();
+                length = conn.getContentLength();
+                lastModified = conn.getLastModified();
+            } catch (Exception e)
+            {
+                // Do nothing
+            }
+
+            if (lastModified == 0) {
+                String filepath = url.getPath();
+                if (filepath != null) {
+                    File f = new File(filepath);
+                    if (f.exists()) {
+                        lastModified = f.lastModified();
+                    }
                 }
             }
         }
 
-        return lastModified;
+        return new ResourceCache.Entry(url, file, length, lastModified, contentType, encoding, compressed);
+    }
+
+    private File getFile(URL url)
+    {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+
+        File file;
+        try {
+            file = new File(url.toURI());
+        } catch (URISyntaxException e) {
+            file = new File(url.getPath());
+        } catch (IllegalArgumentException e) {
+            file = new File(url.getPath());
+        }
+
+        return file.isFile() ? file : null;
     }
 
     private boolean resourceModified(long resTimestamp, long modSince)
@@ -113,34 +232,246 @@ public final class ResourceServlet
         return resTimestamp == 0 || modSince == -1 || resTimestamp > modSince;
     }
 
-    private void copyResource(URL url, HttpServletResponse res)
+    private boolean acceptsGzip(HttpServletRequest req)
+    {
+        String accept = req.getHeader("Accept-Encoding");
+        if (accept == null) {
+            return false;
+        }
+
+        for (String coding : accept.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase(GZIP)) {
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=") && isZero(param.substring(2))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isZero(String qvalue)
+    {
+        try {
+            return Float.parseFloat(qvalue.trim()) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean matchesETag(String header, String etag)
+    {
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A range request is honoured only if the optional If-Range header
+     * still matches the resource.
+     */
+    private boolean isRangeApplicable(HttpServletRequest req, ResourceCache.Entry entry)
+    {
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return (entry.etag != null) && ifRange.equals(entry.etag);
+        }
+
+        try {
+            long date = req.getDateHeader("If-Range");
+            return (entry.lastModified != 0) && (date / 1000 == entry.lastModified / 1000);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a single byte range against a resource of the given length.
+     * Returns the first and last byte positions, an empty array if the range
+     * cannot be satisfied, or <code>null</code> if the header is malformed or
+     * requests several ranges, in which case the whole resource is sent.
+     */
+    static long[] parseRange(String header, long length)
+    {
+        header = header.trim();
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if ((dash < 0) || (spec.indexOf(',') >= 0)) {
+            return null;
+        }
+
+        long first;
+        long last;
+        try {
+            String from = spec.substring(0, dash).trim();
+            String to = spec.substring(dash + 1).trim();
+            if (from.length() == 0) {
+                // Suffix range, the last n bytes
+                long suffix = Long.parseLong(to);
+                if (suffix <= 0) {
+                    return (suffix == 0) ? new long[0] : null;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(from);
+                last = (to.length() == 0) ? length - 1 : Math.min(Long.parseLong(to), length - 1);
+                if ((first < 0) || ((to.length() > 0) && (Long.parseLong(to) < first))) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if ((first >= length) || (last < first)) {
+            return new long[0];
+        }
+
+        return new long[] { first, last };
+    }
+
+    private void copyResource(ResourceCache.Entry entry, long start, long length, HttpServletResponse res)
         throws IOException
     {
         OutputStream os = null;
-        InputStream is = null;
 
         try {
             os = res.getOutputStream();
-            is = url.openStream();
 
-            int len = 0;
-            byte[] buf = new byte[1024];
-            int n;
+            byte[] content = entry.getContent();
+            if (content != null) {
+                os.write(content, (int)start, (int)((length >= 0) ? length : content.length - start));
+            } else if (entry.file != null) {
+                copyFile(entry, start, length, os);
+            } else {
+                copyStream(entry, start, length, os);
+            }
+        } finally {
+            if (os != null) {
+                os.close();
+            }
+        }
+    }
+
+    /**
+     * Sends a file backed resource through its file channel. Small files
+     * requested as a whole are also kept in the memory cache.
+     */
+    private void copyFile(ResourceCache.Entry entry, long start, long length, OutputStream os)
+        throws IOException
+    {
+        FileInputStream is = new FileInputStream(entry.file);
+        try {
+            FileChannel channel = is.getChannel();
+            if ((start == 0) && (length == entry.length) && this.cache.isContentCacheable(entry)) {
+                byte[] content = readFully(is, length);
+                if (content != null) {
+                    this.cache.putContent(entry, content);
+                    os.write(content);
+                    return;
+                }
+                channel.position(0);
+            }
 
-            while ((n = is.read(buf, 0, buf.length)) >= 0) {
-                os.write( buf, 0, n );
-                len += n;
+            if (length < 0) {
+                length = channel.size() - start;
             }
 
-            res.setContentLength(len);
+            WritableByteChannel target = Channels.newChannel(os);
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                long n = channel.transferTo(position, end - position, target);
+                if (n <= 0) {
+                    break;
+                }
+                position += n;
+            }
         } finally {
-            if (is != null) {
+            is.close();
+        }
+    }
+
+    private void copyStream(ResourceCache.Entry entry, long start, long length, OutputStream os)
+        throws IOException
+    {
+        InputStream is = entry.url.openStream();
+        try {
+            if ((start == 0) && (length == entry.length) && this.cache.isContentCacheable(entry)) {
+                byte[] content = readFully(is, length);
+                if (content != null) {
+                    this.cache.putContent(entry, content);
+                    os.write(content);
+                    return;
+                }
                 is.close();
+                is = entry.url.openStream();
             }
 
-            if (os != null) {
-                os.close();
+            long skipped = 0;
+            while (skipped < start) {
+                long n = is.skip(start - skipped);
+                if (n <= 0) {
+                    break;
+                }
+                skipped += n;
+            }
+
+            long remaining = (length >= 0) ? length : Long.MAX_VALUE;
+            byte[] buf = new byte[8192];
+            int n;
+
+            while ((remaining > 0) && (n = is.read(buf, 0, (int)Math.min(buf.length, remaining))) >= 0) {
+                os.write(buf, 0, n);
+                remaining -= n;
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Reads exactly the given number of bytes, or returns <code>null</code>
+     * if the stream does not hold that many bytes.
+     */
+    private static byte[] readFully(InputStream is, long length)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int)length);
+        byte[] buf = new byte[8192];
+        int n;
+
+        while ((n = is.read(buf, 0, buf.length)) >= 0) {
+            out.write(buf, 0, n);
+            if (out.size() > length) {
+                return null;
             }
         }
+
+        return (out.size() == length) ? out.toByteArray() : null;
     }
 }
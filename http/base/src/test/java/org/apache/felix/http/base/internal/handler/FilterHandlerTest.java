@@ -82,6 +82,22 @@ public class FilterHandlerTest
         Assert.assertTrue(h4.matches("/a/b/"));
     }
 
+    @Test
+    public void testMatchesPrefix()
+    {
+        FilterHandler h1 = createHandler("/a/.*", 0);
+        FilterHandler h2 = createHandler("/a.b/.*", 0);
+
+        Assert.assertFalse(h1.matches(null));
+        Assert.assertFalse(h1.matches("/a"));
+        Assert.assertTrue(h1.matches("/a/"));
+        Assert.assertTrue(h1.matches("/a/b/c"));
+        Assert.assertFalse(h1.matches("/a/b\nc"));
+        Assert.assertTrue(h2.matches("/a.b/c"));
+        Assert.assertTrue(h2.matches("/axb/c"));
+        Assert.assertFalse(h2.matches("/a/b/c"));
+    }
+
     @Test
     public void testInit()
         throws Exception
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.handler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.Assert;
+import org.mockito.Mockito;
+import javax.servlet.Servlet;
+import org.apache.felix.http.base.internal.context.ExtServletContext;
+
+public class ServletHandlerMappingTest
+{
+    private ExtServletContext context;
+
+    @Before
+    public void setUp()
+    {
+        this.context = Mockito.mock(ExtServletContext.class);
+    }
+
+    private ServletHandler createHandler(String alias)
+    {
+        return new ServletHandler(this.context, Mockito.mock(Servlet.class), alias);
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        ServletHandlerMapping mapping = new ServletHandlerMapping(new ServletHandler[0]);
+
+        Assert.assertTrue(mapping.isEmpty());
+        Assert.assertNull(mapping.find(null));
+        Assert.assertNull(mapping.find("/"));
+        Assert.assertNull(mapping.find("/a"));
+    }
+
+    @Test
+    public void testFindLongestAlias()
+    {
+        ServletHandler h1 = createHandler("/");
+        ServletHandler h2 = createHandler("/a");
+        ServletHandler h3 = createHandler("/a/b");
+        ServletHandler h4 = createHandler("/c/d");
+        ServletHandlerMapping mapping = new ServletHandlerMapping(new ServletHandler[] { h4, h3, h2, h1 });
+
+        Assert.assertFalse(mapping.isEmpty());
+        Assert.assertSame(h1, mapping.find(null));
+        Assert.assertSame(h1, mapping.find("/"));
+        Assert.assertSame(h1, mapping.find("/ab"));
+        Assert.assertSame(h2, mapping.find("/a"));
+        Assert.assertSame(h2, mapping.find("/a/"));
+        Assert.assertSame(h2, mapping.find("/a/bc"));
+        Assert.assertSame(h3, mapping.find("/a/b"));
+        Assert.assertSame(h3, mapping.find("/a/b/c/d"));
+        Assert.assertSame(h1, mapping.find("/c"));
+        Assert.assertSame(h4, mapping.find("/c/d/e"));
+        Assert.assertNull(mapping.find(""));
+        Assert.assertNull(mapping.find("a"));
+    }
+
+    @Test
+    public void testNoRootAlias()
+    {
+        ServletHandler h1 = createHandler("/a/b");
+        ServletHandlerMapping mapping = new ServletHandlerMapping(new ServletHandler[] { h1 });
+
+        Assert.assertNull(mapping.find(null));
+        Assert.assertNull(mapping.find("/"));
+        Assert.assertNull(mapping.find("/a"));
+        Assert.assertSame(h1, mapping.find("/a/b/"));
+    }
+
+    @Test
+    public void testSameAsMatches()
+    {
+        ServletHandler[] handlers = new ServletHandler[] {
+            createHandler("/a/b/c"), createHandler("/a/b"), createHandler("/x/"), createHandler("/a"), createHandler("/")
+        };
+        ServletHandlerMapping mapping = new ServletHandlerMapping(handlers);
+        String[] paths = new String[] {
+            null, "", "/", "//", "/a", "/a/", "/a//b", "/a/b/c", "/a/b/cd", "/x", "/x/", "/x/y", "/x//y", "x"
+        };
+
+        for (String path : paths) {
+            ServletHandler expected = null;
+            for (ServletHandler handler : handlers) {
+                if (handler.matches(path)) {
+                    expected = handler;
+                    break;
+                }
+            }
+
+            Assert.assertSame(path, expected, mapping.find(path));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.service;
+
+import java.net.URL;
+import org.junit.Test;
+import org.junit.Assert;
+
+public class ResourceCacheTest
+{
+    private ResourceCache.Entry createEntry(String path, long length)
+        throws Exception
+    {
+        return new ResourceCache.Entry(new URL("http://localhost" + path), null, length, 0, "text/plain", null, null);
+    }
+
+    @Test
+    public void testGetAndPut()
+        throws Exception
+    {
+        ResourceCache cache = new ResourceCache(10, 100, 50);
+        ResourceCache.Entry entry = createEntry("/a", 10);
+
+        Assert.assertNull(cache.get(entry.url));
+        cache.put(entry);
+        Assert.assertSame(entry, cache.get(entry.url));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEvictEntries()
+        throws Exception
+    {
+        ResourceCache cache = new ResourceCache(2, 100, 50);
+        ResourceCache.Entry e1 = createEntry("/a", 10);
+        ResourceCache.Entry e2 = createEntry("/b", 10);
+        ResourceCache.Entry e3 = createEntry("/c", 10);
+
+        cache.put(e1);
+        cache.put(e2);
+        cache.get(e1.url);
+        cache.put(e3);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertSame(e1, cache.get(e1.url));
+        Assert.assertNull(cache.get(e2.url));
+        Assert.assertSame(e3, cache.get(e3.url));
+    }
+
+    @Test
+    public void testETag()
+        throws Exception
+    {
+        ResourceCache.Entry entry = new ResourceCache.Entry(new URL("http://localhost/a"), null, 10, 1000, "text/plain", null, null);
+        ResourceCache.Entry changed = new ResourceCache.Entry(new URL("http://localhost/a"), null, 10, 2000, "text/plain", null, null);
+        Assert.assertNotNull(entry.etag);
+        Assert.assertFalse(entry.etag.equals(changed.etag));
+
+        // Unknown metadata gives no tag at all
+        Assert.assertNull(createEntry("/b", 10).etag);
+        Assert.assertNull(new ResourceCache.Entry(new URL("http://localhost/c"), null, -1, 1000, "text/plain", null, null).etag);
+    }
+
+    @Test
+    public void testContentBudget()
+        throws Exception
+    {
+        ResourceCache cache = new ResourceCache(10, 100, 60);
+        ResourceCache.Entry e1 = createEntry("/a", 60);
+        ResourceCache.Entry e2 = createEntry("/b", 60);
+        ResourceCache.Entry e3 = createEntry("/c", 70);
+
+        cache.put(e1);
+        cache.put(e2);
+        cache.put(e3);
+
+        Assert.assertTrue(cache.isContentCacheable(e1));
+        Assert.assertFalse(cache.isContentCacheable(e3));
+        Assert.assertFalse(cache.putContent(e3, new byte[70]));
+
+        Assert.assertTrue(cache.putContent(e1, new byte[60]));
+        Assert.assertEquals(60, cache.getBytes());
+
+        // Storing the contents of e2 drops the contents of e1, but keeps its metadata
+        Assert.assertTrue(cache.putContent(e2, new byte[60]));
+        Assert.assertEquals(60, cache.getBytes());
+        Assert.assertNull(e1.getContent());
+        Assert.assertNotNull(e2.getContent());
+        Assert.assertSame(e1, cache.get(e1.url));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.service;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class ResourceServletTest
+{
+    @Test
+    public void testParseRange()
+    {
+        assertRange(0, 99, ResourceServlet.parseRange("bytes=0-99", 1000));
+        assertRange(500, 999, ResourceServlet.parseRange("bytes=500-", 1000));
+        assertRange(900, 999, ResourceServlet.parseRange("bytes=-100", 1000));
+        assertRange(0, 999, ResourceServlet.parseRange("bytes=-2000", 1000));
+        assertRange(990, 999, ResourceServlet.parseRange("bytes=990-5000", 1000));
+    }
+
+    @Test
+    public void testParseRangeNotSatisfiable()
+    {
+        Assert.assertEquals(0, ResourceServlet.parseRange("bytes=1000-", 1000).length);
+        Assert.assertEquals(0, ResourceServlet.parseRange("bytes=-0", 1000).length);
+        Assert.assertEquals(0, ResourceServlet.parseRange("bytes=0-", 0).length);
+    }
+
+    @Test
+    public void testParseRangeIgnored()
+    {
+        Assert.assertNull(ResourceServlet.parseRange("items=0-10", 1000));
+        Assert.assertNull(ResourceServlet.parseRange("bytes=0-10,20-30", 1000));
+        Assert.assertNull(ResourceServlet.parseRange("bytes=10-5", 1000));
+        Assert.assertNull(ResourceServlet.parseRange("bytes=a-b", 1000));
+        Assert.assertNull(ResourceServlet.parseRange("bytes=10", 1000));
+    }
+
+    private void assertRange(long first, long last, long[] range)
+    {
+        Assert.assertNotNull(range);
+        Assert.assertEquals(2, range.length);
+        Assert.assertEquals(first, range[0]);
+        Assert.assertEquals(last, range[1]);
+    }
+}
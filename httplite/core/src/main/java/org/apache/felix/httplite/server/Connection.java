@@ -18,7 +18,6 @@
  */
 package org.apache.felix.httplite.server;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -31,6 +30,7 @@ import org.apache.felix.httplite.osgi.ServiceRegistrationHandler;
 import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
 import org.apache.felix.httplite.servlet.ConcreteServletInputStream;
 import org.apache.felix.httplite.servlet.HttpConstants;
+import org.apache.felix.httplite.servlet.HttpRequestParser;
 import org.apache.felix.httplite.servlet.HttpServletRequestImpl;
 import org.apache.felix.httplite.servlet.HttpServletResponseImpl;
 
@@ -54,11 +54,14 @@ public class Connection
 
     private final Socket m_socket;
     private ConcreteServletInputStream m_is;
+    private HttpRequestParser m_parser;
     private OutputStream m_os;
     private int m_requestCount = 0;
     private final int m_requestLimit;
     private final ServiceRegistrationResolver m_resolver;
     private final Logger m_logger;
+    private final ConnectionSelector m_selector;
+    private long m_lastActivity;
 
     /**
      * Constructs a connection with a default inactivity timeout and request limit.
@@ -84,8 +87,27 @@ public class Connection
      * @throws java.io.IOException If any I/O error occurs.
      */
     public Connection(final Socket socket, final int timeout, final int requestLimit, final ServiceRegistrationResolver resolver, final Logger logger) throws IOException
+    {
+        this(socket, timeout, requestLimit, resolver, logger, null);
+    }
+
+    /**
+     * Constructs a connection with the specified inactivity timeout and request limit,
+     * which is parked on the given selector while it waits for its next request.
+     * @param socket The client socket, obtained from a socket channel in blocking mode.
+     * @param timeout The inactivity timeout of the connection in milliseconds.
+     * @param requestLimit The maximum number of consecutive requests.
+     * @param resolver resolves a request URI to a client or servlet registration via the HTTP Service.
+     * @param logger logger instance.
+     * @param selector the selector parking idle connections, or <tt>null</tt> to hold the
+     *        servicing thread until the connection is closed.
+     * @throws java.io.IOException If any I/O error occurs.
+     */
+    Connection(final Socket socket, final int timeout, final int requestLimit, final ServiceRegistrationResolver resolver, final Logger logger, final ConnectionSelector selector) throws IOException
     {
         m_socket = socket;
+        m_selector = selector;
+        m_lastActivity = System.currentTimeMillis();
         m_resolver = resolver;
         m_logger = logger;
         m_socket.setSoTimeout(timeout);
@@ -93,8 +115,8 @@ public class Connection
         m_requestLimit = requestLimit;
         try
         {
-            m_is = new ConcreteServletInputStream(new BufferedInputStream(
-                m_socket.getInputStream()));
+            m_parser = new HttpRequestParser(m_socket.getInputStream());
+            m_is = new ConcreteServletInputStream(m_parser);
             m_os = new BufferedOutputStream(m_socket.getOutputStream());
         }
         catch (IOException ex)
@@ -144,6 +166,11 @@ public class Connection
      * limit was reached, or an I/O error occurred. When this method returns,
      * the associated socket will be closed, regardless of whether or not an
      * expection was thrown.
+     * <p>
+     * If the connection was created for a {@link ConnectionSelector}, this method
+     * only services the requests that are already available and then hands the
+     * connection back to the selector, so that no thread is held while the
+     * client is idle.
      * @throws java.net.SocketTimeoutException If the inactivity timeout expired
      *         while trying to read from the socket.
      * @throws java.io.IOException If any I/O error occurs.
@@ -151,6 +178,12 @@ public class Connection
     **/
     public void process() throws IOException, ServletException
     {
+        if (m_selector != null)
+        {
+            processAvailable();
+            return;
+        }
+
         HttpServletRequestImpl request = m_resolver.getServletRequest(m_socket);
         HttpServletResponseImpl response = m_resolver.getServletResponse(m_os);
 
@@ -160,131 +193,237 @@ public class Connection
             boolean close = false;
             while (!close)
             {
-                // Read the next request.
-                try
-                {
-                    request.parseRequestLine(m_is);
-                }
-                catch (IOException e)
-                {
-                    m_logger.log(
-                        Logger.LOG_ERROR,
-                        "Error with request: " + request.toString() + ": "
-                            + e.getMessage());
-                    throw e;
-                }
-                m_requestCount++;
+                close = processRequest(request, response, false);
+            }
+        }
+        finally
+        {
+            close();
+        }
+    }
 
-                // Keep track of whether we have failed or not,
-                // because we still want to read the bytes to clear
-                // the input stream so we can service more requests.
-                boolean error = false;
+    /**
+     * Services the requests which are already available on the connection,
+     * then parks the connection on the selector if it is kept alive.
+     * @throws java.io.IOException If any I/O error occurs.
+     * @throws ServletException on servlet errors
+     */
+    private void processAvailable() throws IOException, ServletException
+    {
+        boolean park = false;
+        try
+        {
+            // A parked connection also becomes readable when the client closes it.
+            if (m_parser.isEndOfStream())
+            {
+                m_logger.log(Logger.LOG_DEBUG, "Connection closed by client.");
+                return;
+            }
 
-                m_logger.log(Logger.LOG_DEBUG,
-                    "Processing " + request.getRequestURI() + " (" + (m_requestLimit - m_requestCount)
-                        + " remaining)");
+            boolean close = false;
+            while (!close)
+            {
+                // A fresh request and response per request, since they
+                // keep state once the response has been written.
+                close = processRequest(m_resolver.getServletRequest(m_socket),
+                    m_resolver.getServletResponse(m_os), true);
 
-                // If client is HTTP/1.1, then send continue message.
-                if (request.getProtocol().equals(HttpConstants.HTTP11_VERSION))
+                // Pipelined requests are already buffered, service them now.
+                if (!close && (m_is.available() == 0))
                 {
-                    response.sendContinueResponse();
+                    park = true;
+                    break;
                 }
+            }
+        }
+        catch (IOException ex)
+        {
+            // Reads from a channel are interrupted when the thread pool stops.
+            if (!Thread.currentThread().isInterrupted())
+            {
+                throw ex;
+            }
+            m_logger.log(Logger.LOG_DEBUG, "Connection closed due to shutdown.");
+        }
+        finally
+        {
+            if (park)
+            {
+                // Idle connections do not hold a read buffer.
+                m_parser.release();
+                m_lastActivity = System.currentTimeMillis();
+                m_selector.park(this);
+            }
+            else
+            {
+                close();
+            }
+        }
+    }
 
-                // Read the header lines of the request.
-                request.parseHeader(m_is);
-
-                // If we have an HTTP/1.0 request without the connection set to
-                // keep-alive or we explicitly have a request to close the connection,
-                // then set close flag to exit the loop rather than trying to read
-                // more requests.
-                String v = request.getHeader(HttpConstants.HEADER_CONNECTION);
-                if ((request.getProtocol().equals(HttpConstants.HTTP10_VERSION) && ((v == null) || (!v.equalsIgnoreCase(HttpConstants.KEEPALIVE_CONNECTION))))
-                    || ((v != null) && v.equalsIgnoreCase(HttpConstants.CLOSE_CONNECTION)))
-                {
-                    close = true;
-                    response.setConnectionType("close");
-                }
-                // If we have serviced the maximum number of requests for
-                // this connection, then set close flag so we exit the loop
-                // and close the connection.
-                else if (m_requestCount >= m_requestLimit)
-                {
-                    close = true;
-                    response.setConnectionType("close");
-                }
+    /**
+     * Reads and services a single request.
+     * @param request the request to fill.
+     * @param response the response to write.
+     * @param keepAlive <tt>true</tt> if the connection may be kept open after a
+     *        request handled by a servlet or a resource.
+     * @return <tt>true</tt> if the connection must be closed.
+     * @throws java.io.IOException If any I/O error occurs.
+     * @throws ServletException on servlet errors
+     */
+    private boolean processRequest(HttpServletRequestImpl request, HttpServletResponseImpl response, boolean keepAlive) throws IOException, ServletException
+    {
+        boolean close = false;
 
-                // We do not support OPTIONS method so send
-                // a "not implemented" error in that case.
-                if (!HttpServletRequestImpl.isSupportedMethod(request.getMethod()))
-                {
-                    error = true;
-                    response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
-                    response.sendNotImplementedResponse();
-                }
+        // Read the next request.
+        try
+        {
+            request.parseRequestLine(m_parser);
+        }
+        catch (IOException e)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "Error with request: " + request.toString() + ": "
+                    + e.getMessage());
+            throw e;
+        }
+        m_requestCount++;
 
-                // Ignore if we have already failed, otherwise send error message
-                // if an HTTP/1.1 client did not include HOST header.
-                if (!error && request.getProtocol().equals(HttpConstants.HTTP11_VERSION)
-                    && (request.getHeader(HttpConstants.HOST_HEADER) == null))
-                {
-                    error = true;
-                    response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
-                    response.sendMissingHostResponse();
-                }
+        // Keep track of whether we have failed or not,
+        // because we still want to read the bytes to clear
+        // the input stream so we can service more requests.
+        boolean error = false;
 
-                // Read in the request body.
-                request.parseBody(m_is);
+        m_logger.log(Logger.LOG_DEBUG,
+            "Processing " + request.getRequestURI() + " (" + (m_requestLimit - m_requestCount)
+                + " remaining)");
 
-                // Only process the request if there was no error.
-                if (!error)
-                {
-                    ServiceRegistrationHandler processor = m_resolver.getProcessor(
-                        request, response, request.getRequestURI());
+        // If client is HTTP/1.1, then send continue message.
+        if (request.getProtocol().equals(HttpConstants.HTTP11_VERSION))
+        {
+            response.sendContinueResponse();
+        }
 
-                    if (processor != null)
-                    {
-                        processor.handle(close);
+        // Read the header lines of the request.
+        request.parseHeader(m_parser);
 
-                        m_logger.log(Logger.LOG_DEBUG, "Processed " + request.toString());
+        // If we have an HTTP/1.0 request without the connection set to
+        // keep-alive or we explicitly have a request to close the connection,
+        // then set close flag to exit the loop rather than trying to read
+        // more requests.
+        String v = request.getHeader(HttpConstants.HEADER_CONNECTION);
+        if ((request.getProtocol().equals(HttpConstants.HTTP10_VERSION) && ((v == null) || (!v.equalsIgnoreCase(HttpConstants.KEEPALIVE_CONNECTION))))
+            || ((v != null) && v.equalsIgnoreCase(HttpConstants.CLOSE_CONNECTION)))
+        {
+            close = true;
+            response.setConnectionType("close");
+        }
+        // If we have serviced the maximum number of requests for
+        // this connection, then set close flag so we exit the loop
+        // and close the connection.
+        else if (m_requestCount >= m_requestLimit)
+        {
+            close = true;
+            response.setConnectionType("close");
+        }
 
-                        // TODO: Adding next line to make test cases pass, but not sure if it is correct
-                        // and needs further investigation.
-                        close = true;
-                        continue;
-                    }
+        // We do not support OPTIONS method so send
+        // a "not implemented" error in that case.
+        if (!HttpServletRequestImpl.isSupportedMethod(request.getMethod()))
+        {
+            error = true;
+            response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+            response.sendNotImplementedResponse();
+        }
 
-                    close = true;
-                    response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
-                    response.sendNotFoundResponse();
-                }
-            }
+        // Ignore if we have already failed, otherwise send error message
+        // if an HTTP/1.1 client did not include HOST header.
+        if (!error && request.getProtocol().equals(HttpConstants.HTTP11_VERSION)
+            && (request.getHeader(HttpConstants.HOST_HEADER) == null))
+        {
+            error = true;
+            response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+            response.sendMissingHostResponse();
         }
-        finally
+
+        // Read in the request body.
+        request.parseBody(m_parser);
+
+        // Only process the request if there was no error.
+        if (!error)
         {
-            try
-            {
-                m_is.close();
-            }
-            catch (IOException ex)
-            {
-                m_logger.log(Logger.LOG_ERROR, "Error closing socket input stream.", ex);
-            }
-            try
-            {
-                m_os.close();
-            }
-            catch (IOException ex)
-            {
-                m_logger.log(Logger.LOG_ERROR, "Error closing socket output stream.", ex);
-            }
-            try
-            {
-                m_socket.close();
-            }
-            catch (IOException ex)
+            ServiceRegistrationHandler processor = m_resolver.getProcessor(
+                request, response, request.getRequestURI());
+
+            if (processor != null)
             {
-                m_logger.log(Logger.LOG_ERROR, "Error closing socket.", ex);
+                response.setHeadRequest(HttpConstants.HEAD_REQUEST.equals(request.getMethod()));
+                processor.handle(close);
+
+                m_logger.log(Logger.LOG_DEBUG, "Processed " + request.toString());
+
+                // Connections parked on a selector use a new request and response
+                // for each request, so they can be kept alive, but only if the
+                // client can find the end of the response without the connection
+                // being closed.
+                return close || !keepAlive || !response.isDelimited();
             }
+
+            close = true;
+            response.setConnectionType(HttpConstants.CLOSE_CONNECTION);
+            response.sendNotFoundResponse();
+        }
+
+        return close;
+    }
+
+    /**
+     * Returns the socket of this connection.
+     * @return the client socket.
+     */
+    Socket getSocket()
+    {
+        return m_socket;
+    }
+
+    /**
+     * Returns the time of the last request serviced on this connection.
+     * @return the time in milliseconds.
+     */
+    long getLastActivity()
+    {
+        return m_lastActivity;
+    }
+
+    /**
+     * Closes the streams and the socket of this connection.
+     */
+    void close()
+    {
+        try
+        {
+            m_is.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing socket input stream.", ex);
+        }
+        try
+        {
+            m_os.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing socket output stream.", ex);
+        }
+        try
+        {
+            m_socket.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing socket.", ex);
         }
     }
 }
\ No newline at end of file
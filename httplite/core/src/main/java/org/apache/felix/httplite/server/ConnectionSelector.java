@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.felix.httplite.osgi.Logger;
+import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
+
+/**
+ * This class accepts connections on a non-blocking server socket channel and
+ * parks idle connections on a selector. A connection is only handed to the
+ * thread pool once a request is ready to be read, and is handed back to the
+ * selector by the servicing thread once the request is serviced and the
+ * connection is kept alive. Idle connections therefore do not hold threads
+ * of the pool, and the thread pool limit only bounds the number of requests
+ * serviced concurrently. Connections idle for longer than the connection
+ * timeout are closed by the selector thread.
+**/
+public class ConnectionSelector
+{
+    /**
+     * Maximum time the selector waits before checking for idle connections.
+     */
+    private static final int IDLE_CHECK_INTERVAL = 1000;
+
+    private final ServerSocketChannel m_serverChannel;
+    private final Selector m_selector;
+    private final ThreadPool m_threadPool;
+    private final int m_connectionTimeout;
+    private final int m_connectionRequestLimit;
+    private final ServiceRegistrationResolver m_resolver;
+    private final Logger m_logger;
+
+    /**
+     * Connections handed back by servicing threads, to register on the selector.
+     */
+    private final List m_parked = new ArrayList();
+    private boolean m_closed = false;
+
+    /**
+     * Opens a server socket channel bound to the given port.
+     * @param port The port to listen on.
+     * @param connectionTimeout The inactivity timeout of connections in milliseconds.
+     * @param connectionRequestLimit The maximum number of requests per connection.
+     * @param resolver resolves a request URI to a client or servlet registration.
+     * @param threadPool The thread pool servicing ready connections.
+     * @param logger Logger instance.
+     * @throws java.io.IOException If the channel cannot be opened or bound.
+    **/
+    public ConnectionSelector(final int port, final int connectionTimeout, final int connectionRequestLimit,
+        final ServiceRegistrationResolver resolver, final ThreadPool threadPool, final Logger logger) throws IOException
+    {
+        m_connectionTimeout = connectionTimeout;
+        m_connectionRequestLimit = connectionRequestLimit;
+        m_resolver = resolver;
+        m_threadPool = threadPool;
+        m_logger = logger;
+
+        m_serverChannel = ServerSocketChannel.open();
+        try
+        {
+            m_serverChannel.socket().bind(new InetSocketAddress(port));
+            m_serverChannel.configureBlocking(false);
+            m_selector = Selector.open();
+            m_serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException ex)
+        {
+            m_serverChannel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the server socket channel and wakes up the selector thread,
+     * which closes the parked connections and exits its loop.
+    **/
+    public void close()
+    {
+        synchronized (m_parked)
+        {
+            m_closed = true;
+        }
+        try
+        {
+            m_serverChannel.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing server socket channel.", ex);
+        }
+        m_selector.wakeup();
+    }
+
+    /**
+     * Hands a connection back to the selector after a request was serviced.
+     * This method is called by the servicing threads.
+     * @param connection The connection to park until its next request.
+    **/
+    void park(final Connection connection)
+    {
+        synchronized (m_parked)
+        {
+            if (m_closed)
+            {
+                connection.close();
+                return;
+            }
+            m_parked.add(connection);
+        }
+        m_selector.wakeup();
+    }
+
+    /**
+     * This method is the selector loop accepting connections and dispatching
+     * ready connections. It returns once the selector is closed. This is
+     * only ever called by the server thread.
+    **/
+    public void run()
+    {
+        List ready = new ArrayList();
+        long lastIdleCheck = System.currentTimeMillis();
+        int interval = (m_connectionTimeout > 0) ? Math.min(IDLE_CHECK_INTERVAL, m_connectionTimeout) : 0;
+
+        try
+        {
+            while (true)
+            {
+                synchronized (m_parked)
+                {
+                    if (m_closed)
+                    {
+                        break;
+                    }
+                }
+
+                m_selector.select(interval);
+
+                registerParked();
+
+                Iterator it = m_selector.selectedKeys().iterator();
+                while (it.hasNext())
+                {
+                    SelectionKey key = (SelectionKey) it.next();
+                    it.remove();
+
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                    }
+                    else if (key.isReadable())
+                    {
+                        // The channel must leave the selector before it can
+                        // be read from with a blocking stream.
+                        key.cancel();
+                        ready.add(key.attachment());
+                    }
+                }
+
+                if (!ready.isEmpty())
+                {
+                    // Flush the cancelled keys.
+                    m_selector.selectNow();
+                    for (int i = 0; i < ready.size(); i++)
+                    {
+                        dispatch((Connection) ready.get(i));
+                    }
+                    ready.clear();
+                }
+
+                long now = System.currentTimeMillis();
+                if ((interval > 0) && ((now - lastIdleCheck) >= interval))
+                {
+                    closeIdle(now);
+                    lastIdleCheck = now;
+                }
+            }
+        }
+        catch (ClosedSelectorException ex)
+        {
+            // Closed while selecting, shut down.
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "The selector terminated with an exception.", ex);
+        }
+        finally
+        {
+            shutdown();
+        }
+    }
+
+    /**
+     * Accepts a pending connection and parks it until its first request.
+    **/
+    private void accept()
+    {
+        SocketChannel channel;
+        try
+        {
+            channel = m_serverChannel.accept();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "The call to accept() terminated with an exception.", ex);
+            return;
+        }
+        if (channel == null)
+        {
+            return;
+        }
+
+        try
+        {
+            // The connection streams are created while the channel is blocking.
+            Connection connection = new Connection(channel.socket(), m_connectionTimeout,
+                m_connectionRequestLimit, m_resolver, m_logger, this);
+            m_logger.log(Logger.LOG_DEBUG, "Accepted a new connection.");
+            register(connection);
+        }
+        catch (IOException ex)
+        {
+            // The socket is closed in the connection constructor.
+            m_logger.log(Logger.LOG_ERROR, "Error creating connection.", ex);
+        }
+    }
+
+    /**
+     * Registers the connections handed back by servicing threads.
+    **/
+    private void registerParked()
+    {
+        Object[] parked;
+        synchronized (m_parked)
+        {
+            if (m_parked.isEmpty())
+            {
+                return;
+            }
+            parked = m_parked.toArray();
+            m_parked.clear();
+        }
+
+        for (int i = 0; i < parked.length; i++)
+        {
+            register((Connection) parked[i]);
+        }
+    }
+
+    private void register(final Connection connection)
+    {
+        SocketChannel channel = connection.getSocket().getChannel();
+        try
+        {
+            channel.configureBlocking(false);
+            channel.register(m_selector, SelectionKey.OP_READ, connection);
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Error parking connection.", ex);
+            connection.close();
+        }
+    }
+
+    /**
+     * Hands a ready connection to the thread pool.
+    **/
+    private void dispatch(final Connection connection)
+    {
+        try
+        {
+            connection.getSocket().getChannel().configureBlocking(true);
+            m_threadPool.addConnection(connection);
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Error dispatching connection.", ex);
+            connection.close();
+        }
+        catch (IllegalStateException ex)
+        {
+            // The thread pool is stopping.
+            connection.close();
+        }
+    }
+
+    /**
+     * Closes the parked connections idle for longer than the connection timeout.
+    **/
+    private void closeIdle(final long now)
+    {
+        Iterator it = m_selector.keys().iterator();
+        while (it.hasNext())
+        {
+            SelectionKey key = (SelectionKey) it.next();
+            Connection connection = (Connection) key.attachment();
+            if (key.isValid() && (connection != null)
+                && ((now - connection.getLastActivity()) >= m_connectionTimeout))
+            {
+                m_logger.log(Logger.LOG_INFO, "Connection closed due to inactivity.");
+                key.cancel();
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Closes all parked connections and the selector.
+    **/
+    private void shutdown()
+    {
+        synchronized (m_parked)
+        {
+            m_closed = true;
+            for (int i = 0; i < m_parked.size(); i++)
+            {
+                ((Connection) m_parked.get(i)).close();
+            }
+            m_parked.clear();
+        }
+
+        try
+        {
+            Iterator it = m_selector.keys().iterator();
+            while (it.hasNext())
+            {
+                Connection connection = (Connection) ((SelectionKey) it.next()).attachment();
+                if (connection != null)
+                {
+                    connection.close();
+                }
+            }
+            m_selector.close();
+        }
+        catch (ClosedSelectorException ex)
+        {
+            // Already closed.
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing selector.", ex);
+        }
+
+        try
+        {
+            m_serverChannel.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing server socket channel.", ex);
+        }
+    }
+}
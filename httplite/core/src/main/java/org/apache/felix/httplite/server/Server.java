@@ -69,6 +69,11 @@ public class Server
      * The port used for servlets and resources available via HTTP. The default is 8080. A negative port number has the same effect as setting org.apache.felix.http.enable to false.
      */
     public static final String CONFIG_PROPERTY_HTTP_PORT = "org.osgi.service.http.port";
+    /**
+     * Flag to enable the non-blocking connection handling, which parks idle connections on a
+     * selector instead of holding a thread of the pool. The default is false.
+     */
+    public static final String CONFIG_PROPERTY_NIO_ENABLE = "org.apache.felix.http.nio.enable";
 
     /**
      * Default HTTP port to listen on.
@@ -100,7 +105,9 @@ public class Server
 
     private Thread m_serverThread;
     private ServerSocket m_serverSocket;
+    private ConnectionSelector m_connectionSelector;
     private final ThreadPool m_threadPool;
+    private final boolean m_nioEnabled;
 
     private final int m_connectionTimeout;
     private final int m_connectionRequestLimit;
@@ -134,6 +141,11 @@ public class Server
      *       connections after which the connection is closed; the default value
      *       is 10000 milliseconds.
      *   </li>
+     *   <li><tt>org.apache.felix.http.nio.enable</tt> - if <tt>true</tt>, connections are accepted
+     *       on a non-blocking channel and idle persistent connections are parked on a selector,
+     *       so that the thread pool only services connections with a request ready to be read;
+     *       the default value is <tt>false</tt>.
+     *   </li>
      * </ul>
      * The configuration properties cannot be changed after construction. The
      * web server is not active until it is started.
@@ -158,6 +170,8 @@ public class Server
             : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP));
         m_connectionRequestLimit = (configMap.get(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP) == null) ? Connection.DEFAULT_CONNECTION_REQUESTLIMIT
             : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP));
+        m_nioEnabled = (configMap.get(Server.CONFIG_PROPERTY_NIO_ENABLE) != null)
+            && Boolean.valueOf((String) configMap.get(Server.CONFIG_PROPERTY_NIO_ENABLE)).booleanValue();
     }
 
     /**
@@ -240,14 +254,29 @@ public class Server
         {
             // If inactive, then create server socket, server thread, and
             // set state to active.
-            m_serverSocket = new ServerSocket(m_port);
-            m_serverThread = new Thread(new Runnable()
+            if (m_nioEnabled)
             {
-				public void run()
+                m_connectionSelector = new ConnectionSelector(m_port, m_connectionTimeout,
+                    m_connectionRequestLimit, m_resolver, m_threadPool, m_logger);
+                m_serverThread = new Thread(new Runnable()
                 {
-                    acceptConnections();
-                }
-            }, "HttpServer");
+                    public void run()
+                    {
+                        selectConnections();
+                    }
+                }, "HttpServer");
+            }
+            else
+            {
+                m_serverSocket = new ServerSocket(m_port);
+                m_serverThread = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        acceptConnections();
+                    }
+                }, "HttpServer");
+            }
             m_state = ACTIVE_STATE;
             m_serverThread.start();
         }
@@ -294,12 +323,19 @@ public class Server
 
                 // Close the server socket, which will cause the server thread
                 // to exit its accept() loop.
-                try
+                if (m_connectionSelector != null)
                 {
-                    m_serverSocket.close();
+                    m_connectionSelector.close();
                 }
-                catch (IOException ex)
+                else
                 {
+                    try
+                    {
+                        m_serverSocket.close();
+                    }
+                    catch (IOException ex)
+                    {
+                    }
                 }
             }
         }
@@ -363,6 +399,22 @@ public class Server
         shutdown();
     }
 
+    /**
+     * This method is the main server loop for the non-blocking connection
+     * handling. This is only ever called by the server thread.
+    **/
+    private void selectConnections()
+    {
+        // Start the thread pool.
+        m_threadPool.start();
+
+        m_logger.log(Logger.LOG_DEBUG, "Waiting for connections on selector.");
+        m_connectionSelector.run();
+
+        // Shutdown the server.
+        shutdown();
+    }
+
     /**
      * This method shuts down the server; it is only ever called by the
      * server thread.
@@ -393,6 +445,7 @@ public class Server
             // gate and set the state to inactive.
             m_shutdownGate.open();
             m_shutdownGate = null;
+            m_connectionSelector = null;
             m_state = INACTIVE_STATE;
         }
         m_logger.log(Logger.LOG_DEBUG, "Shutdown complete.");
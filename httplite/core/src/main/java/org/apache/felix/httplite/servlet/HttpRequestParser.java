@@ -0,0 +1,727 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffer based HTTP/1.1 request parser. One parser is used for all the
+ * requests of a connection: it buffers the socket input stream, scans the
+ * request line and the header lines directly in its byte buffer and keeps
+ * the headers in storage which is reused from one request to the next.
+ * Header names are resolved to shared constants for the common headers and
+ * header values are only decoded into strings when they are requested.
+ * <p>
+ * The parser is also the input stream of the connection: the bytes of
+ * pipelined requests remain in its buffer for the next request. Buffers
+ * of the default size are taken from a small shared pool, and can be handed
+ * back while the connection is idle.
+ **/
+public class HttpRequestParser extends InputStream
+{
+    /**
+     * Default size of the read buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+    /**
+     * Maximum length of the request line or of a header line.
+     */
+    public static final int MAX_LINE_LENGTH = 65536;
+
+    /**
+     * Maximum number of idle buffers kept in the pool.
+     */
+    private static final int POOL_SIZE = 32;
+    private static final List s_pool = new ArrayList();
+
+    private static final String[] KNOWN_METHODS =
+        { "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "TRACE" };
+    private static final String[] KNOWN_VERSIONS =
+        { HttpConstants.HTTP11_VERSION, HttpConstants.HTTP10_VERSION };
+    private static final String[] KNOWN_HEADERS =
+        { "host", "connection", "content-length", "content-type", "transfer-encoding", "user-agent", "accept",
+            "accept-encoding", "accept-language", "accept-charset", "cookie", "authorization", "if-modified-since",
+            "if-none-match", "cache-control", "pragma", "referer", "range", "expect", "keep-alive", "origin",
+            "upgrade", "te", "date", "via" };
+
+    private final InputStream m_in;
+    private byte[] m_buf;
+    private int m_pos;
+    private int m_limit;
+    private int m_lineStart;
+
+    private String m_method;
+    private String m_uri;
+    private String m_version;
+
+    /**
+     * Header storage, reused for each request: the bytes of the header values,
+     * the header names and the offsets of their values.
+     */
+    private byte[] m_headerBytes = new byte[512];
+    private int m_headerLength;
+    private int m_headerCount;
+    private String[] m_names = new String[16];
+    private int[] m_valueStart = new int[16];
+    private int[] m_valueEnd = new int[16];
+    private String[] m_values = new String[16];
+    private char[] m_chars = new char[128];
+    private final int[] m_bounds = new int[6];
+
+
+    /**
+     * @param in The socket input stream to parse.
+     */
+    public HttpRequestParser( final InputStream in )
+    {
+        m_in = in;
+    }
+
+
+    /**
+     * Parses the request line of the next request.
+     * 
+     * @throws java.io.IOException
+     *             If the end of the stream is reached, the request line is
+     *             malformed, or any I/O error occurs.
+     */
+    public void parseRequestLine() throws IOException
+    {
+        int end = readLine();
+        if ( end < 0 )
+        {
+            throw new IOException( "Unexpected end of file when reading request line." );
+        }
+
+        // Same rules as a StringTokenizer on spaces: exactly three tokens.
+        int[] bounds = m_bounds;
+        int count = 0;
+        int i = m_lineStart;
+        while ( i < end )
+        {
+            while ( i < end && m_buf[i] == ' ' )
+            {
+                i++;
+            }
+            if ( i == end )
+            {
+                break;
+            }
+            int start = i;
+            while ( i < end && m_buf[i] != ' ' )
+            {
+                i++;
+            }
+            if ( count == 3 )
+            {
+                count++;
+                break;
+            }
+            bounds[count * 2] = start;
+            bounds[count * 2 + 1] = i;
+            count++;
+        }
+
+        if ( count != 3 )
+        {
+            throw new IOException( "Malformed HTTP request: " + toString( m_lineStart, end ) );
+        }
+
+        m_method = toConstant( KNOWN_METHODS, bounds[0], bounds[1], false );
+        m_uri = toString( bounds[2], bounds[3] );
+        m_version = toConstant( KNOWN_VERSIONS, bounds[4], bounds[5], false );
+    }
+
+
+    /**
+     * Parses the header lines of the current request, up to the empty line.
+     * 
+     * @throws java.io.IOException
+     *             If any I/O error occurs.
+     */
+    public void parseHeaders() throws IOException
+    {
+        clearHeaders();
+
+        for ( int end = readLine(); end > m_lineStart; end = readLine() )
+        {
+            int colon = indexOf( ':', m_lineStart, end );
+            if ( colon <= m_lineStart )
+            {
+                continue;
+            }
+
+            int nameStart = trimStart( m_lineStart, colon );
+            int nameEnd = trimEnd( nameStart, colon );
+            int valueStart = trimStart( colon + 1, end );
+            int valueEnd = trimEnd( valueStart, end );
+
+            addHeader( toConstant( KNOWN_HEADERS, nameStart, nameEnd, true ), valueStart, valueEnd );
+        }
+    }
+
+
+    /**
+     * Reads a body of the given length.
+     * 
+     * @param length The content length.
+     * @return The body, an empty array if the length is not positive.
+     * @throws java.io.IOException
+     *             If the stream ends before the body or any I/O error occurs.
+     */
+    public byte[] readBody( final int length ) throws IOException
+    {
+        if ( length <= 0 )
+        {
+            return new byte[0];
+        }
+
+        byte[] body = new byte[length];
+        readFully( body, 0, length );
+        return body;
+    }
+
+
+    /**
+     * Reads and decodes a body sent with the chunked transfer coding. The
+     * trailer headers are skipped.
+     * 
+     * @return The decoded body.
+     * @throws java.io.IOException
+     *             If the chunks are malformed or any I/O error occurs.
+     */
+    public byte[] readChunkedBody() throws IOException
+    {
+        ByteArrayOutputStream body = null;
+
+        while ( true )
+        {
+            int end = readLine();
+            if ( end < 0 )
+            {
+                throw new EOFException( "Unexpected end of file when reading chunk size." );
+            }
+
+            int size = 0;
+            int i = trimStart( m_lineStart, end );
+            int digits = 0;
+            for ( ; i < end; i++, digits++ )
+            {
+                int digit = Character.digit( ( char ) m_buf[i], 16 );
+                if ( digit < 0 )
+                {
+                    break;
+                }
+                if ( size > ( Integer.MAX_VALUE >> 4 ) )
+                {
+                    throw new IOException( "Chunk size too large." );
+                }
+                size = ( size << 4 ) + digit;
+            }
+            if ( digits == 0 )
+            {
+                throw new IOException( "Malformed chunk size: " + toString( m_lineStart, end ) );
+            }
+
+            if ( size == 0 )
+            {
+                // Skip the trailer up to the empty line.
+                for ( end = readLine(); end > m_lineStart; end = readLine() )
+                {
+                }
+                break;
+            }
+
+            if ( body == null )
+            {
+                body = new ByteArrayOutputStream( size );
+            }
+            while ( size > 0 )
+            {
+                if ( m_pos == m_limit && fill() < 0 )
+                {
+                    throw new EOFException( "Unexpected end of file when reading chunk." );
+                }
+                int n = Math.min( size, m_limit - m_pos );
+                body.write( m_buf, m_pos, n );
+                m_pos += n;
+                size -= n;
+            }
+
+            // The CRLF closing the chunk data.
+            readLine();
+        }
+
+        return ( body == null ) ? new byte[0] : body.toByteArray();
+    }
+
+
+    /**
+     * @return The method of the current request.
+     */
+    public String getMethod()
+    {
+        return m_method;
+    }
+
+
+    /**
+     * @return The URI of the current request, including the query string.
+     */
+    public String getURI()
+    {
+        return m_uri;
+    }
+
+
+    /**
+     * @return The protocol version of the current request.
+     */
+    public String getVersion()
+    {
+        return m_version;
+    }
+
+
+    /**
+     * @return The number of header lines of the current request.
+     */
+    public int getHeaderCount()
+    {
+        return m_headerCount;
+    }
+
+
+    /**
+     * @param index The index of the header line.
+     * @return The lower case name of the header line.
+     */
+    public String getHeaderName( final int index )
+    {
+        return m_names[index];
+    }
+
+
+    /**
+     * @param index The index of the header line.
+     * @return The value of the header line.
+     */
+    public String getHeaderValue( final int index )
+    {
+        String value = m_values[index];
+        if ( value == null )
+        {
+            int start = m_valueStart[index];
+            int length = m_valueEnd[index] - start;
+            if ( m_chars.length < length )
+            {
+                m_chars = new char[length];
+            }
+            for ( int i = 0; i < length; i++ )
+            {
+                m_chars[i] = ( char ) ( m_headerBytes[start + i] & 0xff );
+            }
+            value = new String( m_chars, 0, length );
+            m_values[index] = value;
+        }
+        return value;
+    }
+
+
+    /**
+     * Finds the next header line with the given name.
+     * 
+     * @param name The header name, in any case.
+     * @param from The index to start from.
+     * @return The index of the header line, or -1 if there is none.
+     */
+    public int indexOfHeader( final String name, final int from )
+    {
+        for ( int i = from; i < m_headerCount; i++ )
+        {
+            String n = m_names[i];
+            if ( n == name || n.equalsIgnoreCase( name ) )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * @param name The header name, in any case.
+     * @return The value of the first header line with that name, or <tt>null</tt>.
+     */
+    public String getHeader( final String name )
+    {
+        int index = indexOfHeader( name, 0 );
+        return ( index < 0 ) ? null : getHeaderValue( index );
+    }
+
+
+    /**
+     * Checks if the stream is at its end. This blocks until at least one byte
+     * is available if the buffer is empty.
+     * 
+     * @return <tt>true</tt> if the stream has ended.
+     * @throws java.io.IOException
+     *             If any I/O error occurs.
+     */
+    public boolean isEndOfStream() throws IOException
+    {
+        return m_pos == m_limit && fill() < 0;
+    }
+
+
+    /**
+     * Hands the buffer back to the pool if it does not hold any unread byte.
+     * A new buffer is taken on the next read.
+     */
+    public void release()
+    {
+        if ( m_buf != null && m_pos == m_limit )
+        {
+            byte[] buf = m_buf;
+            m_buf = null;
+            m_pos = 0;
+            m_limit = 0;
+            if ( buf.length == DEFAULT_BUFFER_SIZE )
+            {
+                synchronized ( s_pool )
+                {
+                    if ( s_pool.size() < POOL_SIZE )
+                    {
+                        s_pool.add( buf );
+                    }
+                }
+            }
+        }
+    }
+
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read()
+     */
+    public int read() throws IOException
+    {
+        if ( m_pos == m_limit && fill() < 0 )
+        {
+            return -1;
+        }
+        return m_buf[m_pos++] & 0xff;
+    }
+
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    public int read( final byte[] b, final int off, final int len ) throws IOException
+    {
+        if ( len == 0 )
+        {
+            return 0;
+        }
+        if ( m_pos == m_limit )
+        {
+            // Large reads bypass the buffer.
+            if ( len >= DEFAULT_BUFFER_SIZE )
+            {
+                return m_in.read( b, off, len );
+            }
+            if ( fill() < 0 )
+            {
+                return -1;
+            }
+        }
+        int n = Math.min( len, m_limit - m_pos );
+        System.arraycopy( m_buf, m_pos, b, off, n );
+        m_pos += n;
+        return n;
+    }
+
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#available()
+     */
+    public int available() throws IOException
+    {
+        return ( m_limit - m_pos ) + m_in.available();
+    }
+
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#close()
+     */
+    public void close() throws IOException
+    {
+        release();
+        m_in.close();
+    }
+
+
+    private void readFully( final byte[] b, int off, int len ) throws IOException
+    {
+        while ( len > 0 )
+        {
+            int n = read( b, off, len );
+            if ( n < 0 )
+            {
+                throw new EOFException( "Unexpected end of file when reading body." );
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+
+    /**
+     * Reads the next line into the buffer. The line starts at
+     * <tt>m_lineStart</tt> and ends at the returned index, without the line
+     * terminator. The line remains valid until the next read.
+     * 
+     * @return The end index of the line, or -1 if the stream ended before any byte.
+     * @throws java.io.IOException
+     *             If the line is too long or any I/O error occurs.
+     */
+    private int readLine() throws IOException
+    {
+        int scanned = 0;
+        while ( true )
+        {
+            for ( int i = m_pos + scanned; i < m_limit; i++ )
+            {
+                if ( m_buf[i] == '\n' )
+                {
+                    m_lineStart = m_pos;
+                    m_pos = i + 1;
+                    return ( i > m_lineStart && m_buf[i - 1] == '\r' ) ? i - 1 : i;
+                }
+            }
+
+            // fill() moves the unread bytes to the start of the buffer.
+            scanned = m_limit - m_pos;
+            if ( fill() < 0 )
+            {
+                if ( m_pos == m_limit )
+                {
+                    return -1;
+                }
+                // Last line without terminator.
+                m_lineStart = m_pos;
+                m_pos = m_limit;
+                return m_limit;
+            }
+        }
+    }
+
+
+    /**
+     * Reads more bytes from the stream. The unread bytes are moved to the start
+     * of the buffer, which grows if it is full.
+     * 
+     * @return The number of bytes read, or -1 at the end of the stream.
+     * @throws java.io.IOException
+     *             If the buffer cannot grow anymore or any I/O error occurs.
+     */
+    private int fill() throws IOException
+    {
+        if ( m_buf == null )
+        {
+            m_buf = acquire();
+        }
+
+        if ( m_pos > 0 )
+        {
+            System.arraycopy( m_buf, m_pos, m_buf, 0, m_limit - m_pos );
+            m_limit -= m_pos;
+            m_pos = 0;
+        }
+
+        if ( m_limit == m_buf.length )
+        {
+            if ( m_buf.length >= MAX_LINE_LENGTH )
+            {
+                throw new IOException( "HTTP request line too long." );
+            }
+            byte[] buf = new byte[m_buf.length * 2];
+            System.arraycopy( m_buf, 0, buf, 0, m_limit );
+            m_buf = buf;
+        }
+
+        int n = m_in.read( m_buf, m_limit, m_buf.length - m_limit );
+        if ( n > 0 )
+        {
+            m_limit += n;
+        }
+        return n;
+    }
+
+
+    private static byte[] acquire()
+    {
+        synchronized ( s_pool )
+        {
+            if ( !s_pool.isEmpty() )
+            {
+                return ( byte[] ) s_pool.remove( s_pool.size() - 1 );
+            }
+        }
+        return new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+
+    private void clearHeaders()
+    {
+        for ( int i = 0; i < m_headerCount; i++ )
+        {
+            m_names[i] = null;
+            m_values[i] = null;
+        }
+        m_headerCount = 0;
+        m_headerLength = 0;
+    }
+
+
+    private void addHeader( final String name, final int start, final int end )
+    {
+        int length = end - start;
+        if ( m_headerLength + length > m_headerBytes.length )
+        {
+            byte[] bytes = new byte[Math.max( m_headerBytes.length * 2, m_headerLength + length )];
+            System.arraycopy( m_headerBytes, 0, bytes, 0, m_headerLength );
+            m_headerBytes = bytes;
+        }
+        if ( m_headerCount == m_names.length )
+        {
+            int size = m_names.length * 2;
+            String[] names = new String[size];
+            System.arraycopy( m_names, 0, names, 0, m_headerCount );
+            m_names = names;
+            String[] values = new String[size];
+            System.arraycopy( m_values, 0, values, 0, m_headerCount );
+            m_values = values;
+            int[] starts = new int[size];
+            System.arraycopy( m_valueStart, 0, starts, 0, m_headerCount );
+            m_valueStart = starts;
+            int[] ends = new int[size];
+            System.arraycopy( m_valueEnd, 0, ends, 0, m_headerCount );
+            m_valueEnd = ends;
+        }
+
+        System.arraycopy( m_buf, start, m_headerBytes, m_headerLength, length );
+        m_names[m_headerCount] = name;
+        m_valueStart[m_headerCount] = m_headerLength;
+        m_valueEnd[m_headerCount] = m_headerLength + length;
+        m_values[m_headerCount] = null;
+        m_headerLength += length;
+        m_headerCount++;
+    }
+
+
+    /**
+     * Returns the constant equal to the given bytes, or a new string if none
+     * matches.
+     */
+    private String toConstant( final String[] constants, final int start, final int end, final boolean lowerCase )
+    {
+        int length = end - start;
+        for ( int c = 0; c < constants.length; c++ )
+        {
+            String constant = constants[c];
+            if ( constant.length() != length )
+            {
+                continue;
+            }
+            int i = 0;
+            for ( ; i < length; i++ )
+            {
+                int b = m_buf[start + i];
+                if ( lowerCase && b >= 'A' && b <= 'Z' )
+                {
+                    b += 'a' - 'A';
+                }
+                if ( b != constant.charAt( i ) )
+                {
+                    break;
+                }
+            }
+            if ( i == length )
+            {
+                return constant;
+            }
+        }
+
+        String s = toString( start, end );
+        return lowerCase ? s.toLowerCase() : s;
+    }
+
+
+    private String toString( final int start, final int end )
+    {
+        int length = end - start;
+        if ( m_chars.length < length )
+        {
+            m_chars = new char[length];
+        }
+        for ( int i = 0; i < length; i++ )
+        {
+            m_chars[i] = ( char ) ( m_buf[start + i] & 0xff );
+        }
+        return new String( m_chars, 0, length );
+    }
+
+
+    private int indexOf( final char c, final int start, final int end )
+    {
+        for ( int i = start; i < end; i++ )
+        {
+            if ( m_buf[i] == c )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private int trimStart( int start, final int end )
+    {
+        while ( start < end && ( m_buf[start] & 0xff ) <= ' ' )
+        {
+            start++;
+        }
+        return start;
+    }
+
+
+    private int trimEnd( final int start, int end )
+    {
+        while ( end > start && ( m_buf[end - 1] & 0xff ) <= ' ' )
+        {
+            end--;
+        }
+        return end;
+    }
+}
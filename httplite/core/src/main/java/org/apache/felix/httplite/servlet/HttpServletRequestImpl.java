@@ -80,6 +80,10 @@ public class HttpServletRequestImpl implements HttpServletRequest
      * Headers in HTTP request
      */
     private final Map m_headers = new HashMap();
+    /**
+     * Parser holding the headers, when the request is read with a {@link HttpRequestParser}.
+     */
+    private HttpRequestParser m_parser;
     private final Socket m_socket;
     private Cookie[] m_cookies;
     //TODO: Make locale static and perhaps global to the service.
@@ -149,7 +153,7 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
         if ( m_requestBody == null )
         {
-            parseBody( new BufferedInputStream( m_socket.getInputStream() ) );
+            readBody();
         }
 
         m_getInputStreamCalled = true;
@@ -171,7 +175,7 @@ public class HttpServletRequestImpl implements HttpServletRequest
         }
         if ( m_requestBody == null )
         {
-            parseBody( new BufferedInputStream( m_socket.getInputStream() ) );
+            readBody();
         }
 
         m_getReaderCalled = true;
@@ -201,9 +205,31 @@ public class HttpServletRequestImpl implements HttpServletRequest
         {
             throw new IOException( "Malformed HTTP request: " + requestLine );
         }
-        m_method = st.nextToken();
-        m_uri = st.nextToken();
-        m_version = st.nextToken();
+        setRequestLine( st.nextToken(), st.nextToken(), st.nextToken() );
+    }
+
+
+    /**
+     * This method parses the HTTP request line with the parser of the
+     * connection and stores the result.
+     * 
+     * @param parser
+     *            The parser reading the HTTP request.
+     * @throws java.io.IOException
+     *             If any I/O error occurs.
+     **/
+    public void parseRequestLine( final HttpRequestParser parser ) throws IOException
+    {
+        parser.parseRequestLine();
+        setRequestLine( parser.getMethod(), parser.getURI(), parser.getVersion() );
+    }
+
+
+    private void setRequestLine( final String method, final String uri, final String version )
+    {
+        m_method = method;
+        m_uri = uri;
+        m_version = version;
 
         // If the URI has query string, parse it.
         int qsIdx = m_uri.indexOf( "?" );
@@ -319,6 +345,63 @@ public class HttpServletRequestImpl implements HttpServletRequest
     }
 
 
+    /**
+     * This method parses the HTTP header lines with the parser of the
+     * connection. The headers are kept by the parser, and remain valid until
+     * the next request is parsed.
+     * 
+     * @param parser
+     *            The parser reading the HTTP request.
+     * @throws java.io.IOException
+     *             If any I/O error occurs.
+     **/
+    public void parseHeader( final HttpRequestParser parser ) throws IOException
+    {
+        parser.parseHeaders();
+        m_parser = parser;
+        m_uriHost = parser.getHeader( "host" );
+    }
+
+
+    /**
+     * This method reads the HTTP body with the parser of the connection,
+     * decoding chunked bodies.
+     * 
+     * @param parser
+     *            The parser reading the HTTP request.
+     * @throws java.io.IOException
+     *             If any I/O error occurs.
+     **/
+    public void parseBody( final HttpRequestParser parser ) throws IOException
+    {
+        String te = getHeader( HttpConstants.HEADER_TRANSFER_ENCODING );
+        if ( te != null && te.toLowerCase().indexOf( HttpConstants.CHUNKED_TRANSFER_ENCODING ) >= 0 )
+        {
+            m_requestBody = parser.readChunkedBody();
+        }
+        else
+        {
+            m_requestBody = parser.readBody( getContentLength() );
+        }
+    }
+
+
+    /**
+     * Reads the body when it has not been read with the request.
+     */
+    private void readBody() throws IOException
+    {
+        if ( m_parser != null )
+        {
+            parseBody( m_parser );
+        }
+        else
+        {
+            parseBody( new BufferedInputStream( m_socket.getInputStream() ) );
+        }
+    }
+
+
     /**
      * This method parses the HTTP body from the specified input stream and
      * ignores the result.
@@ -393,6 +476,11 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
     public String getHeader( final String header )
     {
+        if ( m_parser != null )
+        {
+            return m_parser.getHeader( header );
+        }
+
         Object value = m_headers.get( header.toLowerCase() );
 
         if ( value == null )
@@ -406,6 +494,16 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
     public Enumeration getHeaders( final String name )
     {
+        if ( m_parser != null )
+        {
+            List values = new ArrayList();
+            for ( int i = m_parser.indexOfHeader( name, 0 ); i >= 0; i = m_parser.indexOfHeader( name, i + 1 ) )
+            {
+                values.add( m_parser.getHeaderValue( i ) );
+            }
+            return values.isEmpty() ? HttpConstants.EMPTY_ENUMERATION : Collections.enumeration( values );
+        }
+
         Object v = m_headers.get( name );
 
         if ( v == null )
@@ -430,6 +528,19 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
     public Enumeration getHeaderNames()
     {
+        if ( m_parser != null )
+        {
+            List names = new ArrayList();
+            for ( int i = 0; i < m_parser.getHeaderCount(); i++ )
+            {
+                if ( !names.contains( m_parser.getHeaderName( i ) ) )
+                {
+                    names.add( m_parser.getHeaderName( i ) );
+                }
+            }
+            return names.isEmpty() ? HttpConstants.EMPTY_ENUMERATION : Collections.enumeration( names );
+        }
+
         if ( m_headers.isEmpty() )
         {
             return HttpConstants.EMPTY_ENUMERATION;
@@ -66,6 +66,8 @@ public class HttpServletResponseImpl implements HttpServletResponse
     private int m_statusCode = HttpURLConnection.HTTP_OK;
     private String m_customStatusMessage = null;
     private boolean m_headersWritten = false;
+    private boolean m_headRequest = false;
+    private boolean m_delimited = false;
 
     /**
      * Constructs an HTTP response for the specified server and request.
@@ -97,6 +99,18 @@ public class HttpServletResponseImpl implements HttpServletResponse
             setContentLength(m_buffer.size());
         }
 
+        // The client can only find the end of the response without the
+        // connection being closed if its length is known or it has no body.
+        m_delimited = m_headRequest || m_statusCode == SC_NO_CONTENT
+            || m_statusCode == SC_NOT_MODIFIED
+            || m_headers.containsKey(HttpConstants.HEADER_CONTENT_LENGTH)
+            || HttpConstants.CHUNKED_TRANSFER_ENCODING.equalsIgnoreCase(
+                String.valueOf(m_headers.get(HttpConstants.HEADER_TRANSFER_ENCODING)));
+        if (!m_delimited)
+        {
+            setConnectionType(HttpConstants.CLOSE_CONNECTION);
+        }
+
         m_out.write(buildResponse(m_statusCode, m_headers, m_customStatusMessage, null));
         
         if (m_cookies != null)
@@ -153,7 +167,11 @@ public class HttpServletResponseImpl implements HttpServletResponse
 
         try
         {
-            copy(bufferedInput, m_out);
+            // The response to a HEAD request has no body.
+            if (!m_headRequest)
+            {
+                copy(bufferedInput, m_out);
+            }
 
             m_out.flush();
         }
@@ -271,7 +289,7 @@ public class HttpServletResponseImpl implements HttpServletResponse
             writeHeaders(true);
         }
 
-        if (m_buffer != null)
+        if (m_buffer != null && !m_headRequest)
         {
             byte[] content = m_buffer.toByteArray();
             copy(new ByteArrayInputStream(content), m_out);
@@ -435,6 +453,37 @@ public class HttpServletResponseImpl implements HttpServletResponse
         m_headers.put(HttpConstants.HEADER_CONTENT_LENGTH, Integer.toString(arg0));
     }
 
+    /**
+     * Set whether the response is written for a HEAD request, in which case
+     * its body is not sent.
+     * @param headRequest true for a HEAD request
+     */
+    public void setHeadRequest(final boolean headRequest)
+    {
+        m_headRequest = headRequest;
+    }
+
+    /**
+     * Whether the client can find the end of the response without the
+     * connection being closed: the response has been written and has a
+     * content length, a chunked body, or no body.
+     * @return true if the connection can be kept alive after the response
+     */
+    public boolean isDelimited()
+    {
+        return m_delimited;
+    }
+
+    /**
+     * @return the headers of a response ended by closing the connection
+     */
+    private static Map getCloseHeaders()
+    {
+        Map headers = new HashMap();
+        headers.put(HttpConstants.HEADER_CONNECTION, HttpConstants.CLOSE_CONNECTION);
+        return headers;
+    }
+
     /**
      * Can be 'close' or 'Keep-Alive'.
      * @param type
@@ -528,7 +577,10 @@ public class HttpServletResponseImpl implements HttpServletResponse
             throw new IllegalStateException(
                 "Response has already been committed, unable to send error.");
 
-        m_out.write(buildResponse(sc, msg));
+        // The end of the error page is only marked by closing the connection.
+        m_delimited = false;
+        m_headersWritten = true;
+        m_out.write(buildResponse(sc, getCloseHeaders(), msg, HttpConstants.DEFAULT_HTML_HEADER));
         m_out.flush();
     }
 
@@ -550,8 +602,10 @@ public class HttpServletResponseImpl implements HttpServletResponse
             throw new IllegalStateException("Response has already been committed.");
         }
 
-        Map map = new HashMap();
+        Map map = getCloseHeaders();
         map.put("Location", location);
+        m_delimited = false;
+        m_headersWritten = true;
         m_out.write(buildResponse(307, map, null, null));
         m_out.flush();
     }
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.osgi.test.cases;
+
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletException;
+
+import org.apache.felix.httplite.osgi.test.AbstractHttpliteTestCase;
+import org.apache.felix.httplite.osgi.test.BasicTestingServlet;
+import org.apache.felix.httplite.server.Server;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+
+
+/**
+ * Load test for the non-blocking connection handling: many idle connections
+ * are opened, which must not prevent requests from being serviced by a
+ * small thread pool.
+ *
+ */
+public class TestConcurrentConnections extends AbstractHttpliteTestCase
+{
+
+    private static final int IDLE_CONNECTIONS = Integer.getInteger( "httplite.test.connections", 500 ).intValue();
+    private static final String THREADPOOL_LIMIT = "2";
+
+
+    protected void setUp() throws Exception
+    {
+        System.setProperty( Server.CONFIG_PROPERTY_NIO_ENABLE, "true" );
+        System.setProperty( Server.CONFIG_PROPERTY_THREADPOOL_LIMIT_PROP, THREADPOOL_LIMIT );
+        super.setUp();
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        System.getProperties().remove( Server.CONFIG_PROPERTY_NIO_ENABLE );
+        System.getProperties().remove( Server.CONFIG_PROPERTY_THREADPOOL_LIMIT_PROP );
+    }
+
+
+    public void testIdleConnectionsDoNotHoldThreads() throws ServletException, NamespaceException, IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+
+        BasicTestingServlet testServlet = new BasicTestingServlet();
+        httpService.registerServlet( "/test", testServlet, null, null );
+
+        List idle = new ArrayList();
+        try
+        {
+            for ( int i = 0; i < IDLE_CONNECTIONS; i++ )
+            {
+                idle.add( new Socket( "localhost", DEFAULT_PORT ) );
+            }
+
+            for ( int i = 0; i < 10; i++ )
+            {
+                HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/test/" + i, "GET" );
+                client.setReadTimeout( 5000 );
+                client.connect();
+                assertTrue( client.getResponseCode() == 200 );
+                assertTrue( testServlet.getPathInfo().equals( "/" + i ) );
+            }
+        }
+        finally
+        {
+            for ( int i = 0; i < idle.size(); i++ )
+            {
+                ( ( Socket ) idle.get( i ) ).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.osgi.test.cases;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.httplite.osgi.test.AbstractHttpliteTestCase;
+import org.apache.felix.httplite.osgi.test.BasicTestingServlet;
+import org.apache.felix.httplite.server.Server;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+
+
+/**
+ * Tests for the connections kept alive by the non-blocking connection handling:
+ * pipelined requests are answered in order on the same connection, and a
+ * response whose end the client cannot find closes the connection.
+ *
+ */
+public class TestKeepAlive extends AbstractHttpliteTestCase
+{
+
+    private static final int READ_TIMEOUT = 5000;
+
+
+    protected void setUp() throws Exception
+    {
+        System.setProperty( Server.CONFIG_PROPERTY_NIO_ENABLE, "true" );
+        super.setUp();
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        System.getProperties().remove( Server.CONFIG_PROPERTY_NIO_ENABLE );
+    }
+
+
+    public void testPipelinedRequests() throws ServletException, NamespaceException, IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerServlet( "/test", new BasicTestingServlet( "content", false ), null, null );
+
+        Socket socket = new Socket( "localhost", DEFAULT_PORT );
+        try
+        {
+            socket.setSoTimeout( READ_TIMEOUT );
+            OutputStream out = socket.getOutputStream();
+            out.write( ( request( "/test/1" ) + request( "/test/2" ) ).getBytes() );
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            for ( int i = 0; i < 2; i++ )
+            {
+                String headers = readHeaders( in );
+                assertTrue( headers, headers.startsWith( "HTTP/1.1 200" ) );
+                assertEquals( "content", readBody( in, getContentLength( headers ) ) );
+            }
+
+            // The connection is still usable after the pipelined requests.
+            out.write( request( "/test/3" ).getBytes() );
+            out.flush();
+            String headers = readHeaders( in );
+            assertEquals( "content", readBody( in, getContentLength( headers ) ) );
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+
+    public void testErrorClosesConnection() throws ServletException, NamespaceException, IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerServlet( "/error", new HttpServlet()
+        {
+            protected void doGet( HttpServletRequest req, HttpServletResponse resp ) throws IOException
+            {
+                resp.sendError( HttpServletResponse.SC_FORBIDDEN );
+            }
+        }, null, null );
+
+        assertConnectionClosed( request( "/error" ) + request( "/error" ), "HTTP/1.1 403" );
+    }
+
+
+    public void testResponseWithoutLengthClosesConnection() throws ServletException, NamespaceException,
+        IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerServlet( "/empty", new HttpServlet()
+        {
+            protected void doGet( HttpServletRequest req, HttpServletResponse resp ) throws IOException
+            {
+                resp.flushBuffer();
+            }
+        }, null, null );
+
+        assertConnectionClosed( request( "/empty" ), "HTTP/1.1 200" );
+    }
+
+
+    /**
+     * Sends the requests and checks that the connection is closed after the
+     * first response, which must contain a <tt>Connection: close</tt> header.
+     */
+    private void assertConnectionClosed( String requests, String status ) throws IOException
+    {
+        Socket socket = new Socket( "localhost", DEFAULT_PORT );
+        try
+        {
+            socket.setSoTimeout( READ_TIMEOUT );
+            socket.getOutputStream().write( requests.getBytes() );
+            socket.getOutputStream().flush();
+
+            // Fails with a timeout if the server keeps the connection open.
+            String response = readInputAsString( socket.getInputStream() );
+            assertTrue( response, response.indexOf( status ) >= 0 );
+            assertTrue( response, response.indexOf( "Connection: close" ) > 0 );
+            assertEquals( response, response.indexOf( status ), response.lastIndexOf( status ) );
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+
+    private static String request( String path )
+    {
+        return "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    }
+
+
+    private static String readHeaders( InputStream in ) throws IOException
+    {
+        StringBuffer sb = new StringBuffer();
+        while ( !sb.toString().endsWith( "\r\n\r\n" ) )
+        {
+            int c = in.read();
+            if ( c == -1 )
+            {
+                throw new IOException( "Connection closed after: " + sb );
+            }
+            sb.append( ( char ) c );
+        }
+        // Skip the interim response to HTTP/1.1 requests.
+        if ( sb.toString().startsWith( "HTTP/1.1 100" ) )
+        {
+            return readHeaders( in );
+        }
+        return sb.toString();
+    }
+
+
+    private static int getContentLength( String headers )
+    {
+        int start = headers.indexOf( "Content-Length: " );
+        assertTrue( headers, start >= 0 );
+        start += "Content-Length: ".length();
+        return Integer.parseInt( headers.substring( start, headers.indexOf( "\r\n", start ) ) );
+    }
+
+
+    private static String readBody( InputStream in, int length ) throws IOException
+    {
+        byte[] body = new byte[length];
+        for ( int read = 0; read < length; )
+        {
+            int n = in.read( body, read, length - read );
+            if ( n == -1 )
+            {
+                throw new IOException( "Connection closed after " + read + " bytes" );
+            }
+            read += n;
+        }
+        return new String( body );
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.servlet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+
+
+/**
+ * Micro benchmark comparing the buffered request parser with the stream
+ * based parsing of {@link HttpServletRequestImpl}. It parses a batch of
+ * pipelined requests and reports the requests parsed per second and, when
+ * the VM supports it, the bytes allocated per request.
+ * <p>
+ * This is not a unit test, it is run by hand:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes:&lt;servlet-api.jar&gt; \
+ *     org.apache.felix.httplite.servlet.HttpRequestParserBenchmark [iterations]
+ * </pre>
+ */
+public class HttpRequestParserBenchmark
+{
+
+    private static final String REQUEST = "GET /system/console/bundles?filter=org.apache HTTP/1.1\r\n"
+        + "Host: localhost:8080\r\n" + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:10.0) Gecko/20100101\r\n"
+        + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+        + "Accept-Language: en-us,en;q=0.5\r\n" + "Accept-Encoding: gzip, deflate\r\n"
+        + "Cookie: JSESSIONID=0123456789abcdef; felix-webconsole-locale=en\r\n" + "Connection: keep-alive\r\n\r\n";
+    private static final int REQUESTS_PER_BATCH = 100;
+
+
+    public static void main( String[] args ) throws IOException
+    {
+        int iterations = args.length > 0 ? Integer.parseInt( args[0] ) : 2000;
+
+        StringBuffer batch = new StringBuffer();
+        for ( int i = 0; i < REQUESTS_PER_BATCH; i++ )
+        {
+            batch.append( REQUEST );
+        }
+        byte[] bytes = batch.toString().getBytes( "ISO-8859-1" );
+
+        // Warm up both paths before measuring
+        run( true, bytes, iterations / 4 );
+        run( false, bytes, iterations / 4 );
+
+        report( "stream", false, bytes, iterations );
+        report( "parser", true, bytes, iterations );
+    }
+
+
+    private static void report( String name, boolean parser, byte[] bytes, int iterations ) throws IOException
+    {
+        long allocated = allocatedBytes();
+        long start = System.currentTimeMillis();
+        run( parser, bytes, iterations );
+        long time = Math.max( 1, System.currentTimeMillis() - start );
+        long requests = ( long ) iterations * REQUESTS_PER_BATCH;
+
+        StringBuffer line = new StringBuffer( name );
+        line.append( ": " ).append( requests * 1000 / time ).append( " requests/s" );
+        if ( allocated >= 0 )
+        {
+            line.append( ", " ).append( ( allocatedBytes() - allocated ) / requests ).append( " bytes/request" );
+        }
+        System.out.println( line );
+    }
+
+
+    private static void run( boolean parser, byte[] bytes, int iterations ) throws IOException
+    {
+        for ( int i = 0; i < iterations; i++ )
+        {
+            InputStream in = new ByteArrayInputStream( bytes );
+            if ( parser )
+            {
+                HttpRequestParser p = new HttpRequestParser( in );
+                for ( int r = 0; r < REQUESTS_PER_BATCH; r++ )
+                {
+                    HttpServletRequestImpl request = new HttpServletRequestImpl( null, null, null );
+                    request.parseRequestLine( p );
+                    request.parseHeader( p );
+                    request.getHeader( "Host" );
+                }
+                p.release();
+            }
+            else
+            {
+                ConcreteServletInputStream is = new ConcreteServletInputStream( in );
+                for ( int r = 0; r < REQUESTS_PER_BATCH; r++ )
+                {
+                    HttpServletRequestImpl request = new HttpServletRequestImpl( null, null, null );
+                    request.parseRequestLine( is );
+                    request.parseHeader( is );
+                    request.getHeader( "Host" );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the bytes allocated by the current thread, or -1 if the VM
+     * does not provide the measurement.
+     */
+    private static long allocatedBytes()
+    {
+        try
+        {
+            Class factory = Class.forName( "java.lang.management.ManagementFactory" );
+            Object bean = factory.getMethod( "getThreadMXBean", new Class[0] ).invoke( null, new Object[0] );
+            Class type = Class.forName( "com.sun.management.ThreadMXBean" );
+            if ( !type.isInstance( bean ) )
+            {
+                return -1;
+            }
+            Method method = type.getMethod( "getThreadAllocatedBytes", new Class[] { long.class } );
+            Object threadId = Thread.class.getMethod( "getId", new Class[0] ).invoke( Thread.currentThread(),
+                new Object[0] );
+            return ( ( Long ) method.invoke( bean, new Object[] { threadId } ) ).longValue();
+        }
+        catch ( Exception e )
+        {
+            return -1;
+        }
+    }
+}
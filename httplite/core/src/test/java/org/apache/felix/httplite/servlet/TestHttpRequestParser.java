@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.servlet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Unit tests for the buffered request parser used by the connections.
+ *
+ */
+public class TestHttpRequestParser extends TestCase
+{
+
+    private static HttpRequestParser parserFor( String request )
+    {
+        return new HttpRequestParser( new ByteArrayInputStream( request.getBytes() ) );
+    }
+
+
+    public void testRequestLine() throws IOException
+    {
+        HttpRequestParser parser = parserFor( "GET /a/b?c=d HTTP/1.1\r\n\r\n" );
+        parser.parseRequestLine();
+
+        assertSame( "GET", parser.getMethod() );
+        assertEquals( "/a/b?c=d", parser.getURI() );
+        assertSame( HttpConstants.HTTP11_VERSION, parser.getVersion() );
+    }
+
+
+    public void testHeaders() throws IOException
+    {
+        HttpRequestParser parser = parserFor( "GET / HTTP/1.1\r\nHost: localhost:8080\r\nX-Custom:  one \r\n"
+            + "x-custom: two\r\nContent-Length: 0\r\n\r\n" );
+        parser.parseRequestLine();
+        parser.parseHeaders();
+
+        assertEquals( 4, parser.getHeaderCount() );
+        assertEquals( "localhost:8080", parser.getHeader( "HOST" ) );
+        assertEquals( "one", parser.getHeader( "x-custom" ) );
+
+        int first = parser.indexOfHeader( "X-CUSTOM", 0 );
+        int second = parser.indexOfHeader( "x-custom", first + 1 );
+        assertEquals( "two", parser.getHeaderValue( second ) );
+        assertEquals( -1, parser.indexOfHeader( "x-custom", second + 1 ) );
+        assertNull( parser.getHeader( "cookie" ) );
+    }
+
+
+    public void testPipelinedRequests() throws IOException
+    {
+        HttpRequestParser parser = parserFor( "POST /first HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello"
+            + "GET /second HTTP/1.0\r\n\r\n" );
+        parser.parseRequestLine();
+        parser.parseHeaders();
+        assertEquals( "/first", parser.getURI() );
+        assertEquals( "hello", new String( parser.readBody( 5 ) ) );
+        assertFalse( parser.isEndOfStream() );
+
+        parser.parseRequestLine();
+        parser.parseHeaders();
+        assertEquals( "/second", parser.getURI() );
+        assertSame( HttpConstants.HTTP10_VERSION, parser.getVersion() );
+        assertEquals( 0, parser.getHeaderCount() );
+        assertTrue( parser.isEndOfStream() );
+    }
+
+
+    public void testChunkedBody() throws IOException
+    {
+        HttpRequestParser parser = parserFor( "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "5;name=value\r\nhello\r\n7\r\n, world\r\n0\r\nX-Trailer: ignored\r\n\r\n"
+            + "GET /next HTTP/1.1\r\n\r\n" );
+        parser.parseRequestLine();
+        parser.parseHeaders();
+        assertEquals( "hello, world", new String( parser.readChunkedBody() ) );
+
+        parser.parseRequestLine();
+        assertEquals( "/next", parser.getURI() );
+    }
+
+
+    public void testTruncatedBody() throws IOException
+    {
+        HttpRequestParser parser = parserFor( "POST / HTTP/1.1\r\nContent-Length: 10\r\n\r\nshort" );
+        parser.parseRequestLine();
+        parser.parseHeaders();
+        try
+        {
+            parser.readBody( 10 );
+            fail( "Truncated body must not be accepted." );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+
+    public void testMalformedRequestLine() throws IOException
+    {
+        HttpRequestParser parser = parserFor( "GET /only-two-tokens\r\n\r\n" );
+        try
+        {
+            parser.parseRequestLine();
+            fail( "Malformed request line must not be accepted." );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+
+    public void testReleaseKeepsPendingBytes() throws IOException
+    {
+        HttpRequestParser parser = parserFor( "GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n" );
+        parser.parseRequestLine();
+        parser.parseHeaders();
+        parser.release();
+
+        parser.parseRequestLine();
+        assertEquals( "/b", parser.getURI() );
+    }
+}
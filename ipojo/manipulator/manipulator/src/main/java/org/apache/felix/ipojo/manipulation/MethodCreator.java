@@ -19,10 +19,12 @@
 package org.apache.felix.ipojo.manipulation;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.felix.ipojo.manipulation.ClassChecker.AnnotationDescriptor;
 import org.objectweb.asm.ClassAdapter;
@@ -91,6 +93,16 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
      */
     private static final  String SET = "onSet";
 
+    /**
+     * onGet method descriptor (pojo, field name, field slot).
+     */
+    private static final  String GET_DESC = "(Ljava/lang/Object;Ljava/lang/String;I)Ljava/lang/Object;";
+
+    /**
+     * onSet method descriptor (pojo, field name, field slot, value).
+     */
+    private static final  String SET_DESC = "(Ljava/lang/Object;Ljava/lang/String;ILjava/lang/Object;)V";
+
     /**
      * Name of the current manipulated class.
      */
@@ -102,6 +114,14 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
      */
     private Set<String> m_fields;
 
+    /**
+     * The field slots: [field name, slot].
+     * The slot of a field is the index of its name in the
+     * sorted field list. The instance manager computes the same
+     * index from the manipulation metadata.
+     */
+    private Map<String, Integer> m_fieldSlots = new HashMap<String, Integer>();
+
     /**
      * List of methods contained in the class.
      * This set contains method id.
@@ -143,6 +163,11 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
         super(arg0);
         m_fields = fields.keySet();
         m_visitedMethods = methods;
+
+        int slot = 0;
+        for (String field : new TreeSet<String>(m_fields)) {
+            m_fieldSlots.put(field, slot++);
+        }
     }
 
     /**
@@ -722,8 +747,9 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
         mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
         mv.visitVarInsn(ALOAD, 0);
         mv.visitLdcInsn(name);
+        pushFieldSlot(mv, name);
         mv.visitVarInsn(ALOAD, 1);
-        mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET, "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V");
+        mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET, SET_DESC);
 
         mv.visitInsn(RETURN);
 
@@ -758,7 +784,8 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
         mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
         mv.visitVarInsn(ALOAD, 0);
         mv.visitLdcInsn(name);
-        mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;");
+        pushFieldSlot(mv, name);
+        mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, GET_DESC);
         mv.visitTypeInsn(CHECKCAST, internalType);
         mv.visitInsn(ARETURN);
 
@@ -806,7 +833,8 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitLdcInsn(name);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;");
+                pushFieldSlot(mv, name);
+                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, GET_DESC);
                 mv.visitVarInsn(ASTORE, 1);
 
                 mv.visitVarInsn(ALOAD, 1);
@@ -838,7 +866,8 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitLdcInsn(name);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;");
+                pushFieldSlot(mv, name);
+                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, GET_DESC);
                 mv.visitVarInsn(ASTORE, 1);
 
                 mv.visitVarInsn(ALOAD, 1);
@@ -871,7 +900,8 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitLdcInsn(name);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;");
+                pushFieldSlot(mv, name);
+                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, GET_DESC);
                 mv.visitVarInsn(ASTORE, 1);
 
                 mv.visitVarInsn(ALOAD, 1);
@@ -904,7 +934,8 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitLdcInsn(name);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;");
+                pushFieldSlot(mv, name);
+                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, GET_DESC);
                 mv.visitVarInsn(ASTORE, 1);
 
                 mv.visitVarInsn(ALOAD, 1);
@@ -933,7 +964,8 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitLdcInsn(name);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;");
+                pushFieldSlot(mv, name);
+                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", GET, GET_DESC);
                 mv.visitTypeInsn(CHECKCAST, type.getInternalName());
                 mv.visitInsn(ARETURN);
 
@@ -994,8 +1026,9 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitLdcInsn(name);
+                pushFieldSlot(mv, name);
                 mv.visitVarInsn(ALOAD, 2);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET, "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V");
+                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET, SET_DESC);
 
                 Label l3 = new Label();
                 mv.visitLabel(l3);
@@ -1033,8 +1066,9 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitLdcInsn(name);
+                pushFieldSlot(mv, name);
                 mv.visitVarInsn(ALOAD, 3);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET, "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V");
+                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET, SET_DESC);
 
                 l3 = new Label();
                 mv.visitLabel(l3);
@@ -1057,8 +1091,9 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
                 mv.visitFieldInsn(GETFIELD, m_owner, IM_FIELD, "Lorg/apache/felix/ipojo/InstanceManager;");
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitLdcInsn(name);
+                pushFieldSlot(mv, name);
                 mv.visitVarInsn(ALOAD, 1);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET, "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V");
+                mv.visitMethodInsn(INVOKEVIRTUAL, "org/apache/felix/ipojo/InstanceManager", SET, SET_DESC);
 
                 mv.visitInsn(RETURN);
                 break;
@@ -1071,4 +1106,25 @@ public class MethodCreator extends ClassAdapter implements Opcodes {
         mv.visitEnd();
     }
 
+    /**
+     * Pushes the slot of the given field on the stack.
+     * Fields unknown from the previous analysis get the <code>-1</code> slot,
+     * the instance manager then looks up the field by name.
+     * @param mv : the method visitor
+     * @param name : the field name
+     */
+    private void pushFieldSlot(MethodVisitor mv, String name) {
+        Integer slot = m_fieldSlots.get(name);
+        int index = slot == null ? -1 : slot.intValue();
+        if (index >= -1 && index <= 5) {
+            mv.visitInsn(ICONST_0 + index);
+        } else if (index <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, index);
+        } else if (index <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, index);
+        } else {
+            mv.visitLdcInsn(new Integer(index));
+        }
+    }
+
 }
@@ -35,4 +35,11 @@ public class InstanceManager {
         return null;
     }
 
+    public Object onGet(Object pojo, String fieldName, int index) {
+        return null;
+    }
+
+    public void onSet(Object pojo, String fieldName, int index, Object value) {
+    }
+
 }
@@ -23,6 +23,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.HashSet;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
@@ -109,6 +110,33 @@ public class ManipulatorTest extends TestCase {
 
     }
 
+    public void testFieldSlots() throws Exception {
+        Manipulator manipulator = new Manipulator();
+        byte[] clazz = manipulator.manipulate(getBytesFromFile(new File("target/test-classes/test/FieldSlots.class")));
+        ManipulatedClassLoader classloader = new ManipulatedClassLoader("test.FieldSlots", clazz);
+        Class cl = classloader.findClass("test.FieldSlots");
+        Assert.assertNotNull(cl);
+
+        // Slots follow the field name order: m_a -> 0, m_b -> 1, m_c -> 2
+        InstanceManager im = (InstanceManager) Mockito.mock(InstanceManager.class);
+        Mockito.when(im.getRegistredFields()).thenReturn(new HashSet(Arrays.asList(new String[] {"m_a", "m_b"})));
+        Mockito.when(im.onGet(Mockito.anyObject(), Mockito.eq("m_a"), Mockito.eq(0))).thenReturn(new Integer(42));
+        Mockito.when(im.onGet(Mockito.anyObject(), Mockito.eq("m_b"), Mockito.eq(1))).thenReturn("foo");
+
+        Constructor cst = cl.getDeclaredConstructor(new Class[] {InstanceManager.class});
+        cst.setAccessible(true);
+        Object pojo = cst.newInstance(new Object[] {im});
+
+        Assert.assertEquals(new Integer(42), cl.getMethod("getA", new Class[0]).invoke(pojo, new Object[0]));
+        Assert.assertEquals("foo", cl.getMethod("getB", new Class[0]).invoke(pojo, new Object[0]));
+        cl.getMethod("setB", new Class[] {String.class}).invoke(pojo, new Object[] {"bar"});
+        Mockito.verify(im).onSet(pojo, "m_b", 1, "bar");
+
+        // m_c is not intercepted, the instance manager is bypassed
+        Assert.assertEquals(Boolean.TRUE, cl.getMethod("getC", new Class[0]).invoke(pojo, new Object[0]));
+        Mockito.verify(im, Mockito.never()).onGet(Mockito.anyObject(), Mockito.eq("m_c"), Mockito.anyInt());
+    }
+
     public void testManipulatingChild() throws Exception {
         Manipulator manipulator = new Manipulator();
         byte[] clazz = manipulator.manipulate(getBytesFromFile(new File("target/test-classes/test/Child.class")));
@@ -25,11 +25,14 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Dictionary;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
+import org.apache.felix.ipojo.metadata.Attribute;
 import org.apache.felix.ipojo.metadata.Element;
 import org.apache.felix.ipojo.parser.ManifestMetadataParser;
 import org.apache.felix.ipojo.parser.ParseException;
@@ -66,6 +69,14 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
      */
     static boolean SYNCHRONOUS_PROCESSING_ENABLED = false;
 
+    /**
+     * The number of threads processing arriving bundles.
+     * Independent bundles are processed concurrently when
+     * more than one thread is used. By default, only one thread
+     * processes bundles.
+     */
+    static int PROCESSING_THREAD_COUNT = 1;
+
     /**
      * Property allowing to set if the internal dispatcher is enabled or disabled.
      * Possible value are either <code>true</code> or <code>false</code>.
@@ -79,6 +90,13 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
      */
     private static final String SYNCHRONOUS_PROCESSING = "ipojo.processing.synchronous";
 
+    /**
+     * Property allowing to set the number of threads processing
+     * arriving bundles in the asynchronous case.
+     * The value is a positive integer, <code>1</code> by default.
+     */
+    private static final String PROCESSING_THREADS = "ipojo.processing.threads";
+
     /**
      * iPOJO Component Type and Instance declaration header.
      */
@@ -121,14 +139,25 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
     /**
      * The list of factory types.
      */
-    private List m_factoryTypes = new ArrayList();
+    private final List m_factoryTypes = new ArrayList();
 
     /**
      * The list of unbound types.
      * A type is unbound if the matching extension is not deployed.
+     * This list is also the lock protecting the factory type list, the
+     * unbound type list and the factories created by each factory type,
+     * as several threads may process bundles.
      */
     private final List m_unboundTypes = new ArrayList();
 
+    /**
+     * The parsed metadata of processed bundles.
+     * This map contains [bundle id, {@link ParsedMetadata}] couples.
+     * An entry is reused while the bundle is not updated, and removed
+     * when the bundle is uninstalled.
+     */
+    private final Map m_metadataCache = new HashMap();
+
     /**
      * The processor analyzing arriving bundles and creating iPOJO contributions.
      */
@@ -152,6 +181,11 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
                 //TODO Should be done in another thread in the asynchronous case.
                 closeManagementFor(event.getBundle());
                 break;
+            case BundleEvent.UNINSTALLED:
+                synchronized (m_metadataCache) {
+                    m_metadataCache.remove(new Long(event.getBundle().getBundleId()));
+                }
+                break;
             default:
                 break;
         }
@@ -167,48 +201,66 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
      */
     private void closeManagementFor(Bundle bundle) {
         List toRemove = new ArrayList();
+        List toStop = new ArrayList();
+        List unbound = new ArrayList();
+        List unboundFactories = new ArrayList();
         // Delete instances declared in the leaving bundle.
         m_creator.removeInstancesFromBundle(bundle.getBundleId());
-        for (int k = 0; k < m_factoryTypes.size(); k++) {
-            ManagedAbstractFactoryType mft = (ManagedAbstractFactoryType) m_factoryTypes.get(k);
-
-            // Look for component type created from this bundle.
-            if (mft.m_created != null) {
-                List cfs = (List) mft.m_created.remove(bundle);
-                for (int i = 0; cfs != null && i < cfs.size(); i++) {
-                    IPojoFactory factory = (IPojoFactory) cfs.get(i);
-                    m_creator.removeFactory(factory);
-                    factory.stop();
-                }
-            }
+        synchronized (m_unboundTypes) {
+            for (int k = 0; k < m_factoryTypes.size(); k++) {
+                ManagedAbstractFactoryType mft = (ManagedAbstractFactoryType) m_factoryTypes.get(k);
 
-            // If the leaving bundle has declared mft : destroy all created factories.
-            if (mft.m_bundle == bundle) {
+                // Look for component type created from this bundle.
                 if (mft.m_created != null) {
-                    Iterator iterator = mft.m_created.keySet().iterator();
-                    while (iterator.hasNext()) {
-                        Bundle key = (Bundle) iterator.next();
-                        List list = (List) mft.m_created.get(key);
-                        for (int i = 0; i < list.size(); i++) {
-                            IPojoFactory factory = (IPojoFactory) list.get(i);
-                            factory.stop();
-                            m_unboundTypes.add(new UnboundComponentType(mft.m_type, factory.m_componentMetadata, factory.getBundleContext()
-                                    .getBundle()));
+                    List cfs = (List) mft.m_created.remove(bundle);
+                    for (int i = 0; cfs != null && i < cfs.size(); i++) {
+                        toStop.add(cfs.get(i));
+                    }
+                }
+
+                // If the leaving bundle has declared mft : destroy all created factories.
+                if (mft.m_bundle == bundle) {
+                    if (mft.m_created != null) {
+                        Iterator iterator = mft.m_created.keySet().iterator();
+                        while (iterator.hasNext()) {
+                            Bundle key = (Bundle) iterator.next();
+                            List list = (List) mft.m_created.get(key);
+                            for (int i = 0; i < list.size(); i++) {
+                                IPojoFactory factory = (IPojoFactory) list.get(i);
+                                unboundFactories.add(factory);
+                                unbound.add(new UnboundComponentType(mft.m_type, factory.m_componentMetadata, factory.getBundleContext()
+                                        .getBundle()));
+                            }
                         }
                     }
+                    toRemove.add(mft);
                 }
-                toRemove.add(mft);
+            }
+
+            for (int i = 0; i < toRemove.size(); i++) {
+                ManagedAbstractFactoryType mft = (ManagedAbstractFactoryType) toRemove.get(i);
+                m_logger.log(Logger.INFO, "The factory type: " + mft.m_type + " is no more available");
+                mft.m_bundle = null;
+                mft.m_clazz = null;
+                mft.m_created = null;
+                mft.m_type = null;
+                m_factoryTypes.remove(mft);
             }
         }
 
-        for (int i = 0; i < toRemove.size(); i++) {
-            ManagedAbstractFactoryType mft = (ManagedAbstractFactoryType) toRemove.get(i);
-            m_logger.log(Logger.INFO, "The factory type: " + mft.m_type + " is no more available");
-            mft.m_bundle = null;
-            mft.m_clazz = null;
-            mft.m_created = null;
-            mft.m_type = null;
-            m_factoryTypes.remove(mft);
+        // Factories are stopped outside of the lock.
+        for (int i = 0; i < toStop.size(); i++) {
+            IPojoFactory factory = (IPojoFactory) toStop.get(i);
+            m_creator.removeFactory(factory);
+            factory.stop();
+        }
+        for (int i = 0; i < unboundFactories.size(); i++) {
+            ((IPojoFactory) unboundFactories.get(i)).stop();
+        }
+        if (! unbound.isEmpty()) {
+            synchronized (m_unboundTypes) {
+                m_unboundTypes.addAll(unbound);
+            }
         }
     }
 
@@ -218,6 +270,7 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
      * @param bundle the bundle to check.
      */
     private void startManagementFor(Bundle bundle) {
+        long begin = System.currentTimeMillis();
         Dictionary dict = bundle.getHeaders();
         // Check for abstract factory type
         String typeHeader = (String) dict.get(IPOJO_EXTENSION);
@@ -241,6 +294,11 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
                 m_logger.log(Logger.ERROR, "A parse exception occurs during the parsing of the bundle " + bundle.getBundleId(), e);
             }
         }
+
+        if (typeHeader != null || header != null) {
+            m_logger.log(Logger.INFO, "Bundle " + bundle.getBundleId() + " (" + bundle.getSymbolicName() + ") processed in "
+                    + (System.currentTimeMillis() - begin) + " ms by " + Thread.currentThread().getName());
+        }
     }
 
     /**
@@ -269,15 +327,22 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
                 return;
             }
             ManagedAbstractFactoryType mft = new ManagedAbstractFactoryType(clazz, type, bundle);
-            m_factoryTypes.add(mft);
+            List bound = new ArrayList();
+            synchronized (m_unboundTypes) {
+                m_factoryTypes.add(mft);
+                for (int j = m_unboundTypes.size() - 1; j >= 0; j--) {
+                    UnboundComponentType unbound = (UnboundComponentType) m_unboundTypes.get(j);
+                    if (unbound.m_type.equals(type)) {
+                        bound.add(unbound);
+                        m_unboundTypes.remove(j);
+                    }
+                }
+            }
             m_logger.log(Logger.DEBUG, "New factory type available: " + type);
 
-            for (int j = m_unboundTypes.size() - 1; j >= 0; j--) {
-                UnboundComponentType unbound = (UnboundComponentType) m_unboundTypes.get(j);
-                if (unbound.m_type.equals(type)) {
-                    createAbstractFactory(unbound.m_bundle, unbound.m_description);
-                    m_unboundTypes.remove(unbound);
-                }
+            for (int j = 0; j < bound.size(); j++) {
+                UnboundComponentType unbound = (UnboundComponentType) bound.get(j);
+                createAbstractFactory(unbound.m_bundle, unbound.m_description);
             }
         }
     }
@@ -292,21 +357,50 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
      * @throws ParseException if the parsing process failed
      */
     private void parse(Bundle bundle, String components) throws IOException, ParseException {
-        ManifestMetadataParser parser = new ManifestMetadataParser();
-        parser.parseHeader(components);
+        ParsedMetadata parsed = getParsedMetadata(bundle, components);
 
         // Get the component type declaration
-        Element[] metadata = parser.getComponentsMetadata();
+        Element[] metadata = parsed.getComponentsMetadata();
         for (int i = 0; i < metadata.length; i++) {
             createAbstractFactory(bundle, metadata[i]);
         }
 
-        Dictionary[] instances = parser.getInstances();
+        Dictionary[] instances = parsed.getInstances();
         for (int i = 0; instances != null && i < instances.length; i++) {
             m_creator.addInstance(instances[i], bundle.getBundleId());
         }
     }
 
+    /**
+     * Gets the parsed metadata of the given bundle.
+     * The metadata are parsed only if the bundle was not already
+     * processed, or if it was updated since (its last modification time
+     * changed).
+     * @param bundle the owner bundle.
+     * @param components The iPOJO Header String.
+     * @return the parsed metadata
+     * @throws ParseException if the parsing process failed
+     */
+    private ParsedMetadata getParsedMetadata(Bundle bundle, String components) throws ParseException {
+        Long key = new Long(bundle.getBundleId());
+        long revision = bundle.getLastModified();
+        synchronized (m_metadataCache) {
+            ParsedMetadata parsed = (ParsedMetadata) m_metadataCache.get(key);
+            if (parsed != null && parsed.m_revision == revision && parsed.m_header.equals(components)) {
+                m_logger.log(Logger.DEBUG, "Reuse the parsed metadata of the bundle " + bundle.getBundleId());
+                return parsed;
+            }
+        }
+
+        ManifestMetadataParser parser = new ManifestMetadataParser();
+        parser.parseHeader(components);
+        ParsedMetadata parsed = new ParsedMetadata(components, revision, parser.getComponentsMetadata(), parser.getInstances());
+        synchronized (m_metadataCache) {
+            m_metadataCache.put(key, parsed);
+        }
+        return parsed;
+    }
+
     /**
      * iPOJO Start method.
      * @param context the iPOJO bundle context.
@@ -321,6 +415,7 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
 
         enablingDispatcher(context, m_logger);
         enablingSynchronousProcessing(context, m_logger);
+        settingProcessingThreads(context, m_logger);
 
         // Create the dispatcher only if required.
         if (DISPATCHER_ENABLED) {
@@ -331,7 +426,7 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
         startManagementFor(m_bundle);
 
         if (! SYNCHRONOUS_PROCESSING_ENABLED) {
-            new Thread(m_processor).start();
+            m_processor.start(PROCESSING_THREAD_COUNT);
         }
 
         synchronized (this) {
@@ -354,31 +449,41 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
      * @see org.osgi.framework.BundleActivator#stop(org.osgi.framework.BundleContext)
      */
     public void stop(BundleContext context) {
-        m_processor.stop(); // Stop the thread processing bundles.
         m_context.removeBundleListener(this);
+        // Stop the threads processing bundles, and wait for the bundles
+        // they are processing, before disposing the factories.
+        m_processor.stop();
 
         if (DISPATCHER_ENABLED) {
             EventDispatcher.dispose();
         }
 
-        for (int k = 0; k < m_factoryTypes.size(); k++) {
-            ManagedAbstractFactoryType mft = (ManagedAbstractFactoryType) m_factoryTypes.get(k);
+        List toDispose = new ArrayList();
+        synchronized (m_unboundTypes) {
+            for (int k = 0; k < m_factoryTypes.size(); k++) {
+                ManagedAbstractFactoryType mft = (ManagedAbstractFactoryType) m_factoryTypes.get(k);
 
-            if (mft.m_created != null) {
-                Iterator iterator = mft.m_created.keySet().iterator();
-                while (iterator.hasNext()) {
-                    Bundle key = (Bundle) iterator.next();
-                    List list = (List) mft.m_created.get(key);
-                    for (int i = 0; i < list.size(); i++) {
-                        IPojoFactory factory = (IPojoFactory) list.get(i);
-                        m_creator.removeFactory(factory);
-                        factory.dispose();
+                if (mft.m_created != null) {
+                    Iterator iterator = mft.m_created.keySet().iterator();
+                    while (iterator.hasNext()) {
+                        Bundle key = (Bundle) iterator.next();
+                        toDispose.addAll((List) mft.m_created.get(key));
                     }
                 }
             }
+            m_factoryTypes.clear();
+            m_unboundTypes.clear();
+        }
+
+        for (int i = 0; i < toDispose.size(); i++) {
+            IPojoFactory factory = (IPojoFactory) toDispose.get(i);
+            m_creator.removeFactory(factory);
+            factory.dispose();
+        }
+        synchronized (m_metadataCache) {
+            m_metadataCache.clear();
         }
 
-        m_factoryTypes = null;
         m_creator = null;
 
         m_logger.log(Logger.INFO, "iPOJO Runtime stopped");
@@ -465,6 +570,41 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
 
     }
 
+    /**
+     * Sets the number of threads processing arriving bundles, so sets the
+     * {@link Extender#PROCESSING_THREAD_COUNT} field.
+     * This method reads the {@link Extender#PROCESSING_THREADS} property.
+     * The property can be set as a system property (<code>ipojo.processing.threads</code>)
+     * or inside the iPOJO bundle manifest (<code>ipojo-processing-threads</code>).
+     * Invalid values are ignored and only one thread is used.
+     * @param context the bundle context.
+     * @param logger the logger to indicates the number of threads.
+     */
+    private static void settingProcessingThreads(BundleContext context, Logger logger) {
+        String value = context.getProperty(PROCESSING_THREADS);
+
+        // If null, look in bundle manifest
+        if (value == null) {
+            String key = PROCESSING_THREADS.replace('.', '-');
+            value = (String) context.getBundle().getHeaders().get(key);
+        }
+
+        Extender.PROCESSING_THREAD_COUNT = 1;
+        if (value != null) {
+            try {
+                int count = Integer.parseInt(value.trim());
+                if (count > 0) {
+                    Extender.PROCESSING_THREAD_COUNT = count;
+                } else {
+                    logger.log(Logger.WARNING, "Invalid number of iPOJO processing threads: " + value);
+                }
+            } catch (NumberFormatException e) {
+                logger.log(Logger.WARNING, "Invalid number of iPOJO processing threads: " + value);
+            }
+        }
+        logger.log(Logger.INFO, "iPOJO bundles processed by " + Extender.PROCESSING_THREAD_COUNT + " thread(s)");
+    }
+
     /**
      * Adds a component factory to the factory list.
      * @param metadata the new component metadata.
@@ -477,42 +617,53 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
         // TODO : Should Element.getQualifiedName() be public ?
         String typeName = metadata.getNameSpace() == null ? metadata.getName() : metadata.getNameSpace()+":"+metadata.getName();
         
-        for (int i = 0; i < m_factoryTypes.size(); i++) {
-            ManagedAbstractFactoryType type = (ManagedAbstractFactoryType) m_factoryTypes.get(i);
-            if (type.m_type.equals(typeName)) {
-                factoryType = type;
-                break;
+        Class clazz;
+        synchronized (m_unboundTypes) {
+            for (int i = 0; i < m_factoryTypes.size(); i++) {
+                ManagedAbstractFactoryType type = (ManagedAbstractFactoryType) m_factoryTypes.get(i);
+                if (type.m_type.equals(typeName)) {
+                    factoryType = type;
+                    break;
+                }
             }
-        }
 
-        // If not found, return. It will wait for a new component type factory.
-        if (factoryType == null) {
-            m_logger.log(Logger.WARNING, "Type of component not available: " + typeName);
-            m_unboundTypes.add(new UnboundComponentType(typeName, metadata, bundle));
-            return;
+            // If not found, return. It will wait for a new component type factory.
+            if (factoryType == null) {
+                m_logger.log(Logger.WARNING, "Type of component not available: " + typeName);
+                m_unboundTypes.add(new UnboundComponentType(typeName, metadata, bundle));
+                return;
+            }
+            clazz = factoryType.m_clazz;
         }
 
         // Once found, we invoke the AbstractFactory constructor to create the component factory.
-        Class clazz = factoryType.m_clazz;
+        // This is done outside of the lock, so bundles can be processed concurrently.
         try {
             // Look for the constructor, and invoke it.
             Constructor cst = clazz.getConstructor(new Class[] { BundleContext.class, Element.class });
             IPojoFactory factory = (IPojoFactory) cst.newInstance(new Object[] { getBundleContext(bundle), metadata });
 
             // Add the created factory in the m_createdFactories map.
-            if (factoryType.m_created == null) {
-                factoryType.m_created = new HashMap();
-                List list = new ArrayList();
-                list.add(factory);
-                factoryType.m_created.put(bundle, list);
-            } else {
-                List list = (List) factoryType.m_created.get(bundle);
-                if (list == null) {
-                    list = new ArrayList();
+            synchronized (m_unboundTypes) {
+                if (factoryType.m_type == null) {
+                    // The extension left in the meantime.
+                    m_unboundTypes.add(new UnboundComponentType(typeName, metadata, bundle));
+                    return;
+                }
+                if (factoryType.m_created == null) {
+                    factoryType.m_created = new HashMap();
+                    List list = new ArrayList();
                     list.add(factory);
                     factoryType.m_created.put(bundle, list);
                 } else {
-                    list.add(factory);
+                    List list = (List) factoryType.m_created.get(bundle);
+                    if (list == null) {
+                        list = new ArrayList();
+                        list.add(factory);
+                        factoryType.m_created.put(bundle, list);
+                    } else {
+                        list.add(factory);
+                    }
                 }
             }
 
@@ -606,6 +757,98 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
         }
     }
 
+    /**
+     * Structure storing the parsed metadata of a bundle.
+     * The stored elements and dictionaries are never given to factories,
+     * which may modify them. Copies are returned instead.
+     */
+    private static final class ParsedMetadata {
+        /**
+         * The parsed iPOJO header.
+         */
+        private final String m_header;
+
+        /**
+         * The last modification time of the bundle when the header was parsed.
+         */
+        private final long m_revision;
+
+        /**
+         * The component type declarations.
+         */
+        private final Element[] m_components;
+
+        /**
+         * The instance declarations, <code>null</code> if none.
+         */
+        private final Dictionary[] m_instances;
+
+        /**
+         * Creates a ParsedMetadata.
+         * @param header the parsed header.
+         * @param revision the last modification time of the bundle.
+         * @param components the component type declarations.
+         * @param instances the instance declarations.
+         */
+        protected ParsedMetadata(String header, long revision, Element[] components, Dictionary[] instances) {
+            m_header = header;
+            m_revision = revision;
+            m_components = components;
+            m_instances = instances;
+        }
+
+        /**
+         * Gets a copy of the component type declarations.
+         * @return the component type declarations.
+         */
+        protected Element[] getComponentsMetadata() {
+            Element[] components = new Element[m_components.length];
+            for (int i = 0; i < components.length; i++) {
+                components[i] = copy(m_components[i]);
+            }
+            return components;
+        }
+
+        /**
+         * Gets a copy of the instance declarations.
+         * @return the instance declarations, <code>null</code> if none.
+         */
+        protected Dictionary[] getInstances() {
+            if (m_instances == null) {
+                return null;
+            }
+            Dictionary[] instances = new Dictionary[m_instances.length];
+            for (int i = 0; i < instances.length; i++) {
+                Dictionary copy = new Properties();
+                Enumeration keys = m_instances[i].keys();
+                while (keys.hasMoreElements()) {
+                    Object key = keys.nextElement();
+                    copy.put(key, m_instances[i].get(key));
+                }
+                instances[i] = copy;
+            }
+            return instances;
+        }
+
+        /**
+         * Creates a deep copy of the given element.
+         * @param element the element to copy.
+         * @return the copy.
+         */
+        private static Element copy(Element element) {
+            Element copy = new Element(element.getName(), element.getNameSpace());
+            Attribute[] atts = element.getAttributes();
+            for (int i = 0; i < atts.length; i++) {
+                copy.addAttribute(new Attribute(atts[i].getName(), atts[i].getNameSpace(), atts[i].getValue()));
+            }
+            Element[] elems = element.getElements();
+            for (int i = 0; i < elems.length; i++) {
+                copy.addElement(copy(elems[i]));
+            }
+            return copy;
+        }
+    }
+
     /**
      * Computes the bundle context from the bundle class by introspection.
      * @param bundle the bundle.
@@ -679,6 +922,8 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
 
     /**
      * The creator thread analyzes arriving bundles to create iPOJO contribution.
+     * Several threads may run the same creator (see {@link Extender#PROCESSING_THREAD_COUNT}),
+     * each of them processing one bundle at a time.
      */
     private class CreatorThread implements Runnable {
 
@@ -692,6 +937,24 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
          */
         private List m_bundles = new ArrayList();
 
+        /**
+         * The threads running this creator.
+         */
+        private final List m_threads = new ArrayList();
+
+        /**
+         * Starts the threads running this creator.
+         * @param count the number of threads
+         */
+        public synchronized void start(int count) {
+            m_started = true;
+            for (int i = 0; i < count; i++) {
+                Thread thread = new Thread(this, "iPOJO Extender #" + i);
+                m_threads.add(thread);
+                thread.start();
+            }
+        }
+
         /**
          * A bundle is arriving.
          * This method is synchronized to avoid concurrent modification of the waiting list.
@@ -720,12 +983,33 @@ public class Extender implements SynchronousBundleListener, BundleActivator {
         }
 
         /**
-         * Stops the creator thread.
+         * Stops the creator threads, and waits until they have
+         * finished processing their current bundle.
+         * A creator thread stopping iPOJO does not wait for itself.
          */
-        public synchronized void stop() {
-            m_started = false;
-            m_bundles.clear();
-            notifyAll();
+        public void stop() {
+            Thread[] threads;
+            synchronized (this) {
+                m_started = false;
+                m_bundles.clear();
+                notifyAll();
+                threads = (Thread[]) m_threads.toArray(new Thread[m_threads.size()]);
+                m_threads.clear();
+            }
+            boolean interrupted = false;
+            for (int i = 0; i < threads.length; i++) {
+                while (threads[i] != Thread.currentThread() && threads[i].isAlive()) {
+                    try {
+                        threads[i].join();
+                    } catch (InterruptedException e) {
+                        // Keep on waiting, the factories cannot be disposed while bundles are processed
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
 
         /**
@@ -68,10 +68,13 @@ public class InstanceCreator implements FactoryStateListener {
 
     /**
      * Adds an instance to manage.
+     * The matching factory is looked up while holding the creator lock,
+     * but the instance is created outside of it, so instances declared by
+     * different bundles can be created concurrently.
      * @param instance the instance configuration
      * @param bundle the bundle id declaring the instance
      */
-    synchronized void addInstance(Dictionary instance, long bundle) {
+    void addInstance(Dictionary instance, long bundle) {
         if (instance.get("factory.version") != null) {
             m_logger.log(Logger.DEBUG, "New instance to managed, looking for " + instance.get("component") + "-" + instance.get("factory.version"));
         } else {
@@ -79,28 +82,36 @@ public class InstanceCreator implements FactoryStateListener {
         }
 
         ManagedInstance managed = new ManagedInstance(instance, bundle);
-        for (int i = 0; i < m_factories.size(); i++) {
-            IPojoFactory factory = (IPojoFactory) m_factories.get(i);
-            if (managed.matchNameAndVersion(factory)) {
-                // Subscribe to the factory state change
-                m_logger.log(Logger.DEBUG, "Listen factory " + factory.getName() + " events");
-                factory.addFactoryStateListener(this);
-                if (factory.getState() == Factory.VALID && managed.match(factory)) {
-                    managed.create(factory);
-                    List list = (List) m_attached.get(factory);
-                    if (list == null) {
-                        list = new ArrayList();
-                        list.add(managed);
-                        m_attached.put(factory, list);
-                    } else {
-                        list.add(managed);
+        IPojoFactory target = null;
+        synchronized (this) {
+            for (int i = 0; i < m_factories.size(); i++) {
+                IPojoFactory factory = (IPojoFactory) m_factories.get(i);
+                if (managed.matchNameAndVersion(factory)) {
+                    // Subscribe to the factory state change
+                    m_logger.log(Logger.DEBUG, "Listen factory " + factory.getName() + " events");
+                    factory.addFactoryStateListener(this);
+                    if (factory.getState() == Factory.VALID && managed.match(factory)) {
+                        managed.attach(factory);
+                        List list = (List) m_attached.get(factory);
+                        if (list == null) {
+                            list = new ArrayList();
+                            list.add(managed);
+                            m_attached.put(factory, list);
+                        } else {
+                            list.add(managed);
+                        }
+                        target = factory;
+                        break;
                     }
-                    return;
                 }
             }
+            if (target == null) {
+                // If there is no matching factory, add the instance to the idle list
+                m_idle.add(managed);
+                return;
+            }
         }
-        // If there is no matching factory, add the instance to the idle list
-        m_idle.add(managed);
+        managed.createIfAttached(target);
     }
 
     /**
@@ -333,11 +344,32 @@ public class InstanceCreator implements FactoryStateListener {
             return false;
         }
 
+        /**
+         * Attaches the managed instance to the given factory.
+         * The instance will be created by {@link ManagedInstance#createIfAttached(IPojoFactory)}.
+         * @param factory the factory to use to create the instance. The factory must match.
+         */
+        public synchronized void attach(IPojoFactory factory) {
+            m_factory = factory;
+        }
+
+        /**
+         * Creates the instance if the managed instance is still attached
+         * to the given factory. The instance may have been disposed (the
+         * factory became invalid) since it was attached.
+         * @param factory the factory to use to create the instance.
+         */
+        public synchronized void createIfAttached(IPojoFactory factory) {
+            if (m_factory == factory && m_instance == null) {
+                create(factory);
+            }
+        }
+
         /**
          * Creates the instance by using the given factory.
          * @param factory the factory to use to create the instance. The factory must match.
          */
-        public void create(IPojoFactory factory) {
+        public synchronized void create(IPojoFactory factory) {
             try {
                 m_factory = factory;
                 m_instance = m_factory.createComponentInstance(m_configuration);
@@ -357,7 +389,7 @@ public class InstanceCreator implements FactoryStateListener {
         /**
          * Disposes the current instance if not <code>null</code>.
          */
-        public void dispose() {
+        public synchronized void dispose() {
             if (m_instance != null) {
                 m_instance.dispose();
             }
@@ -26,14 +26,17 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.felix.ipojo.architecture.InstanceDescription;
 import org.apache.felix.ipojo.metadata.Element;
 import org.apache.felix.ipojo.parser.FieldMetadata;
 import org.apache.felix.ipojo.parser.MethodMetadata;
+import org.apache.felix.ipojo.parser.PojoMetadata;
 import org.apache.felix.ipojo.util.Logger;
 import org.osgi.framework.BundleContext;
 
@@ -105,6 +108,38 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      */
     private Map m_fieldRegistration;
 
+    /**
+     * The field slots of the implementation class.
+     * The manipulator assigns to each field the index of its
+     * name in the sorted list of the class fields. The manipulated
+     * class passes this index to {@link InstanceManager#onGet(Object, String, int)}
+     * and {@link InstanceManager#onSet(Object, String, int, Object)}.
+     * Computed when the first field interceptor is registered.
+     */
+    private String[] m_fieldSlots;
+
+    /**
+     * The map [field name, slot] used when the slot of an accessed
+     * field is unknown or does not match the field.
+     * Once configured, this map can't change.
+     */
+    private Map m_fieldSlotIndex;
+
+    /**
+     * The {@link FieldInterceptor} lists indexed by field slot.
+     * This array mirrors {@link InstanceManager#m_fieldRegistration}.
+     * Once configured, this array can't change.
+     */
+    private FieldInterceptor[][] m_fieldInterceptors;
+
+    /**
+     * The managed field values indexed by field slot.
+     * Reading a value from its slot requires neither locking
+     * nor hashing. Fields without slot are stored in {@link InstanceManager#m_fields}.
+     * Once configured, this array can't change (the slot contents can).
+     */
+    private FieldValue[] m_fieldValues;
+
     /**
      * the map [method identifier, {@link MethodInterceptor} list] interested
      * by the method.
@@ -282,7 +317,10 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
     public synchronized Object getFieldValue(String fieldName, Object pojo) {
         Object setByContainer = null;
 
-        if (m_fields != null) {
+        FieldValue slot = getFieldValueSlot(fieldName, -1);
+        if (slot != null) {
+            setByContainer = slot.m_value;
+        } else if (m_fields != null) {
             setByContainer = m_fields.get(fieldName);
         }
 
@@ -955,23 +993,109 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
     public void register(FieldMetadata field, FieldInterceptor interceptor) {
         if (m_fieldRegistration == null) {
             m_fieldRegistration = new HashMap();
-            m_fieldRegistration.put(field.getFieldName(), new FieldInterceptor[] { interceptor });
+            computeFieldSlots();
+        }
+        FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration.get(field.getFieldName());
+        FieldInterceptor[] newList;
+        if (list == null) {
+            newList = new FieldInterceptor[] { interceptor };
         } else {
-            FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration.get(field.getFieldName());
-            if (list == null) {
-                m_fieldRegistration.put(field.getFieldName(), new FieldInterceptor[] { interceptor });
-            } else {
-                for (int j = 0; j < list.length; j++) {
-                    if (list[j] == interceptor) {
-                        return;
-                    }
+            for (int j = 0; j < list.length; j++) {
+                if (list[j] == interceptor) {
+                    return;
                 }
-                FieldInterceptor[] newList = new FieldInterceptor[list.length + 1];
-                System.arraycopy(list, 0, newList, 0, list.length);
-                newList[list.length] = interceptor;
-                m_fieldRegistration.put(field.getFieldName(), newList);
             }
+            newList = new FieldInterceptor[list.length + 1];
+            System.arraycopy(list, 0, newList, 0, list.length);
+            newList[list.length] = interceptor;
+        }
+        m_fieldRegistration.put(field.getFieldName(), newList);
+
+        // Update the slot table too.
+        Integer slot = (Integer) m_fieldSlotIndex.get(field.getFieldName());
+        if (slot != null) {
+            m_fieldInterceptors[slot.intValue()] = newList;
+        }
+    }
+
+    /**
+     * Computes the field slots of the implementation class.
+     * The slot of a field is the index of its name in the sorted
+     * field name list of the manipulation metadata. This is the
+     * index that the manipulator gives to the field.
+     */
+    private void computeFieldSlots() {
+        PojoMetadata manipulation = m_factory.getPojoMetadata();
+        if (manipulation == null) {
+            m_fieldSlots = new String[0];
+        } else {
+            FieldMetadata[] fields = manipulation.getFields();
+            TreeSet names = new TreeSet();
+            for (int i = 0; i < fields.length; i++) {
+                names.add(fields[i].getFieldName());
+            }
+            m_fieldSlots = new String[names.size()];
+            int i = 0;
+            for (Iterator it = names.iterator(); it.hasNext(); i++) {
+                // Interned so that the comparison with the constant
+                // loaded by the manipulated class is a reference check.
+                m_fieldSlots[i] = ((String) it.next()).intern();
+            }
+        }
+        Map index = new HashMap(m_fieldSlots.length);
+        for (int i = 0; i < m_fieldSlots.length; i++) {
+            index.put(m_fieldSlots[i], new Integer(i));
+        }
+        m_fieldSlotIndex = index;
+        m_fieldInterceptors = new FieldInterceptor[m_fieldSlots.length][];
+        FieldValue[] values = new FieldValue[m_fieldSlots.length];
+        synchronized (this) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new FieldValue();
+                // Moves the values already set to their slot.
+                values[i].m_value = m_fields.remove(m_fieldSlots[i]);
+            }
+            m_fieldValues = values;
+        }
+    }
+
+    /**
+     * Gets the slot storing the value of the given field.
+     * As for {@link InstanceManager#getFieldInterceptors(String, int)},
+     * the name is used if the given slot does not designate the field.
+     * @param fieldName the field name
+     * @param index the field slot, or <code>-1</code> if unknown
+     * @return the value slot, <code>null</code> if the field has no slot
+     */
+    private FieldValue getFieldValueSlot(String fieldName, int index) {
+        FieldValue[] values = m_fieldValues;
+        if (values == null) {
+            return null;
+        }
+        if (index >= 0 && index < m_fieldSlots.length && fieldName == m_fieldSlots[index]) {
+            return values[index];
+        }
+        Integer slot = (Integer) m_fieldSlotIndex.get(fieldName);
+        return slot == null ? null : values[slot.intValue()];
+    }
+
+    /**
+     * Gets the interceptors monitoring the given field.
+     * The slot is used if it designates the given field, the name
+     * is used otherwise (classes manipulated by a previous manipulator,
+     * fields of a manipulated parent class...).
+     * @param fieldName the field name
+     * @param index the field slot, or <code>-1</code> if unknown
+     * @return the interceptor list, <code>null</code> if the field is not monitored
+     */
+    private FieldInterceptor[] getFieldInterceptors(String fieldName, int index) {
+        if (m_fieldRegistration == null) { // Immutable field.
+            return null;
         }
+        if (index >= 0 && index < m_fieldSlots.length && fieldName == m_fieldSlots[index]) {
+            return m_fieldInterceptors[index]; // Immutable list.
+        }
+        return (FieldInterceptor[]) m_fieldRegistration.get(fieldName); // Immutable list.
     }
 
     /**
@@ -1036,15 +1160,33 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      * @param fieldName the field name on which the GETFIELD instruction is called
      * @return the value decided by the last asked handler (throws a warning if two fields decide two different values)
      */
-    public Object  onGet(Object pojo, String fieldName) {
+    public Object onGet(Object pojo, String fieldName) {
+        return onGet(pojo, fieldName, -1);
+    }
+
+    /**
+     * This method is called by the manipulated class each time that a GETFIELD instruction is executed.
+     * The field slot assigned by the manipulator avoids looking up the field interceptors by name.
+     * @param pojo the pojo object on which the field was get
+     * @param fieldName the field name on which the GETFIELD instruction is called
+     * @param index the field slot, <code>-1</code> if unknown
+     * @return the value decided by the last asked handler (throws a warning if two fields decide two different values)
+     * @see InstanceManager#onGet(Object, String)
+     */
+    public Object onGet(Object pojo, String fieldName, int index) {
         Object initialValue = null;
-        synchronized (this) { // Stack confinement.
-            initialValue = m_fields.get(fieldName);
+        FieldValue slot = getFieldValueSlot(fieldName, index);
+        if (slot != null) {
+            initialValue = slot.m_value; // Volatile read, no lock.
+        } else {
+            synchronized (this) { // Stack confinement.
+                initialValue = m_fields.get(fieldName);
+            }
         }
         Object result = initialValue;
         boolean hasChanged = false;
         // Get the list of registered handlers
-        FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration.get(fieldName); // Immutable list.
+        FieldInterceptor[] list = getFieldInterceptors(fieldName, index);
         for (int i = 0; list != null && i < list.length; i++) {
             // Call onGet outside of a synchronized block.
             Object handlerResult = list[i].onGet(null, fieldName, initialValue);
@@ -1067,8 +1209,12 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
         if (hasChanged) {
             // A change occurs => notify the change
             //TODO consider just changing the reference, however multiple thread can be an issue
-            synchronized (this) {
-                m_fields.put(fieldName, result);
+            if (slot != null) {
+                slot.m_value = result;
+            } else {
+                synchronized (this) {
+                    m_fields.put(fieldName, result);
+                }
             }
             // Call onset outside of a synchronized block.
             for (int i = 0; list != null && i < list.length; i++) {
@@ -1202,16 +1348,33 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      * @param objectValue the new value of the field
      */
     public void onSet(final Object pojo, final String fieldName, final Object objectValue) {
-        synchronized (this) {
-            // First, store the new value.
-            // This must be done in a synchronized block to avoid
-            // concurrent modification
-            m_fields.put(fieldName, objectValue);
+        onSet(pojo, fieldName, -1, objectValue);
+    }
+
+    /**
+     * This method is called by the manipulated class each time that a PUTFIELD instruction is executed.
+     * The field slot assigned by the manipulator avoids looking up the field interceptors by name.
+     * @param pojo the pojo object on which the field was set
+     * @param fieldName the field name on which the PUTFIELD instruction is called
+     * @param index the field slot, <code>-1</code> if unknown
+     * @param objectValue the new value of the field
+     * @see InstanceManager#onSet(Object, String, Object)
+     */
+    public void onSet(final Object pojo, final String fieldName, final int index, final Object objectValue) {
+        // First, store the new value.
+        FieldValue slot = getFieldValueSlot(fieldName, index);
+        if (slot != null) {
+            slot.m_value = objectValue;
+        } else {
+            synchronized (this) {
+                // This must be done in a synchronized block to avoid
+                // concurrent modification
+                m_fields.put(fieldName, objectValue);
+            }
         }
         // The registrations cannot be modified, so we can directly access
         // the interceptor list.
-        FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration
-                .get(fieldName);
+        FieldInterceptor[] list = getFieldInterceptors(fieldName, index);
         for (int i = 0; list != null && i < list.length; i++) {
              // The callback must be call outside the synchronization block.
             list[i].onSet(null, fieldName, objectValue);
@@ -1368,4 +1531,15 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
             return m_methodRegistration.keySet();
         }
     }
+
+    /**
+     * The value of a managed field.
+     * The value is volatile so that it can be read and written without locking.
+     */
+    private static final class FieldValue {
+        /**
+         * The current field value.
+         */
+        volatile Object m_value;
+    }
 }
@@ -128,6 +128,20 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      */
     private Object m_proxyObject;
 
+    /**
+     * The matching reference snapshot used to build {@link Dependency#m_sharedServices}.
+     */
+    private ServiceReference[] m_sharedRefs;
+
+    /**
+     * The service objects of {@link Dependency#m_sharedRefs}.
+     * Aggregate dependencies copy them into the injected array or
+     * collection as long as the matching reference set does not change,
+     * instead of getting the service objects each time a thread touches
+     * the field. This array is never injected nor modified.
+     */
+    private Object[] m_sharedServices;
+
     /**
      * Constructor paramter index.
      * -1 if not used.
@@ -225,6 +239,8 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
      */
     public synchronized void stop() {
         m_isStarted = false;
+        m_sharedRefs = null;
+        m_sharedServices = null;
         super.stop();
     }
 
@@ -534,7 +550,8 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
         if (refs == null) {
             return null;
         } else {
-            return Arrays.asList(refs);
+            // The snapshot is shared, so the caller gets its own copy.
+            return new ArrayList(Arrays.asList(refs));
         }
     }
 
@@ -668,11 +685,9 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                         usage.m_object = (Object[]) Array.newInstance(getSpecification(), 0); // Create an empty array.
                     } else {
                         //  Use a reflective construction to avoid class cast exception. This method allows setting the component type.
-                        Object[] objs = (Object[]) Array.newInstance(getSpecification(), refs.length);
-                        for (int i = 0; refs != null && i < refs.length; i++) {
-                            ServiceReference ref = refs[i];
-                            objs[i] = getService(ref);
-                        }
+                        Object[] services = getServiceObjects(refs);
+                        Object[] objs = (Object[]) Array.newInstance(getSpecification(), services.length);
+                        System.arraycopy(services, 0, objs, 0, services.length);
                         usage.m_object = objs;
                     }
                 } catch (ArrayStoreException e) {
@@ -684,41 +699,52 @@ public class Dependency extends DependencyModel implements FieldInterceptor, Met
                     usage.m_object = new ArrayList(0); // Create an empty list.
                 } else {
                    // Use a list to store service objects
-                    List objs = new ArrayList(refs.length);
-                    for (int i = 0; refs != null && i < refs.length; i++) {
-                        ServiceReference ref = refs[i];
-                        objs.add(getService(ref));
-                    }
-                    usage.m_object = objs;
+                    usage.m_object = new ArrayList(Arrays.asList(getServiceObjects(refs)));
                 }
             } else if (m_type == DependencyHandler.VECTOR) {
                 if (refs == null) {
                     usage.m_object = new Vector(0); // Create an empty vector.
                 } else {
                    // Use a vector to store service objects
-                    Vector objs = new Vector(refs.length);
-                    for (int i = 0; refs != null && i < refs.length; i++) {
-                        ServiceReference ref = refs[i];
-                        objs.add(getService(ref));
-                    }
-                    usage.m_object = objs;
+                    usage.m_object = new Vector(Arrays.asList(getServiceObjects(refs)));
                 }
             } else if (m_type == DependencyHandler.SET) {
                 if (refs == null) {
                     usage.m_object = new HashSet(0); // Create an empty vector.
                 } else {
                    // Use a vector to store service objects
-                    Set objs = new HashSet(refs.length);
-                    for (int i = 0; refs != null && i < refs.length; i++) {
-                        ServiceReference ref = refs[i];
-                        objs.add(getService(ref));
-                    }
-                    usage.m_object = objs;
+                    usage.m_object = new HashSet(Arrays.asList(getServiceObjects(refs)));
                 }
             }
         }
     }
 
+    /**
+     * Gets the service objects of the given reference snapshot.
+     * They are kept while the matching set does not change, so that
+     * each injection only copies them into its own array or collection.
+     * @param refs the matching reference snapshot
+     * @return the service objects, which must not be modified
+     */
+    private Object[] getServiceObjects(ServiceReference[] refs) {
+        synchronized (this) {
+            if (refs == m_sharedRefs) {
+                return m_sharedServices;
+            }
+        }
+        Object[] services = new Object[refs.length];
+        for (int i = 0; i < refs.length; i++) {
+            services[i] = getService(refs[i]);
+        }
+        synchronized (this) {
+            if (m_isStarted) {
+                m_sharedRefs = refs;
+                m_sharedServices = services;
+            }
+        }
+        return services;
+    }
+
     /**
      * The field was set.
      * This method should not be call if the POJO is written correctly.
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -149,6 +150,22 @@ public abstract class DependencyModel implements TrackerCustomizer {
      */
     private final List m_matchingRefs = new ArrayList();
 
+    /**
+     * Is the matching reference list sorted according to the comparator?
+     * Arrivals are inserted at their rank (binary search) while the list
+     * is sorted. The list stops being sorted when a reference is appended
+     * to avoid a re-binding, or when a reference is modified. It is then
+     * fully sorted the next time a sort is required.
+     */
+    private boolean m_sorted = true;
+
+    /**
+     * The immutable snapshot of the matching references returned by
+     * {@link DependencyModel#getServiceReferences()}. Computed lazily
+     * and discarded each time the matching reference list changes.
+     */
+    private ServiceReference[] m_snapshot;
+
     /**
      * The instance requiring the service.
      */
@@ -217,7 +234,11 @@ public abstract class DependencyModel implements TrackerCustomizer {
             m_tracker.close();
             m_tracker = null;
         }
-        m_matchingRefs.clear();
+        synchronized (this) {
+            m_matchingRefs.clear();
+            m_sorted = true;
+            m_snapshot = null;
+        }
         ungetAllServices();
         m_state = UNRESOLVED;
     }
@@ -370,20 +391,16 @@ public abstract class DependencyModel implements TrackerCustomizer {
         int size;
 
         synchronized (this) {
-            m_matchingRefs.add(ref);
-
-            // Sort the collection if needed, if not sort, services are append to the list.
-            if (m_comparator != null) {
-                // The collection must be sort only if:
-                // The policy is dynamic-priority
-                // No services are already used
-                // If so, sorting can imply a re-binding, and so don't follow the Dynamic Binding policy
-                if (m_policy == DYNAMIC_PRIORITY_BINDING_POLICY
-                       || m_tracker.getUsedServiceReferences() == null
-                       || m_tracker.getUsedServiceReferences().isEmpty()) {
-                    Collections.sort(m_matchingRefs, m_comparator);
-                }
-            }
+            // Insert the reference at its rank if needed, if not, services are append to the list.
+            // The collection must be sort only if:
+            // The policy is dynamic-priority
+            // No services are already used
+            // If so, sorting can imply a re-binding, and so don't follow the Dynamic Binding policy
+            boolean sort = m_comparator != null
+                && (m_policy == DYNAMIC_PRIORITY_BINDING_POLICY
+                       || m_tracker == null
+                       || ! m_tracker.hasUsedServiceReferences());
+            addMatchingReference(ref, sort);
 
             size = m_matchingRefs.size();
         }
@@ -451,6 +468,7 @@ public abstract class DependencyModel implements TrackerCustomizer {
         } else {
             synchronized (this) {
                 m_matchingRefs.remove(ref);
+                m_snapshot = null;
             }
             if (obj == null) {
                 computeDependencyState(); // check if the dependency stills valid.
@@ -461,7 +479,9 @@ public abstract class DependencyModel implements TrackerCustomizer {
                 // Aggregate dependencies does not need to be sort, as it will change the array
                 // order.
                 if (m_comparator != null && m_policy == DYNAMIC_BINDING_POLICY && ! m_aggregate) {
-                    Collections.sort(m_matchingRefs, m_comparator);
+                    synchronized (this) {
+                        sortMatchingReferences();
+                    }
                 }
                 onServiceDeparture(ref);
                 ServiceReference newRef = getServiceReference();
@@ -528,11 +548,75 @@ public abstract class DependencyModel implements TrackerCustomizer {
     public ServiceReference[] getServiceReferences() {
         synchronized (this) {
             if (m_matchingRefs.isEmpty()) { return null; }
-            // TODO Consider sorting the array (on a copy of matching ref) if dynamic priority used.
-            return (ServiceReference[]) m_matchingRefs.toArray(new ServiceReference[m_matchingRefs.size()]);
+            if (m_snapshot == null) {
+                m_snapshot = (ServiceReference[]) m_matchingRefs.toArray(new ServiceReference[m_matchingRefs.size()]);
+            }
+            return m_snapshot;
         }
     }
 
+    /**
+     * Adds a reference to the matching reference list.
+     * This method must be called in a synchronized block.
+     * @param ref the reference to add
+     * @param sort <code>true</code> if the reference must be inserted at
+     * its rank, <code>false</code> to append it.
+     */
+    private void addMatchingReference(ServiceReference ref, boolean sort) {
+        if (m_comparator == null) {
+            m_matchingRefs.add(ref);
+        } else if (sort) {
+            if (m_sorted) {
+                m_matchingRefs.add(getInsertionIndex(ref), ref);
+            } else {
+                m_matchingRefs.add(ref);
+                sortMatchingReferences();
+            }
+        } else {
+            // Appending keeps the list sorted only if the reference ranks last.
+            int size = m_matchingRefs.size();
+            if (size > 0 && m_comparator.compare(m_matchingRefs.get(size - 1), ref) > 0) {
+                m_sorted = false;
+            }
+            m_matchingRefs.add(ref);
+        }
+        m_snapshot = null;
+    }
+
+    /**
+     * Computes the index where the given reference must be inserted
+     * in the sorted matching reference list. The reference is placed after
+     * the references with the same rank, as a stable sort would do.
+     * This method must be called in a synchronized block.
+     * @param ref the reference to insert
+     * @return the insertion index
+     */
+    private int getInsertionIndex(ServiceReference ref) {
+        int low = 0;
+        int high = m_matchingRefs.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (m_comparator.compare(m_matchingRefs.get(mid), ref) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Sorts the matching reference list if it is not already sorted.
+     * This method must be called in a synchronized block.
+     */
+    private void sortMatchingReferences() {
+        if (! m_sorted && m_comparator != null) {
+            Collections.sort(m_matchingRefs, m_comparator);
+            m_snapshot = null;
+        }
+        m_sorted = true;
+    }
+
     /**
      * Gets the list of currently used service references.
      * If no service references, returns <code>null</code>
@@ -543,15 +627,11 @@ public abstract class DependencyModel implements TrackerCustomizer {
             // The list must confront actual matching services with already get services from the tracker.
 
             int size = m_matchingRefs.size();
-            List usedByTracker = null;
-            if (m_tracker != null) {
-                usedByTracker = m_tracker.getUsedServiceReferences();
-            }
-            if (size == 0 || usedByTracker == null) { return null; }
+            if (size == 0 || m_tracker == null || ! m_tracker.hasUsedServiceReferences()) { return null; }
 
             List list = new ArrayList(1);
             for (int i = 0; i < size; i++) {
-                if (usedByTracker.contains(m_matchingRefs.get(i))) {
+                if (m_tracker.isUsed((ServiceReference) m_matchingRefs.get(i))) {
                     list.add(m_matchingRefs.get(i)); // Add the service in the list.
                     if (!isAggregate()) { // IF we are not multiple, return the list when the first element is found.
                         return list;
@@ -602,15 +682,29 @@ public abstract class DependencyModel implements TrackerCustomizer {
     public void manageModification(ServiceReference ref) {
         if (m_policy == DYNAMIC_PRIORITY_BINDING_POLICY) {
             // Check that the order has changed or not.
-            int indexBefore = m_matchingRefs.indexOf(ref);
-            Collections.sort(m_matchingRefs, m_comparator);
-            if (indexBefore != m_matchingRefs.indexOf(ref) && ! m_aggregate) {
+            // The modified reference is moved to its new rank, the others keep their order.
+            int indexBefore;
+            int indexAfter;
+            synchronized (this) {
+                indexBefore = m_matchingRefs.indexOf(ref);
+                if (indexBefore == -1) {
+                    return;
+                }
+                m_matchingRefs.remove(indexBefore);
+                addMatchingReference(ref, true);
+                indexAfter = m_matchingRefs.indexOf(ref);
+            }
+            if (indexBefore != indexAfter && ! m_aggregate) {
                 // The order has changed during the sort.
                 onServiceDeparture((ServiceReference) m_matchingRefs.get(1));
                 onServiceArrival(ref);
             }
 
         } else {
+            // The rank of the reference may have changed.
+            synchronized (this) {
+                m_sorted = false;
+            }
             // It's a modification...
             onServiceModification(ref);
         }
@@ -692,6 +786,7 @@ public abstract class DependencyModel implements TrackerCustomizer {
                 // Get actually all tracked references.
                 ServiceReference[] refs = m_tracker.getServiceReferences();
 
+                m_snapshot = null;
                 if (refs == null) {
                     for (int j = 0; j < m_matchingRefs.size(); j++) {
                         // All references need to be removed.
@@ -699,6 +794,7 @@ public abstract class DependencyModel implements TrackerCustomizer {
                     }
                     // No more matching dependency. Clear the matching reference set.
                     m_matchingRefs.clear();
+                    m_sorted = true;
                 } else {
                     // Compute matching services.
                     List matching = new ArrayList();
@@ -708,10 +804,11 @@ public abstract class DependencyModel implements TrackerCustomizer {
                         }
                     }
                     // Now compare with used services.
+                    Set matchingSet = new HashSet(matching);
                     for (int j = 0; j < m_matchingRefs.size(); j++) {
                         ServiceReference ref = (ServiceReference) m_matchingRefs.get(j);
                         // Check if the reference is inside the matching list:
-                        if (!matching.contains(ref)) {
+                        if (!matchingSet.contains(ref)) {
                             // The reference should be removed
                             toRemove.add(ref);
                         }
@@ -722,8 +819,9 @@ public abstract class DependencyModel implements TrackerCustomizer {
 
                     // Then, add new matching services.
 
+                    Set matchingRefs = new HashSet(m_matchingRefs);
                     for (int k = 0; k < matching.size(); k++) {
-                        if (!m_matchingRefs.contains(matching.get(k))) {
+                        if (!matchingRefs.contains(matching.get(k))) {
                             m_matchingRefs.add(matching.get(k));
                             toAdd.add(matching.get(k));
                         }
@@ -732,6 +830,7 @@ public abstract class DependencyModel implements TrackerCustomizer {
                     // Sort the collections if needed.
                     if (m_comparator != null) {
                         Collections.sort(m_matchingRefs, m_comparator);
+                        m_sorted = true;
                         Collections.sort(toAdd, m_comparator);
                         Collections.sort(toRemove, m_comparator);
                     }
@@ -871,8 +970,9 @@ public abstract class DependencyModel implements TrackerCustomizer {
         // TODO supporting dynamic policy change.
     }
 
-    public void setComparator(Comparator cmp) {
+    public synchronized void setComparator(Comparator cmp) {
         m_comparator = cmp;
+        m_sorted = false;
         // NOTE: the array will be sorted at the next get.
     }
 
@@ -394,6 +394,38 @@ public class Tracker implements TrackerCustomizer {
         }
     }
 
+    /**
+     * Checks whether the tracker has already got at least one service object.
+     * This method avoids building the list returned by
+     * {@link Tracker#getUsedServiceReferences()}.
+     * @return <code>true</code> if at least one tracked reference is used.
+     */
+    public boolean hasUsedServiceReferences() {
+        Tracked tracked = this.m_tracked; // use local var since we are not synchronized
+        if (tracked == null) { // if Tracker is not open
+            return false;
+        }
+        synchronized (tracked) {
+            return tracked.m_used > 0;
+        }
+    }
+
+    /**
+     * Checks whether the tracker has already got the service object
+     * of the given reference.
+     * @param reference the reference to check
+     * @return <code>true</code> if the reference is tracked and used.
+     */
+    public boolean isUsed(ServiceReference reference) {
+        Tracked tracked = this.m_tracked; // use local var since we are not synchronized
+        if (tracked == null) { // if Tracker is not open
+            return false;
+        }
+        synchronized (tracked) {
+            return tracked.get(reference) != null;
+        }
+    }
+
     /**
      * Returns a ServiceReference object for one of the services being tracked by this Tracker object.
      * If multiple services are being tracked, the service with the highest ranking (as specified in its service.ranking property) is returned.
@@ -562,6 +594,12 @@ public class Tracker implements TrackerCustomizer {
          */
         private List m_initial;
 
+        /**
+         * The number of tracked references whose service object has already been got.
+         * It is maintained by {@link Tracked#put(Object, Object)} and {@link Tracked#remove(Object)}.
+         */
+        private int m_used;
+
         /**
          * Tracked constructor.
          */
@@ -572,6 +610,37 @@ public class Tracker implements TrackerCustomizer {
             m_initial = new LinkedList();
         }
 
+        /**
+         * Associates a service object to a tracked reference, counting the used references.
+         * @param key the reference
+         * @param value the service object, <code>null</code> if not yet got
+         * @return the previous service object
+         * @see java.util.HashMap#put(java.lang.Object, java.lang.Object)
+         */
+        public Object put(Object key, Object value) {
+            Object previous = super.put(key, value);
+            if (previous == null && value != null) {
+                m_used++;
+            } else if (previous != null && value == null) {
+                m_used--;
+            }
+            return previous;
+        }
+
+        /**
+         * Removes a tracked reference, counting the used references.
+         * @param key the reference
+         * @return the service object of the reference
+         * @see java.util.HashMap#remove(java.lang.Object)
+         */
+        public Object remove(Object key) {
+            Object previous = super.remove(key);
+            if (previous != null) {
+                m_used--;
+            }
+            return previous;
+        }
+
         /**
          * Sets initial list of services into tracker before ServiceEvents begin to be received. This method must be called from Tracker.open while synchronized on this object in the same synchronized block as the addServiceListener call.
          * @param references The initial list of services to be tracked.
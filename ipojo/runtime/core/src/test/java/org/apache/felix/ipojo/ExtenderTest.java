@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.ipojo;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+
+/**
+ * Checks the processing of bundles by several extender threads.
+ * The bundles declare an extension, whose class loading is used
+ * to observe and to block the processing.
+ */
+public class ExtenderTest extends TestCase {
+
+    private static final long TIMEOUT = 5000;
+
+    private Extender m_extender;
+
+    private BundleContext m_context;
+
+    private Properties m_properties;
+
+    public void setUp() {
+        m_extender = new Extender();
+        m_properties = new Properties();
+        m_context = (BundleContext) createProxy(BundleContext.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getProperty")) {
+                    return m_properties.getProperty((String) args[0]);
+                } else if (method.getName().equals("getBundle")) {
+                    return createBundle(0, null);
+                } else if (method.getName().equals("getBundles")) {
+                    return new Bundle[0];
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Checks that two bundles are processed at the same time
+     * when two threads are configured.
+     */
+    public void testConcurrentProcessing() throws Exception {
+        m_properties.put("ipojo.processing.threads", "2");
+        final Object lock = new Object();
+        final int[] processing = new int[2];
+        ClassLoaderCallback callback = new ClassLoaderCallback() {
+            public Class loadClass() {
+                synchronized (lock) {
+                    processing[0]++;
+                    processing[1] = Math.max(processing[1], processing[0]);
+                    lock.notifyAll();
+                    long end = System.currentTimeMillis() + TIMEOUT;
+                    long now;
+                    // Wait for the other bundle
+                    while (processing[1] < 2 && (now = System.currentTimeMillis()) < end) {
+                        try {
+                            lock.wait(end - now);
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                    processing[0]--;
+                    lock.notifyAll();
+                }
+                return Object.class;
+            }
+        };
+
+        m_extender.start(m_context);
+        try {
+            m_extender.bundleChanged(new BundleEvent(BundleEvent.STARTED, createBundle(1, callback)));
+            m_extender.bundleChanged(new BundleEvent(BundleEvent.STARTED, createBundle(2, callback)));
+            synchronized (lock) {
+                long end = System.currentTimeMillis() + TIMEOUT;
+                long now;
+                while (processing[1] < 2 && (now = System.currentTimeMillis()) < end) {
+                    lock.wait(end - now);
+                }
+                assertEquals(2, processing[1]);
+            }
+        } finally {
+            m_extender.stop(m_context);
+        }
+    }
+
+    /**
+     * Checks that stopping the extender waits for the bundle being
+     * processed, and that the processing thread is gone afterwards.
+     */
+    public void testStopWaitsForProcessing() throws Exception {
+        final Object lock = new Object();
+        final boolean[] state = new boolean[3]; // entered, released, finished
+        ClassLoaderCallback callback = new ClassLoaderCallback() {
+            public Class loadClass() {
+                synchronized (lock) {
+                    state[0] = true;
+                    lock.notifyAll();
+                    while (!state[1]) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                    state[2] = true;
+                }
+                // The extension is registered once the class is loaded
+                return Object.class;
+            }
+        };
+
+        m_extender.start(m_context);
+        m_extender.bundleChanged(new BundleEvent(BundleEvent.STARTED, createBundle(1, callback)));
+        synchronized (lock) {
+            while (!state[0]) {
+                lock.wait(TIMEOUT);
+            }
+        }
+
+        final Throwable[] failure = new Throwable[1];
+        Thread stopper = new Thread() {
+            public void run() {
+                try {
+                    m_extender.stop(m_context);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        stopper.start();
+        stopper.join(500);
+        assertTrue("stop() must wait for the bundle being processed", stopper.isAlive());
+
+        synchronized (lock) {
+            state[1] = true;
+            lock.notifyAll();
+        }
+        stopper.join(TIMEOUT);
+        assertFalse(stopper.isAlive());
+        assertNull(failure[0]);
+        synchronized (lock) {
+            assertTrue(state[2]);
+        }
+        assertFalse("The processing threads must be stopped", isExtenderThreadAlive());
+    }
+
+    private static boolean isExtenderThreadAlive() {
+        Thread[] threads = new Thread[Thread.activeCount() * 2];
+        int count = Thread.enumerate(threads);
+        for (int i = 0; i < count; i++) {
+            if (threads[i].getName().startsWith("iPOJO Extender #")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Bundle createBundle(final long id, final ClassLoaderCallback callback) {
+        final Hashtable headers = new Hashtable();
+        if (callback != null) {
+            headers.put("IPOJO-Extension", "test:org.apache.felix.ipojo.test.Extension" + id);
+        }
+        return (Bundle) createProxy(Bundle.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getHeaders")) {
+                    return headers;
+                } else if (method.getName().equals("getBundleId")) {
+                    return new Long(id);
+                } else if (method.getName().equals("getState")) {
+                    return new Integer(Bundle.ACTIVE);
+                } else if (method.getName().equals("loadClass")) {
+                    return callback.loadClass();
+                } else if (method.getName().equals("equals")) {
+                    return Boolean.valueOf(proxy == args[0]);
+                } else if (method.getName().equals("hashCode")) {
+                    return new Integer(System.identityHashCode(proxy));
+                } else if (method.getName().equals("toString")) {
+                    return "bundle " + id;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Object createProxy(Class clazz, InvocationHandler handler) {
+        return Proxy.newProxyInstance(ExtenderTest.class.getClassLoader(), new Class[] {clazz}, handler);
+    }
+
+    private interface ClassLoaderCallback {
+        Class loadClass();
+    }
+}
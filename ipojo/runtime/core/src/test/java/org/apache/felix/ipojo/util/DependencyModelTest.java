@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.ipojo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.apache.felix.ipojo.ComponentInstance;
+import org.mockito.Mockito;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+public class DependencyModelTest extends TestCase {
+
+    private BundleContext m_context;
+
+    private List m_arrivals;
+
+    private List m_departures;
+
+    private long m_id;
+
+    public void setUp() {
+        m_context = (BundleContext) Mockito.mock(BundleContext.class);
+        m_arrivals = new ArrayList();
+        m_departures = new ArrayList();
+        m_id = 0;
+    }
+
+    /**
+     * Checks that arrivals and modifications keep the matching
+     * references ranked.
+     */
+    public void testRankedInsertion() {
+        DependencyModel dep = createDependency(true, DependencyModel.DYNAMIC_PRIORITY_BINDING_POLICY);
+        dep.start();
+
+        ServiceReference r1 = createReference(1);
+        ServiceReference r5 = createReference(5);
+        ServiceReference r3 = createReference(3);
+        ServiceReference r3b = createReference(3);
+        dep.addedService(r1);
+        dep.addedService(r5);
+        dep.addedService(r3);
+        dep.addedService(r3b);
+
+        assertOrder(new ServiceReference[] {r5, r3, r3b, r1}, dep.getServiceReferences());
+
+        // Modification moves the reference to its new rank.
+        Mockito.when(r1.getProperty(Constants.SERVICE_RANKING)).thenReturn(new Integer(4));
+        dep.modifiedService(r1, null);
+        assertOrder(new ServiceReference[] {r5, r1, r3, r3b}, dep.getServiceReferences());
+
+        dep.removedService(r5, null);
+        assertOrder(new ServiceReference[] {r1, r3, r3b}, dep.getServiceReferences());
+
+        dep.stop();
+    }
+
+    /**
+     * Checks that the scalar dynamic-priority dependency rebinds when
+     * a better service arrives.
+     */
+    public void testPriorityRebinding() {
+        DependencyModel dep = createDependency(false, DependencyModel.DYNAMIC_PRIORITY_BINDING_POLICY);
+        dep.start();
+
+        ServiceReference r1 = createReference(1);
+        ServiceReference r5 = createReference(5);
+        dep.addedService(r1);
+        dep.addedService(r5);
+
+        Assert.assertEquals(r5, dep.getServiceReference());
+        Assert.assertEquals(2, m_arrivals.size());
+        Assert.assertEquals(r5, m_arrivals.get(1));
+        Assert.assertEquals(r1, m_departures.get(0));
+
+        dep.stop();
+    }
+
+    /**
+     * Checks that the snapshot is reused while the matching set does not change.
+     */
+    public void testSnapshot() {
+        DependencyModel dep = createDependency(true, DependencyModel.DYNAMIC_BINDING_POLICY);
+        dep.start();
+        Assert.assertNull(dep.getServiceReferences());
+
+        dep.addedService(createReference(0));
+        ServiceReference[] snapshot = dep.getServiceReferences();
+        Assert.assertSame(snapshot, dep.getServiceReferences());
+
+        dep.addedService(createReference(0));
+        Assert.assertNotSame(snapshot, dep.getServiceReferences());
+        Assert.assertEquals(2, dep.getServiceReferences().length);
+
+        dep.stop();
+    }
+
+    private void assertOrder(ServiceReference[] expected, ServiceReference[] refs) {
+        Assert.assertNotNull(refs);
+        Assert.assertEquals(expected.length, refs.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertSame("Bad reference at " + i, expected[i], refs[i]);
+        }
+    }
+
+    private ServiceReference createReference(int ranking) {
+        ServiceReference ref = (ServiceReference) Mockito.mock(ServiceReference.class);
+        Mockito.when(ref.getProperty(Constants.SERVICE_RANKING)).thenReturn(new Integer(ranking));
+        Mockito.when(ref.getProperty(Constants.SERVICE_ID)).thenReturn(new Long(m_id++));
+        return ref;
+    }
+
+    private DependencyModel createDependency(boolean aggregate, int policy) {
+        DependencyStateListener listener = (DependencyStateListener) Mockito.mock(DependencyStateListener.class);
+        ComponentInstance instance = (ComponentInstance) Mockito.mock(ComponentInstance.class);
+        return new DependencyModel(Runnable.class, aggregate, true, null, null, policy, m_context, listener, instance) {
+            public void onServiceArrival(ServiceReference ref) {
+                m_arrivals.add(ref);
+            }
+
+            public void onServiceDeparture(ServiceReference ref) {
+                m_departures.add(ref);
+            }
+
+            public void onServiceModification(ServiceReference ref) {
+            }
+
+            public void onDependencyReconfiguration(ServiceReference[] departs, ServiceReference[] arrivals) {
+            }
+        };
+    }
+
+}
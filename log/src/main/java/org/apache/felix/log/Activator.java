@@ -18,6 +18,11 @@
  */
 package org.apache.felix.log;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Hashtable;
+
+import org.apache.felix.log.store.LogStore;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.log.LogReaderService;
@@ -43,6 +48,30 @@ import org.osgi.service.log.LogService;
  *   <dt>org.apache.felix.log.storeDebug</dt>
  *   <dd>Determines whether or not debug messages will be stored as part of
  *       the historic log information. The default value is false.</dd>
+ *
+ *   <dt>org.apache.felix.log.listenerQueueSize</dt>
+ *   <dd>Determines the maximum number of log entries waiting to be delivered
+ *       to a log listener.  Entries which do not fit are dropped, and the
+ *       listener receives a warning entry telling how many were dropped.
+ *       The default value is 10000.</dd>
+ *
+ *   <dt>org.apache.felix.log.store.enabled</dt>
+ *   <dd>Determines whether or not log entries are also written to the on-disk
+ *       log store, which keeps them across framework restarts and registers
+ *       the {@link org.apache.felix.log.store.LogStore} service and the
+ *       <code>log:query</code> command.  The default value is false.</dd>
+ *
+ *   <dt>org.apache.felix.log.store.dir</dt>
+ *   <dd>Determines the directory of the log store.  The default is the
+ *       <code>store</code> directory in the bundle data area.</dd>
+ *
+ *   <dt>org.apache.felix.log.store.segmentSize</dt>
+ *   <dd>Determines the size in bytes of each file of the log store.  The
+ *       default value is 4194304.</dd>
+ *
+ *   <dt>org.apache.felix.log.store.segments</dt>
+ *   <dd>Determines the number of files kept by the log store; the oldest file
+ *       is deleted when a new one is started.  The default value is 8.</dd>
  * </dl>
  */
 public final class Activator implements BundleActivator
@@ -55,8 +84,28 @@ public final class Activator implements BundleActivator
     private static final String STORE_DEBUG_PROPERTY = "org.apache.felix.log.storeDebug";
     /** The default value for the store debug property. */
     private static final boolean DEFAULT_STORE_DEBUG = false;
+    /** The name of the property that defines the size of the listener queues. */
+    private static final String LISTENER_QUEUE_SIZE_PROPERTY = "org.apache.felix.log.listenerQueueSize";
+    /** The default value for the listener queue size property. */
+    private static final int DEFAULT_LISTENER_QUEUE_SIZE = 10000;
+    /** The name of the property that defines whether the log store is enabled. */
+    private static final String STORE_ENABLED_PROPERTY = "org.apache.felix.log.store.enabled";
+    /** The name of the property that defines the directory of the log store. */
+    private static final String STORE_DIR_PROPERTY = "org.apache.felix.log.store.dir";
+    /** The name of the property that defines the size of the log store files. */
+    private static final String STORE_SEGMENT_SIZE_PROPERTY = "org.apache.felix.log.store.segmentSize";
+    /** The default value for the log store file size property. */
+    private static final int DEFAULT_STORE_SEGMENT_SIZE = 4 * 1024 * 1024;
+    /** The smallest log store file size, which holds the largest entry. */
+    private static final int MIN_STORE_SEGMENT_SIZE = 64 * 1024;
+    /** The name of the property that defines the number of log store files. */
+    private static final String STORE_SEGMENTS_PROPERTY = "org.apache.felix.log.store.segments";
+    /** The default value for the number of log store files property. */
+    private static final int DEFAULT_STORE_SEGMENTS = 8;
     /** The log. */
     private Log m_log;
+    /** The log store, if enabled. */
+    private LogStoreImpl m_store;
 
     /**
      * Returns the maximum size for the log.
@@ -65,14 +114,26 @@ public final class Activator implements BundleActivator
      */
     private static int getMaxSize(final BundleContext context)
     {
-        int maxSize = DEFAULT_MAX_SIZE;
+        return getIntProperty(context, MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Returns the integer value of a property.
+     * @param context the bundle context (used to look up the property)
+     * @param name the name of the property
+     * @param defaultValue the value if the property is missing or invalid
+     * @return the value of the property
+     */
+    private static int getIntProperty(final BundleContext context, final String name, final int defaultValue)
+    {
+        int value = defaultValue;
 
-        String maxSizePropValue = context.getProperty(MAX_SIZE_PROPERTY);
-        if (maxSizePropValue != null)
+        String propValue = context.getProperty(name);
+        if (propValue != null)
         {
             try
             {
-                maxSize = Integer.parseInt(maxSizePropValue);
+                value = Integer.parseInt(propValue);
             }
             catch (NumberFormatException e)
             {
@@ -80,7 +141,7 @@ public final class Activator implements BundleActivator
             }
         }
 
-        return maxSize;
+        return value;
     }
 
     /**
@@ -101,6 +162,47 @@ public final class Activator implements BundleActivator
         return storeDebug;
     }
 
+    /**
+     * Returns the maximum number of entries waiting to be delivered to a listener.
+     * @param context the bundle context (used to look up a property)
+     * @return the maximum number of entries waiting to be delivered to a listener
+     */
+    private static int getListenerQueueSize(final BundleContext context)
+    {
+        int queueSize = getIntProperty(context, LISTENER_QUEUE_SIZE_PROPERTY, DEFAULT_LISTENER_QUEUE_SIZE);
+        return (queueSize > 0) ? queueSize : DEFAULT_LISTENER_QUEUE_SIZE;
+    }
+
+    /**
+     * Creates and opens the log store if it is enabled.
+     * @param context the bundle context (used to look up properties)
+     * @param storeDebug whether or not to store debug messages
+     * @return the log store, or <code>null</code> if it is not enabled
+     * @throws IOException if the log store cannot be opened
+     */
+    private static LogStoreImpl openStore(final BundleContext context, final boolean storeDebug) throws IOException
+    {
+        if (!Boolean.valueOf(context.getProperty(STORE_ENABLED_PROPERTY)).booleanValue())
+        {
+            return null;
+        }
+
+        String dir = context.getProperty(STORE_DIR_PROPERTY);
+        File directory = (dir != null) ? new File(dir) : context.getDataFile("store");
+        if (directory == null)
+        {
+            throw new IOException("No directory for the log store: set " + STORE_DIR_PROPERTY);
+        }
+
+        int segmentSize = Math.max(MIN_STORE_SEGMENT_SIZE,
+            getIntProperty(context, STORE_SEGMENT_SIZE_PROPERTY, DEFAULT_STORE_SEGMENT_SIZE));
+        int segments = Math.max(1, getIntProperty(context, STORE_SEGMENTS_PROPERTY, DEFAULT_STORE_SEGMENTS));
+
+        LogStoreImpl store = new LogStoreImpl(context, directory, segmentSize, segments, storeDebug);
+        store.open();
+        return store;
+    }
+
     /**
      * Called by the OSGi framework when the bundle is started.
      * Used to register the service implementations with the framework.
@@ -110,7 +212,25 @@ public final class Activator implements BundleActivator
     public void start(final BundleContext context) throws Exception
     {
         // create the log instance
-        m_log = new Log(getMaxSize(context), getStoreDebug(context));
+        boolean storeDebug = getStoreDebug(context);
+        m_log = new Log(getMaxSize(context), storeDebug, getListenerQueueSize(context));
+
+        // open the log store before logging the framework events
+        try
+        {
+            m_store = openStore(context, storeDebug);
+        }
+        catch (IOException e)
+        {
+            // the store is optional, the log service works without it
+            m_store = null;
+            m_log.addEntry(new LogEntryImpl(context.getBundle(), null, LogService.LOG_ERROR,
+                "Cannot open the log store, entries are not stored", e));
+        }
+        if (m_store != null)
+        {
+            m_log.addListener(m_store);
+        }
 
         // register the listeners
         context.addBundleListener(m_log);
@@ -123,6 +243,16 @@ public final class Activator implements BundleActivator
 
         context.registerService(LogReaderService.class.getName(),
             new LogReaderServiceFactory(m_log), null);
+
+        if (m_store != null)
+        {
+            context.registerService(LogStore.class.getName(), m_store, null);
+
+            Hashtable props = new Hashtable();
+            props.put("osgi.command.scope", "log");
+            props.put("osgi.command.function", new String[] { "query" });
+            context.registerService(LogStoreCommand.class.getName(), new LogStoreCommand(context, m_store), props);
+        }
     }
 
     /**
@@ -134,5 +264,11 @@ public final class Activator implements BundleActivator
     {
         // close the log
         m_log.close();
+
+        if (m_store != null)
+        {
+            m_store.close();
+            m_store = null;
+        }
     }
 }
\ No newline at end of file
@@ -19,6 +19,9 @@
 package org.apache.felix.log;
 
 import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
@@ -39,34 +42,40 @@ import org.osgi.service.log.LogService;
  */
 final class Log implements BundleListener, FrameworkListener, ServiceListener
 {
-    /** The first log entry. */
-    private LogNode m_head;
-    /** The last log entry. */
-    private LogNode m_tail;
-    /** The log size. */
-    private int m_size;
+    /** The ring buffer holding the most recent entries, if the log is bounded. */
+    private final AtomicReferenceArray m_ring;
+    /** The most recent entry, if the log is unbounded. */
+    private final AtomicReference m_head = new AtomicReference();
+    /** The sequence number of the next entry. */
+    private final AtomicLong m_sequence = new AtomicLong();
     /** The log listener thread. */
-    private LogListenerThread listenerThread;
+    private volatile LogListenerThread listenerThread;
     /** The maximum size for the log. */
     private final int m_maxSize;
     /** Whether or not to store debug messages. */
     private final boolean m_storeDebug;
+    /** The maximum number of entries waiting to be delivered to a listener. */
+    private final int m_listenerQueueSize;
 
     /**
      * Create a new instance.
      * @param maxSize the maximum size for the log
      * @param storeDebug whether or not to store debug messages
+     * @param listenerQueueSize the maximum number of entries waiting to be
+     *        delivered to a listener
      */
-    Log(final int maxSize, final boolean storeDebug)
+    Log(final int maxSize, final boolean storeDebug, final int listenerQueueSize)
     {
         this.m_maxSize = maxSize;
         this.m_storeDebug = storeDebug;
+        this.m_listenerQueueSize = listenerQueueSize;
+        this.m_ring = (maxSize > 0) ? new AtomicReferenceArray(maxSize) : null;
     }
 
     /**
      * Close the log.
      */
-    void close()
+    synchronized void close()
     {
         if (listenerThread != null)
         {
@@ -74,62 +83,62 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
             listenerThread = null;
         }
 
-        m_head = null;
-        m_tail = null;
-        m_size = 0;
+        m_head.set(null);
+        if (m_ring != null)
+        {
+            for (int i = 0; i < m_ring.length(); ++i)
+            {
+                m_ring.set(i, null);
+            }
+        }
     }
 
     /**
-     * Adds the entry to the log.
+     * Adds the entry to the log.  This does not take any lock: the entry
+     * is stored in the slot of the ring buffer given by its sequence number,
+     * or pushed in front of the entries of an unbounded log.
      * @param entry the entry to add to the log
      */
-    synchronized void addEntry(final LogEntry entry)
+    void addEntry(final LogEntry entry)
     {
-        if (m_maxSize != 0)
+        // add the entry to the historic log
+        if (m_maxSize != 0 && (m_storeDebug || entry.getLevel() != LogService.LOG_DEBUG))
         {
-            // add the entry to the historic log
-            if (m_storeDebug || entry.getLevel() != LogService.LOG_DEBUG)
-            {
-                // create a new node for the entry
-                LogNode node = new LogNode(entry);
-
-                // add to the front of the linked list
-                node.setNextNode(m_head);
-                if (m_head != null)
-                {
-                    m_head.setPreviousNode(node);
-                }
-
-                // and store the node
-                m_head = node;
+            long sequence = m_sequence.getAndIncrement();
 
-                // bump the size of the list
-                ++m_size;
-
-                // if no tail node - add the node to the tail
-                if (m_tail == null)
+            if (m_ring != null)
+            {
+                // the slot may already hold a newer entry if this thread was
+                // preempted for a full round of the ring
+                int index = (int) (sequence % m_ring.length());
+                LogNode node = new LogNode(entry, sequence, null);
+                LogNode current;
+                do
                 {
-                    m_tail = node;
+                    current = (LogNode) m_ring.get(index);
+                    if (current != null && current.getSequence() > sequence)
+                    {
+                        break;
+                    }
                 }
+                while (!m_ring.compareAndSet(index, current, node));
             }
-
-            // ensure the historic log doesn't grow beyond a certain size
-            if (m_maxSize != -1)
+            else
             {
-                if (m_size > m_maxSize)
+                LogNode head;
+                do
                 {
-                    LogNode last = m_tail.getPreviousNode();
-                    last.setNextNode(null);
-                    m_tail = last;
-                    --m_size;
+                    head = (LogNode) m_head.get();
                 }
+                while (!m_head.compareAndSet(head, new LogNode(entry, sequence, head)));
             }
         }
 
         // notify any listeners
-        if (listenerThread != null)
+        LogListenerThread thread = listenerThread;
+        if (thread != null)
         {
-            listenerThread.addEntry(entry);
+            thread.addEntry(entry);
         }
     }
 
@@ -143,10 +152,15 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
         {
             // create a new listener thread if necessary:
             // the listener thread only runs if there are any registered listeners
-            listenerThread = new LogListenerThread();
-            listenerThread.start();
+            LogListenerThread thread = new LogListenerThread(m_listenerQueueSize);
+            thread.addListener(listener);
+            thread.start();
+            listenerThread = thread;
+        }
+        else
+        {
+            listenerThread.addListener(listener);
         }
-        listenerThread.addListener(listener);
     }
 
     /**
@@ -170,11 +184,33 @@ final class Log implements BundleListener, FrameworkListener, ServiceListener
 
     /**
      * Returns an enumeration of all the entries in the log most recent first.
+     * The enumeration is a snapshot of the log, which is taken without locking
+     * out the threads adding entries.
      * @return an enumeration of all the entries in the log most recent first
      */
-    synchronized Enumeration getEntries()
+    Enumeration getEntries()
     {
-        return new LogNodeEnumeration(m_head, m_tail);
+        if (m_ring == null)
+        {
+            return new LogNodeEnumeration((LogNode) m_head.get());
+        }
+
+        // link the entries still in the ring, oldest first, so that the
+        // resulting list starts with the most recent entry; slots which are
+        // being written or which were overwritten meanwhile are skipped
+        long end = m_sequence.get();
+        long sequence = Math.max(0, end - m_ring.length());
+        LogNode head = null;
+        for (; sequence < end; ++sequence)
+        {
+            LogNode node = (LogNode) m_ring.get((int) (sequence % m_ring.length()));
+            if (node != null && node.getSequence() == sequence)
+            {
+                head = new LogNode(node.getEntry(), sequence, head);
+            }
+        }
+
+        return new LogNodeEnumeration(head);
     }
 
     /** The messages returned for the framework events. */
@@ -18,27 +18,54 @@
  */
 package org.apache.felix.log;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogListener;
+import org.osgi.service.log.LogService;
 
 /**
  * This class is responsible for asynchronously delivering log messages to
  * any {@link LogListener} subscribers.  A subscriber can be added using the
  * {@link org.osgi.service.log.LogReaderService#addLogListener(LogListener)}
  * method.
+ * <p>
+ * Each listener has its own bounded queue of entries waiting to be delivered.
+ * Adding an entry does not take any lock: the entry is appended to the queue
+ * of each listener and the thread is unparked.  The thread then delivers the
+ * waiting entries in batches, one listener after the other.  If a listener
+ * does not keep up, the entries which do not fit in its queue are dropped and
+ * counted, and the listener is told about it with a warning entry.
  */
 final class LogListenerThread extends Thread
 {
+    /** The maximum number of entries delivered to a listener in one go. */
+    private static final int BATCH_SIZE = 64;
+
     // Whether the thread is stopping or not.
-    private boolean m_stopping = false;
-    // The list of entries waiting to be delivered to the log listeners.
-    private final List m_entriesToDeliver = new ArrayList();
-    // The list of listeners.
-    private final List m_listeners = new ArrayList();
+    private volatile boolean m_stopping = false;
+    // The queues of the listeners.
+    private final List m_queues = new CopyOnWriteArrayList();
+    // The maximum number of entries waiting to be delivered to a listener.
+    private final int m_queueSize;
+
+    /**
+     * Create a new instance.
+     * @param queueSize the maximum number of entries waiting to be delivered
+     *        to a listener
+     */
+    LogListenerThread(final int queueSize)
+    {
+        super("FelixLogListener");
+        m_queueSize = queueSize;
+    }
 
     /**
      * Add an entry to the list of messages to deliver.
@@ -46,11 +73,12 @@ final class LogListenerThread extends Thread
      */
     void addEntry(final LogEntry entry)
     {
-        synchronized (m_entriesToDeliver)
+        Iterator queueIt = m_queues.iterator();
+        while (queueIt.hasNext())
         {
-            m_entriesToDeliver.add(entry);
-            m_entriesToDeliver.notifyAll();
+            ((ListenerQueue) queueIt.next()).offer(entry);
         }
+        LockSupport.unpark(this);
     }
 
     /**
@@ -59,21 +87,25 @@ final class LogListenerThread extends Thread
      */
     void addListener(final LogListener listener)
     {
-        synchronized (m_listeners)
-        {
-            m_listeners.add(listener);
-        }
+        m_queues.add(new ListenerQueue(listener, m_queueSize));
     }
 
     /**
      * Remove a listener from the list of listeners that are subscribed.
+     * Entries still waiting to be delivered to the listener are discarded.
      * @param listener the listener to remove from the list of subscribed listeners
      */
     void removeListener(final LogListener listener)
     {
-        synchronized (m_listeners)
+        Iterator queueIt = m_queues.iterator();
+        while (queueIt.hasNext())
         {
-            m_listeners.remove(listener);
+            ListenerQueue queue = (ListenerQueue) queueIt.next();
+            if (queue.m_listener.equals(listener))
+            {
+                m_queues.remove(queue);
+                break;
+            }
         }
     }
 
@@ -83,7 +115,7 @@ final class LogListenerThread extends Thread
      */
     int getListenerCount()
     {
-        return m_listeners.size();
+        return m_queues.size();
     }
 
     /**
@@ -91,11 +123,8 @@ final class LogListenerThread extends Thread
      */
     void shutdown()
     {
-        synchronized (m_entriesToDeliver)
-        {
-            m_stopping = true;
-            m_entriesToDeliver.notifyAll();
-        }
+        m_stopping = true;
+        LockSupport.unpark(this);
     }
 
     /**
@@ -104,50 +133,104 @@ final class LogListenerThread extends Thread
      */
     public void run()
     {
-        boolean stop = false;
+        while (!m_stopping)
+        {
+            boolean delivered = false;
+
+            Iterator queueIt = m_queues.iterator();
+            while (queueIt.hasNext() && !m_stopping)
+            {
+                delivered |= ((ListenerQueue) queueIt.next()).deliver();
+            }
+
+            if (!delivered && !m_stopping)
+            {
+                // an entry added after the queues were checked has already
+                // unparked the thread, so that park returns immediately
+                LockSupport.park(this);
+
+                // clear the interrupt status, which would prevent parking
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * The entries waiting to be delivered to a listener.
+     */
+    private static final class ListenerQueue
+    {
+        /** The listener. */
+        private final LogListener m_listener;
+        /** The entries to deliver. */
+        private final Queue m_entries = new ConcurrentLinkedQueue();
+        /** The number of entries in the queue. */
+        private final AtomicInteger m_size = new AtomicInteger();
+        /** The maximum number of entries in the queue. */
+        private final int m_maxSize;
+        /** The number of entries dropped because the queue was full. */
+        private final AtomicLong m_dropped = new AtomicLong();
+        /** The number of dropped entries the listener has been told about. */
+        private long m_reported;
+
+        ListenerQueue(final LogListener listener, final int maxSize)
+        {
+            m_listener = listener;
+            m_maxSize = maxSize;
+        }
+
+        /**
+         * Appends an entry to the queue, unless the queue is full.
+         * @param entry the log entry to deliver
+         */
+        void offer(final LogEntry entry)
+        {
+            if (m_size.incrementAndGet() > m_maxSize)
+            {
+                m_size.decrementAndGet();
+                m_dropped.incrementAndGet();
+            }
+            else
+            {
+                m_entries.add(entry);
+            }
+        }
 
-        for (; !stop;)
+        /**
+         * Delivers a batch of waiting entries to the listener.
+         * @return <code>true</code> if any entry has been delivered
+         */
+        boolean deliver()
         {
-            synchronized (m_entriesToDeliver)
+            long dropped = m_dropped.get();
+            if (dropped != m_reported)
+            {
+                logged(new LogEntryImpl(null, null, LogService.LOG_WARNING, (dropped - m_reported)
+                    + " log entries were not delivered because the listener did not keep up", null));
+                m_reported = dropped;
+            }
+
+            int count = 0;
+            LogEntry entry;
+            while (count < BATCH_SIZE && (entry = (LogEntry) m_entries.poll()) != null)
             {
-                if (!m_entriesToDeliver.isEmpty())
-                {
-                    LogEntry entry = (LogEntry) m_entriesToDeliver.remove(0);
-
-                    synchronized (m_listeners)
-                    {
-                        Iterator listenerIt = m_listeners.iterator();
-                        while (listenerIt.hasNext())
-                        {
-                            try
-                            {
-                                LogListener listener = (LogListener) listenerIt.next();
-                                listener.logged(entry);
-                            }
-                            catch (Throwable t)
-                            {
-                                // catch and discard any exceptions thrown by the listener
-                            }
-                        }
-                    }
-                }
-
-                if (m_entriesToDeliver.isEmpty())
-                {
-                    try
-                    {
-                        m_entriesToDeliver.wait();
-                    }
-                    catch (InterruptedException e)
-                    {
-                        // do nothing
-                    }
-                }
+                m_size.decrementAndGet();
+                logged(entry);
+                ++count;
             }
 
-            if (m_stopping)
+            return count > 0;
+        }
+
+        private void logged(final LogEntry entry)
+        {
+            try
+            {
+                m_listener.logged(entry);
+            }
+            catch (Throwable t)
             {
-                stop = true;
+                // catch and discard any exceptions thrown by the listener
             }
         }
     }
@@ -21,24 +21,30 @@ package org.apache.felix.log;
 import org.osgi.service.log.LogEntry;
 
 /**
- * The class used as a doubly linked list node in the log.
+ * The class used as an immutable node of the log.  Nodes are either linked
+ * to the next older node, or stored in the slots of the ring buffer where
+ * the sequence number tells which entry a slot currently holds.
  */
 final class LogNode
 {
-    /** The previous node. */
-    private LogNode m_previous;
-    /** The next node. */
-    private LogNode m_next;
     /** The log entry. */
     private final LogEntry m_entry;
+    /** The sequence number of the entry. */
+    private final long m_sequence;
+    /** The next (older) node. */
+    private final LogNode m_next;
 
     /**
      * Create a new instance.
-     * @param entry the log entry.
+     * @param entry the log entry
+     * @param sequence the sequence number of the entry
+     * @param next the next (older) node, or <code>null</code>
      */
-    LogNode(final LogEntry entry)
+    LogNode(final LogEntry entry, final long sequence, final LogNode next)
     {
         m_entry = entry;
+        m_sequence = sequence;
+        m_next = next;
     }
 
     /**
@@ -51,38 +57,20 @@ final class LogNode
     }
 
     /**
-     * Get the next node.
-     * @return the next node
-     */
-    LogNode getNextNode()
-    {
-        return m_next;
-    }
-
-    /**
-     * Set the next node.
-     * @param next the next node
+     * Returns the sequence number of the entry.
+     * @return the sequence number of the entry
      */
-    void setNextNode(final LogNode next)
+    long getSequence()
     {
-        m_next = next;
-    }
-
-    /**
-     * Get the previous node.
-     * @return the previous node
-     */
-    LogNode getPreviousNode()
-    {
-        return m_previous;
+        return m_sequence;
     }
 
     /**
-     * Set the previous node.
-     * @param previous the previous node
+     * Get the next node.
+     * @return the next node
      */
-    void setPreviousNode(final LogNode previous)
+    LogNode getNextNode()
     {
-        m_previous = previous;
+        return m_next;
     }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@
 package org.apache.felix.log;
 
 import java.util.Enumeration;
+import java.util.NoSuchElementException;
 
 import org.osgi.service.log.LogEntry;
 
@@ -30,18 +31,14 @@ final class LogNodeEnumeration implements Enumeration
 {
     /** The next node. */
     private LogNode m_next;
-    /** The last node. */
-    private final LogNode m_last;
 
     /**
      * Creates a new instance.
      * @param start the first node to return
-     * @param end the last node to return
      */
-    LogNodeEnumeration(final LogNode start, final LogNode end)
+    LogNodeEnumeration(final LogNode start)
     {
         m_next = start;
-        m_last = end;
     }
 
     /**
@@ -59,19 +56,14 @@ final class LogNodeEnumeration implements Enumeration
      */
     public Object nextElement()
     {
-        LogEntry result = null;
-
-        if (m_next == m_last)
-        {
-            result = m_next.getEntry();
-            m_next = null;
-        }
-        else if (m_next != null)
+        if (m_next == null)
         {
-            result = m_next.getEntry();
-            m_next = m_next.getNextNode();
+            throw new NoSuchElementException();
         }
 
+        LogEntry result = m_next.getEntry();
+        m_next = m_next.getNextNode();
+
         return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,495 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A file of the log store.  Segments are memory mapped, and entries are only
+ * ever appended to the most recent segment; when the store is opened again,
+ * the most recent segment is appended to while it has room and the older
+ * segments are opened read only.
+ * <p>
+ * A segment starts with a magic number and a format version, followed by the
+ * records.  Each record starts with its length, which is written last so that
+ * a record torn by a crash is not read back, and the length after the last
+ * record is cleared so that a record torn before a restart is not read back
+ * either.  The rest of the record holds the
+ * time, bundle id and level of the entry, followed by the bundle symbolic name,
+ * message and exception stack trace as length prefixed UTF-8 strings.
+ * <p>
+ * The index of a segment is rebuilt when the segment is opened: it holds the
+ * time range, the levels and the offsets of the records of each bundle, and a
+ * sparse index of the latest time before every few kilobytes of records.
+ */
+final class LogSegment
+{
+    /** The magic number starting each segment: "FLOG". */
+    private static final int MAGIC = 0x464c4f47;
+    /** The version of the segment format. */
+    private static final int VERSION = 1;
+    /** The offset of the first record. */
+    private static final int HEADER_SIZE = 8;
+    /** The offsets of the fields of a record. */
+    private static final int TIME_OFFSET = 4;
+    private static final int BUNDLE_OFFSET = 12;
+    private static final int LEVEL_OFFSET = 20;
+    private static final int STRINGS_OFFSET = 24;
+    /** The number of bytes of records between two entries of the time index. */
+    private static final int TIME_INDEX_INTERVAL = 4096;
+
+    /** The file of the segment. */
+    private final File m_file;
+    /** The sequence number of the segment. */
+    private final long m_id;
+    /** The mapped contents of the file. */
+    private final MappedByteBuffer m_buffer;
+    /** Whether or not entries may be appended. */
+    private final boolean m_writable;
+
+    // The following fields are guarded by this object.
+    /** The offset after the last record. */
+    private int m_position;
+    /** The earliest and latest times of the records. */
+    private long m_minTime = Long.MAX_VALUE;
+    private long m_maxTime = Long.MIN_VALUE;
+    /** The levels of the records, one bit per level. */
+    private long m_levels;
+    /** The offsets of the records of each bundle, keyed by bundle id. */
+    private final Map m_bundles = new HashMap();
+    /** The sparse time index: record offsets and the latest time before them. */
+    private int[] m_indexOffsets = new int[16];
+    private long[] m_indexTimes = new long[16];
+    private int m_indexSize;
+
+    private LogSegment(final File file, final long id, final MappedByteBuffer buffer, final boolean writable)
+    {
+        m_file = file;
+        m_id = id;
+        m_buffer = buffer;
+        m_writable = writable;
+    }
+
+    /**
+     * Creates a new, empty segment.
+     * @param file the file of the segment
+     * @param id the sequence number of the segment
+     * @param size the size of the segment
+     * @return the segment
+     * @throws IOException if the file cannot be created
+     */
+    static LogSegment create(final File file, final long id, final int size) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+
+            LogSegment segment = new LogSegment(file, id, buffer, true);
+            segment.m_position = HEADER_SIZE;
+            return segment;
+        }
+        finally
+        {
+            // the mapping remains valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens an existing segment, and rebuilds its index.
+     * @param file the file of the segment
+     * @param id the sequence number of the segment
+     * @param writable whether or not entries may be appended after the records
+     *        of the segment
+     * @return the segment
+     * @throws IOException if the file cannot be read or is not a segment
+     */
+    static LogSegment open(final File file, final long id, final boolean writable) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try
+        {
+            long length = raf.length();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE)
+            {
+                throw new IOException("Invalid log segment size: " + file);
+            }
+
+            MappedByteBuffer buffer = raf.getChannel().map(
+                writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            {
+                throw new IOException("Unsupported log segment: " + file);
+            }
+
+            LogSegment segment = new LogSegment(file, id, buffer, writable);
+            segment.recover();
+            return segment;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads the records up to the first empty or incomplete one.
+     */
+    private synchronized void recover()
+    {
+        int position = HEADER_SIZE;
+        int capacity = m_buffer.capacity();
+        while (position + STRINGS_OFFSET <= capacity)
+        {
+            int length = m_buffer.getInt(position);
+            if (length < STRINGS_OFFSET - 4 || length > capacity - position - 4
+                || !hasValidStrings(position, position + 4 + length))
+            {
+                break;
+            }
+
+            index(position, m_buffer.getLong(position + TIME_OFFSET), m_buffer.getLong(position + BUNDLE_OFFSET),
+                m_buffer.getInt(position + LEVEL_OFFSET));
+            position += 4 + length;
+        }
+        m_position = position;
+    }
+
+    /**
+     * Checks that the strings of a record fill the record exactly, so that a
+     * record whose length was written to the disk before its strings is not
+     * read back.
+     * @param position the offset of the record
+     * @param end the offset after the record
+     */
+    private boolean hasValidStrings(final int position, final int end)
+    {
+        int offset = position + STRINGS_OFFSET;
+        for (int i = 0; i < 3; ++i)
+        {
+            if (offset > end - 4)
+            {
+                return false;
+            }
+            int length = m_buffer.getInt(offset);
+            offset += 4;
+            if (length > end - offset || length < -1)
+            {
+                return false;
+            }
+            offset += Math.max(0, length);
+        }
+        return offset == end;
+    }
+
+    File getFile()
+    {
+        return m_file;
+    }
+
+    long getId()
+    {
+        return m_id;
+    }
+
+    /**
+     * Appends a record to the segment.  This is only called by the thread
+     * writing to the store.
+     * @return <code>false</code> if the segment is full or read only
+     */
+    boolean append(final long time, final long bundleId, final int level, final byte[] symbolicName,
+        final byte[] message, final byte[] exception)
+    {
+        if (!m_writable)
+        {
+            return false;
+        }
+
+        int position;
+        synchronized (this)
+        {
+            position = m_position;
+        }
+
+        int length = STRINGS_OFFSET - 4 + size(symbolicName) + size(message) + size(exception);
+        if (length > m_buffer.capacity() - position - 4)
+        {
+            return false;
+        }
+
+        m_buffer.putLong(position + TIME_OFFSET, time);
+        m_buffer.putLong(position + BUNDLE_OFFSET, bundleId);
+        m_buffer.putInt(position + LEVEL_OFFSET, level);
+        int offset = put(position + STRINGS_OFFSET, symbolicName);
+        offset = put(offset, message);
+        put(offset, exception);
+
+        // a record torn before a restart may follow
+        int end = position + 4 + length;
+        if (end + 4 <= m_buffer.capacity())
+        {
+            m_buffer.putInt(end, 0);
+        }
+
+        // the length makes the record visible
+        m_buffer.putInt(position, length);
+
+        synchronized (this)
+        {
+            index(position, time, bundleId, level);
+            m_position = position + 4 + length;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the changes of the segment to the disk.
+     */
+    void force()
+    {
+        if (m_writable)
+        {
+            m_buffer.force();
+        }
+    }
+
+    /**
+     * Determines whether the segment may hold records matching the given criteria.
+     */
+    synchronized boolean matches(final long bundleId, final int level, final long from, final long to)
+    {
+        if (m_minTime > to || m_maxTime < from)
+        {
+            return false;
+        }
+        if ((m_levels & ((2L << Math.max(0, Math.min(level, 62))) - 1)) == 0)
+        {
+            return false;
+        }
+        return bundleId < 0 || m_bundles.containsKey(new Long(bundleId));
+    }
+
+    /**
+     * Returns the offsets of the records which may match the given criteria.
+     * The records of a bundle are found with the bundle index; otherwise the
+     * time index gives the first record which may be logged after the given
+     * time.
+     * @return the offsets, in the order of the records
+     */
+    synchronized Cursor cursor(final long bundleId, final long from)
+    {
+        if (bundleId >= 0)
+        {
+            Offsets offsets = (Offsets) m_bundles.get(new Long(bundleId));
+            if (offsets == null)
+            {
+                return new Cursor(new int[0], 0, 0);
+            }
+            int[] copy = new int[offsets.m_size];
+            System.arraycopy(offsets.m_offsets, 0, copy, 0, copy.length);
+            return new Cursor(copy, 0, 0);
+        }
+
+        // all the records before an index entry are older than its time
+        int start = HEADER_SIZE;
+        for (int i = 0; i < m_indexSize && m_indexTimes[i] < from; ++i)
+        {
+            start = m_indexOffsets[i];
+        }
+        return new Cursor(null, start, m_position);
+    }
+
+    /**
+     * Reads the record at the given offset if it matches the given criteria.
+     * @return the entry, or <code>null</code> if it does not match
+     */
+    StoredLogEntryImpl read(final ByteBuffer buffer, final int offset, final long bundleId, final int level,
+        final long from, final long to, final LogStoreImpl store)
+    {
+        long time = buffer.getLong(offset + TIME_OFFSET);
+        long entryBundleId = buffer.getLong(offset + BUNDLE_OFFSET);
+        int entryLevel = buffer.getInt(offset + LEVEL_OFFSET);
+        if (time < from || time > to || entryLevel > level || (bundleId >= 0 && bundleId != entryBundleId))
+        {
+            return null;
+        }
+
+        int[] position = new int[] { offset + STRINGS_OFFSET };
+        String symbolicName = get(buffer, position);
+        String message = get(buffer, position);
+        String exception = get(buffer, position);
+        return new StoredLogEntryImpl(store, time, entryBundleId, symbolicName, entryLevel, message, exception);
+    }
+
+    /**
+     * Returns a view of the contents of the segment for a reader.
+     */
+    ByteBuffer view()
+    {
+        return m_buffer.duplicate();
+    }
+
+    private void index(final int position, final long time, final long bundleId, final int level)
+    {
+        if (m_indexSize == 0 || position - m_indexOffsets[m_indexSize - 1] >= TIME_INDEX_INTERVAL)
+        {
+            if (m_indexSize == m_indexOffsets.length)
+            {
+                int[] offsets = new int[m_indexSize * 2];
+                System.arraycopy(m_indexOffsets, 0, offsets, 0, m_indexSize);
+                m_indexOffsets = offsets;
+                long[] times = new long[m_indexSize * 2];
+                System.arraycopy(m_indexTimes, 0, times, 0, m_indexSize);
+                m_indexTimes = times;
+            }
+            m_indexOffsets[m_indexSize] = position;
+            m_indexTimes[m_indexSize] = m_maxTime;
+            ++m_indexSize;
+        }
+
+        m_minTime = Math.min(m_minTime, time);
+        m_maxTime = Math.max(m_maxTime, time);
+        m_levels |= 1L << Math.max(0, Math.min(level, 63));
+
+        Long key = new Long(bundleId);
+        Offsets offsets = (Offsets) m_bundles.get(key);
+        if (offsets == null)
+        {
+            offsets = new Offsets();
+            m_bundles.put(key, offsets);
+        }
+        offsets.add(position);
+    }
+
+    private static int size(final byte[] string)
+    {
+        return 4 + ((string != null) ? string.length : 0);
+    }
+
+    private int put(final int position, final byte[] string)
+    {
+        if (string == null)
+        {
+            m_buffer.putInt(position, -1);
+            return position + 4;
+        }
+
+        m_buffer.putInt(position, string.length);
+        for (int i = 0; i < string.length; ++i)
+        {
+            m_buffer.put(position + 4 + i, string[i]);
+        }
+        return position + 4 + string.length;
+    }
+
+    private static String get(final ByteBuffer buffer, final int[] position)
+    {
+        int length = buffer.getInt(position[0]);
+        position[0] += 4;
+        if (length < 0)
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.position(position[0]);
+        buffer.get(bytes);
+        position[0] += length;
+        try
+        {
+            return new String(bytes, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported
+            return new String(bytes);
+        }
+    }
+
+    /**
+     * A growable list of record offsets.
+     */
+    private static final class Offsets
+    {
+        private int[] m_offsets = new int[8];
+        private int m_size;
+
+        void add(final int offset)
+        {
+            if (m_size == m_offsets.length)
+            {
+                int[] offsets = new int[m_size * 2];
+                System.arraycopy(m_offsets, 0, offsets, 0, m_size);
+                m_offsets = offsets;
+            }
+            m_offsets[m_size++] = offset;
+        }
+    }
+
+    /**
+     * The offsets of the records to read for a query: either a list of
+     * offsets, or a range of records read one after the other.
+     */
+    static final class Cursor
+    {
+        private final int[] m_offsets;
+        private int m_next;
+        private final int m_end;
+
+        Cursor(final int[] offsets, final int start, final int end)
+        {
+            m_offsets = offsets;
+            m_next = start;
+            m_end = end;
+        }
+
+        /**
+         * Returns the offset of the next record.
+         * @param buffer the view of the segment
+         * @return the offset, or -1 if there are no more records
+         */
+        int next(final ByteBuffer buffer)
+        {
+            if (m_offsets != null)
+            {
+                return (m_next < m_offsets.length) ? m_offsets[m_next++] : -1;
+            }
+            if (m_next >= m_end)
+            {
+                return -1;
+            }
+
+            int offset = m_next;
+            m_next += 4 + buffer.getInt(offset);
+            return offset;
+        }
+    }
+}
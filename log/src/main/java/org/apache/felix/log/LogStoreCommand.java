@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.apache.felix.log.store.LogStore;
+import org.apache.felix.log.store.StoredLogEntry;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.log.LogService;
+
+/**
+ * Gogo command querying the {@link LogStore}.  The command is registered as
+ * <code>log:query</code> and takes the following options:
+ * <dl>
+ *   <dt>-b &lt;bundle&gt;</dt><dd>the id or symbolic name of the bundle</dd>
+ *   <dt>-l &lt;level&gt;</dt><dd>the least severe level: error, warning, info or debug</dd>
+ *   <dt>-f &lt;time&gt;</dt><dd>the earliest time, as yyyy-MM-dd'T'HH:mm:ss or in milliseconds</dd>
+ *   <dt>-t &lt;time&gt;</dt><dd>the latest time</dd>
+ *   <dt>-n &lt;count&gt;</dt><dd>the number of most recent entries to print, 100 by default</dd>
+ * </dl>
+ */
+public final class LogStoreCommand
+{
+    /** The names of the levels, indexed by level. */
+    private static final String[] LEVELS = { "", "ERROR", "WARNING", "INFO", "DEBUG" };
+    /** The default number of entries printed. */
+    private static final int DEFAULT_COUNT = 100;
+
+    /** The bundle context, used to look up bundles by symbolic name. */
+    private final BundleContext m_context;
+    /** The log store. */
+    private final LogStore m_store;
+
+    /**
+     * Create a new instance.
+     * @param context the bundle context
+     * @param store the log store
+     */
+    LogStoreCommand(final BundleContext context, final LogStore store)
+    {
+        this.m_context = context;
+        this.m_store = store;
+    }
+
+    /**
+     * Prints the most recent stored entries.
+     */
+    public void query()
+    {
+        query(new String[0]);
+    }
+
+    /**
+     * Prints the stored entries matching the given options.
+     * @param args the options
+     */
+    public void query(final String[] args)
+    {
+        PrintStream out = System.out;
+        long bundleId = LogStore.ANY_BUNDLE;
+        int level = LogService.LOG_DEBUG;
+        long from = 0;
+        long to = Long.MAX_VALUE;
+        int count = DEFAULT_COUNT;
+
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                String option = args[i];
+                if (i + 1 == args.length)
+                {
+                    throw new IllegalArgumentException("Missing value for option " + option);
+                }
+                String value = args[++i];
+
+                if ("-b".equals(option))
+                {
+                    bundleId = getBundleId(value);
+                }
+                else if ("-l".equals(option))
+                {
+                    level = getLevel(value);
+                }
+                else if ("-f".equals(option))
+                {
+                    from = getTime(value);
+                }
+                else if ("-t".equals(option))
+                {
+                    to = getTime(value);
+                }
+                else if ("-n".equals(option))
+                {
+                    count = Integer.parseInt(value);
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            out.println(e.getMessage());
+            out.println("Usage: log:query [-b bundle] [-l level] [-f time] [-t time] [-n count]");
+            return;
+        }
+
+        // only keep the most recent entries while reading the store
+        LinkedList entries = new LinkedList();
+        for (Iterator it = m_store.query(bundleId, level, from, to); it.hasNext();)
+        {
+            entries.add(it.next());
+            if (entries.size() > count)
+            {
+                entries.removeFirst();
+            }
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        for (Iterator it = entries.iterator(); it.hasNext();)
+        {
+            StoredLogEntry entry = (StoredLogEntry) it.next();
+            out.print(format.format(new Date(entry.getTime())));
+            out.print(' ');
+            int entryLevel = entry.getLevel();
+            out.print((entryLevel > 0 && entryLevel < LEVELS.length) ? LEVELS[entryLevel] : String.valueOf(entryLevel));
+            if (entry.getBundleId() >= 0)
+            {
+                out.print(" [" + entry.getBundleId() + "] " + entry.getBundleSymbolicName());
+            }
+            out.print(": ");
+            out.println(entry.getMessage());
+            if (entry.getExceptionText() != null)
+            {
+                out.print(entry.getExceptionText());
+            }
+        }
+    }
+
+    private long getBundleId(final String value)
+    {
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException nfe)
+        {
+            // might be a bundle symbolic name
+            Bundle[] bundles = m_context.getBundles();
+            for (int i = 0; i < bundles.length; i++)
+            {
+                if (value.equals(bundles[i].getSymbolicName()))
+                {
+                    return bundles[i].getBundleId();
+                }
+            }
+            throw new IllegalArgumentException("Missing bundle " + value);
+        }
+    }
+
+    private static int getLevel(final String value)
+    {
+        for (int i = 1; i < LEVELS.length; ++i)
+        {
+            if (LEVELS[i].equalsIgnoreCase(value))
+            {
+                return i;
+            }
+        }
+        return Integer.parseInt(value);
+    }
+
+    private static long getTime(final String value)
+    {
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException nfe)
+        {
+            String pattern = (value.indexOf('T') > 0) ? "yyyy-MM-dd'T'HH:mm:ss" : "yyyy-MM-dd";
+            try
+            {
+                return new SimpleDateFormat(pattern).parse(value).getTime();
+            }
+            catch (ParseException pe)
+            {
+                throw new IllegalArgumentException("Invalid time " + value);
+            }
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.felix.log.store.LogStore;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogListener;
+import org.osgi.service.log.LogService;
+
+/**
+ * Implementation of the {@link LogStore} interface.  The store is a directory
+ * of {@link LogSegment} files of a fixed size.  It receives the entries as a
+ * {@link LogListener}, so entries are written by the log listener thread and
+ * never by the threads logging.  The most recent segment of the previous runs
+ * is appended to until it is full, then a new segment is started; the oldest
+ * segments are deleted when there are more than the configured number.
+ */
+final class LogStoreImpl implements LogStore, LogListener
+{
+    /** The prefix of the segment file names. */
+    private static final String SEGMENT_PREFIX = "segment-";
+    /** The suffix of the segment file names. */
+    private static final String SEGMENT_SUFFIX = ".log";
+    /** The maximum size of a string stored in a record. */
+    private static final int MAX_STRING_SIZE = 16 * 1024;
+
+    /** The bundle context, used to look up the bundles of the entries. */
+    private final BundleContext m_context;
+    /** The directory of the segments. */
+    private final File m_directory;
+    /** The size of the segments. */
+    private final int m_segmentSize;
+    /** The maximum number of segments. */
+    private final int m_maxSegments;
+    /** Whether or not to store debug messages. */
+    private final boolean m_storeDebug;
+    /** The segments, oldest first; the last one is the current segment. */
+    private final List m_segments = new CopyOnWriteArrayList();
+    /** Whether or not the store has been closed. */
+    private boolean m_closed;
+
+    /**
+     * Create a new instance.
+     * @param context the bundle context
+     * @param directory the directory of the segments
+     * @param segmentSize the size of the segments
+     * @param maxSegments the maximum number of segments
+     * @param storeDebug whether or not to store debug messages
+     */
+    LogStoreImpl(final BundleContext context,
+        final File directory,
+        final int segmentSize,
+        final int maxSegments,
+        final boolean storeDebug)
+    {
+        this.m_context = context;
+        this.m_directory = directory;
+        this.m_segmentSize = segmentSize;
+        this.m_maxSegments = maxSegments;
+        this.m_storeDebug = storeDebug;
+    }
+
+    /**
+     * Opens the segments of the previous runs.  The most recent one becomes
+     * the current segment, a new segment is only started if there is none.
+     * Segments which cannot be read are deleted.
+     * @throws IOException if the new segment cannot be created
+     */
+    synchronized void open() throws IOException
+    {
+        if (!m_directory.isDirectory() && !m_directory.mkdirs())
+        {
+            throw new IOException("Cannot create log store directory " + m_directory);
+        }
+
+        File[] files = m_directory.listFiles();
+        long[] ids = new long[files.length];
+        int count = 0;
+        for (int i = 0; i < files.length; ++i)
+        {
+            long id = getSegmentId(files[i]);
+            if (id >= 0)
+            {
+                ids[count++] = id;
+            }
+        }
+        Arrays.sort(ids, 0, count);
+
+        for (int i = 0; i < count; ++i)
+        {
+            File file = getSegmentFile(ids[i]);
+            try
+            {
+                m_segments.add(LogSegment.open(file, ids[i], i == count - 1));
+            }
+            catch (IOException e)
+            {
+                delete(file);
+            }
+        }
+
+        if (m_segments.isEmpty() || getCurrentSegment().getId() != ids[count - 1])
+        {
+            // the most recent segment could not be opened
+            long id = (count > 0) ? ids[count - 1] + 1 : 0;
+            m_segments.add(LogSegment.create(getSegmentFile(id), id, m_segmentSize));
+        }
+        trim();
+    }
+
+    /**
+     * Writes the changes to the disk and stops storing entries.
+     */
+    synchronized void close()
+    {
+        m_closed = true;
+        if (!m_segments.isEmpty())
+        {
+            getCurrentSegment().force();
+        }
+    }
+
+    /**
+     * Stores an entry.  This is called by the log listener thread.
+     * @param entry the entry to store
+     */
+    public synchronized void logged(final LogEntry entry)
+    {
+        if (m_closed || (!m_storeDebug && entry.getLevel() == LogService.LOG_DEBUG))
+        {
+            return;
+        }
+
+        Bundle bundle = entry.getBundle();
+        long bundleId = (bundle != null) ? bundle.getBundleId() : ANY_BUNDLE;
+        byte[] symbolicName = (bundle != null) ? toBytes(bundle.getSymbolicName()) : null;
+        byte[] message = toBytes(entry.getMessage());
+        byte[] exception = toBytes(getStackTrace(entry.getException()));
+
+        LogSegment segment = getCurrentSegment();
+        if (!segment.append(entry.getTime(), bundleId, entry.getLevel(), symbolicName, message, exception))
+        {
+            // rotate: the entry always fits in an empty segment
+            segment.force();
+            long id = segment.getId() + 1;
+            try
+            {
+                segment = LogSegment.create(getSegmentFile(id), id, m_segmentSize);
+            }
+            catch (IOException e)
+            {
+                // keep the full segment, entries are dropped until the disk recovers
+                return;
+            }
+            m_segments.add(segment);
+            trim();
+            segment.append(entry.getTime(), bundleId, entry.getLevel(), symbolicName, message, exception);
+        }
+    }
+
+    /**
+     * @see LogStore#query(long, int, long, long)
+     */
+    public Iterator query(final long bundleId, final int level, final long from, final long to)
+    {
+        return new QueryIterator(m_segments.toArray(), bundleId, level, from, to);
+    }
+
+    /**
+     * Returns the bundle with the given id, if it has the given symbolic name.
+     */
+    Bundle getBundle(final long bundleId, final String symbolicName)
+    {
+        Bundle bundle = (bundleId >= 0) ? m_context.getBundle(bundleId) : null;
+        if (bundle != null && symbolicName != null && !symbolicName.equals(bundle.getSymbolicName()))
+        {
+            // the id has been reused by another bundle since the entry was logged
+            bundle = null;
+        }
+        return bundle;
+    }
+
+    private LogSegment getCurrentSegment()
+    {
+        return (LogSegment) m_segments.get(m_segments.size() - 1);
+    }
+
+    /**
+     * Deletes the oldest segments beyond the maximum number.
+     */
+    private void trim()
+    {
+        while (m_segments.size() > m_maxSegments)
+        {
+            LogSegment oldest = (LogSegment) m_segments.remove(0);
+            delete(oldest.getFile());
+        }
+    }
+
+    private File getSegmentFile(final long id)
+    {
+        String name = Long.toString(id);
+        StringBuffer buffer = new StringBuffer(SEGMENT_PREFIX);
+        for (int i = name.length(); i < 10; ++i)
+        {
+            buffer.append('0');
+        }
+        buffer.append(name).append(SEGMENT_SUFFIX);
+        return new File(m_directory, buffer.toString());
+    }
+
+    private static long getSegmentId(final File file)
+    {
+        String name = file.getName();
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+        {
+            try
+            {
+                return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length()
+                    - SEGMENT_SUFFIX.length()));
+            }
+            catch (NumberFormatException e)
+            {
+                // not a segment
+            }
+        }
+        return -1;
+    }
+
+    private static void delete(final File file)
+    {
+        // a file still mapped by a running query cannot be deleted on some platforms
+        if (!file.delete())
+        {
+            file.deleteOnExit();
+        }
+    }
+
+    private static String getStackTrace(final Throwable exception)
+    {
+        if (exception == null)
+        {
+            return null;
+        }
+
+        StringWriter writer = new StringWriter();
+        exception.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    private static byte[] toBytes(final String string)
+    {
+        if (string == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            byte[] bytes = string.getBytes("UTF-8");
+            if (bytes.length > MAX_STRING_SIZE)
+            {
+                byte[] truncated = new byte[MAX_STRING_SIZE];
+                System.arraycopy(bytes, 0, truncated, 0, MAX_STRING_SIZE);
+                bytes = truncated;
+            }
+            return bytes;
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported
+            return string.getBytes();
+        }
+    }
+
+    /**
+     * Iterator reading the entries matching a query from the segments, one
+     * segment after the other.
+     */
+    private final class QueryIterator implements Iterator
+    {
+        private final Object[] m_querySegments;
+        private final long m_bundleId;
+        private final int m_level;
+        private final long m_from;
+        private final long m_to;
+        private int m_index = -1;
+        private LogSegment m_segment;
+        private ByteBuffer m_view;
+        private LogSegment.Cursor m_cursor;
+        private StoredLogEntryImpl m_next;
+
+        QueryIterator(final Object[] segments, final long bundleId, final int level, final long from, final long to)
+        {
+            m_querySegments = segments;
+            m_bundleId = bundleId;
+            m_level = level;
+            m_from = from;
+            m_to = to;
+        }
+
+        public boolean hasNext()
+        {
+            while (m_next == null)
+            {
+                int offset = (m_cursor != null) ? m_cursor.next(m_view) : -1;
+                if (offset >= 0)
+                {
+                    m_next = m_segment.read(m_view, offset, m_bundleId, m_level, m_from, m_to, LogStoreImpl.this);
+                }
+                else if (!nextSegment())
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Object next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+
+            Object next = m_next;
+            m_next = null;
+            return next;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Moves to the next segment which may hold matching entries.
+         */
+        private boolean nextSegment()
+        {
+            while (++m_index < m_querySegments.length)
+            {
+                LogSegment segment = (LogSegment) m_querySegments[m_index];
+                if (segment.matches(m_bundleId, m_level, m_from, m_to))
+                {
+                    m_segment = segment;
+                    m_view = segment.view();
+                    m_cursor = segment.cursor(m_bundleId, m_from);
+                    return true;
+                }
+            }
+
+            m_segment = null;
+            m_view = null;
+            m_cursor = null;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import org.apache.felix.log.store.StoredLogEntry;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Implementation of the {@link StoredLogEntry} interface.
+ */
+final class StoredLogEntryImpl implements StoredLogEntry
+{
+    /** The store the entry was read from. */
+    private final LogStoreImpl m_store;
+    /** The system time in milliseconds when the entry was logged. */
+    private final long m_time;
+    /** The id of the bundle which logged the entry. */
+    private final long m_bundleId;
+    /** The symbolic name of the bundle which logged the entry. */
+    private final String m_symbolicName;
+    /** The severity level of the entry. */
+    private final int m_level;
+    /** The message of the entry. */
+    private final String m_message;
+    /** The stack trace of the exception of the entry. */
+    private final String m_exception;
+
+    /**
+     * Create a new instance.
+     * @param store the store the entry was read from
+     * @param time the time of the entry
+     * @param bundleId the id of the bundle which logged the entry
+     * @param symbolicName the symbolic name of the bundle
+     * @param level the severity level of the entry
+     * @param message the message of the entry
+     * @param exception the stack trace of the exception of the entry
+     */
+    StoredLogEntryImpl(final LogStoreImpl store,
+        final long time,
+        final long bundleId,
+        final String symbolicName,
+        final int level,
+        final String message,
+        final String exception)
+    {
+        this.m_store = store;
+        this.m_time = time;
+        this.m_bundleId = bundleId;
+        this.m_symbolicName = symbolicName;
+        this.m_level = level;
+        this.m_message = message;
+        this.m_exception = exception;
+    }
+
+    /**
+     * Returns the bundle which logged the entry, if it is still installed.
+     * @return the bundle, or <code>null</code>
+     */
+    public Bundle getBundle()
+    {
+        return m_store.getBundle(m_bundleId, m_symbolicName);
+    }
+
+    /**
+     * Service references do not outlive the framework run.
+     * @return <code>null</code>
+     */
+    public ServiceReference getServiceReference()
+    {
+        return null;
+    }
+
+    public int getLevel()
+    {
+        return m_level;
+    }
+
+    public String getMessage()
+    {
+        return m_message;
+    }
+
+    /**
+     * The exception is only stored as text.
+     * @return <code>null</code>
+     * @see #getExceptionText()
+     */
+    public Throwable getException()
+    {
+        return null;
+    }
+
+    public long getTime()
+    {
+        return m_time;
+    }
+
+    public long getBundleId()
+    {
+        return m_bundleId;
+    }
+
+    public String getBundleSymbolicName()
+    {
+        return m_symbolicName;
+    }
+
+    public String getExceptionText()
+    {
+        return m_exception;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log.store;
+
+import java.util.Iterator;
+
+/**
+ * Service giving access to the log entries stored on disk.  Unlike the
+ * {@link org.osgi.service.log.LogReaderService}, which only returns the most
+ * recent entries kept in memory, the store keeps the entries of previous runs
+ * of the framework until its files are rotated out.
+ * <p>
+ * The service is registered by the log bundle when the
+ * <code>org.apache.felix.log.store.enabled</code> property is set to
+ * <code>true</code>.
+ */
+public interface LogStore
+{
+    /** The bundle id matching the entries of any bundle. */
+    long ANY_BUNDLE = -1;
+
+    /**
+     * Returns the stored entries matching the given criteria, oldest first.
+     * The entries are read from disk as the iterator advances, so queries
+     * over large stores do not load all entries in memory.
+     * @param bundleId the id of the bundle which logged the entries, or
+     *        {@link #ANY_BUNDLE}
+     * @param level the least severe level of the entries, for example
+     *        {@link org.osgi.service.log.LogService#LOG_WARNING} returns the
+     *        warnings and errors
+     * @param from the earliest time of the entries, in milliseconds
+     * @param to the latest time of the entries, in milliseconds
+     * @return an iterator of the matching {@link StoredLogEntry} objects
+     */
+    Iterator query(long bundleId, int level, long from, long to);
+}
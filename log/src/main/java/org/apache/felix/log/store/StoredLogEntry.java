@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log.store;
+
+import org.osgi.service.log.LogEntry;
+
+/**
+ * A log entry read from the {@link LogStore}.  The entry may have been logged
+ * by a previous run of the framework: {@link #getBundle()} only returns the
+ * bundle if it is still installed, {@link #getServiceReference()} and
+ * {@link #getException()} always return <code>null</code>.  The identity of
+ * the bundle and the stack trace of the exception are kept as text instead.
+ */
+public interface StoredLogEntry extends LogEntry
+{
+    /**
+     * Returns the id of the bundle which logged the entry.
+     * @return the bundle id, or {@link LogStore#ANY_BUNDLE} if the entry has
+     *         no bundle
+     */
+    long getBundleId();
+
+    /**
+     * Returns the symbolic name of the bundle which logged the entry.
+     * @return the symbolic name, or <code>null</code> if it is unknown
+     */
+    String getBundleSymbolicName();
+
+    /**
+     * Returns the stack trace of the exception associated with the entry.
+     * @return the stack trace, or <code>null</code> if there is no exception
+     */
+    String getExceptionText();
+}
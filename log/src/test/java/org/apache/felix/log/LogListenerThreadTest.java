@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogListener;
+import org.osgi.service.log.LogService;
+
+/**
+ * Tests the delivery of the entries to the listeners by the
+ * {@link LogListenerThread}.
+ */
+public class LogListenerThreadTest extends TestCase
+{
+    private static final long WAIT = 5000;
+
+    /** The entries received by all the listeners, prefixed with the name of the listener. */
+    private final List m_received = new ArrayList();
+    private LogListenerThread m_thread;
+
+    protected void tearDown() throws Exception
+    {
+        if (m_thread != null)
+        {
+            m_thread.shutdown();
+            m_thread.join(WAIT);
+        }
+    }
+
+    public void testEntriesAreDeliveredInBatches() throws Exception
+    {
+        m_thread = new LogListenerThread(1000);
+        RecordingListener first = new RecordingListener("a");
+        m_thread.addListener(first);
+        m_thread.addListener(new RecordingListener("b"));
+        m_thread.start();
+
+        first.block();
+        m_thread.addEntry(createEntry("0"));
+        waitForEntries(1);
+        for (int i = 1; i < 100; ++i)
+        {
+            m_thread.addEntry(createEntry(Integer.toString(i)));
+        }
+        first.unblock();
+
+        // a full batch is delivered to the first listener before the second one gets any entry
+        List expected = new ArrayList();
+        addRange(expected, "a", 0, 64);
+        addRange(expected, "b", 0, 64);
+        addRange(expected, "a", 64, 100);
+        addRange(expected, "b", 64, 100);
+        assertEquals(expected, waitForEntries(200));
+    }
+
+    public void testDroppedEntriesAreCounted() throws Exception
+    {
+        m_thread = new LogListenerThread(5);
+        RecordingListener listener = new RecordingListener("a");
+        m_thread.addListener(listener);
+        m_thread.start();
+
+        listener.block();
+        m_thread.addEntry(createEntry("0"));
+        waitForEntries(1);
+        for (int i = 1; i <= 10; ++i)
+        {
+            m_thread.addEntry(createEntry(Integer.toString(i)));
+        }
+        listener.unblock();
+
+        // the batch being delivered goes on, the warning starts the next one
+        List expected = new ArrayList();
+        addRange(expected, "a", 0, 6);
+        expected.add("a 5 log entries were not delivered because the listener did not keep up");
+        assertEquals(expected, waitForEntries(7));
+
+        // the dropped entries are only reported once
+        m_thread.addEntry(createEntry("11"));
+        expected.add("a 11");
+        assertEquals(expected, waitForEntries(8));
+    }
+
+    public void testRemovedListenerGetsNoEntries() throws Exception
+    {
+        m_thread = new LogListenerThread(10);
+        RecordingListener first = new RecordingListener("a");
+        m_thread.addListener(first);
+        m_thread.addListener(new RecordingListener("b"));
+        m_thread.start();
+
+        m_thread.addEntry(createEntry("0"));
+        waitForEntries(2);
+        m_thread.removeListener(first);
+        assertEquals(1, m_thread.getListenerCount());
+        m_thread.addEntry(createEntry("1"));
+
+        List received = waitForEntries(3);
+        assertEquals("b 1", received.get(2));
+        Thread.sleep(100);
+        assertEquals(3, getReceived().size());
+    }
+
+    private List waitForEntries(final int count) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + WAIT;
+        synchronized (m_received)
+        {
+            long now;
+            while (m_received.size() < count && (now = System.currentTimeMillis()) < end)
+            {
+                m_received.wait(end - now);
+            }
+            assertEquals(count, m_received.size());
+            return new ArrayList(m_received);
+        }
+    }
+
+    private List getReceived()
+    {
+        synchronized (m_received)
+        {
+            return new ArrayList(m_received);
+        }
+    }
+
+    private static void addRange(final List list, final String name, final int from, final int to)
+    {
+        for (int i = from; i < to; ++i)
+        {
+            list.add(name + " " + i);
+        }
+    }
+
+    private static LogEntry createEntry(final String message)
+    {
+        return new LogEntryImpl(null, null, LogService.LOG_INFO, message, null);
+    }
+
+    /**
+     * A listener recording the entries it receives, which can be blocked
+     * after it received an entry.
+     */
+    private final class RecordingListener implements LogListener
+    {
+        private final String m_name;
+        private boolean m_blocked;
+
+        RecordingListener(final String name)
+        {
+            m_name = name;
+        }
+
+        public void logged(final LogEntry entry)
+        {
+            synchronized (m_received)
+            {
+                m_received.add(m_name + " " + entry.getMessage());
+                m_received.notifyAll();
+                while (m_blocked)
+                {
+                    try
+                    {
+                        m_received.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+
+        void block()
+        {
+            synchronized (m_received)
+            {
+                m_blocked = true;
+            }
+        }
+
+        void unblock()
+        {
+            synchronized (m_received)
+            {
+                m_blocked = false;
+                m_received.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.log.store.LogStore;
+import org.osgi.service.log.LogService;
+
+/**
+ * Tests the format and the recovery of the {@link LogSegment} files.
+ */
+public class LogSegmentTest extends TestCase
+{
+    private File m_file;
+
+    protected void setUp() throws Exception
+    {
+        m_file = File.createTempFile("segment", ".log");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        m_file.delete();
+    }
+
+    public void testAppendedRecordsAreRecovered() throws Exception
+    {
+        LogSegment segment = createSegment(3);
+        assertEquals(3, count(segment));
+
+        LogSegment reopened = LogSegment.open(m_file, 0, false);
+        assertEquals(3, count(reopened));
+        StoredLogEntryImpl entry = read(reopened, 1);
+        assertEquals(101, entry.getTime());
+        assertEquals(7, entry.getBundleId());
+        assertEquals("bundle", entry.getBundleSymbolicName());
+        assertEquals("message 1", entry.getMessage());
+        assertNull(entry.getExceptionText());
+    }
+
+    public void testFullSegmentRefusesRecords() throws Exception
+    {
+        LogSegment segment = LogSegment.create(m_file, 0, 64);
+        assertTrue(append(segment, 0));
+        assertFalse(append(segment, 1));
+        assertEquals(1, count(segment));
+    }
+
+    public void testTruncatedFileIsRecovered() throws Exception
+    {
+        createSegment(3).force();
+        int end = offset(LogSegment.open(m_file, 0, false), 2) + 10;
+
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        try
+        {
+            raf.setLength(end);
+        }
+        finally
+        {
+            raf.close();
+        }
+        assertEquals(2, count(LogSegment.open(m_file, 0, false)));
+    }
+
+    public void testRecordWithInvalidStringsIsNotRecovered() throws Exception
+    {
+        createSegment(3).force();
+        int offset = offset(LogSegment.open(m_file, 0, false), 2);
+
+        // the length of the last record reached the disk, but not its strings
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        try
+        {
+            raf.seek(offset + 24);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        finally
+        {
+            raf.close();
+        }
+        LogSegment segment = LogSegment.open(m_file, 0, false);
+        assertEquals(2, count(segment));
+        assertEquals("message 1", read(segment, 1).getMessage());
+    }
+
+    public void testReopenedSegmentIsAppended() throws Exception
+    {
+        createSegment(3).force();
+        int offset = offset(LogSegment.open(m_file, 0, false), 2);
+
+        // the last record was torn before the restart
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        try
+        {
+            raf.seek(offset + 24);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        finally
+        {
+            raf.close();
+        }
+        LogSegment segment = LogSegment.open(m_file, 0, true);
+        assertEquals(2, count(segment));
+        assertTrue(append(segment, 3));
+        segment.force();
+
+        segment = LogSegment.open(m_file, 0, false);
+        assertEquals(3, count(segment));
+        assertEquals("message 3", read(segment, 2).getMessage());
+        assertFalse(append(segment, 4));
+    }
+
+    public void testRejectsOtherFiles() throws Exception
+    {
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        try
+        {
+            raf.writeLong(0);
+        }
+        finally
+        {
+            raf.close();
+        }
+        try
+        {
+            LogSegment.open(m_file, 0, false);
+            fail("The file is not a log segment");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    private LogSegment createSegment(final int records) throws IOException
+    {
+        LogSegment segment = LogSegment.create(m_file, 0, 4096);
+        for (int i = 0; i < records; ++i)
+        {
+            assertTrue(append(segment, i));
+        }
+        return segment;
+    }
+
+    private boolean append(final LogSegment segment, final int i) throws IOException
+    {
+        return segment.append(100 + i, 7, LogService.LOG_INFO, "bundle".getBytes("UTF-8"),
+            ("message " + i).getBytes("UTF-8"), null);
+    }
+
+    private int count(final LogSegment segment)
+    {
+        int count = 0;
+        ByteBuffer view = segment.view();
+        LogSegment.Cursor cursor = segment.cursor(LogStore.ANY_BUNDLE, Long.MIN_VALUE);
+        while (cursor.next(view) >= 0)
+        {
+            ++count;
+        }
+        return count;
+    }
+
+    private int offset(final LogSegment segment, final int index)
+    {
+        ByteBuffer view = segment.view();
+        LogSegment.Cursor cursor = segment.cursor(LogStore.ANY_BUNDLE, Long.MIN_VALUE);
+        int offset = cursor.next(view);
+        for (int i = 0; i < index; ++i)
+        {
+            offset = cursor.next(view);
+        }
+        return offset;
+    }
+
+    private StoredLogEntryImpl read(final LogSegment segment, final int index)
+    {
+        return segment.read(segment.view(), offset(segment, index), LogStore.ANY_BUNDLE, LogService.LOG_DEBUG,
+            Long.MIN_VALUE, Long.MAX_VALUE, null);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.log.store.LogStore;
+import org.apache.felix.log.store.StoredLogEntry;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+
+/**
+ * Tests the storage, rotation and queries of the {@link LogStoreImpl}.
+ */
+public class LogStoreImplTest extends TestCase
+{
+    private File m_directory;
+
+    protected void setUp() throws Exception
+    {
+        m_directory = File.createTempFile("store", "dir");
+        m_directory.delete();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        File[] files = m_directory.listFiles();
+        for (int i = 0; files != null && i < files.length; ++i)
+        {
+            files[i].delete();
+        }
+        m_directory.delete();
+    }
+
+    public void testQueryFilters() throws Exception
+    {
+        LogStoreImpl store = openStore(64 * 1024, 4, true);
+        Bundle first = createBundle(1, "first");
+        Bundle second = createBundle(2, "second");
+        store.logged(createEntry(100, first, LogService.LOG_ERROR, "error"));
+        store.logged(createEntry(200, second, LogService.LOG_WARNING, "warning"));
+        store.logged(createEntry(300, first, LogService.LOG_INFO, "info"));
+        store.logged(createEntry(400, null, LogService.LOG_DEBUG, "debug"));
+
+        assertEquals("[error, warning, info, debug]", query(store, LogStore.ANY_BUNDLE, LogService.LOG_DEBUG, 0, 1000));
+        assertEquals("[error, warning]", query(store, LogStore.ANY_BUNDLE, LogService.LOG_WARNING, 0, 1000));
+        assertEquals("[error, info]", query(store, 1, LogService.LOG_DEBUG, 0, 1000));
+        assertEquals("[warning]", query(store, 2, LogService.LOG_DEBUG, 0, 1000));
+        assertEquals("[]", query(store, 3, LogService.LOG_DEBUG, 0, 1000));
+        assertEquals("[warning, info]", query(store, LogStore.ANY_BUNDLE, LogService.LOG_DEBUG, 200, 300));
+        assertEquals("[info]", query(store, 1, LogService.LOG_INFO, 150, 1000));
+
+        StoredLogEntry entry = (StoredLogEntry) store.query(2, LogService.LOG_DEBUG, 0, 1000).next();
+        assertEquals(200, entry.getTime());
+        assertEquals(2, entry.getBundleId());
+        assertEquals("second", entry.getBundleSymbolicName());
+        assertEquals(LogService.LOG_WARNING, entry.getLevel());
+    }
+
+    public void testDebugEntriesAreSkipped() throws Exception
+    {
+        LogStoreImpl store = openStore(64 * 1024, 4, false);
+        store.logged(createEntry(100, null, LogService.LOG_DEBUG, "debug"));
+        store.logged(createEntry(200, null, LogService.LOG_INFO, "info"));
+        assertEquals("[info]", query(store, LogStore.ANY_BUNDLE, LogService.LOG_DEBUG, 0, 1000));
+    }
+
+    public void testExceptionIsStored() throws Exception
+    {
+        LogStoreImpl store = openStore(64 * 1024, 4, true);
+        LogEntry entry = new LogEntryImpl(null, null, LogService.LOG_ERROR, "failed", new IllegalStateException("cause"));
+        store.logged(entry);
+        StoredLogEntry stored = (StoredLogEntry) store.query(LogStore.ANY_BUNDLE, LogService.LOG_DEBUG, 0,
+            Long.MAX_VALUE).next();
+        assertTrue(stored.getExceptionText().startsWith(IllegalStateException.class.getName() + ": cause"));
+    }
+
+    public void testRotateAndTrim() throws Exception
+    {
+        LogStoreImpl store = openStore(1024, 3, true);
+        for (int i = 0; i < 100; ++i)
+        {
+            store.logged(createEntry(i, null, LogService.LOG_INFO, "message " + i));
+        }
+        assertEquals(3, m_directory.listFiles().length);
+
+        // the oldest entries have been deleted with their segments
+        List times = new ArrayList();
+        for (Iterator it = store.query(LogStore.ANY_BUNDLE, LogService.LOG_DEBUG, 0, 1000); it.hasNext();)
+        {
+            times.add(new Long(((LogEntry) it.next()).getTime()));
+        }
+        assertFalse(times.isEmpty());
+        assertTrue(((Long) times.get(0)).longValue() > 0);
+        assertEquals(99, ((Long) times.get(times.size() - 1)).longValue());
+        for (int i = 1; i < times.size(); ++i)
+        {
+            assertEquals(((Long) times.get(i - 1)).longValue() + 1, ((Long) times.get(i)).longValue());
+        }
+    }
+
+    public void testEntriesOfPreviousRunsAreKept() throws Exception
+    {
+        LogStoreImpl store = openStore(64 * 1024, 4, true);
+        store.logged(createEntry(100, null, LogService.LOG_INFO, "before"));
+        store.close();
+        store.logged(createEntry(150, null, LogService.LOG_INFO, "closed"));
+
+        store = openStore(64 * 1024, 4, true);
+        store.logged(createEntry(200, null, LogService.LOG_INFO, "after"));
+        assertEquals(1, m_directory.listFiles().length);
+        assertEquals("[before, after]", query(store, LogStore.ANY_BUNDLE, LogService.LOG_DEBUG, 0, 1000));
+    }
+
+    public void testRestartsDoNotStartSegments() throws Exception
+    {
+        LogStoreImpl store = null;
+        for (int i = 0; i < 10; ++i)
+        {
+            store = openStore(64 * 1024, 3, true);
+            store.logged(createEntry(i, null, LogService.LOG_INFO, "run " + i));
+            store.close();
+        }
+        assertEquals(1, m_directory.listFiles().length);
+        assertEquals(10, query(store, LogStore.ANY_BUNDLE, LogService.LOG_DEBUG, 0, 1000).split(",").length);
+    }
+
+    public void testReopenedSegmentIsRotatedWhenFull() throws Exception
+    {
+        LogStoreImpl store = openStore(1024, 3, true);
+        for (int i = 0; i < 10; ++i)
+        {
+            store.logged(createEntry(i, null, LogService.LOG_INFO, "message " + i));
+        }
+        store.close();
+        assertEquals(1, m_directory.listFiles().length);
+
+        store = openStore(1024, 3, true);
+        for (int i = 10; i < 30; ++i)
+        {
+            store.logged(createEntry(i, null, LogService.LOG_INFO, "message " + i));
+        }
+        assertEquals(2, m_directory.listFiles().length);
+        assertEquals(30, query(store, LogStore.ANY_BUNDLE, LogService.LOG_DEBUG, 0, 1000).split(",").length);
+    }
+
+    private LogStoreImpl openStore(final int segmentSize, final int segments, final boolean storeDebug)
+        throws Exception
+    {
+        LogStoreImpl store = new LogStoreImpl(null, m_directory, segmentSize, segments, storeDebug);
+        store.open();
+        return store;
+    }
+
+    private static String query(final LogStore store, final long bundleId, final int level, final long from,
+        final long to)
+    {
+        List messages = new ArrayList();
+        for (Iterator it = store.query(bundleId, level, from, to); it.hasNext();)
+        {
+            messages.add(((LogEntry) it.next()).getMessage());
+        }
+        return messages.toString();
+    }
+
+    private static Bundle createBundle(final long id, final String symbolicName)
+    {
+        return (Bundle) Proxy.newProxyInstance(LogStoreImplTest.class.getClassLoader(), new Class[] { Bundle.class },
+            new InvocationHandler()
+            {
+                public Object invoke(final Object proxy, final Method method, final Object[] args)
+                {
+                    if (method.getName().equals("getBundleId"))
+                    {
+                        return new Long(id);
+                    }
+                    if (method.getName().equals("getSymbolicName"))
+                    {
+                        return symbolicName;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private static LogEntry createEntry(final long time, final Bundle bundle, final int level, final String message)
+    {
+        return new LogEntry()
+        {
+            public Bundle getBundle()
+            {
+                return bundle;
+            }
+
+            public ServiceReference getServiceReference()
+            {
+                return null;
+            }
+
+            public int getLevel()
+            {
+                return level;
+            }
+
+            public String getMessage()
+            {
+                return message;
+            }
+
+            public Throwable getException()
+            {
+                return null;
+            }
+
+            public long getTime()
+            {
+                return time;
+            }
+        };
+    }
+}
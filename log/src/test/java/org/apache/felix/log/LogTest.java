@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+
+/**
+ * Tests the historic entries kept by the {@link Log}, both in the ring
+ * buffer of a bounded log and in the list of an unbounded log.
+ */
+public class LogTest extends TestCase
+{
+    private static final int THREADS = 4;
+    private static final int ENTRIES = 10000;
+
+    public void testRingOverwritesOldestEntries()
+    {
+        Log log = new Log(3, false, 10);
+        assertEquals("[]", getMessages(log).toString());
+        for (int i = 0; i < 5; ++i)
+        {
+            log.addEntry(createEntry(LogService.LOG_INFO, "message " + i));
+        }
+        assertEquals("[message 4, message 3, message 2]", getMessages(log).toString());
+
+        log.addEntry(createEntry(LogService.LOG_INFO, "message 5"));
+        assertEquals("[message 5, message 4, message 3]", getMessages(log).toString());
+    }
+
+    public void testDebugEntriesAreSkipped()
+    {
+        Log log = new Log(3, false, 10);
+        log.addEntry(createEntry(LogService.LOG_INFO, "info"));
+        log.addEntry(createEntry(LogService.LOG_DEBUG, "debug"));
+        assertEquals("[info]", getMessages(log).toString());
+
+        log = new Log(3, true, 10);
+        log.addEntry(createEntry(LogService.LOG_INFO, "info"));
+        log.addEntry(createEntry(LogService.LOG_DEBUG, "debug"));
+        assertEquals("[debug, info]", getMessages(log).toString());
+    }
+
+    public void testNoHistoryIsKept()
+    {
+        Log log = new Log(0, true, 10);
+        log.addEntry(createEntry(LogService.LOG_INFO, "info"));
+        assertEquals("[]", getMessages(log).toString());
+    }
+
+    public void testConcurrentRingKeepsMostRecentEntries() throws Exception
+    {
+        Log log = new Log(100, false, 10);
+        addConcurrently(log);
+
+        // each slot holds the most recent of the entries written to it
+        List messages = getMessages(log);
+        assertEquals(100, messages.size());
+        assertEquals(100, new HashSet(messages).size());
+        int[] last = new int[THREADS];
+        for (int i = 0; i < messages.size(); ++i)
+        {
+            String[] message = ((String) messages.get(i)).split(" ");
+            int thread = Integer.parseInt(message[0]);
+            int index = Integer.parseInt(message[1]);
+            assertTrue(index >= ENTRIES - 100);
+            // the entries of a thread are most recent first
+            assertTrue(last[thread] == 0 || index < last[thread]);
+            last[thread] = index;
+        }
+    }
+
+    public void testUnboundedLogKeepsAllEntries() throws Exception
+    {
+        Log log = new Log(-1, false, 10);
+        addConcurrently(log);
+
+        List messages = getMessages(log);
+        assertEquals(THREADS * ENTRIES, messages.size());
+        Set unique = new HashSet(messages);
+        assertEquals(THREADS * ENTRIES, unique.size());
+        int[] next = new int[THREADS];
+        for (int i = 0; i < THREADS; ++i)
+        {
+            next[i] = ENTRIES - 1;
+        }
+        for (int i = 0; i < messages.size(); ++i)
+        {
+            String[] message = ((String) messages.get(i)).split(" ");
+            int thread = Integer.parseInt(message[0]);
+            assertEquals(next[thread]--, Integer.parseInt(message[1]));
+        }
+    }
+
+    private static void addConcurrently(final Log log) throws InterruptedException
+    {
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; ++i)
+        {
+            final int thread = i;
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    for (int j = 0; j < ENTRIES; ++j)
+                    {
+                        log.addEntry(createEntry(LogService.LOG_INFO, thread + " " + j));
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < THREADS; ++i)
+        {
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; ++i)
+        {
+            threads[i].join();
+        }
+    }
+
+    private static List getMessages(final Log log)
+    {
+        List messages = new ArrayList();
+        for (Enumeration e = log.getEntries(); e.hasMoreElements();)
+        {
+            messages.add(((LogEntry) e.nextElement()).getMessage());
+        }
+        return messages;
+    }
+
+    private static LogEntry createEntry(final int level, final String message)
+    {
+        return new LogEntryImpl(null, null, level, message, null);
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.webconsole.internal.core;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.felix.webconsole.internal.Util;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+
+
+/**
+ * The <code>BundleSummaryCache</code> keeps the manifest data shown in the
+ * bundle list, so that it is not read again from the bundles on each request,
+ * and counts the bundle and service events in a generation number.
+ * <p>
+ * Each bundle remembers the generation of its last change and the ids of
+ * the uninstalled bundles are kept for a while, so that a client knowing an
+ * older generation may be sent only the bundles which have changed since.
+ */
+class BundleSummaryCache implements BundleListener, ServiceListener
+{
+
+    /** the sort keys supported by {@link #sort(Bundle[], Locale, String, boolean)} */
+    static final String SORT_NAME = "name";
+    static final String SORT_ID = "id";
+    static final String SORT_STATE = "state";
+    static final String SORT_VERSION = "version";
+    static final String SORT_SYMBOLIC_NAME = "symbolicName";
+    static final String SORT_CATEGORY = "category";
+
+    // maximum number of uninstalled bundles remembered for the deltas
+    private static final int MAX_REMOVED = 256;
+
+    private final BundleContext bundleContext;
+
+    // distinguishes the generations of this cache from the ones of an
+    // earlier instance, for example before the Web Console was restarted
+    private final String epoch;
+
+    // bundle id -> Summary
+    private final Map summaries = new HashMap();
+
+    // bundle id -> generation of the last change
+    private final Map changes = new HashMap();
+
+    // bundle id -> generation of the removal, oldest first
+    private final LinkedHashMap removed = new LinkedHashMap();
+
+    private long generation;
+
+    // deltas since an older generation are not available any more
+    private long horizon;
+
+
+    BundleSummaryCache( final BundleContext bundleContext )
+    {
+        this.bundleContext = bundleContext;
+        this.epoch = Long.toString( System.currentTimeMillis(), 36 );
+    }
+
+
+    void open()
+    {
+        bundleContext.addBundleListener( this );
+        bundleContext.addServiceListener( this );
+    }
+
+
+    void close()
+    {
+        bundleContext.removeServiceListener( this );
+        bundleContext.removeBundleListener( this );
+
+        synchronized ( this )
+        {
+            summaries.clear();
+        }
+    }
+
+
+    /**
+     * Returns the current generation as a token which may be sent back to
+     * {@link #getGeneration(String)}, for example as the value of an
+     * <code>ETag</code> header.
+     */
+    synchronized String getToken()
+    {
+        return epoch + '-' + generation;
+    }
+
+
+    /**
+     * Returns the generation of a token returned by {@link #getToken()}, or
+     * <code>-1</code> if the token is not valid or if the changes since that
+     * generation are not known any more.
+     */
+    synchronized long getGeneration( final String token )
+    {
+        if ( token == null || !token.startsWith( epoch + '-' ) )
+        {
+            return -1;
+        }
+
+        final long gen;
+        try
+        {
+            gen = Long.parseLong( token.substring( epoch.length() + 1 ) );
+        }
+        catch ( NumberFormatException nfe )
+        {
+            return -1;
+        }
+
+        return ( gen < horizon || gen > generation ) ? -1 : gen;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the bundle has changed after the given generation.
+     */
+    synchronized boolean isChanged( final Bundle bundle, final long gen )
+    {
+        final Long changed = ( Long ) changes.get( new Long( bundle.getBundleId() ) );
+        return changed != null && changed.longValue() > gen;
+    }
+
+
+    /**
+     * Returns the ids of the bundles uninstalled after the given generation.
+     */
+    synchronized long[] getRemoved( final long gen )
+    {
+        final List ids = new ArrayList();
+        for ( Iterator ri = removed.entrySet().iterator(); ri.hasNext(); )
+        {
+            final Map.Entry entry = ( Map.Entry ) ri.next();
+            if ( ( ( Long ) entry.getValue() ).longValue() > gen )
+            {
+                ids.add( entry.getKey() );
+            }
+        }
+
+        final long[] result = new long[ids.size()];
+        for ( int i = 0; i < result.length; i++ )
+        {
+            result[i] = ( ( Long ) ids.get( i ) ).longValue();
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the summary of the bundle, reading it from the bundle if it
+     * is not cached yet.
+     */
+    Summary getSummary( final Bundle bundle )
+    {
+        final Long key = new Long( bundle.getBundleId() );
+        final Object lastChange;
+        synchronized ( this )
+        {
+            final Summary summary = ( Summary ) summaries.get( key );
+            if ( summary != null && summary.bundle == bundle )
+            {
+                return summary;
+            }
+            lastChange = changes.get( key );
+        }
+
+        // read the headers without holding the lock, which is also
+        // acquired by the service events delivered synchronously
+        final Summary summary = new Summary( bundle );
+        synchronized ( this )
+        {
+            // do not keep the summary if the bundle has changed meanwhile
+            if ( changes.get( key ) == lastChange && bundle.getState() != Bundle.UNINSTALLED )
+            {
+                summaries.put( key, summary );
+            }
+        }
+        return summary;
+    }
+
+
+    /**
+     * Orders the bundles by the given key. Bundles with the same value of the
+     * key are ordered by name like {@link Util#sort(Bundle[], Locale)} does,
+     * which is also the order used for unknown keys.
+     */
+    void sort( final Bundle[] bundles, final Locale locale, final String key, final boolean descending )
+    {
+        final Summary[] entries = new Summary[bundles.length];
+        for ( int i = 0; i < entries.length; i++ )
+        {
+            entries[i] = getSummary( bundles[i] );
+        }
+
+        Arrays.sort( entries, new SummaryComparator( locale, key, descending ) );
+
+        for ( int i = 0; i < entries.length; i++ )
+        {
+            bundles[i] = entries[i].bundle;
+        }
+    }
+
+
+    // ---------- BundleListener
+
+    /**
+     * @see org.osgi.framework.BundleListener#bundleChanged(org.osgi.framework.BundleEvent)
+     */
+    public synchronized void bundleChanged( final BundleEvent event )
+    {
+        final Long key = new Long( event.getBundle().getBundleId() );
+        final Long gen = new Long( ++generation );
+        switch ( event.getType() )
+        {
+            case BundleEvent.UNINSTALLED:
+                summaries.remove( key );
+                changes.remove( key );
+                removed.put( key, gen );
+                if ( removed.size() > MAX_REMOVED )
+                {
+                    final Iterator ri = removed.values().iterator();
+                    horizon = ( ( Long ) ri.next() ).longValue();
+                    ri.remove();
+                }
+                return;
+
+            case BundleEvent.UPDATED:
+            case BundleEvent.UNRESOLVED:
+                // the manifest may have changed
+                summaries.remove( key );
+                break;
+        }
+        changes.put( key, gen );
+    }
+
+
+    // ---------- ServiceListener
+
+    /**
+     * @see org.osgi.framework.ServiceListener#serviceChanged(org.osgi.framework.ServiceEvent)
+     */
+    public synchronized void serviceChanged( final ServiceEvent event )
+    {
+        // the services are part of the bundle details only, but the
+        // generation is also used to validate the details sent to clients
+        final ServiceReference ref = event.getServiceReference();
+        final Bundle bundle = ref.getBundle();
+        final Long gen = new Long( ++generation );
+        if ( bundle != null )
+        {
+            changes.put( new Long( bundle.getBundleId() ), gen );
+        }
+    }
+
+
+    /**
+     * The manifest data of a bundle shown in the bundle list
+     */
+    static final class Summary
+    {
+        final Bundle bundle;
+        final boolean fragment;
+        final String version;
+        final String symbolicName;
+        final String category;
+
+        private final Version parsedVersion;
+
+        // locale -> name of the bundle
+        private final Map names = new HashMap();
+
+
+        Summary( final Bundle bundle )
+        {
+            this.bundle = bundle;
+            this.fragment = bundle.getHeaders().get( Constants.FRAGMENT_HOST ) != null;
+            this.version = Util.getHeaderValue( bundle, Constants.BUNDLE_VERSION );
+            this.symbolicName = Util.getHeaderValue( bundle, Constants.BUNDLE_SYMBOLICNAME );
+            this.category = Util.getHeaderValue( bundle, Constants.BUNDLE_CATEGORY );
+
+            Version v;
+            try
+            {
+                v = Version.parseVersion( version );
+            }
+            catch ( IllegalArgumentException iae )
+            {
+                v = Version.emptyVersion;
+            }
+            this.parsedVersion = v;
+        }
+
+
+        synchronized String getName( final Locale locale )
+        {
+            final String key = String.valueOf( locale );
+            String name = ( String ) names.get( key );
+            if ( name == null )
+            {
+                name = Util.getName( bundle, locale );
+                names.put( key, name );
+            }
+            return name;
+        }
+
+
+        /**
+         * Returns <code>true</code> if the text is found, ignoring case, in
+         * the id, name, symbolic name, version or category of the bundle.
+         *
+         * @param text the text to look for, in lower case
+         */
+        boolean matches( final String text, final Locale locale )
+        {
+            return String.valueOf( bundle.getBundleId() ).equals( text )
+                || getName( locale ).toLowerCase().indexOf( text ) >= 0
+                || symbolicName.toLowerCase().indexOf( text ) >= 0
+                || version.toLowerCase().indexOf( text ) >= 0
+                || category.toLowerCase().indexOf( text ) >= 0;
+        }
+    }
+
+
+    private static final class SummaryComparator implements Comparator
+    {
+        private final Locale locale;
+        private final String key;
+        private final boolean descending;
+
+
+        SummaryComparator( final Locale locale, final String key, final boolean descending )
+        {
+            this.locale = locale;
+            this.key = key;
+            this.descending = descending;
+        }
+
+
+        public int compare( Object o1, Object o2 )
+        {
+            final int result = compare( ( Summary ) o1, ( Summary ) o2 );
+            return descending ? -result : result;
+        }
+
+
+        private int compare( final Summary s1, final Summary s2 )
+        {
+            final long id1 = s1.bundle.getBundleId();
+            final long id2 = s2.bundle.getBundleId();
+            if ( id1 == id2 )
+            {
+                return 0;
+            }
+
+            int comp = 0;
+            if ( SORT_ID.equals( key ) )
+            {
+                return ( id1 < id2 ) ? -1 : 1;
+            }
+            else if ( SORT_STATE.equals( key ) )
+            {
+                comp = s1.bundle.getState() - s2.bundle.getState();
+            }
+            else if ( SORT_VERSION.equals( key ) )
+            {
+                comp = s1.parsedVersion.compareTo( s2.parsedVersion );
+            }
+            else if ( SORT_SYMBOLIC_NAME.equals( key ) )
+            {
+                comp = s1.symbolicName.compareToIgnoreCase( s2.symbolicName );
+            }
+            else if ( SORT_CATEGORY.equals( key ) )
+            {
+                comp = s1.category.compareToIgnoreCase( s2.category );
+            }
+            if ( comp != 0 )
+            {
+                return comp;
+            }
+
+            // the system bundle is always first when sorting by name
+            if ( id1 == 0 )
+            {
+                return -1;
+            }
+            else if ( id2 == 0 )
+            {
+                return 1;
+            }
+
+            comp = s1.getName( locale ).compareToIgnoreCase( s2.getName( locale ) );
+            if ( comp != 0 )
+            {
+                return comp;
+            }
+
+            comp = s1.parsedVersion.compareTo( s2.parsedVersion );
+            if ( comp != 0 )
+            {
+                return comp;
+            }
+
+            return ( id1 < id2 ) ? -1 : 1;
+        }
+    }
+}
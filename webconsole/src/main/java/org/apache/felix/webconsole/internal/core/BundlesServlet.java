@@ -60,6 +60,14 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     // an LDAP filter, that is used to search manifest headers, see FELIX-1441
     private static final String FILTER_PARAM = "filter";
 
+    // parameters of the bundle list in JSON format, see ListQuery
+    private static final String SINCE_PARAM = "since";
+    private static final String TEXT_PARAM = "q";
+    private static final String SORT_PARAM = "sort";
+    private static final String DESC_PARAM = "desc";
+    private static final String OFFSET_PARAM = "offset";
+    private static final String COUNT_PARAM = "count";
+
     private static final String FIELD_STARTLEVEL = "bundlestartlevel";
 
     private static final String FIELD_START = "bundlestart";
@@ -82,6 +90,9 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
 
     private ServiceRegistration configurationPrinter;
 
+    // see #activate and #writeJSON
+    private BundleSummaryCache summaryCache;
+
     // templates
     private final String TEMPLATE_MAIN;
 
@@ -101,6 +112,9 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     {
         super.activate( bundleContext );
 
+        summaryCache = new BundleSummaryCache( bundleContext );
+        summaryCache.open();
+
         // bootdelegation property parsing from Apache Felix R4SearchPolicyCore
         String bootDelegation = bundleContext.getProperty( Constants.FRAMEWORK_BOOTDELEGATION );
         bootDelegation = ( bootDelegation == null ) ? "java.*" : bootDelegation + ",java.*";
@@ -136,6 +150,11 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             configurationPrinter = null;
         }
 
+        if ( summaryCache != null )
+        {
+            summaryCache.close();
+        }
+
         super.deactivate();
     }
 
@@ -150,7 +169,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         try
         {
             StringWriter w = new StringWriter();
-            writeJSON( w, null, null, null, true, Locale.ENGLISH, null, null );
+            writeJSON( w, null, null, null, true, Locale.ENGLISH, null, null, null );
             String jsonString = w.toString();
             JSONObject json = new JSONObject( jsonString );
 
@@ -230,9 +249,26 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         {
             final String pluginRoot = ( String ) request.getAttribute( WebConsoleConstants.ATTR_PLUGIN_ROOT );
             final String servicesRoot = getServicesRoot( request );
+
+            // the generation changes with each bundle or service event, which
+            // covers the list but not all bundle details, like the start level
+            if ( reqInfo.bundle == null )
+            {
+                final String etag = "\"" + summaryCache.getToken() + "-" + request.getLocale() + "\"";
+                if ( etag.equals( request.getHeader( "If-None-Match" ) ) )
+                {
+                    response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+                    return;
+                }
+                response.setHeader( "ETag", etag );
+                response.setHeader( "Vary", "Accept-Language" );
+            }
+            response.setHeader( "Cache-Control", "no-cache" );
+
             try
             {
-                this.renderJSON(response, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), null );
+                final ListQuery query = ListQuery.parse( request );
+                this.renderJSON(response, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), query, null );
             }
             catch (InvalidSyntaxException e)
             {
@@ -374,7 +410,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             final String servicesRoot = getServicesRoot( req );
             try
             {
-                this.renderJSON( resp, null, pluginRoot, servicesRoot, req.getLocale(), req.getParameter(FILTER_PARAM), bundleException );
+                this.renderJSON( resp, null, pluginRoot, servicesRoot, req.getLocale(), req.getParameter(FILTER_PARAM), null, bundleException );
             }
             catch (InvalidSyntaxException e)
             {
@@ -485,57 +521,113 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         response.getWriter().print(TEMPLATE_MAIN);
     }
 
-    private void renderJSON( final HttpServletResponse response, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final BundleException be )
+    private void renderJSON( final HttpServletResponse response, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final ListQuery query, final BundleException be )
         throws IOException, InvalidSyntaxException
     {
         response.setContentType( "application/json" );
         response.setCharacterEncoding( "UTF-8" );
 
         final PrintWriter pw = response.getWriter();
-        writeJSON(pw, bundle, pluginRoot, servicesRoot, locale, filter, be);
+        writeJSON(pw, bundle, pluginRoot, servicesRoot, false, locale, filter, query, be);
     }
 
 
     private void writeJSON( final Writer pw, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final BundleException be )
         throws IOException, InvalidSyntaxException
     {
-        writeJSON( pw, bundle, pluginRoot, servicesRoot, false, locale, filter, be );
+        writeJSON( pw, bundle, pluginRoot, servicesRoot, false, locale, filter, null, be );
     }
 
 
     private void writeJSON( final Writer pw, final Bundle bundle, final String pluginRoot,
-        final String servicesRoot, final boolean fullDetails, final Locale locale, final String filter, final BundleException be ) throws IOException, InvalidSyntaxException
+        final String servicesRoot, final boolean fullDetails, final Locale locale, final String filter, final ListQuery query, final BundleException be ) throws IOException, InvalidSyntaxException
     {
+        // get the generation first, so that changes made while the bundles
+        // are listed are sent again to clients asking for the later changes
+        final String generation = summaryCache.getToken();
+        final long since = ( bundle == null && query != null ) ? summaryCache.getGeneration( query.since ) : -1;
+
         final Bundle[] allBundles = this.getBundles();
         final Object[] status = getStatusLine(allBundles);
         final String statusLine = (String) status[5];
         // filter bundles by headers
         final Bundle[] bundles;
+        final long[] removed;
         if (bundle != null)
         {
             bundles = new Bundle[] { bundle };
+            removed = null;
         }
-        else if (filter != null)
+        else if (filter != null || query != null)
         {
-            Filter f = getBundleContext().createFilter(filter);
+            Filter f = ( filter == null ) ? null : getBundleContext().createFilter(filter);
+            final String text = ( query == null || query.text == null ) ? null : query.text.toLowerCase();
             ArrayList list = new ArrayList(allBundles.length);
+            ArrayList dropped = new ArrayList();
             final String localeString = locale.toString();
             for (int i = 0, size = allBundles.length; i < size; i++)
             {
-                if (f.match(allBundles[i].getHeaders(localeString)))
+                // only send the bundles changed since the generation known to the client
+                if (since >= 0 && !summaryCache.isChanged(allBundles[i], since))
+                {
+                    continue;
+                }
+
+                if ((f == null || f.match(allBundles[i].getHeaders(localeString)))
+                    && (text == null || summaryCache.getSummary(allBundles[i]).matches(text, locale)))
                 {
                     list.add(allBundles[i]);
                 }
+                else if (since >= 0)
+                {
+                    // the bundle does not match the filter any more
+                    dropped.add(new Long(allBundles[i].getBundleId()));
+                }
             }
             bundles = new Bundle[list.size()];
             list.toArray(bundles);
+
+            if (since >= 0)
+            {
+                final long[] uninstalled = summaryCache.getRemoved(since);
+                removed = new long[uninstalled.length + dropped.size()];
+                System.arraycopy(uninstalled, 0, removed, 0, uninstalled.length);
+                for (int i = 0; i < dropped.size(); i++)
+                {
+                    removed[uninstalled.length + i] = ((Long) dropped.get(i)).longValue();
+                }
+            }
+            else
+            {
+                removed = null;
+            }
         }
         else
         {
             bundles = allBundles;
+            removed = null;
         }
 
-        Util.sort( bundles, locale );
+        if ( query != null )
+        {
+            summaryCache.sort( bundles, locale, query.sort, query.descending );
+        }
+        else
+        {
+            summaryCache.sort( bundles, locale, null, false );
+        }
+
+        // the requested page of the bundles
+        int first = 0;
+        int last = bundles.length;
+        if ( query != null && query.offset > 0 )
+        {
+            first = Math.min( query.offset, bundles.length );
+        }
+        if ( query != null && query.count >= 0 )
+        {
+            last = Math.min( bundles.length, first + query.count );
+        }
 
         final JSONWriter jw = new JSONWriter( pw );
 
@@ -555,6 +647,27 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             jw.key( "status" );
             jw.value( statusLine );
 
+            // to ask for the later changes only
+            jw.key( "generation" );
+            jw.value( generation );
+
+            if ( query != null )
+            {
+                jw.key( "total" );
+                jw.value( bundles.length );
+            }
+
+            if ( removed != null )
+            {
+                jw.key( "removed" );
+                jw.array();
+                for ( int i = 0; i < removed.length; i++ )
+                {
+                    jw.value( removed[i] );
+                }
+                jw.endArray();
+            }
+
             // add raw status
             jw.key( "s" );
             jw.array();
@@ -565,7 +678,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
 
             jw.array();
 
-            for ( int i = 0; i < bundles.length; i++ )
+            for ( int i = first; i < last; i++ )
             {
                 bundleInfo( jw, bundles[i], fullDetails || bundle != null, pluginRoot, servicesRoot, locale );
             }
@@ -652,23 +765,25 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     private void bundleInfo( JSONWriter jw, Bundle bundle, boolean details, final String pluginRoot, final String servicesRoot, final Locale locale )
         throws JSONException
     {
+        final BundleSummaryCache.Summary summary = summaryCache.getSummary( bundle );
+
         jw.object();
         jw.key( "id" );
         jw.value( bundle.getBundleId() );
         jw.key( "name" );
-        jw.value( Util.getName( bundle, locale ) );
+        jw.value( summary.getName( locale ) );
         jw.key( "fragment" );
-        jw.value( isFragmentBundle(bundle) );
+        jw.value( summary.fragment );
         jw.key( "stateRaw" );
         jw.value( bundle.getState() );
         jw.key( "state" );
         jw.value( toStateString( bundle ) );
         jw.key( "version" );
-        jw.value( Util.getHeaderValue(bundle, Constants.BUNDLE_VERSION) );
+        jw.value( summary.version );
         jw.key( "symbolicName" );
-        jw.value( Util.getHeaderValue(bundle, Constants.BUNDLE_SYMBOLICNAME) );
+        jw.value( summary.symbolicName );
         jw.key( "category" );
-        jw.value( Util.getHeaderValue(bundle, Constants.BUNDLE_CATEGORY) );
+        jw.value( summary.category );
 
         if ( details )
         {
@@ -712,7 +827,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
 
     private final boolean isFragmentBundle( Bundle bundle)
     {
-        return getPackageAdmin().getBundleType( bundle ) == PackageAdmin.BUNDLE_TYPE_FRAGMENT;
+        return summaryCache.getSummary( bundle ).fragment;
     }
 
     private final void bundleDetails( JSONWriter jw, Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale)
@@ -1393,6 +1508,70 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
 
     }
 
+    /**
+     * The optional parameters of a request for the bundle list in JSON
+     * format: the generation of the last list known to the client, a text to
+     * look for, the sort order and the page of the list to return.
+     */
+    static final class ListQuery
+    {
+        public final String since;
+        public final String text;
+        public final String sort;
+        public final boolean descending;
+        public final int offset;
+        public final int count;
+
+        ListQuery( final String since, final String text, final String sort, final boolean descending,
+            final int offset, final int count )
+        {
+            this.since = since;
+            this.text = text;
+            this.sort = sort;
+            this.descending = descending;
+            this.offset = offset;
+            this.count = count;
+        }
+
+        /**
+         * Returns the query of the request or <code>null</code> if it has
+         * none of the parameters, in which case the whole list is returned
+         * as before.
+         */
+        static ListQuery parse( final HttpServletRequest request )
+        {
+            final String since = request.getParameter( SINCE_PARAM );
+            final String text = request.getParameter( TEXT_PARAM );
+            final String sort = request.getParameter( SORT_PARAM );
+            final String desc = request.getParameter( DESC_PARAM );
+            final String offset = request.getParameter( OFFSET_PARAM );
+            final String count = request.getParameter( COUNT_PARAM );
+            if ( since == null && text == null && sort == null && desc == null && offset == null && count == null )
+            {
+                return null;
+            }
+
+            return new ListQuery( since, ( text == null || text.length() == 0 ) ? null : text, sort,
+                Boolean.valueOf( desc ).booleanValue(), parseInt( offset, 0 ), parseInt( count, -1 ) );
+        }
+
+        private static int parseInt( final String value, final int defaultValue )
+        {
+            if ( value != null )
+            {
+                try
+                {
+                    return Math.max( defaultValue, Integer.parseInt( value ) );
+                }
+                catch ( NumberFormatException nfe )
+                {
+                    // use the default
+                }
+            }
+            return defaultValue;
+        }
+    }
+
     static final RequestInfo getRequestInfo(final HttpServletRequest request)
     {
         return (RequestInfo)request.getAttribute( BundlesServlet.class.getName() );
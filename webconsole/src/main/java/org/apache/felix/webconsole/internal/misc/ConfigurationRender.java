@@ -34,6 +34,7 @@ import org.apache.felix.webconsole.*;
 import org.apache.felix.webconsole.internal.OsgiManagerPlugin;
 import org.apache.felix.webconsole.internal.i18n.ResourceBundleManager;
 import org.osgi.framework.*;
+import org.osgi.service.log.LogService;
 import org.osgi.util.tracker.ServiceTracker;
 
 
@@ -58,6 +59,18 @@ public class ConfigurationRender extends SimpleWebConsolePlugin implements OsgiM
     private static final DateFormat DISPLAY_DATE_FORMAT = DateFormat.getDateTimeInstance( DateFormat.LONG,
         DateFormat.LONG, Locale.US );
 
+    /**
+     * The maximum number of configuration printers called at the same time
+     * when rendering the text or zip status.
+     */
+    private static final int PRINTER_THREADS = 4;
+
+    /**
+     * The time after which the output of a configuration printer is not
+     * waited for any more, in milliseconds.
+     */
+    private static final long PRINTER_TIMEOUT = 60 * 1000L;
+
     /**
      * The resource bundle manager to allow for status printer title
      * localization
@@ -119,9 +132,25 @@ public class ConfigurationRender extends SimpleWebConsolePlugin implements OsgiM
         if ( request.getPathInfo().endsWith( ".txt" ) )
         {
             response.setContentType( "text/plain; charset=utf-8" );
-            ConfigurationWriter pw = new PlainTextConfigurationWriter( response.getWriter() );
+
+            // compress the text if the client supports it
+            OutputStream out = response.getOutputStream();
+            GZIPOutputStream gzip = null;
+            final String acceptEncoding = request.getHeader( "Accept-Encoding" );
+            if ( acceptEncoding != null && acceptEncoding.toLowerCase().indexOf( "gzip" ) >= 0 )
+            {
+                response.setHeader( "Content-Encoding", "gzip" );
+                response.setHeader( "Vary", "Accept-Encoding" );
+                out = gzip = new GZIPOutputStream( out );
+            }
+
+            ConfigurationWriter pw = new PlainTextConfigurationWriter( out );
             printConfigurationStatus( pw, ConfigurationPrinter.MODE_TXT, getRequestedPrinterName(request) );
             pw.flush();
+            if ( gzip != null )
+            {
+                gzip.finish();
+            }
         }
         else if ( request.getPathInfo().endsWith( ".zip" ) )
         {
@@ -251,6 +280,7 @@ public class ConfigurationRender extends SimpleWebConsolePlugin implements OsgiM
     }
 
     private void printConfigurationStatus( ConfigurationWriter pw, final String mode, final String optionalLabel )
+        throws IOException
     {
         // check if we have printers for that label
         Collection printers = getPrintersForLabel(optionalLabel);
@@ -260,14 +290,42 @@ public class ConfigurationRender extends SimpleWebConsolePlugin implements OsgiM
             printers = getConfigurationPrinters();
         }
 
+        final List tasks = new ArrayList();
         for ( Iterator cpi = printers.iterator(); cpi.hasNext(); )
         {
             final ConfigurationPrinterAdapter desc = (ConfigurationPrinterAdapter) cpi.next();
             if ( desc.match(mode) )
             {
-                printConfigurationPrinter( pw, desc, mode );
+                tasks.add( new PrinterTask( desc, mode ) );
             }
         }
+
+        // the printers are services which may already be called concurrently
+        // by several requests, so they are called in the background while
+        // their output is copied in order, as soon as it is available
+        final PrinterRunner runner = new PrinterRunner( tasks );
+        runner.start( Math.min( PRINTER_THREADS, tasks.size() ) );
+        try
+        {
+            for ( int i = 0; i < tasks.size(); i++ )
+            {
+                final PrinterTask task = ( PrinterTask ) tasks.get( i );
+                pw.title( task.desc.title );
+                if ( !pw.copy( task.output, PRINTER_TIMEOUT ) )
+                {
+                    pw.println();
+                    pw.println( "Configuration Printer timed out after " + ( PRINTER_TIMEOUT / 1000 ) + " seconds" );
+                    pw.println();
+                    log( LogService.LOG_WARNING, "Configuration Printer " + task.desc + " timed out" );
+                    runner.abandon( task );
+                }
+                pw.end();
+            }
+        }
+        finally
+        {
+            runner.close();
+        }
     }
 
     private final synchronized List getConfigurationPrinters()
@@ -440,12 +498,158 @@ public class ConfigurationRender extends SimpleWebConsolePlugin implements OsgiM
         return res.getString( title.substring( 1 ) );
     }
 
+    /**
+     * A configuration printer called in the background, see
+     * {@link ConfigurationRender#printConfigurationStatus(ConfigurationWriter, String, String)}
+     */
+    private final class PrinterTask
+    {
+        final ConfigurationPrinterAdapter desc;
+        final String mode;
+        final PrinterOutput output = new PrinterOutput();
+        Thread thread;
+
+
+        PrinterTask( final ConfigurationPrinterAdapter desc, final String mode )
+        {
+            this.desc = desc;
+            this.mode = mode;
+        }
+
+
+        void run()
+        {
+            output.start();
+            try
+            {
+                final PrintWriter pw = new PrintWriter( new OutputStreamWriter( output, "UTF-8" ) );
+                try
+                {
+                    desc.printConfiguration( pw, mode );
+                }
+                catch ( Throwable t )
+                {
+                    pw.println();
+                    pw.println( "Configuration Printer failed: " + t.toString() );
+                    pw.println();
+                    log( "Configuration Printer " + desc + " failed", t );
+                }
+                pw.flush();
+            }
+            catch ( UnsupportedEncodingException uee )
+            {
+                // not expected, UTF-8 is always supported
+            }
+            finally
+            {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the printer tasks, in order, with a bounded number of threads
+     */
+    private static final class PrinterRunner implements Runnable
+    {
+        private final List tasks;
+        private int next;
+        private int threads;
+        private boolean closed;
+
+
+        PrinterRunner( final List tasks )
+        {
+            this.tasks = tasks;
+        }
+
+
+        void start( final int count )
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                startThread();
+            }
+        }
+
+
+        /**
+         * Gives up waiting for a task: its output is discarded and another
+         * thread is started in place of the one still running the task.
+         */
+        synchronized void abandon( final PrinterTask task )
+        {
+            task.output.discard();
+            if ( task.thread != null )
+            {
+                task.thread.interrupt();
+            }
+            if ( next < tasks.size() )
+            {
+                startThread();
+            }
+        }
+
+
+        /**
+         * Discards the output of all tasks and stops starting new ones.
+         */
+        synchronized void close()
+        {
+            closed = true;
+            for ( int i = 0; i < tasks.size(); i++ )
+            {
+                ( ( PrinterTask ) tasks.get( i ) ).output.discard();
+            }
+        }
+
+
+        public void run()
+        {
+            for ( PrinterTask task = next(); task != null; task = next() )
+            {
+                task.run();
+            }
+        }
+
+
+        private synchronized void startThread()
+        {
+            final Thread thread = new Thread( this, "Configuration Printer " + threads++ );
+            thread.setDaemon( true );
+            thread.start();
+        }
+
+
+        private synchronized PrinterTask next()
+        {
+            if ( closed || next >= tasks.size() )
+            {
+                return null;
+            }
+            final PrinterTask task = ( PrinterTask ) tasks.get( next++ );
+            task.thread = Thread.currentThread();
+            return task;
+        }
+    }
+
     private abstract static class ConfigurationWriter extends PrintWriter
     {
 
+        // the stream the delegatee writes to, if any
+        private final OutputStream out;
+
+
         ConfigurationWriter( Writer delegatee )
+        {
+            this( delegatee, null );
+        }
+
+
+        ConfigurationWriter( Writer delegatee, OutputStream out )
         {
             super( delegatee );
+            this.out = out;
         }
 
 
@@ -455,6 +659,21 @@ public class ConfigurationRender extends SimpleWebConsolePlugin implements OsgiM
         abstract void end();
 
 
+        /**
+         * Copies the output of a printer, encoded in UTF-8, to the stream
+         * of this writer.
+         *
+         * @return <code>false</code> if the printer has timed out
+         */
+        boolean copy( final PrinterOutput output, final long timeout ) throws IOException
+        {
+            flush();
+            final boolean complete = output.copyTo( out, timeout );
+            out.flush();
+            return complete;
+        }
+
+
         public void handleAttachments( final String title, final URL[] urls ) throws IOException
         {
             throw new UnsupportedOperationException( "handleAttachments not supported by this configuration writer: "
@@ -575,9 +794,9 @@ public class ConfigurationRender extends SimpleWebConsolePlugin implements OsgiM
     private static class PlainTextConfigurationWriter extends ConfigurationWriter
     {
 
-        PlainTextConfigurationWriter( Writer delegatee )
+        PlainTextConfigurationWriter( OutputStream out ) throws UnsupportedEncodingException
         {
-            super( delegatee );
+            super( new OutputStreamWriter( out, "UTF-8" ), out );
         }
 
 
@@ -602,9 +821,9 @@ public class ConfigurationRender extends SimpleWebConsolePlugin implements OsgiM
         private int counter;
 
 
-        ZipConfigurationWriter( ZipOutputStream zip )
+        ZipConfigurationWriter( ZipOutputStream zip ) throws UnsupportedEncodingException
         {
-            super( new OutputStreamWriter( zip ) );
+            super( new OutputStreamWriter( zip, "UTF-8" ), zip );
             this.zip = zip;
         }
 
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.webconsole.internal.misc;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The <code>PrinterOutput</code> collects the output of a configuration
+ * printer running in the background, while it is being copied to the
+ * response by the request thread.
+ * <p>
+ * The output is kept in memory until it is copied, up to a limit after which
+ * it is written to a temporary file, so that printers running ahead of the
+ * one being copied do not hold their whole output in memory.
+ */
+class PrinterOutput extends OutputStream
+{
+
+    // number of bytes kept in memory before using a temporary file
+    static final int MEMORY_LIMIT = 256 * 1024;
+
+    private final int memoryLimit;
+
+    // the chunks written and not copied yet
+    private final List chunks = new ArrayList();
+
+    // number of bytes in the chunks
+    private int memory;
+
+    private File tempFile;
+
+    private RandomAccessFile file;
+
+    // number of bytes written to and copied from the file
+    private long fileLength;
+    private long filePosition;
+
+    // the time at which the printer has been started, zero if it has not
+    private long startTime;
+
+    private boolean done;
+
+    private boolean discarded;
+
+
+    PrinterOutput()
+    {
+        this( MEMORY_LIMIT );
+    }
+
+
+    PrinterOutput( final int memoryLimit )
+    {
+        this.memoryLimit = memoryLimit;
+    }
+
+
+    /**
+     * Called by the thread running the printer before it is called.
+     */
+    synchronized void start()
+    {
+        startTime = System.currentTimeMillis();
+        notifyAll();
+    }
+
+
+    /**
+     * Called by the thread running the printer once it has returned.
+     */
+    public synchronized void close()
+    {
+        done = true;
+        notifyAll();
+    }
+
+
+    public void write( final int b ) throws IOException
+    {
+        write( new byte[]
+            { ( byte ) b }, 0, 1 );
+    }
+
+
+    public synchronized void write( final byte[] b, final int off, final int len ) throws IOException
+    {
+        if ( discarded || done )
+        {
+            throw new IOException( "Output closed" );
+        }
+
+        if ( file == null && memory + len <= memoryLimit )
+        {
+            final byte[] chunk = new byte[len];
+            System.arraycopy( b, off, chunk, 0, len );
+            chunks.add( chunk );
+            memory += len;
+        }
+        else
+        {
+            if ( file == null )
+            {
+                tempFile = File.createTempFile( "configuration", ".txt" );
+                file = new RandomAccessFile( tempFile, "rw" );
+            }
+            file.seek( fileLength );
+            file.write( b, off, len );
+            fileLength += len;
+        }
+        notifyAll();
+    }
+
+
+    /**
+     * Copies the output to the stream as it is written, until the printer
+     * has returned or has been running for longer than the timeout.
+     *
+     * @return <code>true</code> if the whole output has been copied,
+     *      <code>false</code> if the printer has timed out
+     */
+    boolean copyTo( final OutputStream out, final long timeout ) throws IOException
+    {
+        final byte[] buffer = new byte[8192];
+        while ( true )
+        {
+            byte[] data = null;
+            int len = 0;
+            synchronized ( this )
+            {
+                while ( data == null )
+                {
+                    if ( !chunks.isEmpty() )
+                    {
+                        data = ( byte[] ) chunks.remove( 0 );
+                        len = data.length;
+                        memory -= len;
+                    }
+                    else if ( filePosition < fileLength )
+                    {
+                        len = ( int ) Math.min( buffer.length, fileLength - filePosition );
+                        file.seek( filePosition );
+                        file.readFully( buffer, 0, len );
+                        filePosition += len;
+                        data = buffer;
+                    }
+                    else if ( done )
+                    {
+                        return true;
+                    }
+                    else
+                    {
+                        // the timeout starts when the printer is called
+                        long wait = 0;
+                        if ( startTime > 0 )
+                        {
+                            wait = startTime + timeout - System.currentTimeMillis();
+                            if ( wait <= 0 )
+                            {
+                                return false;
+                            }
+                        }
+
+                        try
+                        {
+                            wait( wait );
+                        }
+                        catch ( InterruptedException ie )
+                        {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                    }
+                }
+            }
+
+            // write without holding the lock, so that the printer can go on
+            out.write( data, 0, len );
+        }
+    }
+
+
+    /**
+     * Releases the output. Further output of the printer is ignored.
+     */
+    synchronized void discard()
+    {
+        discarded = true;
+        chunks.clear();
+        memory = 0;
+        if ( file != null )
+        {
+            try
+            {
+                file.close();
+            }
+            catch ( IOException ioe )
+            {
+                // ignore
+            }
+            file = null;
+        }
+        if ( tempFile != null )
+        {
+            tempFile.delete();
+            tempFile = null;
+        }
+        notifyAll();
+    }
+}
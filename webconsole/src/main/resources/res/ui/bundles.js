@@ -22,8 +22,18 @@ var bundlesTemplate = false;
 var bundleOpError   = false;
 var bundleOpSuccess = false;
 
+// filters of the rendered list, used again when applying the changes
+var lastFilter = false;
+var ldapFilter = false;
+
+// interval of polling for the changes of the list, in ms
+var pollInterval = 5000;
+// tag of the last polled list, the first poll after loading sends none
+var lastETag = false;
+
 function renderData( eventData, filter )  {
 	lastBundleData = eventData;
+	lastFilter = filter;
 	var s = eventData.s;
     $('.statline').html(i18n.statline.msgFormat(s[0], s[1], s[2], s[3], s[4]));
 	bundlesBody.empty();
@@ -52,10 +62,12 @@ function renderData( eventData, filter )  {
 }
 
 function entry( /* Object */ bundle, filter ) {
-	var matches = !(filter && typeof filter.test == 'function') ? true :
-		filter.test(bundle.id) || filter.test(bundle.name) || filter.test(bundle.symbolicName) || filter.test(bundle.version) || filter.test(bundle.category);
+	if (entryMatches( bundle, filter )) entryInternal( bundle ).appendTo(bundlesBody);
+}
 
-	if (matches) entryInternal( bundle ).appendTo(bundlesBody);
+function entryMatches( /* Object */ bundle, filter ) {
+	return !(filter && typeof filter.test == 'function') ? true :
+		filter.test(bundle.id) || filter.test(bundle.name) || filter.test(bundle.symbolicName) || filter.test(bundle.version) || filter.test(bundle.category);
 }
 
 function hasStart(b) { return (!b.fragment) && (b.stateRaw == 2 || b.stateRaw == 4) } // !isFragment && (installed | resolved)
@@ -106,9 +118,83 @@ function entrySetupState( /* Object */ bundle, tr, id) {
 }
 
 function loadData() {
+    ldapFilter = false;
     $.get(pluginRoot + "/.json", null, renderData, "json"); 
 }
 
+function pollData() {
+	var generation = lastBundleData.generation;
+	if (drawDetails || !generation) return;
+
+	var params = { 'since' : generation };
+	if (ldapFilter) params.filter = ldapFilter;
+	$.ajax({
+		url        : pluginRoot + '/.json',
+		data       : params,
+		dataType   : 'text', // the body is empty if nothing has changed
+		beforeSend : function(xhr) { if (lastETag) xhr.setRequestHeader('If-None-Match', lastETag) },
+		complete   : function(xhr) {
+			var etag = xhr.getResponseHeader('ETag');
+			if (etag) lastETag = etag;
+		},
+		success    : function(text) {
+			// ignore the answer if the list has been loaded again meanwhile
+			if (!text || generation != lastBundleData.generation) return;
+			var data = eval('(' + text + ')');
+			if (data.removed) {
+				applyChanges(data);
+			} else { // the changes are not known any more
+				renderData(data, lastFilter);
+			}
+		}
+	});
+}
+
+function applyChanges( eventData ) {
+	var s = eventData.s;
+	$('.statline').html(i18n.statline.msgFormat(s[0], s[1], s[2], s[3], s[4]));
+
+	var entries = lastBundleData.data;
+	for ( var idx in eventData.removed ) {
+		var id = eventData.removed[idx];
+		bundlesBody.find('#entry' + id).remove();
+		for ( var i = entries.length - 1; i >= 0; i-- ) {
+			if (entries[i].id == id) entries.splice(i, 1);
+		}
+	}
+	for ( var idx in eventData.data ) {
+		var bundle = eventData.data[idx];
+		var known = false;
+		for ( var i = 0; i < entries.length && !known; i++ ) {
+			if (entries[i].id == bundle.id) {
+				entries[i] = bundle;
+				known = true;
+			}
+		}
+		if (!known) entries.push(bundle);
+
+		var tr = bundlesBody.find('#entry' + bundle.id);
+		if (!entryMatches( bundle, lastFilter )) {
+			tr.remove();
+		} else if (tr.length) {
+			tr.replaceWith( entryInternal(bundle) );
+			if (currentBundle == bundle.id) showDetails(bundle.id);
+		} else {
+			entryInternal( bundle ).appendTo(bundlesBody);
+		}
+	}
+	lastBundleData.s = eventData.s;
+	lastBundleData.status = eventData.status;
+	lastBundleData.generation = eventData.generation;
+	initStaticWidgets(bundlesBody);
+
+	bundlesTable.trigger('update');
+	var cv = getCookie("bundlelist");
+	if (cv) {
+	    bundlesTable.trigger('sorton', [cv]);
+	}
+}
+
 function changeDataEntryState(/* long */ id, /* String */ action) {
     $.post(pluginRoot + '/' + id, {'action':action}, function(b) {
 		var _tr = bundlesBody.find('#entry' + id);
@@ -250,7 +336,10 @@ $(document).ready(function(){
 		if ($(this).hasClass('ui-state-disabled')) return;
 		var el = $(this).parent().find('input.filter');
 		var filter = el.val();
-		if (filter) $.get(pluginRoot + '/.json', { 'filter' : filter }, renderData, 'json');
+		if (filter) $.get(pluginRoot + '/.json', { 'filter' : filter }, function(data) {
+			ldapFilter = filter;
+			renderData(data);
+		}, 'json');
 		return false;
 	});
 
@@ -283,5 +372,6 @@ $(document).ready(function(){
 	bundlesTemplate = bundlesBody.find('tr').clone();
 
 	renderData(lastBundleData);
+	setInterval(pollData, pollInterval);
 });
 
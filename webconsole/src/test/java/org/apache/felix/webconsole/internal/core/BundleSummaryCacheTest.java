@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.webconsole.internal.core;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+
+
+public class BundleSummaryCacheTest extends TestCase
+{
+
+    private BundleSummaryCache cache;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        // the listeners are called directly, the context is not used
+        cache = new BundleSummaryCache( null );
+    }
+
+
+    public void test_getGeneration()
+    {
+        final String token = cache.getToken();
+        assertEquals( 0, cache.getGeneration( token ) );
+
+        cache.bundleChanged( new BundleEvent( BundleEvent.STARTED, createBundle( 1, "a", "1.0" ) ) );
+        assertEquals( 0, cache.getGeneration( token ) );
+        assertEquals( 1, cache.getGeneration( cache.getToken() ) );
+
+        // tokens of another epoch or from the future are not known
+        assertEquals( -1, cache.getGeneration( null ) );
+        assertEquals( -1, cache.getGeneration( "x-0" ) );
+        assertEquals( -1, cache.getGeneration( token.substring( 0, token.length() - 1 ) + "2" ) );
+        assertEquals( -1, cache.getGeneration( token.substring( 0, token.length() - 1 ) + "x" ) );
+    }
+
+
+    public void test_changes()
+    {
+        final Bundle a = createBundle( 1, "a", "1.0" );
+        final Bundle b = createBundle( 2, "b", "1.0" );
+        final long start = cache.getGeneration( cache.getToken() );
+
+        cache.bundleChanged( new BundleEvent( BundleEvent.STARTED, a ) );
+        final long afterA = cache.getGeneration( cache.getToken() );
+        cache.bundleChanged( new BundleEvent( BundleEvent.UNINSTALLED, b ) );
+
+        assertTrue( cache.isChanged( a, start ) );
+        assertFalse( cache.isChanged( a, afterA ) );
+        assertFalse( cache.isChanged( b, start ) );
+
+        assertEquals( 1, cache.getRemoved( start ).length );
+        assertEquals( 2, cache.getRemoved( start )[0] );
+        assertEquals( 1, cache.getRemoved( afterA ).length );
+        assertEquals( 0, cache.getRemoved( cache.getGeneration( cache.getToken() ) ).length );
+    }
+
+
+    public void test_removed_horizon()
+    {
+        final String token = cache.getToken();
+        for ( int i = 1; i <= 300; i++ )
+        {
+            cache.bundleChanged( new BundleEvent( BundleEvent.UNINSTALLED, createBundle( i, "b" + i, "1.0" ) ) );
+        }
+
+        // too many bundles have been uninstalled to compute the delta
+        assertEquals( -1, cache.getGeneration( token ) );
+        assertEquals( 1, cache.getRemoved( 299 ).length );
+    }
+
+
+    public void test_summary()
+    {
+        final Bundle a = createBundle( 1, "a", "1.0" );
+        final BundleSummaryCache.Summary summary = cache.getSummary( a );
+        assertSame( summary, cache.getSummary( a ) );
+        assertEquals( "Bundle a", summary.getName( Locale.ENGLISH ) );
+        assertEquals( "1.0", summary.version );
+        assertFalse( summary.fragment );
+        assertTrue( summary.matches( "bundle a", Locale.ENGLISH ) );
+        assertTrue( summary.matches( "1", Locale.ENGLISH ) );
+        assertFalse( summary.matches( "2.0", Locale.ENGLISH ) );
+
+        // the manifest may change on update
+        cache.bundleChanged( new BundleEvent( BundleEvent.UPDATED, a ) );
+        assertTrue( summary != cache.getSummary( a ) );
+    }
+
+
+    public void test_sort()
+    {
+        final Bundle system = createBundle( 0, "z", "1.0" );
+        final Bundle a2 = createBundle( 3, "a", "2.0" );
+        final Bundle a1 = createBundle( 4, "a", "1.0" );
+        final Bundle b = createBundle( 2, "b", "0.5" );
+
+        final Bundle[] bundles = new Bundle[] { b, a2, system, a1 };
+        cache.sort( bundles, Locale.ENGLISH, null, false );
+        assertSame( system, bundles[0] );
+        assertSame( a1, bundles[1] );
+        assertSame( a2, bundles[2] );
+        assertSame( b, bundles[3] );
+
+        cache.sort( bundles, Locale.ENGLISH, BundleSummaryCache.SORT_ID, true );
+        assertSame( a1, bundles[0] );
+        assertSame( system, bundles[3] );
+
+        cache.sort( bundles, Locale.ENGLISH, BundleSummaryCache.SORT_VERSION, false );
+        assertSame( b, bundles[0] );
+        assertSame( system, bundles[1] );
+        assertSame( a1, bundles[2] );
+        assertSame( a2, bundles[3] );
+    }
+
+
+    private static Bundle createBundle( final long id, final String symbolicName, final String version )
+    {
+        final Hashtable headers = new Hashtable();
+        headers.put( Constants.BUNDLE_NAME, "Bundle " + symbolicName );
+        headers.put( Constants.BUNDLE_SYMBOLICNAME, symbolicName );
+        headers.put( Constants.BUNDLE_VERSION, version );
+
+        return ( Bundle ) Proxy.newProxyInstance( Bundle.class.getClassLoader(), new Class[]
+            { Bundle.class }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                final String name = method.getName();
+                if ( "getBundleId".equals( name ) )
+                {
+                    return new Long( id );
+                }
+                else if ( "getHeaders".equals( name ) )
+                {
+                    return headers;
+                }
+                else if ( "getSymbolicName".equals( name ) )
+                {
+                    return symbolicName;
+                }
+                else if ( "getState".equals( name ) )
+                {
+                    return new Integer( Bundle.ACTIVE );
+                }
+                else if ( "hashCode".equals( name ) )
+                {
+                    return new Integer( System.identityHashCode( proxy ) );
+                }
+                else if ( "equals".equals( name ) )
+                {
+                    return Boolean.valueOf( proxy == args[0] );
+                }
+                return null;
+            }
+        } );
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.webconsole.internal.misc;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+
+public class PrinterOutputTest extends TestCase
+{
+
+    public void test_copy_memory_and_file() throws Exception
+    {
+        // a limit of 4 bytes, the remaining output goes to a file
+        final PrinterOutput output = new PrinterOutput( 4 );
+        output.start();
+        output.write( "abc".getBytes() );
+        output.write( "defgh".getBytes() );
+        output.write( 'i' );
+        output.close();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue( output.copyTo( out, 1000 ) );
+        assertEquals( "abcdefghi", out.toString() );
+        output.discard();
+    }
+
+
+    public void test_copy_while_written() throws Exception
+    {
+        final PrinterOutput output = new PrinterOutput();
+        final Thread printer = new Thread()
+        {
+            public void run()
+            {
+                output.start();
+                try
+                {
+                    for ( int i = 0; i < 100; i++ )
+                    {
+                        output.write( ( i + "\n" ).getBytes() );
+                        Thread.sleep( 1 );
+                    }
+                }
+                catch ( Exception e )
+                {
+                    // the test fails below
+                }
+                output.close();
+            }
+        };
+        printer.start();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue( output.copyTo( out, 10000 ) );
+        assertEquals( 290, out.size() );
+        assertTrue( out.toString().endsWith( "98\n99\n" ) );
+    }
+
+
+    public void test_timeout() throws Exception
+    {
+        final PrinterOutput output = new PrinterOutput();
+        output.start();
+        output.write( "partial".getBytes() );
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertFalse( output.copyTo( out, 50 ) );
+        assertEquals( "partial", out.toString() );
+
+        // the printer can not write anymore once discarded
+        output.discard();
+        try
+        {
+            output.write( "more".getBytes() );
+            fail( "expected IOException" );
+        }
+        catch ( IOException ioe )
+        {
+            // expected
+        }
+    }
+}